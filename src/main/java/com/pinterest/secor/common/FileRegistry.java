@@ -27,6 +27,7 @@ import org.apache.hadoop.io.compress.CompressionCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.*;
 
@@ -34,21 +35,41 @@ import java.util.*;
  * FileRegistry keeps track of local log files currently being appended to and the associated
  * writers.
  *
+ * Files are grouped by topic partition group.  Every group keeps the aggregated length of its
+ * writers and the creation times of its oldest and youngest writers up to date as files are
+ * created, written, and deleted, so that upload policy checks do not have to visit every file.
+ *
+ * If secor.max.open.writers is set, opening a writer beyond the limit closes the least recently
+ * written one.  Closed files cannot be appended to, so the topic partitions of evicted writers
+ * are reported by {@link #pollEvictedTopicPartitions()} and have to be uploaded before anything
+ * else is written to them.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class FileRegistry {
     private static final Logger LOG = LoggerFactory.getLogger(FileRegistry.class);
 
     private final SecorConfig mConfig;
-    private HashMap<TopicPartitionGroup, HashSet<LogFilePath>> mFiles;
-    private HashMap<LogFilePath, FileWriter> mWriters;
-    private HashMap<LogFilePath, Long> mCreationTimes;
+    private final boolean mFileAgeYoungest;
+    private HashMap<TopicPartitionGroup, GroupFiles> mFiles;
+    // In access order, updated on every write.
+    private LinkedHashMap<LogFilePath, WriterEntry> mWriters;
+    // Files of the single partition group resolved last by peekSize.  Writes mostly arrive in
+    // runs of the same topic partition.
+    private TopicPartition mLastTopicPartition;
+    private GroupFiles mLastFiles;
+    private final int mMaxOpenWriters;
+    private final LinkedHashSet<TopicPartition> mEvictedTopicPartitions = new LinkedHashSet<TopicPartition>();
+    // Incremented whenever a writer is closed.
+    private long mWritersVersion;
+    private final LocalFileTracker mLocalFiles = new LocalFileTracker();
 
     public FileRegistry(SecorConfig mConfig) {
         this.mConfig = mConfig;
-        mFiles = new HashMap<TopicPartitionGroup, HashSet<LogFilePath>>();
-        mWriters = new HashMap<LogFilePath, FileWriter>();
-        mCreationTimes = new HashMap<LogFilePath, Long>();
+        mFileAgeYoungest = mConfig.getFileAgeYoungest();
+        mFiles = new HashMap<TopicPartitionGroup, GroupFiles>();
+        mWriters = new LinkedHashMap<LogFilePath, WriterEntry>(16, 0.75f, true);
+        mMaxOpenWriters = mConfig.getMaxOpenWriters();
     }
 
     /**
@@ -56,23 +77,15 @@ public class FileRegistry {
      * @return Collection of all registered topic partitions.
      */
     public Collection<TopicPartition> getTopicPartitions() {
-        Collection<TopicPartitionGroup> topicPartitions = getTopicPartitionGroups();
         Set<TopicPartition> tps = new HashSet<TopicPartition>();
-        if (topicPartitions != null) {
-            for (TopicPartitionGroup g : topicPartitions) {
-                tps.addAll(g.getTopicPartitions());
-            }
+        for (TopicPartitionGroup g : mFiles.keySet()) {
+            tps.addAll(g.getTopicPartitions());
         }
         return tps;
     }
 
     public Collection<TopicPartitionGroup> getTopicPartitionGroups() {
-        Set<TopicPartitionGroup> topicPartitions = mFiles.keySet();
-        Set<TopicPartitionGroup> tps = new HashSet<TopicPartitionGroup>();
-        if (topicPartitions != null) {
-            tps.addAll(topicPartitions);
-        }
-        return tps;
+        return new HashSet<TopicPartitionGroup>(mFiles.keySet());
     }
 
     /**
@@ -90,11 +103,11 @@ public class FileRegistry {
      * @return Collection of file paths in the given topic partition.
      */
     public Collection<LogFilePath> getPaths(TopicPartitionGroup topicPartitionGroup) {
-        HashSet<LogFilePath> logFilePaths = mFiles.get(topicPartitionGroup);
-        if (logFilePaths == null) {
+        GroupFiles files = mFiles.get(topicPartitionGroup);
+        if (files == null) {
             return new HashSet<LogFilePath>();
         }
-        return new HashSet<LogFilePath>(logFilePaths);
+        return new HashSet<LogFilePath>(files.mPaths);
     }
 
     /**
@@ -105,7 +118,8 @@ public class FileRegistry {
      */
     public FileWriter getWriter(LogFilePath path)
             throws Exception {
-        return mWriters.get(path);
+        WriterEntry entry = mWriters.get(path);
+        return entry == null ? null : entry.mWriter;
     }
 
     /**
@@ -113,58 +127,204 @@ public class FileRegistry {
      * @param path The path to retrieve writer for.
      * @param codec Optional compression codec.
      * @return Writer for a given path.
+     * @throws IllegalStateException if the path is registered but its writer has been closed
      * @throws Exception on error
      */
     public FileWriter getOrCreateWriter(LogFilePath path, CompressionCodec codec)
             throws Exception {
-        FileWriter writer = mWriters.get(path);
-        if (writer == null) {
+        return getOrCreateWriter(path, codec, System.currentTimeMillis() / 1000L);
+    }
+
+    /**
+     * Retrieve a writer for a given path or create a new one if it does not exist.
+     * @param path The path to retrieve writer for.
+     * @param codec Optional compression codec.
+     * @param creationTime Creation time in seconds registered for a new writer.
+     * @return Writer for a given path.
+     * @throws IllegalStateException if the path is registered but its writer has been closed
+     * @throws Exception on error
+     */
+    public FileWriter getOrCreateWriter(LogFilePath path, CompressionCodec codec, long creationTime)
+            throws Exception {
+        WriterEntry entry = mWriters.get(path);
+        if (entry == null) {
+            TopicPartitionGroup topicPartition = new TopicPartitionGroup(path.getTopic(),
+                    path.getKafkaPartitions());
+            GroupFiles files = mFiles.get(topicPartition);
+            if (files != null && files.mPaths.contains(path)) {
+                // A new writer would truncate the messages of the closed file.  Closed files have
+                // to be uploaded, trimmed, or deleted before their path is written to again.
+                throw new IllegalStateException("File " + path.getLogFilePath() +
+                    " has been closed and cannot be written to again");
+            }
             // Just in case.
             FileUtil.delete(path.getLogFilePath());
             FileUtil.delete(path.getLogFileCrcPath());
-            TopicPartitionGroup topicPartition = new TopicPartitionGroup(path.getTopic(),
-                    path.getKafkaPartitions());
-            HashSet<LogFilePath> files = mFiles.get(topicPartition);
             if (files == null) {
-                files = new HashSet<LogFilePath>();
+                files = new GroupFiles(topicPartition);
                 mFiles.put(topicPartition, files);
             }
-            if (!files.contains(path)) {
-                files.add(path);
+            files.mPaths.add(path);
+            files.mClosedFiles++;
+            while (mMaxOpenWriters > 0 && mWriters.size() >= mMaxOpenWriters) {
+                evictWriter();
             }
-            writer = ReflectionUtil.createFileWriter(mConfig.getFileReaderWriterFactory(), path, codec, mConfig);
-            mWriters.put(path, writer);
-            mCreationTimes.put(path, System.currentTimeMillis() / 1000L);
+            FileWriter writer = ReflectionUtil.createFileWriter(mConfig.getFileReaderWriterFactory(), path, codec,
+                    mConfig);
+            entry = new WriterEntry(path, files, writer, codec != null, creationTime, writer.getLength());
+            mWriters.put(path, entry);
+            files.addWriter(entry);
+            mLocalFiles.track(path);
             LOG.debug("created writer for path {}", path.getLogFilePath());
-            LOG.debug("Register deleteOnExit for path {}", path.getLogFilePath());
-            FileUtil.deleteOnExit(path.getLogFileParentDir());
-            FileUtil.deleteOnExit(path.getLogFileDir());
-            FileUtil.deleteOnExit(path.getLogFilePath());
-            FileUtil.deleteOnExit(path.getLogFileCrcPath());
         }
-        return writer;
+        return entry.mWriter;
+    }
+
+    private void evictWriter() throws IOException {
+        LogFilePath path = mWriters.keySet().iterator().next();
+        LOG.debug("Evicting writer for path {}", path.getLogFilePath());
+        StatsUtil.incr("secor.writer_evictions." + path.getTopic());
+        deleteWriter(path);
+        TopicPartitionGroup group = new TopicPartitionGroup(path.getTopic(), path.getKafkaPartitions());
+        mEvictedTopicPartitions.addAll(group.getTopicPartitions());
     }
 
     /**
-     * Delete a given path, the underlying file, and the corresponding writer.
+     * Get the topic partitions with files closed to stay within secor.max.open.writers since the
+     * last call.
+     * @return Collection of topic partitions, empty if no writer has been evicted.
+     */
+    public Collection<TopicPartition> pollEvictedTopicPartitions() {
+        if (mEvictedTopicPartitions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<TopicPartition> topicPartitions = new ArrayList<TopicPartition>(mEvictedTopicPartitions);
+        mEvictedTopicPartitions.clear();
+        return topicPartitions;
+    }
+
+    /**
+     * Update the registered length of a given path after data has been appended to its writer.
+     * @param path The path that has been written to.
+     * @return Length of the file or 0 if the path has no writer.
+     * @throws IOException on error
+     */
+    public long updateLength(LogFilePath path) throws IOException {
+        return updateLength(path, -1);
+    }
+
+    /**
+     * Update the registered length of a given path after data has been appended to its writer.
+     * @param path The path that has been written to.
+     * @param messages Number of messages appended, -1 if unknown.
+     * @return Length of the file or 0 if the path has no writer.
+     * @throws IOException on error
+     */
+    public long updateLength(LogFilePath path, long messages) throws IOException {
+        WriterEntry entry = mWriters.get(path);
+        if (entry == null) {
+            LOG.warn("No writer found for path {}", path.getLogFilePath());
+            return 0;
+        }
+        long length = entry.mWriter.getLength();
+        entry.mGroup.mSize += length - entry.mLength;
+        entry.mLength = length;
+        if (messages < 0) {
+            entry.mMessages = -1;
+        } else if (entry.mMessages >= 0) {
+            entry.mMessages += messages;
+        }
+        return length;
+    }
+
+    /**
+     * Flush the writers of a given topic partition group so that the messages written so far can
+     * be read back from the files.  The order in which writers are evicted is not affected.
+     * @param topicPartitionGroup The topic partition group to flush.
+     * @return State of the flushed files, or null if a file of the group is closed, its writer
+     *     cannot be flushed or compresses it, or the number of messages it holds is unknown.
+     * @throws IOException on error
+     */
+    public List<FileState> flushWriters(TopicPartitionGroup topicPartitionGroup) throws IOException {
+        GroupFiles files = mFiles.get(topicPartitionGroup);
+        if (files == null || files.mClosedFiles > 0) {
+            return null;
+        }
+        for (WriterEntry entry : files.mWriters) {
+            if (!(entry.mWriter instanceof Flushable) || entry.mCompressed || entry.mMessages < 0) {
+                return null;
+            }
+        }
+        List<FileState> states = new ArrayList<FileState>(files.mWriters.size());
+        for (WriterEntry entry : files.mWriters) {
+            ((Flushable) entry.mWriter).flush();
+            states.add(new FileState(entry.mPath, entry.mMessages, entry.mCreationTime));
+        }
+        return states;
+    }
+
+    /**
+     * Delete a given path, the underlying file, and the corresponding writer.  Sealed paths are
+     * deleted the same way once uploaded.
      * @param path The path to delete.
      * @throws IOException on error
      */
     public void deletePath(LogFilePath path) throws IOException {
         TopicPartitionGroup topicPartition = new TopicPartitionGroup(path.getTopic(),
                                                            path.getKafkaPartitions());
-        HashSet<LogFilePath> paths = mFiles.get(topicPartition);
-        paths.remove(path);
-        if (paths.isEmpty()) {
-            mFiles.remove(topicPartition);
-            StatsUtil.clearLabel("secor.size." + topicPartition.getTopic() + "." +
-                                 topicPartition.getPartitions()[0]);
-            StatsUtil.clearLabel("secor.modification_age_sec." + topicPartition.getTopic() + "." +
-                                 topicPartition.getPartitions()[0]);
+        if (mWriters.containsKey(path)) {
+            deleteWriter(path);
+        }
+        GroupFiles files = mFiles.get(topicPartition);
+        if (files != null && files.mPaths.remove(path)) {
+            files.mClosedFiles--;
+            if (files.mPaths.isEmpty()) {
+                removeFiles(topicPartition);
+            }
         }
-        deleteWriter(path);
         FileUtil.delete(path.getLogFilePath());
         FileUtil.delete(path.getLogFileCrcPath());
+        mLocalFiles.forget(path);
+    }
+
+    /**
+     * @return Tracker of the local files created by this registry that have not been deleted.
+     */
+    public LocalFileTracker getLocalFileTracker() {
+        return mLocalFiles;
+    }
+
+    /**
+     * Close all writers in a given topic partition and stop tracking its files.  The files are
+     * left on disk for the caller to upload and delete.
+     * @param topicPartition The topic partition to seal.
+     * @return Collection of sealed file paths.
+     * @throws IOException on error
+     */
+    public Collection<LogFilePath> sealTopicPartition(TopicPartition topicPartition) throws IOException {
+        GroupFiles files = removeFiles(new TopicPartitionGroup(topicPartition));
+        if (files == null) {
+            return new ArrayList<LogFilePath>();
+        }
+        for (LogFilePath path : files.mPaths) {
+            if (mWriters.containsKey(path)) {
+                deleteWriter(path);
+            }
+        }
+        return new ArrayList<LogFilePath>(files.mPaths);
+    }
+
+    private GroupFiles removeFiles(TopicPartitionGroup topicPartitionGroup) {
+        GroupFiles files = mFiles.remove(topicPartitionGroup);
+        if (files != null) {
+            StatsUtil.clearLabel(files.mSizeLabel);
+            StatsUtil.clearLabel(files.mModificationAgeLabel);
+            if (files == mLastFiles) {
+                mLastTopicPartition = null;
+                mLastFiles = null;
+            }
+        }
+        return files;
     }
 
     /**
@@ -177,12 +337,11 @@ public class FileRegistry {
     }
 
     public void deleteTopicPartitionGroup(TopicPartitionGroup topicPartitioGroup) throws IOException {
-        HashSet<LogFilePath> paths = mFiles.get(topicPartitioGroup);
-        if (paths == null) {
+        GroupFiles files = mFiles.get(topicPartitioGroup);
+        if (files == null) {
             return;
         }
-        HashSet<LogFilePath> clonedPaths = (HashSet<LogFilePath>) paths.clone();
-        for (LogFilePath path : clonedPaths) {
+        for (LogFilePath path : new ArrayList<LogFilePath>(files.mPaths)) {
             deletePath(path);
         }
     }
@@ -193,17 +352,27 @@ public class FileRegistry {
      * @throws IOException on error
      */
     public void deleteWriter(LogFilePath path) throws IOException {
-        FileWriter writer = mWriters.get(path);
-        if (writer == null) {
+        WriterEntry entry = mWriters.get(path);
+        if (entry == null) {
             LOG.warn("No writer found for path {}", path.getLogFilePath());
         } else {
             LOG.info("Deleting writer for path {}", path.getLogFilePath());
-            writer.close();
+            entry.mWriter.close();
             mWriters.remove(path);
-            mCreationTimes.remove(path);
+            entry.mGroup.removeWriter(entry);
+            mWritersVersion++;
         }
     }
 
+    /**
+     * Callers holding on to writers returned by the registry must drop them when the version
+     * changes, as the writers may have been closed.
+     * @return The version of the set of open writers.
+     */
+    public long getWritersVersion() {
+        return mWritersVersion;
+    }
+
     /**
      * Delete all writers in a given topic partition.  Underlying files are not removed.
      * @param topicPartition The topic partition to remove the writers for.
@@ -214,12 +383,12 @@ public class FileRegistry {
     }
 
     public void deleteWriters(TopicPartitionGroup topicPartitionGroup) throws IOException {
-        HashSet<LogFilePath> paths = mFiles.get(topicPartitionGroup);
-        if (paths == null) {
+        GroupFiles files = mFiles.get(topicPartitionGroup);
+        if (files == null) {
             LOG.warn("No paths found for topic {} partition {}", topicPartitionGroup.getTopic(),
                 Arrays.toString(topicPartitionGroup.getPartitions()));
         } else {
-            for (LogFilePath path : paths) {
+            for (LogFilePath path : files.mPaths) {
                 deleteWriter(path);
             }
         }
@@ -237,17 +406,44 @@ public class FileRegistry {
     }
 
     public long getSize(TopicPartitionGroup topicPartitionGroup) throws IOException {
-        Collection<LogFilePath> paths = getPaths(topicPartitionGroup);
-        long result = 0;
-        for (LogFilePath path : paths) {
-            FileWriter writer = mWriters.get(path);
-            if (writer != null) {
-                result += writer.getLength();
+        GroupFiles files = mFiles.get(topicPartitionGroup);
+        if (files == null) {
+            return 0;
+        }
+        if (files.mReportedSize != files.mSize) {
+            files.mReportedSize = files.mSize;
+            StatsUtil.setLabel(files.mSizeLabel, Long.toString(files.mSize));
+        }
+        return files.mSize;
+    }
+
+    /**
+     * Like {@link #getSize(TopicPartition)} but without exporting the size to stats, for callers
+     * checking the size after every write.
+     * @param topicPartition The topic partition to get the size for.
+     * @return Aggregated size of files in the topic partition or 0 if the topic partition does
+     *     not contain any files.
+     */
+    public long peekSize(TopicPartition topicPartition) {
+        GroupFiles files = mLastFiles;
+        if (files == null || !topicPartition.equals(mLastTopicPartition)) {
+            files = mFiles.get(new TopicPartitionGroup(topicPartition));
+            if (files == null) {
+                return 0;
             }
+            mLastTopicPartition = topicPartition;
+            mLastFiles = files;
         }
-        StatsUtil.setLabel("secor.size." + topicPartitionGroup.getTopic() + "." +
-            Arrays.toString(topicPartitionGroup.getPartitions()), Long.toString(result));
-        return result;
+        return files.mSize;
+    }
+
+    /**
+     * @param topicPartition The topic partition to check.
+     * @return true if the topic partition has files whose writers have been closed.
+     */
+    public boolean hasClosedFiles(TopicPartition topicPartition) {
+        GroupFiles files = mFiles.get(new TopicPartitionGroup(topicPartition));
+        return files != null && files.mClosedFiles > 0;
     }
 
     /**
@@ -262,36 +458,142 @@ public class FileRegistry {
     }
 
     public long getModificationAgeSec(TopicPartitionGroup topicPartitionGroup) throws IOException {
+        GroupFiles files = mFiles.get(topicPartitionGroup);
+        if (files == null) {
+            return -1;
+        }
         long now = System.currentTimeMillis() / 1000L;
+        // Files whose writers have been deleted no longer have a creation time and are as old
+        // as now.
         long result;
-        if (mConfig.getFileAgeYoungest()) {
-            result = Long.MAX_VALUE;
+        if (mFileAgeYoungest) {
+            result = files.mClosedFiles > 0 ? 0 : Long.MAX_VALUE;
+            if (!files.mWriters.isEmpty()) {
+                result = Math.min(result, now - files.mYoungestCreationTime);
+            }
+            if (result == Long.MAX_VALUE) {
+                result = -1;
+            }
         } else {
-            result = -1;
-        }
-        Collection<LogFilePath> paths = getPaths(topicPartitionGroup);
-        for (LogFilePath path : paths) {
-            Long creationTime = mCreationTimes.get(path);
-            if (creationTime == null) {
-                LOG.warn("no creation time found for path {}", path);
-                creationTime = now;
+            result = files.mClosedFiles > 0 ? 0 : -1;
+            if (!files.mWriters.isEmpty()) {
+                result = Math.max(result, now - files.mOldestCreationTime);
             }
-            long age = now - creationTime;
-            if (mConfig.getFileAgeYoungest()) {
-                if (age < result) {
-                    result = age;
-                }
+        }
+        if (files.mReportedModificationAgeSec != result) {
+            files.mReportedModificationAgeSec = result;
+            StatsUtil.setLabel(files.mModificationAgeLabel, Long.toString(result));
+        }
+        return result;
+    }
+
+    /**
+     * State of a file recorded when its writer is flushed.
+     */
+    public static class FileState {
+        private final LogFilePath mPath;
+        private final long mMessages;
+        private final long mCreationTime;
+
+        public FileState(LogFilePath path, long messages, long creationTime) {
+            mPath = path;
+            mMessages = messages;
+            mCreationTime = creationTime;
+        }
+
+        public LogFilePath getPath() {
+            return mPath;
+        }
+
+        /**
+         * @return Number of messages written to the file.
+         */
+        public long getMessages() {
+            return mMessages;
+        }
+
+        /**
+         * @return Creation time of the writer in seconds.
+         */
+        public long getCreationTime() {
+            return mCreationTime;
+        }
+    }
+
+    private static class WriterEntry {
+        private final LogFilePath mPath;
+        private final GroupFiles mGroup;
+        private final FileWriter mWriter;
+        // Compressed streams cannot be flushed at message boundaries.
+        private final boolean mCompressed;
+        private final long mCreationTime;
+        private long mLength;
+        // Number of messages written, -1 if unknown.
+        private long mMessages;
+
+        private WriterEntry(LogFilePath path, GroupFiles group, FileWriter writer, boolean compressed,
+                            long creationTime, long length) {
+            mPath = path;
+            mGroup = group;
+            mWriter = writer;
+            mCompressed = compressed;
+            mCreationTime = creationTime;
+            mLength = length;
+        }
+    }
+
+    // Files of a topic partition group.
+    private static class GroupFiles {
+        private final HashSet<LogFilePath> mPaths = new HashSet<LogFilePath>();
+        private final ArrayList<WriterEntry> mWriters = new ArrayList<WriterEntry>();
+        private final String mSizeLabel;
+        private final String mModificationAgeLabel;
+        // Number of paths without a writer.
+        private int mClosedFiles;
+        // Aggregated length of the writers.
+        private long mSize;
+        private long mOldestCreationTime;
+        private long mYoungestCreationTime;
+        // Last values exported to stats.
+        private long mReportedSize = -1;
+        private long mReportedModificationAgeSec = Long.MIN_VALUE;
+
+        private GroupFiles(TopicPartitionGroup topicPartitionGroup) {
+            String suffix = topicPartitionGroup.getTopic() + "." +
+                Arrays.toString(topicPartitionGroup.getPartitions());
+            mSizeLabel = "secor.size." + suffix;
+            mModificationAgeLabel = "secor.modification_age_sec." + suffix;
+        }
+
+        private void addWriter(WriterEntry entry) {
+            if (mWriters.isEmpty()) {
+                mOldestCreationTime = entry.mCreationTime;
+                mYoungestCreationTime = entry.mCreationTime;
             } else {
-                if (age > result) {
-                    result = age;
-                }
+                mOldestCreationTime = Math.min(mOldestCreationTime, entry.mCreationTime);
+                mYoungestCreationTime = Math.max(mYoungestCreationTime, entry.mCreationTime);
             }
+            mWriters.add(entry);
+            mSize += entry.mLength;
+            mClosedFiles--;
         }
-        if (result == Long.MAX_VALUE) {
-            result = -1;
+
+        private void removeWriter(WriterEntry entry) {
+            mWriters.remove(entry);
+            mSize -= entry.mLength;
+            mClosedFiles++;
+            if (entry.mCreationTime == mOldestCreationTime || entry.mCreationTime == mYoungestCreationTime) {
+                for (int i = 0; i < mWriters.size(); ++i) {
+                    long creationTime = mWriters.get(i).mCreationTime;
+                    if (i == 0) {
+                        mOldestCreationTime = creationTime;
+                        mYoungestCreationTime = creationTime;
+                    } else {
+                        mOldestCreationTime = Math.min(mOldestCreationTime, creationTime);
+                        mYoungestCreationTime = Math.max(mYoungestCreationTime, creationTime);
+                    }
+                }
+            }
         }
-        StatsUtil.setLabel("secor.modification_age_sec." + topicPartitionGroup.getTopic() + "." +
-            Arrays.toString(topicPartitionGroup.getPartitions()), Long.toString(result));
-        return result;
     }
 }
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.common;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.KafkaAdminClient;
+import org.apache.kafka.clients.consumer.CommitFailedException;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Kafka offset store keeps committed offset counts as Kafka consumer group offsets, so that
+ * consumers do not need zookeeper.
+ *
+ * The store of a consumer thread wraps the group member consumer of its message iterator and is
+ * confined to that thread.  The group coordinator checks only the generation and member id of a
+ * commit, not whether the member owns the partition, so the store itself fences uploads and
+ * commits: they are allowed only for partitions in the current assignment of the consumer, and
+ * on revocation pending commits are flushed and the known counts of the revoked partitions are
+ * dropped.  The uploader finishes or discards the files of revoked partitions before the
+ * consumer rejoins the group.  While the consumer owns a partition the last count it committed
+ * is authoritative, so commits are sent with commitAsync, one request per batch, and known
+ * counts are served without a round trip.  A failed asynchronous commit only means that the
+ * next owner of the partition uploads the same messages again.
+ *
+ * Tools that are not group members create a standalone store which reads committed offsets with
+ * a consumer of its own and commits synchronously.
+ */
+public class KafkaOffsetStore implements OffsetStore {
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaOffsetStore.class);
+
+    private final SecorConfig mConfig;
+    private final KafkaConsumer<byte[], byte[]> mKafkaConsumer;
+    private final boolean mGroupMember;
+    private AdminClient mAdminClient;
+
+    // Counts committed or read since the last rebalance.  Only used by group members.
+    private final HashMap<TopicPartition, Long> mCommittedOffsetCounts = new HashMap<TopicPartition, Long>();
+    // Counts committed asynchronously since the last flush.
+    private final HashMap<org.apache.kafka.common.TopicPartition, OffsetAndMetadata> mUnflushedOffsets =
+        new HashMap<org.apache.kafka.common.TopicPartition, OffsetAndMetadata>();
+
+    /**
+     * Create the store of a consumer thread.
+     * @param config Secor configuration.
+     * @param kafkaConsumer The subscribed consumer of the message iterator.
+     */
+    public KafkaOffsetStore(SecorConfig config, KafkaConsumer<byte[], byte[]> kafkaConsumer) {
+        mConfig = config;
+        mKafkaConsumer = kafkaConsumer;
+        mGroupMember = true;
+    }
+
+    /**
+     * Create a standalone store.
+     * @param config Secor configuration.
+     */
+    public KafkaOffsetStore(SecorConfig config) {
+        mConfig = config;
+        mKafkaConsumer = new KafkaConsumer<byte[], byte[]>(getProperties(config));
+        mGroupMember = false;
+    }
+
+    private static Properties getProperties(SecorConfig config) {
+        Properties props = new Properties();
+        props.put("bootstrap.servers", config.getKafkaSeedBrokerHost() + ":" + config.getKafkaSeedBrokerPort());
+        props.put("group.id", config.getKafkaGroup());
+        props.put("enable.auto.commit", false);
+        props.put("key.deserializer", ByteArrayDeserializer.class);
+        props.put("value.deserializer", ByteArrayDeserializer.class);
+        return props;
+    }
+
+    private static org.apache.kafka.common.TopicPartition toKafka(TopicPartition topicPartition) {
+        return new org.apache.kafka.common.TopicPartition(topicPartition.getTopic(),
+            topicPartition.getPartition());
+    }
+
+    /**
+     * Forget all known counts.  Called by the message iterator when partitions are assigned.
+     */
+    public void onRebalance() {
+        mCommittedOffsetCounts.clear();
+    }
+
+    /**
+     * Commit pending counts while the consumer still owns the revoked partitions and forget the
+     * counts of those partitions.  Called by the message iterator when partitions are revoked.
+     * @param topicPartitions The revoked topic partitions.
+     * @throws Exception on error
+     */
+    public void onPartitionsRevoked(Collection<TopicPartition> topicPartitions) throws Exception {
+        flush();
+        for (TopicPartition topicPartition : topicPartitions) {
+            mCommittedOffsetCounts.remove(topicPartition);
+        }
+    }
+
+    @Override
+    public boolean isAssigned(TopicPartition topicPartition) {
+        return !mGroupMember || mKafkaConsumer.assignment().contains(toKafka(topicPartition));
+    }
+
+    @Override
+    public long getCommittedOffsetCount(TopicPartition topicPartition) throws Exception {
+        if (mGroupMember) {
+            Long count = mCommittedOffsetCounts.get(topicPartition);
+            if (count != null) {
+                return count;
+            }
+        }
+        OffsetAndMetadata committed = mKafkaConsumer.committed(toKafka(topicPartition));
+        long count = committed == null ? -1 : committed.offset();
+        if (mGroupMember) {
+            mCommittedOffsetCounts.put(topicPartition, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long getCachedCommittedOffsetCount(TopicPartition topicPartition) throws Exception {
+        return getCommittedOffsetCount(topicPartition);
+    }
+
+    @Override
+    public void setCommittedOffsetCount(TopicPartition topicPartition, long count) throws Exception {
+        HashMap<TopicPartition, Long> counts = new HashMap<TopicPartition, Long>();
+        counts.put(topicPartition, count);
+        setCommittedOffsetCounts(counts);
+    }
+
+    @Override
+    public void setCommittedOffsetCounts(Map<TopicPartition, Long> counts) throws Exception {
+        final Map<org.apache.kafka.common.TopicPartition, OffsetAndMetadata> offsets =
+            new HashMap<org.apache.kafka.common.TopicPartition, OffsetAndMetadata>();
+        for (Map.Entry<TopicPartition, Long> entry : counts.entrySet()) {
+            if (!isAssigned(entry.getKey())) {
+                LOG.warn("not committing {} offset {} to kafka, the partition is not assigned",
+                    entry.getKey(), entry.getValue());
+                continue;
+            }
+            LOG.info("committing {} offset {} to kafka", entry.getKey(), entry.getValue());
+            offsets.put(toKafka(entry.getKey()), new OffsetAndMetadata(entry.getValue()));
+            if (mGroupMember) {
+                mCommittedOffsetCounts.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (offsets.isEmpty()) {
+            return;
+        }
+        if (!mGroupMember) {
+            mKafkaConsumer.commitSync(offsets);
+            return;
+        }
+        mUnflushedOffsets.putAll(offsets);
+        // The callback runs on the consumer thread during a later poll or commit.
+        mKafkaConsumer.commitAsync(offsets, new OffsetCommitCallback() {
+            @Override
+            public void onComplete(Map<org.apache.kafka.common.TopicPartition, OffsetAndMetadata> committed,
+                                   Exception exception) {
+                if (exception != null) {
+                    LOG.warn("failed to commit offsets {} to kafka", offsets, exception);
+                    for (org.apache.kafka.common.TopicPartition topicPartition : offsets.keySet()) {
+                        mCommittedOffsetCounts.remove(
+                            new TopicPartition(topicPartition.topic(), topicPartition.partition()));
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void flush() throws Exception {
+        if (mUnflushedOffsets.isEmpty()) {
+            return;
+        }
+        try {
+            mKafkaConsumer.commitSync(mUnflushedOffsets);
+        } catch (CommitFailedException e) {
+            LOG.warn("failed to commit offsets {} to kafka, the partitions have been reassigned",
+                mUnflushedOffsets, e);
+        }
+        mUnflushedOffsets.clear();
+    }
+
+    private Collection<org.apache.kafka.common.TopicPartition> getGroupPartitions() throws Exception {
+        if (mAdminClient == null) {
+            mAdminClient = KafkaAdminClient.create(getProperties(mConfig));
+        }
+        return mAdminClient.listConsumerGroupOffsets(mConfig.getKafkaGroup())
+            .partitionsToOffsetAndMetadata().get().keySet();
+    }
+
+    @Override
+    public List<String> getCommittedOffsetTopics() throws Exception {
+        TreeSet<String> topics = new TreeSet<String>();
+        for (org.apache.kafka.common.TopicPartition topicPartition : getGroupPartitions()) {
+            topics.add(topicPartition.topic());
+        }
+        return new ArrayList<String>(topics);
+    }
+
+    @Override
+    public List<Integer> getCommittedOffsetPartitions(String topic) throws Exception {
+        List<Integer> partitions = new ArrayList<Integer>();
+        for (org.apache.kafka.common.TopicPartition topicPartition : getGroupPartitions()) {
+            if (topicPartition.topic().equals(topic)) {
+                partitions.add(topicPartition.partition());
+            }
+        }
+        return partitions;
+    }
+}
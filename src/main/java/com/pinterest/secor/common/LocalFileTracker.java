@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local file tracker keeps track of the local log files that have not been deleted yet, so that
+ * they can be cleaned up when the consumer shuts down.  Unlike File.deleteOnExit, files are
+ * forgotten as soon as they are deleted.
+ *
+ * Files are tracked and forgotten by the consumer thread and read by the shutdown hook.
+ */
+public class LocalFileTracker {
+    private final Set<String> mFiles = ConcurrentHashMap.newKeySet();
+    // Topic directories, there are few of them so they are never forgotten.
+    private final Set<String> mTopicDirs = ConcurrentHashMap.newKeySet();
+
+    public void track(LogFilePath path) {
+        mTopicDirs.add(path.getLogFileParentDir());
+        mFiles.add(path.getLogFilePath());
+        mFiles.add(path.getLogFileCrcPath());
+    }
+
+    public void forget(LogFilePath path) {
+        mFiles.remove(path.getLogFilePath());
+        mFiles.remove(path.getLogFileCrcPath());
+    }
+
+    /**
+     * @return Paths of the tracked log and crc files.
+     */
+    public Collection<String> getFiles() {
+        return new ArrayList<String>(mFiles);
+    }
+
+    /**
+     * @return Local topic directories files have been created in.
+     */
+    public Collection<String> getTopicDirs() {
+        return new ArrayList<String>(mTopicDirs);
+    }
+}
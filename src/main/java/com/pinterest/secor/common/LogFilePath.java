@@ -45,6 +45,8 @@ import java.util.Arrays;
  *     firstMessageOffset is the offset of the first message in a batch of files committed
  *         atomically.
  *
+ * Paths are immutable; the rendered path and the hash code are computed once, on first use.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class LogFilePath {
@@ -55,8 +57,10 @@ public class LogFilePath {
     private final int[] mKafkaPartitions;
     private final long[] mOffsets;
     private final String mExtension;
-    private MessageDigest messageDigest;
-
+    // Computed lazily.  Races are benign since every thread computes the same values.
+    private String mLogFileBasename;
+    private String mLogFilePath;
+    private int mHashCode;
 
     public LogFilePath(String prefix, String topic, String[] partitions, int generation,
                        int[] kafkaPartitions, long[] offsets, String extension) {
@@ -78,12 +82,6 @@ public class LogFilePath {
         mKafkaPartitions = Arrays.copyOf(kafkaPartitions, kafkaPartitions.length);
         mOffsets = Arrays.copyOf(offsets, offsets.length);
         mExtension = extension;
-
-        try {
-            messageDigest = MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Unable to find mdt digest.", e);
-        }
     }
 
     public LogFilePath(String prefix, int generation, long lastCommittedOffset,
@@ -146,6 +144,11 @@ public class LogFilePath {
             mExtension);
     }
 
+    public LogFilePath withPartitions(String[] partitions) {
+        return new LogFilePath(mPrefix, mTopic, partitions, mGeneration, mKafkaPartitions, mOffsets,
+            mExtension);
+    }
+
     public String getLogFileParentDir() {
         ArrayList<String> elements = new ArrayList<String>();
         if (mPrefix != null && mPrefix.length() > 0) {
@@ -167,6 +170,15 @@ public class LogFilePath {
     }
 
     private String getLogFileBasename() {
+        String basename = mLogFileBasename;
+        if (basename == null) {
+            basename = renderLogFileBasename();
+            mLogFileBasename = basename;
+        }
+        return basename;
+    }
+
+    private String renderLogFileBasename() {
         ArrayList<String> basenameElements = new ArrayList<String>();
         basenameElements.add(Integer.toString(mGeneration));
         if (mKafkaPartitions.length > 1) {
@@ -179,9 +191,12 @@ public class LogFilePath {
                 sb.append(offset);
             }
             try {
+                MessageDigest messageDigest = MessageDigest.getInstance("MD5");
                 byte[] md5Bytes = messageDigest.digest(sb.toString().getBytes("UTF-8"));
                 byte[] encodedBytes = Base64.encodeBase64URLSafe(md5Bytes);
                 basenameElements.add(new String(encodedBytes));
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Unable to find mdt digest.", e);
             } catch (UnsupportedEncodingException e) {
                 throw new RuntimeException(e);
             }
@@ -193,23 +208,20 @@ public class LogFilePath {
     }
 
     public String getLogFilePath() {
-        String basename = getLogFileBasename();
-
-        ArrayList<String> pathElements = new ArrayList<String>();
-        pathElements.add(getLogFileDir());
-        pathElements.add(basename);
-
-        return StringUtils.join(pathElements, "/") + mExtension;
+        String path = mLogFilePath;
+        if (path == null) {
+            path = getLogFileDir() + "/" + getLogFileBasename() + mExtension;
+            mLogFilePath = path;
+        }
+        return path;
     }
 
     public String getLogFileCrcPath() {
-        String basename = "." + getLogFileBasename() + ".crc";
-
-        ArrayList<String> pathElements = new ArrayList<String>();
-        pathElements.add(getLogFileDir());
-        pathElements.add(basename);
+        return getLogFileDir() + "/." + getLogFileBasename() + ".crc";
+    }
 
-        return StringUtils.join(pathElements, "/");
+    public String getPrefix() {
+        return mPrefix;
     }
 
     public String getTopic() {
@@ -253,6 +265,7 @@ public class LogFilePath {
 
         LogFilePath that = (LogFilePath) o;
 
+        if (hashCode() != that.hashCode()) return false;
         if (mGeneration != that.mGeneration) return false;
         if (!Arrays.equals(mKafkaPartitions, that.mKafkaPartitions)) return false;
         if (!Arrays.equals(mOffsets, that.mOffsets)) return false;
@@ -265,6 +278,15 @@ public class LogFilePath {
 
     @Override
     public int hashCode() {
+        int hashCode = mHashCode;
+        if (hashCode == 0) {
+            hashCode = computeHashCode();
+            mHashCode = hashCode;
+        }
+        return hashCode;
+    }
+
+    private int computeHashCode() {
         int result = mPrefix != null ? mPrefix.hashCode() : 0;
         result = 31 * result + (mTopic != null ? mTopic.hashCode() : 0);
         result = 31 * result + (mPartitions != null ? Arrays.hashCode(mPartitions) : 0);
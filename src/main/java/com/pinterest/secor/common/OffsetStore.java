@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.common;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offset store keeps the committed offset counts of the consumer group, i.e. the offsets of the
+ * first messages of each topic partition that have not been uploaded yet.  It is selected with
+ * secor.offsets.store.
+ */
+public interface OffsetStore {
+    /**
+     * @param topicPartition The topic partition.
+     * @return The committed offset count or -1 if none has been committed.
+     * @throws Exception on error
+     */
+    long getCommittedOffsetCount(TopicPartition topicPartition) throws Exception;
+
+    /**
+     * Like {@link #getCommittedOffsetCount(TopicPartition)} but may be answered from a local
+     * cache which can briefly miss a commit of another consumer.
+     * @param topicPartition The topic partition.
+     * @return The committed offset count or -1 if none has been committed.
+     * @throws Exception on error
+     */
+    long getCachedCommittedOffsetCount(TopicPartition topicPartition) throws Exception;
+
+    void setCommittedOffsetCount(TopicPartition topicPartition, long count) throws Exception;
+
+    /**
+     * Set the committed offset counts of several topic partitions in as few round trips as the
+     * store allows.
+     * @param counts Committed offset count per topic partition.
+     * @throws Exception on error
+     */
+    void setCommittedOffsetCounts(Map<TopicPartition, Long> counts) throws Exception;
+
+    /**
+     * Wait until all committed offset counts are durable.  Stores committing asynchronously have
+     * to be flushed before the consumer exits.
+     * @throws Exception on error
+     */
+    void flush() throws Exception;
+
+    /**
+     * Whether this consumer may upload the files of a topic partition and commit its offset.
+     * Stores fenced by partition locks leave the check to the lock and always return true.
+     * @param topicPartition The topic partition.
+     * @return Whether the topic partition is assigned to this consumer.
+     */
+    default boolean isAssigned(TopicPartition topicPartition) {
+        return true;
+    }
+
+    List<String> getCommittedOffsetTopics() throws Exception;
+
+    List<Integer> getCommittedOffsetPartitions(String topic) throws Exception;
+}
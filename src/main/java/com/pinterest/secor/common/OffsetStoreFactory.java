@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.common;
+
+public class OffsetStoreFactory {
+    // Loaded by name since it is only compiled against Kafka clients with the new consumer API.
+    private static final String KAFKA_OFFSET_STORE_CLASS = "com.pinterest.secor.common.KafkaOffsetStore";
+
+    public static boolean isKafkaOffsetStore(SecorConfig config) {
+        return SecorConstants.KAFKA_OFFSETS_STORAGE_KAFKA.equals(config.getOffsetsStore());
+    }
+
+    /**
+     * Create the offset store configured with secor.offsets.store for tools that are not members
+     * of the consumer group, such as the progress monitor and the partition finalizer.
+     * @param config Secor configuration.
+     * @return The offset store.
+     */
+    public static OffsetStore getOffsetStore(SecorConfig config) {
+        if (!isKafkaOffsetStore(config)) {
+            return new ZookeeperConnector(config);
+        }
+        try {
+            Class offsetStoreClass = Class.forName(KAFKA_OFFSET_STORE_CLASS);
+            return (OffsetStore) offsetStoreClass.getConstructor(SecorConfig.class).newInstance(config);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
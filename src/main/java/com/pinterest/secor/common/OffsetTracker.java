@@ -26,72 +26,150 @@ import java.util.HashMap;
 /**
  * Offset tracker stores offset related metadata.
  *
+ * The metadata of each topic partition is kept in a {@link PartitionOffsets} slot with primitive
+ * fields.  Callers on the message path resolve the slot once per message or per run of messages
+ * of the same partition and then read and update it without further lookups or boxing.  Like the
+ * rest of the consumer state, the tracker is confined to the consumer thread.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class OffsetTracker {
     private static final Logger LOG = LoggerFactory.getLogger(OffsetTracker.class);
 
-    private HashMap<TopicPartition, Long> mLastSeenOffset;
-    private HashMap<TopicPartition, Long> mFirstSeendOffset;
-    private HashMap<TopicPartition, Long> mCommittedOffsetCount;
+    private final HashMap<TopicPartition, PartitionOffsets> mOffsets;
+    // Slot resolved last.  Messages mostly arrive in runs of the same topic partition.
+    private PartitionOffsets mLastOffsets;
 
     public OffsetTracker() {
-        mLastSeenOffset = new HashMap<TopicPartition, Long>();
-        mCommittedOffsetCount = new HashMap<TopicPartition, Long>();
-        mFirstSeendOffset = new HashMap<TopicPartition, Long>();
+        mOffsets = new HashMap<TopicPartition, PartitionOffsets>();
     }
 
-    public long getLastSeenOffset(TopicPartition topicPartition) {
-        Long offset = mLastSeenOffset.get(topicPartition);
-        if (offset == null) {
-            return -2;
+    /**
+     * @param topicPartition The topic partition.
+     * @return The offsets slot of the topic partition, created on first use.
+     */
+    public PartitionOffsets getOffsets(TopicPartition topicPartition) {
+        PartitionOffsets offsets = mLastOffsets;
+        if (offsets != null && offsets.mTopicPartition.equals(topicPartition)) {
+            return offsets;
+        }
+        offsets = mOffsets.get(topicPartition);
+        if (offsets == null) {
+            offsets = new PartitionOffsets(topicPartition);
+            mOffsets.put(topicPartition, offsets);
         }
-        return offset.longValue();
+        mLastOffsets = offsets;
+        return offsets;
+    }
+
+    public long getLastSeenOffset(TopicPartition topicPartition) {
+        return getOffsets(topicPartition).getLastSeenOffset();
     }
 
     public long setLastSeenOffset(TopicPartition topicPartition, long offset) {
-        long lastSeenOffset = getLastSeenOffset(topicPartition);
-        mLastSeenOffset.put(topicPartition, offset);
-        if (lastSeenOffset + 1 != offset) {
-            if (lastSeenOffset >= 0) {
-                LOG.warn("offset for topic {} partition {} changed from {} to {}",
-                        topicPartition.getTopic(),topicPartition.getPartition(),lastSeenOffset, offset);
-            } else {
-                LOG.info("starting to consume topic {} partition {} from offset {}",
-                        topicPartition.getTopic(),topicPartition.getPartition(),offset);
-            }
-        }
-        if (mFirstSeendOffset.get(topicPartition) == null) {
-            mFirstSeendOffset.put(topicPartition, offset);
-        }
-        return lastSeenOffset;
+        return getOffsets(topicPartition).setLastSeenOffset(offset);
     }
 
     public long getTrueCommittedOffsetCount(TopicPartition topicPartition) {
-        Long committedOffsetCount = mCommittedOffsetCount.get(topicPartition);
-        if (committedOffsetCount == null) {
-            return -1L;
-        }
-        return committedOffsetCount;
+        return getOffsets(topicPartition).getTrueCommittedOffsetCount();
     }
 
     public long getAdjustedCommittedOffsetCount(TopicPartition topicPartition) {
-        long trueCommittedOffsetCount = getTrueCommittedOffsetCount(topicPartition);
-        if (trueCommittedOffsetCount == -1L) {
-            Long firstSeenOffset = mFirstSeendOffset.get(topicPartition);
-            if (firstSeenOffset != null) {
-                return firstSeenOffset;
-            }
-        }
-        return trueCommittedOffsetCount;
+        return getOffsets(topicPartition).getAdjustedCommittedOffsetCount();
     }
 
     public long setCommittedOffsetCount(TopicPartition topicPartition, long count) {
-        long trueCommittedOffsetCount = getTrueCommittedOffsetCount(topicPartition);
+        PartitionOffsets offsets = getOffsets(topicPartition);
+        long trueCommittedOffsetCount = offsets.mCommittedOffsetCount;
         // Committed offsets should never go back.
         assert trueCommittedOffsetCount <= count: Long.toString(trueCommittedOffsetCount) +
                 " <= " + count;
-        mCommittedOffsetCount.put(topicPartition, count);
+        offsets.mCommittedOffsetCount = count;
+        if (offsets.mSealedOffsetCount <= count) {
+            offsets.mSealedOffsetCount = -1L;
+        }
         return trueCommittedOffsetCount;
     }
+
+    /**
+     * Record that messages below a given offset count have been sealed for an upload which has
+     * not been committed yet.  Until the commit, files for newer messages start at that offset.
+     * @param topicPartition The topic partition being uploaded.
+     * @param count The offset count the upload will commit.
+     */
+    public void setSealedOffsetCount(TopicPartition topicPartition, long count) {
+        getOffsets(topicPartition).mSealedOffsetCount = count;
+    }
+
+    /**
+     * Offsets of a single topic partition.
+     */
+    public static final class PartitionOffsets {
+        private final TopicPartition mTopicPartition;
+        private long mLastSeenOffset = -2L;
+        // -1 until the first message is seen.
+        private long mFirstSeenOffset = -1L;
+        private long mCommittedOffsetCount = -1L;
+        // Offset count up to which messages are in files being uploaded but not committed yet,
+        // -1 if there is no such upload.
+        private long mSealedOffsetCount = -1L;
+
+        private PartitionOffsets(TopicPartition topicPartition) {
+            mTopicPartition = topicPartition;
+        }
+
+        public TopicPartition getTopicPartition() {
+            return mTopicPartition;
+        }
+
+        public long getLastSeenOffset() {
+            return mLastSeenOffset;
+        }
+
+        public long setLastSeenOffset(long offset) {
+            long lastSeenOffset = mLastSeenOffset;
+            mLastSeenOffset = offset;
+            if (lastSeenOffset + 1 != offset) {
+                if (lastSeenOffset >= 0) {
+                    LOG.warn("offset for topic {} partition {} changed from {} to {}",
+                            mTopicPartition.getTopic(), mTopicPartition.getPartition(), lastSeenOffset, offset);
+                } else {
+                    LOG.info("starting to consume topic {} partition {} from offset {}",
+                            mTopicPartition.getTopic(), mTopicPartition.getPartition(), offset);
+                }
+            }
+            if (mFirstSeenOffset == -1L) {
+                mFirstSeenOffset = offset;
+            }
+            return lastSeenOffset;
+        }
+
+        /**
+         * Continue consuming after messages that were consumed by a previous process and kept
+         * in local files.
+         * @param firstOffset Offset of the first message in the files.
+         * @param lastOffset Offset of the last message consumed.
+         */
+        public void resume(long firstOffset, long lastOffset) {
+            LOG.info("resuming topic {} partition {} after offset {} with files starting at offset {}",
+                    mTopicPartition.getTopic(), mTopicPartition.getPartition(), lastOffset, firstOffset);
+            mFirstSeenOffset = firstOffset;
+            mLastSeenOffset = lastOffset;
+        }
+
+        public long getTrueCommittedOffsetCount() {
+            return mCommittedOffsetCount;
+        }
+
+        public long getAdjustedCommittedOffsetCount() {
+            if (mSealedOffsetCount > mCommittedOffsetCount) {
+                // New files start after the messages being uploaded.
+                return mSealedOffsetCount;
+            }
+            if (mCommittedOffsetCount == -1L && mFirstSeenOffset != -1L) {
+                return mFirstSeenOffset;
+            }
+            return mCommittedOffsetCount;
+        }
+    }
 }
@@ -241,6 +241,10 @@ public class SecorConfig {
         return getString("kafka.offsets.storage");
     }
 
+    public String getOffsetsStore() {
+        return getString("secor.offsets.store", SecorConstants.KAFKA_OFFSETS_STORAGE_ZK);
+    }
+
     public boolean useKafkaTimestamp() {
         return getBoolean("kafka.useTimestamp", false);
     }
@@ -265,6 +269,22 @@ public class SecorConfig {
         return getInt("secor.consumer.threads");
     }
 
+    public int getConsumerParserThreads() {
+        return getInt("secor.consumer.parser.threads", 0);
+    }
+
+    public int getConsumerParserQueueSize() {
+        return getInt("secor.consumer.parser.queue.size", 10000);
+    }
+
+    public boolean getUploadSchedulerEnabled() {
+        return getBoolean("secor.upload.scheduler.enabled", false);
+    }
+
+    public String getUploadCoordination() {
+        return getString("secor.upload.coordination", "lock");
+    }
+
     public long getMaxFileSizeBytes() {
         return getLong("secor.max.file.size.bytes");
     }
@@ -281,6 +301,26 @@ public class SecorConfig {
         return getBoolean("secor.file.age.youngest");
     }
 
+    public long getColumnarMemoryBytes() {
+        return getLong("secor.columnar.memory.bytes", 0L);
+    }
+
+    public int getMaxOpenWriters() {
+        return getInt("secor.max.open.writers", 0);
+    }
+
+    public long getFileIndexIntervalBytes() {
+        return getLong("secor.file.index.interval.bytes", 4L * 1024 * 1024);
+    }
+
+    public int getRawBackupBlockBytes() {
+        return getInt("secor.raw.backup.block.bytes", 1024 * 1024);
+    }
+
+    public int getLocalSpoolCheckpointSeconds() {
+        return getInt("secor.local.spool.checkpoint.seconds", 0);
+    }
+
     public long getOffsetsPerPartition() {
         return getLong("secor.offsets.per.partition");
     }
@@ -377,6 +417,10 @@ public class SecorConfig {
         return getInt("secor.local.log.delete.age.hours");
     }
 
+    public int getLocalLogDeleteThreads() {
+        return getInt("secor.local.log.delete.threads", 8);
+    }
+
     public String getFileExtension() {
         return getString("secor.file.extension");
     }
@@ -441,6 +485,22 @@ public class SecorConfig {
         return getString("aws.sse.customer.key");
     }
 
+    public long getAwsS3MultipartThresholdBytes() {
+        return getLong("aws.s3.multipart.threshold.bytes", 16L * 1024L * 1024L);
+    }
+
+    public long getAwsS3MultipartPartSizeBytes() {
+        return getLong("aws.s3.multipart.part.size.bytes", 5L * 1024L * 1024L);
+    }
+
+    public int getAwsS3UploadThreads() {
+        return getInt("aws.s3.upload.threads", 0);
+    }
+
+    public int getAwsClientMaxErrorRetry() {
+        return getInt("aws.client.max.error.retry", -1);
+    }
+
     public String getSwiftTenant() {
         return getString("swift.tenant");
     }
@@ -614,9 +674,16 @@ public class SecorConfig {
         return getDouble("secor.gs.tasks.ratelimit.pr.second", 10.0);
     }
 
-    public int getGsThreadPoolSize() {
-        return getInt("secor.gs.threadpool.fixed.size", 256);
+    public int getUploadThreads() {
+        return getInt("secor.upload.threads", 256);
+    }
+
+    public long getUploadMaxInFlightBytes() {
+        return getLong("secor.upload.max.inflight.bytes", 0L);
+    }
 
+    public int getUploadBufferBytes() {
+        return getInt("secor.upload.buffer.bytes", 5 * 1024 * 1024);
     }
 
     public int getGsConnectTimeoutInMs() {
@@ -731,6 +798,10 @@ public class SecorConfig {
         return mProperties.getLong(name);
     }
 
+    public long getLong(String name, long defaultValue) {
+        return mProperties.getLong(name, defaultValue);
+    }
+
     public String[] getStringArray(String name) {
         return mProperties.getStringArray(name);
     }
@@ -39,7 +39,7 @@ public class SecorKafkaClient implements KafkaClient {
     public static final int MAX_READ_POLL_ATTEMPTS = 10;
     private KafkaConsumer<byte[], byte[]> mKafkaConsumer;
     private AdminClient mKafkaAdminClient;
-    private ZookeeperConnector mZookeeperConnector;
+    private OffsetStore mOffsetStore;
     private int mPollTimeout;
 
     @Override
@@ -69,7 +69,7 @@ public class SecorKafkaClient implements KafkaClient {
     public Message getCommittedMessage(TopicPartition topicPartition) throws Exception {
         org.apache.kafka.common.TopicPartition kafkaTopicPartition = new org.apache.kafka.common.TopicPartition(topicPartition.getTopic(), topicPartition.getPartition());
         mKafkaConsumer.assign(Collections.singleton(kafkaTopicPartition));
-        long committedOffset = mZookeeperConnector.getCommittedOffsetCount(topicPartition);
+        long committedOffset = mOffsetStore.getCommittedOffsetCount(topicPartition);
         mKafkaConsumer.seek(kafkaTopicPartition, committedOffset - 1);
 
         return readSingleMessage(mKafkaConsumer);
@@ -97,7 +97,7 @@ public class SecorKafkaClient implements KafkaClient {
 
     @Override
     public void init(SecorConfig config) {
-        mZookeeperConnector = new ZookeeperConnector(config);
+        mOffsetStore = OffsetStoreFactory.getOffsetStore(config);
         mPollTimeout = config.getNewConsumerPollTimeoutSeconds();
         Properties props = new Properties();
         props.put("bootstrap.servers", config.getKafkaSeedBrokerHost() + ":" + config.getKafkaSeedBrokerPort());
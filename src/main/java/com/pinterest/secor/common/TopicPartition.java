@@ -18,18 +18,68 @@
  */
 package com.pinterest.secor.common;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Topic partition describes a kafka message topic-partition pair.
  *
+ * Code on the message path should get instances with {@link #of(String, int)} which returns a
+ * canonical instance per pair instead of allocating one per message.  Canonical instances hash
+ * and compare by identity first, so map lookups keyed by them are cheap.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class TopicPartition {
-    private String mTopic;
-    private int mPartition;
+    // Canonical instances indexed by partition.  The arrays are copied on write so that lookups
+    // need no locking.
+    private static final ConcurrentHashMap<String, TopicPartition[]> sInstances =
+        new ConcurrentHashMap<String, TopicPartition[]>();
+
+    private final String mTopic;
+    private final int mPartition;
+    private final int mHashCode;
 
     public TopicPartition(String topic, int partition) {
         mTopic = topic;
         mPartition = partition;
+        int result = mTopic != null ? mTopic.hashCode() : 0;
+        mHashCode = 31 * result + mPartition;
+    }
+
+    /**
+     * @param topic The topic.
+     * @param partition The partition.
+     * @return The canonical instance for the topic partition.
+     */
+    public static TopicPartition of(String topic, int partition) {
+        TopicPartition[] partitions = sInstances.get(topic);
+        if (partitions != null && partition >= 0 && partition < partitions.length) {
+            TopicPartition topicPartition = partitions[partition];
+            if (topicPartition != null) {
+                return topicPartition;
+            }
+        }
+        if (topic == null || partition < 0) {
+            return new TopicPartition(topic, partition);
+        }
+        return intern(topic, partition);
+    }
+
+    private static synchronized TopicPartition intern(String topic, int partition) {
+        TopicPartition[] partitions = sInstances.get(topic);
+        if (partitions == null) {
+            partitions = new TopicPartition[partition + 1];
+        } else if (partition < partitions.length && partitions[partition] != null) {
+            return partitions[partition];
+        } else {
+            TopicPartition[] copy = new TopicPartition[Math.max(partitions.length, partition + 1)];
+            System.arraycopy(partitions, 0, copy, 0, partitions.length);
+            partitions = copy;
+        }
+        TopicPartition topicPartition = new TopicPartition(topic, partition);
+        partitions[partition] = topicPartition;
+        sInstances.put(topic, partitions);
+        return topicPartition;
     }
 
     public String getTopic() {
@@ -55,9 +105,7 @@ public class TopicPartition {
 
     @Override
     public int hashCode() {
-        int result = mTopic != null ? mTopic.hashCode() : 0;
-        result = 31 * result + mPartition;
-        return result;
+        return mHashCode;
     }
 
     @Override
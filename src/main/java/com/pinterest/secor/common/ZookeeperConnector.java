@@ -26,31 +26,70 @@ import com.twitter.common.zookeeper.DistributedLock;
 import com.twitter.common.zookeeper.DistributedLockImpl;
 import com.twitter.common.zookeeper.ZooKeeperClient;
 import org.apache.commons.lang.StringUtils;
+import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooDefs;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * ZookeeperConnector implements interactions with Zookeeper.
  *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
-public class ZookeeperConnector {
+public class ZookeeperConnector implements OffsetStore {
     private static final Logger LOG = LoggerFactory.getLogger(ZookeeperConnector.class);
 
+    // Version reported for an offset which has never been committed.
+    public static final int VERSION_ABSENT = -2;
+
     private SecorConfig mConfig;
     private ZooKeeperClient mZookeeperClient;
     private HashMap<String, DistributedLock> mLocks;
     private String mCommittedOffsetGroupPath;
 
+    // Committed offset counts read with a watch, keyed by znode path.  An entry is dropped as soon
+    // as its watch fires, so a cached value is never older than the last notification.  Guarded
+    // by itself, as is mCacheEpoch which counts invalidations.
+    private final HashMap<String, Long> mCommittedOffsetCounts = new HashMap<String, Long>();
+    private long mCacheEpoch;
+    private final Watcher mOffsetWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            synchronized (mCommittedOffsetCounts) {
+                mCacheEpoch++;
+                if (event.getType() == Event.EventType.None) {
+                    // Connection state changed, watches may have been lost.
+                    mCommittedOffsetCounts.clear();
+                } else {
+                    mCommittedOffsetCounts.remove(event.getPath());
+                }
+            }
+        }
+    };
+    // Paths known to exist.  Offset znodes are never deleted by the consumer so the parents of a
+    // committed offset only need to be created once per process.
+    private final Set<String> mCreatedPaths =
+        Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     protected ZookeeperConnector() {
     }
 
@@ -111,6 +150,20 @@ public class ZookeeperConnector {
             topicPartition.getPartition();
     }
 
+    // Kept next to the offsets rather than below them, where every child is a partition.
+    protected String getPendingAttemptPath(TopicPartition topicPartition) {
+        String stripped = StringUtils.strip(mConfig.getKafkaZookeeperPath(), "/");
+        return Joiner.on("/").skipNulls().join(
+                "",
+                stripped.equals("") ? null : stripped,
+                "consumers",
+                mConfig.getKafkaGroup(),
+                "attempts",
+                topicPartition.getTopic(),
+                topicPartition.getPartition()
+        );
+    }
+
     public long getCommittedOffsetCount(TopicPartition topicPartition) throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
         String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
@@ -123,6 +176,76 @@ public class ZookeeperConnector {
         }
     }
 
+    /**
+     * Read the committed offset count together with the version of its znode, for use with
+     * {@link #compareAndSetCommittedOffsetCount(TopicPartition, int, long)}.
+     * @param topicPartition The topic partition.
+     * @param stat Filled with the znode stat.  Its version is VERSION_ABSENT if no offset has been
+     *     committed.
+     * @return The committed offset count or -1 if none has been committed.
+     * @throws Exception on error
+     */
+    public long getCommittedOffsetCount(TopicPartition topicPartition, Stat stat) throws Exception {
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
+        try {
+            byte[] data = zookeeper.getData(offsetPath, false, stat);
+            return Long.parseLong(new String(data));
+        } catch (KeeperException.NoNodeException exception) {
+            LOG.warn("path {} does not exist in zookeeper", offsetPath);
+            stat.setVersion(VERSION_ABSENT);
+            return -1;
+        }
+    }
+
+    /**
+     * Get the committed offset count from a local cache kept up to date with zookeeper watches.
+     * The value may lag behind a concurrent commit of another consumer by the watch notification
+     * latency, so decisions that must not act on a stale offset have to read it with
+     * {@link #getCommittedOffsetCount(TopicPartition)}.
+     * @param topicPartition The topic partition.
+     * @return The committed offset count or -1 if none has been committed.
+     * @throws Exception on error
+     */
+    public long getCachedCommittedOffsetCount(TopicPartition topicPartition) throws Exception {
+        String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
+        long epoch;
+        synchronized (mCommittedOffsetCounts) {
+            Long count = mCommittedOffsetCounts.get(offsetPath);
+            if (count != null) {
+                return count;
+            }
+            epoch = mCacheEpoch;
+        }
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        long count;
+        try {
+            byte[] data = zookeeper.getData(offsetPath, mOffsetWatcher, null);
+            count = Long.parseLong(new String(data));
+        } catch (KeeperException.NoNodeException exception) {
+            // Watch the creation of the path.
+            if (zookeeper.exists(offsetPath, mOffsetWatcher) != null) {
+                return getCommittedOffsetCount(topicPartition);
+            }
+            LOG.warn("path {} does not exist in zookeeper", offsetPath);
+            count = -1;
+        }
+        synchronized (mCommittedOffsetCounts) {
+            // Do not cache a value that may have been invalidated while it was being read.
+            if (mCacheEpoch == epoch) {
+                mCommittedOffsetCounts.put(offsetPath, count);
+            }
+        }
+        return count;
+    }
+
+    private void invalidateCommittedOffsetCount(String offsetPath) {
+        synchronized (mCommittedOffsetCounts) {
+            mCacheEpoch++;
+            mCommittedOffsetCounts.remove(offsetPath);
+        }
+    }
+
     public List<Integer> getCommittedOffsetPartitions(String topic) throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
         String topicPath = getCommittedOffsetTopicPath(topic);
@@ -156,30 +279,209 @@ public class ZookeeperConnector {
         String prefix = "";
         for (int i = 1; i < elements.length - 1; ++i) {
             prefix += "/" + elements[i];
+            if (mCreatedPaths.contains(prefix)) {
+                continue;
+            }
             try {
                 zookeeper.create(prefix, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
                 LOG.info("created path {}", prefix);
             } catch (KeeperException.NodeExistsException exception) {
             }
+            mCreatedPaths.add(prefix);
         }
     }
 
-    public void setCommittedOffsetCount(TopicPartition topicPartition, long count)
+    // @return false if the path has been created concurrently and overwrite is not set
+    private boolean createCommittedOffset(String offsetPath, byte[] data, boolean overwrite)
             throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
-        String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
         LOG.info("creating missing parents for zookeeper path {}", offsetPath);
         createMissingParents(offsetPath);
+        try {
+            try {
+                zookeeper.create(offsetPath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            } catch (KeeperException.NoNodeException exception) {
+                // A parent was deleted since it was created, e.g. with ZookeeperClientMain.
+                mCreatedPaths.clear();
+                createMissingParents(offsetPath);
+                zookeeper.create(offsetPath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            }
+        } catch (KeeperException.NodeExistsException exception) {
+            if (!overwrite) {
+                return false;
+            }
+            zookeeper.setData(offsetPath, data, -1);
+        }
+        return true;
+    }
+
+    public void setCommittedOffsetCount(TopicPartition topicPartition, long count)
+            throws Exception {
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
+        invalidateCommittedOffsetCount(offsetPath);
         byte[] data = Long.toString(count).getBytes();
         try {
             LOG.info("setting zookeeper path {} value {}", offsetPath, count);
             // -1 matches any version
             zookeeper.setData(offsetPath, data, -1);
         } catch (KeeperException.NoNodeException exception) {
-            zookeeper.create(offsetPath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            createCommittedOffset(offsetPath, data, true);
+        }
+    }
+
+    /**
+     * Set the committed offset count if its znode has not been modified since it was read with
+     * {@link #getCommittedOffsetCount(TopicPartition, Stat)}.
+     * @param topicPartition The topic partition.
+     * @param version The version of the znode when it was read.
+     * @param count The new committed offset count.
+     * @return false if the offset has been modified concurrently.
+     * @throws Exception on error
+     */
+    public boolean compareAndSetCommittedOffsetCount(TopicPartition topicPartition, int version,
+                                                     long count) throws Exception {
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
+        invalidateCommittedOffsetCount(offsetPath);
+        byte[] data = Long.toString(count).getBytes();
+        LOG.info("setting zookeeper path {} value {} at version {}", offsetPath, count, version);
+        if (version == VERSION_ABSENT) {
+            return createCommittedOffset(offsetPath, data, false);
+        }
+        try {
+            zookeeper.setData(offsetPath, data, version);
+            return true;
+        } catch (KeeperException.BadVersionException exception) {
+            return false;
+        } catch (KeeperException.NoNodeException exception) {
+            // Deleted, e.g. with ZookeeperClientMain.
+            return false;
         }
     }
 
+    /**
+     * Like {@link #compareAndSetCommittedOffsetCount(TopicPartition, int, long)}, but the new
+     * offset is written in one transaction with a record of the upload attempt it commits.  The
+     * record is kept until it is deleted with {@link #deletePendingAttempt(TopicPartition)}, so
+     * that an attempt committed by a consumer that dies before finishing it can be finished by the
+     * next one.
+     * @param topicPartition The topic partition.
+     * @param version The version of the znode when it was read.
+     * @param count The new committed offset count.
+     * @param attempt The record of the attempt.
+     * @return false if the offset has been modified concurrently or a previous attempt is pending.
+     * @throws Exception on error
+     */
+    public boolean compareAndSetCommittedOffsetCount(TopicPartition topicPartition, int version,
+                                                     long count, byte[] attempt) throws Exception {
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
+        String attemptPath = getPendingAttemptPath(topicPartition);
+        invalidateCommittedOffsetCount(offsetPath);
+        byte[] data = Long.toString(count).getBytes();
+        LOG.info("setting zookeeper path {} value {} at version {} with attempt {}", offsetPath, count,
+            version, attemptPath);
+        List<Op> ops = new ArrayList<Op>();
+        if (version == VERSION_ABSENT) {
+            ops.add(Op.create(offsetPath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        } else {
+            ops.add(Op.setData(offsetPath, data, version));
+        }
+        ops.add(Op.create(attemptPath, attempt, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        for (int i = 0; ; ++i) {
+            if (version == VERSION_ABSENT) {
+                createMissingParents(offsetPath);
+            }
+            createMissingParents(attemptPath);
+            try {
+                zookeeper.multi(ops);
+                return true;
+            } catch (KeeperException.BadVersionException exception) {
+                return false;
+            } catch (KeeperException.NodeExistsException exception) {
+                return false;
+            } catch (KeeperException.NoNodeException exception) {
+                if (i > 0) {
+                    // The offset has been deleted, e.g. with ZookeeperClientMain.
+                    return false;
+                }
+                // A parent was deleted since it was created.
+                mCreatedPaths.clear();
+            }
+        }
+    }
+
+    /**
+     * @param topicPartition The topic partition.
+     * @return The record of an upload attempt committed with
+     *     {@link #compareAndSetCommittedOffsetCount(TopicPartition, int, long, byte[])} and not
+     *     deleted since, or null if there is none.
+     * @throws Exception on error
+     */
+    public byte[] getPendingAttempt(TopicPartition topicPartition) throws Exception {
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        try {
+            return zookeeper.getData(getPendingAttemptPath(topicPartition), false, null);
+        } catch (KeeperException.NoNodeException exception) {
+            return null;
+        }
+    }
+
+    public void deletePendingAttempt(TopicPartition topicPartition) throws Exception {
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        String attemptPath = getPendingAttemptPath(topicPartition);
+        LOG.info("deleting path {}", attemptPath);
+        try {
+            zookeeper.delete(attemptPath, -1);
+        } catch (KeeperException.NoNodeException exception) {
+        }
+    }
+
+    /**
+     * Set the committed offset counts of several topic partitions.  The updates are pipelined:
+     * they are all sent before waiting for the first response, so the batch costs about one
+     * zookeeper round trip rather than one per partition.  Updates are not atomic; if any of them
+     * fails an exception is thrown after all others have completed.
+     * @param counts Committed offset count per topic partition.
+     * @throws Exception on error
+     */
+    public void setCommittedOffsetCounts(Map<TopicPartition, Long> counts) throws Exception {
+        ZooKeeper zookeeper = mZookeeperClient.get();
+        final Map<TopicPartition, Integer> results = new ConcurrentHashMap<TopicPartition, Integer>();
+        final CountDownLatch latch = new CountDownLatch(counts.size());
+        Map<TopicPartition, byte[]> data = new LinkedHashMap<TopicPartition, byte[]>();
+        for (Map.Entry<TopicPartition, Long> entry : counts.entrySet()) {
+            TopicPartition topicPartition = entry.getKey();
+            String offsetPath = getCommittedOffsetPartitionPath(topicPartition);
+            invalidateCommittedOffsetCount(offsetPath);
+            data.put(topicPartition, Long.toString(entry.getValue()).getBytes());
+            LOG.info("setting zookeeper path {} value {}", offsetPath, entry.getValue());
+            // -1 matches any version
+            zookeeper.setData(offsetPath, data.get(topicPartition), -1, new AsyncCallback.StatCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, Stat stat) {
+                    results.put((TopicPartition) ctx, rc);
+                    latch.countDown();
+                }
+            }, topicPartition);
+        }
+        latch.await();
+        for (Map.Entry<TopicPartition, byte[]> entry : data.entrySet()) {
+            String offsetPath = getCommittedOffsetPartitionPath(entry.getKey());
+            KeeperException.Code code = KeeperException.Code.get(results.get(entry.getKey()));
+            if (code == KeeperException.Code.NONODE) {
+                createCommittedOffset(offsetPath, entry.getValue(), true);
+            } else if (code != KeeperException.Code.OK) {
+                throw KeeperException.create(code, offsetPath);
+            }
+        }
+    }
+
+    public void flush() {
+        // Offsets are written synchronously.
+    }
+
     public void deleteCommittedOffsetTopicCount(String topic) throws Exception {
         ZooKeeper zookeeper = mZookeeperClient.get();
         List<Integer> partitions = getCommittedOffsetPartitions(topic);
@@ -202,4 +504,9 @@ public class ZookeeperConnector {
     protected void setConfig(SecorConfig config) {
         this.mConfig = config;
     }
+
+    // For testing use only.
+    protected void setZookeeperClient(ZooKeeperClient zookeeperClient) {
+        this.mZookeeperClient = zookeeperClient;
+    }
 }
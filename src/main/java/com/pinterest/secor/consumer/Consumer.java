@@ -21,21 +21,29 @@ package com.pinterest.secor.consumer;
 import com.pinterest.secor.common.FileRegistry;
 import com.pinterest.secor.common.OffsetTracker;
 import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.common.TopicPartition;
+import com.pinterest.secor.io.impl.RawBackupFileReaderWriterFactory;
 import com.pinterest.secor.message.Message;
 import com.pinterest.secor.message.ParsedMessage;
 import com.pinterest.secor.monitoring.MetricCollector;
 import com.pinterest.secor.parser.MessageParser;
 import com.pinterest.secor.reader.LegacyConsumerTimeoutException;
 import com.pinterest.secor.reader.MessageReader;
+import com.pinterest.secor.tools.LogFileDeleter;
 import com.pinterest.secor.transformer.MessageTransformer;
 import com.pinterest.secor.uploader.UploadManager;
+import com.pinterest.secor.uploader.UploadScheduler;
 import com.pinterest.secor.uploader.Uploader;
 import com.pinterest.secor.util.ReflectionUtil;
+import com.pinterest.secor.writer.LocalSpool;
 import com.pinterest.secor.writer.MessageWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 
 /**
  * Consumer is a top-level component coordinating reading, writing, and uploading Kafka log
@@ -50,6 +58,12 @@ import java.io.IOException;
 public class Consumer extends Thread {
     private static final Logger LOG = LoggerFactory.getLogger(Consumer.class);
 
+    protected static final double DECAY = 0.999;
+    private static final double MAX_UNPARSABLE_MESSAGES = 1000.;
+    // How long the shutdown hook waits for a Consumer that does not upload on shutdown to stop
+    // writing before its local files are deleted.
+    private static final long SHUTDOWN_STOP_TIMEOUT_MILLIS = 10000;
+
     protected SecorConfig mConfig;
     protected MetricCollector mMetricCollector;
 
@@ -59,18 +73,27 @@ public class Consumer extends Thread {
     protected OffsetTracker mOffsetTracker;
     protected MessageTransformer mMessageTransformer;
     protected Uploader mUploader;
+    // Null unless uploads are scheduled per topic partition.
+    protected UploadScheduler mUploadScheduler;
+    // Null unless local files are checkpointed.
+    protected LocalSpool mLocalSpool;
     // TODO(pawel): we should keep a count per topic partition.
     protected double mUnparsableMessages;
-    // If we aren't configured to upload on shutdown, then don't bother to check
-    // the volatile variable.
+    // Whether the consumer uploads or checkpoints once after a shutdown request, and the shutdown
+    // waits for it.
     private boolean mUploadOnShutdown;
+    private boolean mStopOnShutdown;
     private volatile boolean mShuttingDown = false;
+    // Whether messages are written as they are, without building ParsedMessages.
+    protected boolean mWriteRawMessages;
+    // Messages of the last fetch that have not been processed yet.
+    private Iterator<Message> mMessageBatch = Collections.emptyIterator();
 
     public Consumer(SecorConfig config) {
         mConfig = config;
     }
 
-    private void init() throws Exception {
+    protected void init() throws Exception {
         mOffsetTracker = new OffsetTracker();
         mMessageReader = new MessageReader(mConfig, mOffsetTracker);
         mMetricCollector = ReflectionUtil.createMetricCollector(mConfig.getMetricsCollectorClass());
@@ -80,27 +103,58 @@ public class Consumer extends Thread {
 
         mUploader = ReflectionUtil.createUploader(mConfig.getUploaderClass());
         mUploader.init(mConfig, mOffsetTracker, fileRegistry, uploadManager, mMessageReader, mMetricCollector);
+        if (mConfig.getUploadSchedulerEnabled()) {
+            mUploadScheduler = new UploadScheduler(mConfig, fileRegistry);
+        }
         mMessageWriter = new MessageWriter(mConfig, mOffsetTracker, fileRegistry);
+        if (mConfig.getLocalSpoolCheckpointSeconds() > 0) {
+            mLocalSpool = new LocalSpool(mConfig, mOffsetTracker, fileRegistry, mMessageReader);
+        }
         mMessageParser = ReflectionUtil.createMessageParser(mConfig.getMessageParserClass(), mConfig);
         mMessageTransformer = ReflectionUtil.createMessageTransformer(mConfig.getMessageTransformerClass(), mConfig);
         mUnparsableMessages = 0.;
+        // Raw backup files only need the partitions of a message.
+        mWriteRawMessages = RawBackupFileReaderWriterFactory.class.getName().equals(
+            mConfig.getFileReaderWriterFactory());
 
         mUploadOnShutdown = mConfig.getUploadOnShutdown();
-        if (mUploadOnShutdown) {
-            Runtime.getRuntime().addShutdownHook(this.new FinalUploadShutdownHook());
-        }
+        mStopOnShutdown = mUploadOnShutdown || mLocalSpool != null;
+        Runtime.getRuntime().addShutdownHook(this.new ShutdownHook(fileRegistry, mLocalSpool != null));
     }
 
-    // When the JVM starts to shut down, tell the Consumer thread to upload once and wait for it to finish.
-    private class FinalUploadShutdownHook extends Thread {
+    // When the JVM starts to shut down, tell the Consumer thread to stop, upload or checkpoint
+    // once if configured to, and wait for it to finish.  Otherwise wait only long enough for it
+    // to stop writing.  Then delete the local files that are left unless they are kept for the
+    // next start.
+    private class ShutdownHook extends Thread {
+        private final FileRegistry mFileRegistry;
+        private final boolean mKeepLocalFiles;
+
+        private ShutdownHook(FileRegistry fileRegistry, boolean keepLocalFiles) {
+            mFileRegistry = fileRegistry;
+            mKeepLocalFiles = keepLocalFiles;
+        }
+
         @Override
         public void run() {
             mShuttingDown = true;
             try {
-                Consumer.this.join();
+                if (mStopOnShutdown) {
+                    Consumer.this.join();
+                } else {
+                    Consumer.this.join(SHUTDOWN_STOP_TIMEOUT_MILLIS);
+                }
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
+            if (mKeepLocalFiles) {
+                return;
+            }
+            try {
+                new LogFileDeleter(mConfig).deleteLocalFiles(mFileRegistry.getLocalFileTracker());
+            } catch (Exception e) {
+                LOG.warn("Failed to delete local files", e);
+            }
         }
     }
 
@@ -124,20 +178,35 @@ public class Consumer extends Thread {
                 break;
             }
 
-            if (mUploadOnShutdown && mShuttingDown) {
+            if (mShuttingDown) {
                 LOG.info("Shutting down");
                 break;
             }
 
+            completeUploads();
+
             long now = System.currentTimeMillis();
-            if (nMessages++ % checkMessagesPerSecond == 0 ||
+            if (mLocalSpool != null && now >= mLocalSpool.getNextCheckpoint()) {
+                checkpointLocalFiles();
+            }
+            if (mUploadScheduler != null) {
+                if (now >= mUploadScheduler.getNextDeadline()) {
+                    checkScheduledUploadPolicy(now);
+                }
+            } else if (nMessages++ % checkMessagesPerSecond == 0 ||
                     (now - lastChecked) > checkEveryNSeconds * 1000) {
                 lastChecked = now;
                 checkUploadPolicy(false);
             }
         }
-        LOG.info("Done reading messages; uploading what we have");
-        checkUploadPolicy(true);
+        if (!mShuttingDown || mUploadOnShutdown) {
+            LOG.info("Done reading messages; uploading what we have");
+            checkUploadPolicy(true);
+        }
+        if (mShuttingDown && mLocalSpool != null) {
+            LOG.info("Done reading messages; checkpointing local files");
+            checkpointLocalFiles();
+        }
         LOG.info("Consumer thread done");
     }
 
@@ -149,15 +218,40 @@ public class Consumer extends Thread {
         }
     }
 
+    protected void completeUploads() {
+        try {
+            mUploader.completeUploads();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to complete uploads", e);
+        }
+    }
+
+    protected void checkpointLocalFiles() {
+        try {
+            mLocalSpool.checkpoint();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to checkpoint local files", e);
+        }
+    }
+
+    protected void checkScheduledUploadPolicy(long now) {
+        try {
+            Collection<TopicPartition> topicPartitions = mUploadScheduler.pollDue(now);
+            mUploader.applyPolicy(topicPartitions, false);
+            mUploadScheduler.reschedule(topicPartitions, System.currentTimeMillis());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to apply upload policy", e);
+        }
+    }
+
     // @return whether there are more messages left to consume
     protected boolean consumeNextMessage() {
         Message rawMessage = null;
         try {
-            boolean hasNext = mMessageReader.hasNext();
-            if (!hasNext) {
+            if (!hasNextMessage()) {
                 return false;
             }
-            rawMessage = mMessageReader.read();
+            rawMessage = nextMessage();
         } catch (LegacyConsumerTimeoutException e) {
             // We wait for a new message with a timeout to periodically apply the upload policy
             // even if no messages are delivered.
@@ -165,52 +259,120 @@ public class Consumer extends Thread {
         }
         if (rawMessage != null) {
             // Before parsing, update the offset and remove any redundant data
-            try {
-                mMessageWriter.adjustOffset(rawMessage);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to adjust offset.", e);
-            }
+            adjustOffset(rawMessage);
+            Message transformedMessage = null;
+            String[] partitions = null;
             ParsedMessage parsedMessage = null;
             try {
-                Message transformedMessage = mMessageTransformer.transform(rawMessage);
+                transformedMessage = mMessageTransformer.transform(rawMessage);
                 if (transformedMessage == null) {
                     return true;
                 }
 
-                parsedMessage = mMessageParser.parse(transformedMessage);
-                final double DECAY = 0.999;
+                if (mWriteRawMessages) {
+                    partitions = mMessageParser.extractPartitions(transformedMessage);
+                } else {
+                    parsedMessage = mMessageParser.parse(transformedMessage);
+                }
                 mUnparsableMessages *= DECAY;
             } catch (Throwable e) {
-                mMetricCollector.increment("consumer.message_errors.count", rawMessage.getTopic());
-
-                mUnparsableMessages++;
-                final double MAX_UNPARSABLE_MESSAGES = 1000.;
-                if (mUnparsableMessages > MAX_UNPARSABLE_MESSAGES) {
-                    throw new RuntimeException("Failed to parse message " + rawMessage, e);
-                }
-                LOG.warn("Failed to parse message {}", rawMessage, e);
+                handleUnparsableMessage(rawMessage, e);
             }
 
             if (parsedMessage != null) {
-                try {
-                    mMessageWriter.write(parsedMessage);
-
-                    mMetricCollector.metric("consumer.message_size_bytes", rawMessage.getPayload().length, rawMessage.getTopic());
-                    mMetricCollector.increment("consumer.throughput_bytes", rawMessage.getPayload().length, rawMessage.getTopic());
-                } catch (Exception e) {
-                    // Log the full stringification of parsedMessage at DEBUG level, but include only a truncated
-                    // version in the thrown exception, since messages can be ginormous and this exception often
-                    // just indicates an IO error unrelated to the message content.
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Failed to write message " + parsedMessage, e);
-                    }
-                    throw new RuntimeException("Failed to write message " + parsedMessage.toTruncatedString(), e);
-                }
+                writeMessage(rawMessage, parsedMessage);
+            } else if (partitions != null) {
+                writeMessage(rawMessage, transformedMessage, partitions);
             }
         }
         return true;
     }
 
+    protected boolean hasNextMessage() {
+        return mMessageBatch.hasNext() || mMessageReader.hasNext();
+    }
+
+    // @return the next message of the current fetch, fetching a new batch if needed, or null if
+    // nothing was fetched.  Messages committed since the batch was read and messages recovered
+    // from local files are skipped.
+    protected Message nextMessage() {
+        if (!mMessageBatch.hasNext()) {
+            mMessageBatch = mMessageReader.readBatch().iterator();
+        }
+        while (mMessageBatch.hasNext()) {
+            Message message = mMessageBatch.next();
+            if (!isCommitted(message) && (mLocalSpool == null || !isRecovered(message))) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    // The reader skips committed messages when it reads a batch, but the upload policy may commit
+    // the offsets of the rest of the batch before it is written.
+    protected boolean isCommitted(Message rawMessage) {
+        long committedOffsetCount = mOffsetTracker.getOffsets(TopicPartition.of(rawMessage.getTopic(),
+            rawMessage.getKafkaPartition())).getTrueCommittedOffsetCount();
+        if (rawMessage.getOffset() < committedOffsetCount) {
+            LOG.debug("skipping message {} because its offset precedes committed offset count {}",
+                rawMessage, committedOffsetCount);
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean isRecovered(Message rawMessage) {
+        try {
+            return mLocalSpool.isRecovered(rawMessage);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to recover local files of message " + rawMessage, e);
+        }
+    }
+
+    protected void adjustOffset(Message rawMessage) {
+        try {
+            mMessageWriter.adjustOffset(rawMessage);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to adjust offset.", e);
+        }
+    }
+
+    protected void handleUnparsableMessage(Message rawMessage, Throwable e) {
+        mMetricCollector.increment("consumer.message_errors.count", rawMessage.getTopic());
+
+        mUnparsableMessages++;
+        if (mUnparsableMessages > MAX_UNPARSABLE_MESSAGES) {
+            throw new RuntimeException("Failed to parse message " + rawMessage, e);
+        }
+        LOG.warn("Failed to parse message {}", rawMessage, e);
+    }
+
+    protected void writeMessage(Message rawMessage, ParsedMessage parsedMessage) {
+        writeMessage(rawMessage, parsedMessage, parsedMessage.getPartitions());
+    }
+
+    protected void writeMessage(Message rawMessage, Message message, String[] partitions) {
+        try {
+            mMessageWriter.write(message, partitions);
+            mUploader.uploadEvictedFiles();
+            if (mUploadScheduler != null) {
+                mUploadScheduler.recordWrite(TopicPartition.of(message.getTopic(),
+                    message.getKafkaPartition()), System.currentTimeMillis());
+            }
+
+            mMetricCollector.metric("consumer.message_size_bytes", rawMessage.getPayload().length, rawMessage.getTopic());
+            mMetricCollector.increment("consumer.throughput_bytes", rawMessage.getPayload().length, rawMessage.getTopic());
+        } catch (Exception e) {
+            // Log the full stringification of the message at DEBUG level, but include only a truncated
+            // version in the thrown exception, since messages can be ginormous and this exception often
+            // just indicates an IO error unrelated to the message content.
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Failed to write message " + message, e);
+            }
+            throw new RuntimeException("Failed to write message " + message.toTruncatedString(), e);
+        }
+    }
+
     /**
      * Helper to get the offset tracker (used in tests)
      *
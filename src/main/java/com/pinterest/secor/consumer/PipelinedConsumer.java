@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.consumer;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.message.ParsedMessage;
+import com.pinterest.secor.parser.MessageParser;
+import com.pinterest.secor.reader.LegacyConsumerTimeoutException;
+import com.pinterest.secor.transformer.MessageTransformer;
+import com.pinterest.secor.util.ReflectionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pipelined consumer runs message transformation and parsing on a pool of parser threads while
+ * the consumer thread keeps polling Kafka and writing parsed messages.
+ *
+ * The consumer thread polls a message, hands it to the parser pool and appends the resulting
+ * future to a bounded in-order queue.  Completed futures are drained from the head of the queue
+ * and written in the order the messages were polled, so offset adjustment, writing, and uploading
+ * still happen on the consumer thread in per-partition offset order.  Kafka consumers, the offset
+ * tracker, and file writers are not thread safe, hence only the parse stage is parallel.
+ *
+ * Parsers and transformers are not required to be thread safe; every parser thread gets its own
+ * instances.
+ */
+public class PipelinedConsumer extends Consumer {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedConsumer.class);
+
+    private ExecutorService mParserExecutor;
+    private ThreadLocal<MessageTransformer> mThreadTransformer;
+    private ThreadLocal<MessageParser> mThreadParser;
+    private ArrayDeque<Future<ParseResult>> mPendingMessages;
+    private int mMaxPendingMessages;
+
+    public PipelinedConsumer(SecorConfig config) {
+        super(config);
+    }
+
+    @Override
+    protected void init() throws Exception {
+        super.init();
+        initParsers();
+    }
+
+    // Start the parser pool.
+    protected void initParsers() {
+        mThreadTransformer = new ThreadLocal<MessageTransformer>() {
+            @Override
+            protected MessageTransformer initialValue() {
+                try {
+                    return ReflectionUtil.createMessageTransformer(mConfig.getMessageTransformerClass(), mConfig);
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to create message transformer", e);
+                }
+            }
+        };
+        mThreadParser = new ThreadLocal<MessageParser>() {
+            @Override
+            protected MessageParser initialValue() {
+                try {
+                    return ReflectionUtil.createMessageParser(mConfig.getMessageParserClass(), mConfig);
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to create message parser", e);
+                }
+            }
+        };
+        mMaxPendingMessages = Math.max(1, mConfig.getConsumerParserQueueSize());
+        mPendingMessages = new ArrayDeque<Future<ParseResult>>(mMaxPendingMessages);
+        mParserExecutor = Executors.newFixedThreadPool(mConfig.getConsumerParserThreads(),
+            new ParserThreadFactory(getName()));
+        LOG.info("Consumer {} parses messages on {} threads with up to {} pending messages",
+            getName(), mConfig.getConsumerParserThreads(), mMaxPendingMessages);
+    }
+
+    @Override
+    public void run() {
+        try {
+            super.run();
+        } finally {
+            if (mParserExecutor != null) {
+                mParserExecutor.shutdownNow();
+            }
+        }
+    }
+
+    @Override
+    protected void checkUploadPolicy(boolean forceUpload) {
+        if (forceUpload) {
+            // Everything polled so far has to be on disk before the final upload.
+            writePendingMessages(true);
+        }
+        super.checkUploadPolicy(forceUpload);
+    }
+
+    @Override
+    protected boolean consumeNextMessage() {
+        Message rawMessage = null;
+        try {
+            if (!hasNextMessage()) {
+                writePendingMessages(true);
+                return false;
+            }
+            rawMessage = nextMessage();
+        } catch (LegacyConsumerTimeoutException e) {
+            // We wait for a new message with a timeout to periodically apply the upload policy
+            // even if no messages are delivered.
+            LOG.trace("Consumer timed out", e);
+        }
+        if (rawMessage != null) {
+            if (mPendingMessages.size() >= mMaxPendingMessages) {
+                writeNextPendingMessage();
+            }
+            mPendingMessages.addLast(mParserExecutor.submit(new ParseTask(rawMessage)));
+        }
+        writePendingMessages(false);
+        return true;
+    }
+
+    // Write pending messages in the order they were polled.  Unless blocking, stop at the first
+    // message that is still being parsed.
+    private void writePendingMessages(boolean blocking) {
+        while (!mPendingMessages.isEmpty() && (blocking || mPendingMessages.peekFirst().isDone())) {
+            writeNextPendingMessage();
+        }
+    }
+
+    private void writeNextPendingMessage() {
+        ParseResult result;
+        try {
+            result = mPendingMessages.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a parsed message", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to parse message", e.getCause());
+        }
+
+        // The upload policy may have committed the offset while the message was being parsed.
+        if (isCommitted(result.mRawMessage)) {
+            return;
+        }
+        adjustOffset(result.mRawMessage);
+        if (result.mError != null) {
+            handleUnparsableMessage(result.mRawMessage, result.mError);
+        } else if (!result.mFiltered) {
+            mUnparsableMessages *= DECAY;
+            if (result.mParsedMessage != null) {
+                writeMessage(result.mRawMessage, result.mParsedMessage);
+            } else if (result.mPartitions != null) {
+                writeMessage(result.mRawMessage, result.mTransformedMessage, result.mPartitions);
+            }
+        }
+    }
+
+    private static class ParseResult {
+        private final Message mRawMessage;
+        private final ParsedMessage mParsedMessage;
+        // Set instead of the parsed message when raw messages are written.
+        private final Message mTransformedMessage;
+        private final String[] mPartitions;
+        private final boolean mFiltered;
+        private final Throwable mError;
+
+        private ParseResult(Message rawMessage, ParsedMessage parsedMessage, Message transformedMessage,
+                            String[] partitions, boolean filtered, Throwable error) {
+            mRawMessage = rawMessage;
+            mParsedMessage = parsedMessage;
+            mTransformedMessage = transformedMessage;
+            mPartitions = partitions;
+            mFiltered = filtered;
+            mError = error;
+        }
+    }
+
+    private class ParseTask implements Callable<ParseResult> {
+        private final Message mRawMessage;
+
+        private ParseTask(Message rawMessage) {
+            mRawMessage = rawMessage;
+        }
+
+        @Override
+        public ParseResult call() {
+            try {
+                Message transformedMessage = mThreadTransformer.get().transform(mRawMessage);
+                if (transformedMessage == null) {
+                    return new ParseResult(mRawMessage, null, null, null, true, null);
+                }
+                if (mWriteRawMessages) {
+                    String[] partitions = mThreadParser.get().extractPartitions(transformedMessage);
+                    return new ParseResult(mRawMessage, null, transformedMessage, partitions, false, null);
+                }
+                ParsedMessage parsedMessage = mThreadParser.get().parse(transformedMessage);
+                return new ParseResult(mRawMessage, parsedMessage, null, null, false, null);
+            } catch (Throwable e) {
+                return new ParseResult(mRawMessage, null, null, null, false, e);
+            }
+        }
+    }
+
+    private static class ParserThreadFactory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        private ParserThreadFactory(String consumerName) {
+            mPrefix = consumerName + "-parser-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mPrefix + mThreadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
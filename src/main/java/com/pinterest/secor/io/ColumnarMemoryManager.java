@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.monitoring.MetricCollector;
+import com.pinterest.secor.util.ReflectionUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.orc.MemoryManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar memory manager shares a memory budget between the Parquet and ORC writers of all
+ * consumer threads.
+ *
+ * Every writer reserves the size of its row group or stripe.  While the reservations exceed
+ * secor.columnar.memory.bytes, they are all scaled down by the same factor, as Parquet's and
+ * ORC's own memory managers do for the writers of a single output format:
+ * <ul>
+ *   <li>ORC writers flush a stripe as soon as their buffered rows exceed the scaled stripe size.
+ *   Writers are checked every few thousand rows by the thread writing to them, so the largest
+ *   writers flush first.</li>
+ *   <li>Parquet writers fix their row group size when they are created, so new writers get a
+ *   scaled row group size.</li>
+ * </ul>
+ */
+public class ColumnarMemoryManager {
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarMemoryManager.class);
+
+    // Same as ORC, checking writers on every row batch would be too expensive.
+    private static final int ROWS_BETWEEN_CHECKS = 5000;
+    // Smaller row groups encode and compress poorly.
+    private static final long MIN_ROW_GROUP_BYTES = 1024 * 1024;
+
+    private static ColumnarMemoryManager sInstance;
+
+    private final long mBudgetBytes;
+    private final MetricCollector mMetricCollector;
+
+    // Guarded by this.
+    private final Map<Object, Allocation> mAllocations = new HashMap<Object, Allocation>();
+    private long mAllocatedBytes;
+    private final ThreadLocal<int[]> mRowsSinceCheck = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * @param config Secor configuration, used when the manager is created by the first caller.
+     * @return The columnar memory manager of this process.
+     */
+    public static synchronized ColumnarMemoryManager getInstance(SecorConfig config) {
+        if (sInstance == null) {
+            sInstance = new ColumnarMemoryManager(config);
+        }
+        return sInstance;
+    }
+
+    protected ColumnarMemoryManager(SecorConfig config) {
+        long budgetBytes = config.getColumnarMemoryBytes();
+        mBudgetBytes = budgetBytes > 0 ? budgetBytes : Runtime.getRuntime().maxMemory() / 2;
+        mMetricCollector = createMetricCollector(config);
+        LOG.info("Columnar writers share a memory budget of {} bytes", mBudgetBytes);
+    }
+
+    private static MetricCollector createMetricCollector(SecorConfig config) {
+        try {
+            return ReflectionUtil.createMetricCollector(config.getMetricsCollectorClass());
+        } catch (Exception e) {
+            LOG.warn("Failed to create metric collector, columnar memory metrics are disabled", e);
+            return null;
+        }
+    }
+
+    /**
+     * Register a Parquet writer.  It has to be removed with {@link #removeParquetWriter(Object)}.
+     * @param writer The writer.
+     * @param topic The topic the writer writes.
+     * @param rowGroupBytes Configured row group size.
+     * @return Row group size the writer should use.
+     */
+    public synchronized int addParquetWriter(Object writer, String topic, int rowGroupBytes) {
+        add(writer, new Allocation(topic, rowGroupBytes, null));
+        long scaledBytes = Math.round(rowGroupBytes * getScale());
+        return (int) Math.max(Math.min(rowGroupBytes, MIN_ROW_GROUP_BYTES), scaledBytes);
+    }
+
+    public synchronized void removeParquetWriter(Object writer) {
+        remove(writer);
+    }
+
+    /**
+     * @param topic The topic of the ORC writer.
+     * @return ORC memory manager to set in the options of the writer.
+     */
+    public MemoryManager getOrcMemoryManager(final String topic) {
+        return new MemoryManager() {
+            @Override
+            public void addWriter(Path path, long requestedAllocation, Callback callback) {
+                synchronized (ColumnarMemoryManager.this) {
+                    add(path, new Allocation(topic, requestedAllocation, callback));
+                }
+            }
+
+            @Override
+            public void removeWriter(Path path) {
+                synchronized (ColumnarMemoryManager.this) {
+                    remove(path);
+                }
+            }
+
+            @Override
+            public void addedRow(int rows) throws IOException {
+                int[] rowsSinceCheck = mRowsSinceCheck.get();
+                rowsSinceCheck[0] += rows;
+                if (rowsSinceCheck[0] >= ROWS_BETWEEN_CHECKS) {
+                    rowsSinceCheck[0] = 0;
+                    checkOrcWriters();
+                }
+            }
+        };
+    }
+
+    // Let the ORC writers of this thread flush their stripes if they exceed their scaled size.
+    // ORC writers are not thread safe, the writers of other threads are checked by those threads.
+    private void checkOrcWriters() throws IOException {
+        double scale;
+        List<Allocation> allocations = new ArrayList<Allocation>();
+        synchronized (this) {
+            scale = getScale();
+            Thread thread = Thread.currentThread();
+            for (Allocation allocation : mAllocations.values()) {
+                if (allocation.mCallback != null && allocation.mOwner == thread) {
+                    allocations.add(allocation);
+                }
+            }
+        }
+        for (Allocation allocation : allocations) {
+            if (allocation.mCallback.checkMemory(scale) && scale < 1 && mMetricCollector != null) {
+                mMetricCollector.increment("columnar.memory.forced_flushes", allocation.mTopic);
+            }
+        }
+    }
+
+    private double getScale() {
+        return mAllocatedBytes > mBudgetBytes ? (double) mBudgetBytes / mAllocatedBytes : 1;
+    }
+
+    private void add(Object writer, Allocation allocation) {
+        Allocation previous = mAllocations.put(writer, allocation);
+        if (previous != null) {
+            mAllocatedBytes -= previous.mBytes;
+        }
+        mAllocatedBytes += allocation.mBytes;
+        reportAllocation();
+    }
+
+    private void remove(Object writer) {
+        Allocation allocation = mAllocations.remove(writer);
+        if (allocation != null) {
+            mAllocatedBytes -= allocation.mBytes;
+            reportAllocation();
+        }
+    }
+
+    private void reportAllocation() {
+        if (mMetricCollector != null) {
+            mMetricCollector.gauge("columnar.memory.budget_bytes", mBudgetBytes, null);
+            mMetricCollector.gauge("columnar.memory.allocated_bytes", mAllocatedBytes, null);
+        }
+    }
+
+    private static class Allocation {
+        private final String mTopic;
+        private final long mBytes;
+        // Null for Parquet writers.
+        private final MemoryManager.Callback mCallback;
+        private final Thread mOwner = Thread.currentThread();
+
+        private Allocation(String topic, long bytes, MemoryManager.Callback callback) {
+            mTopic = topic;
+            mBytes = bytes;
+            mCallback = callback;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io;
+
+import com.pinterest.secor.common.LogFilePath;
+
+import java.io.IOException;
+
+/**
+ * File writer indexing the offsets it writes, so that its files can be trimmed without
+ * rewriting all their messages.
+ */
+public interface IndexedFileWriter extends FileWriter {
+    /**
+     * @return Index of the file written, or null if the file is not indexed.
+     */
+    public OffsetIndex getOffsetIndex();
+
+    /**
+     * Append the messages of a file written by a writer of the same type, starting at the given
+     * offset.  Only the messages of the index entry containing the offset are rewritten, the rest
+     * of the file is copied.
+     *
+     * @param srcPath The closed file to append.
+     * @param srcIndex Index of the file to append.
+     * @param startOffset Offset of the first message to append.
+     * @throws java.io.IOException on IO error
+     */
+    public void append(LogFilePath srcPath, OffsetIndex srcIndex, long startOffset) throws IOException;
+}
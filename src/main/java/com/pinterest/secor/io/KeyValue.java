@@ -31,6 +31,7 @@ public class KeyValue {
 	private final byte[] mKafkaKey;
 	private final byte[] mValue;
 	private final long mTimestamp;
+	private final Object mDecodedValue;
 
 	// constructor
 	public KeyValue(long offset, byte[] value) {
@@ -38,6 +39,7 @@ public class KeyValue {
 		this.mKafkaKey = new byte[0];
 		this.mValue = value;
 		this.mTimestamp = -1;
+		this.mDecodedValue = null;
 	}
 
 	// constructor
@@ -46,6 +48,7 @@ public class KeyValue {
 		this.mKafkaKey = kafkaKey;
 		this.mValue = value;
 		this.mTimestamp = -1;
+		this.mDecodedValue = null;
 	}
 
 	// constructor
@@ -54,6 +57,16 @@ public class KeyValue {
 		this.mKafkaKey = kafkaKey;
 		this.mValue = value;
 		this.mTimestamp = timestamp;
+		this.mDecodedValue = null;
+	}
+
+	// constructor, decodedValue is the value already decoded by the message parser
+	public KeyValue(long offset, byte[] kafkaKey, byte[] value, long timestamp, Object decodedValue) {
+		this.mOffset = offset;
+		this.mKafkaKey = kafkaKey;
+		this.mValue = value;
+		this.mTimestamp = timestamp;
+		this.mDecodedValue = decodedValue;
 	}
 
 	public long getOffset() {
@@ -72,6 +85,10 @@ public class KeyValue {
 		return this.mTimestamp;
 	}
 
+	public Object getDecodedValue() {
+		return this.mDecodedValue;
+	}
+
 	public boolean hasKafkaKey() {
 		return this.mKafkaKey != null && this.mKafkaKey.length != 0;
 	}
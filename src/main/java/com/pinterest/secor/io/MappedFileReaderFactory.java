@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io;
+
+import com.pinterest.secor.common.LogFilePath;
+import org.apache.hadoop.io.compress.CompressionCodec;
+
+/**
+ * File reader writer factory able to read local files through a memory mapping, so that they are
+ * scanned without being copied through streams.
+ */
+public interface MappedFileReaderFactory {
+    /**
+     * Build a reader of a local file mapped in memory.
+     *
+     * @param logFilePath Path of the file to read.
+     * @param codec Compression codec of the file, or null if it is not compressed.
+     * @param index Offset index to seek with, or null to seek with the index stored in the file, if
+     *              any, or by skipping messages.
+     * @return The reader, or null if the file is remote, compressed, or too large to be mapped.
+     * @throws Exception on error
+     */
+    public SeekableFileReader BuildMappedFileReader(LogFilePath logFilePath, CompressionCodec codec,
+                                                    OffsetIndex index) throws Exception;
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io;
+
+import java.util.Arrays;
+
+/**
+ * Offset index maps the offsets of some of the messages of a file to the positions in the file
+ * where reading can start from.  All the messages after an entry's position have offsets at or
+ * above the entry's offset.
+ *
+ * Entries are added in increasing offset and position order.
+ */
+public class OffsetIndex {
+    private long[] mOffsets = new long[16];
+    private long[] mPositions = new long[16];
+    private int mSize;
+    private long mLastOffset = -1;
+
+    public void add(long offset, long position) {
+        if (mSize == mOffsets.length) {
+            mOffsets = Arrays.copyOf(mOffsets, mSize * 2);
+            mPositions = Arrays.copyOf(mPositions, mSize * 2);
+        }
+        mOffsets[mSize] = offset;
+        mPositions[mSize] = position;
+        mSize++;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getOffset(int entry) {
+        return mOffsets[entry];
+    }
+
+    public long getPosition(int entry) {
+        return mPositions[entry];
+    }
+
+    /**
+     * @param offset Offset to look up.
+     * @return The last entry with an offset at or below the given offset, -1 if there is none.
+     */
+    public int floorEntry(long offset) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (mOffsets[middle] <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * @return Offset of the last message written to the file, -1 if the file is empty.
+     */
+    public long getLastOffset() {
+        return mLastOffset;
+    }
+
+    public void setLastOffset(long lastOffset) {
+        mLastOffset = lastOffset;
+    }
+}
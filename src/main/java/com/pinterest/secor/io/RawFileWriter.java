@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io;
+
+import java.io.IOException;
+
+/**
+ * File writer storing the fields of messages as they are, so that messages can be appended
+ * without building a {@link KeyValue}.
+ */
+public interface RawFileWriter extends FileWriter {
+    /**
+     * Append a message.
+     *
+     * @param offset Offset of the message.
+     * @param timestamp Timestamp of the message.
+     * @param kafkaKey Key of the message, may be null.
+     * @param value Payload of the message.
+     * @throws java.io.IOException on IO error
+     */
+    public void write(long offset, long timestamp, byte[] kafkaKey, byte[] value) throws IOException;
+}
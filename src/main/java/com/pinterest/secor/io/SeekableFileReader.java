@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io;
+
+import java.io.IOException;
+
+/**
+ * File reader able to skip messages without reading them.
+ */
+public interface SeekableFileReader extends FileReader {
+    /**
+     * Skip to the first message with an offset at or above the given one.
+     *
+     * @param offset Offset of the next message to read.
+     * @throws IOException on IO error
+     */
+    public void seek(long offset) throws IOException;
+
+    /**
+     * Skip the next message without copying its key and value.
+     *
+     * @return Offset of the skipped message, or -1 at the end of the file.
+     * @throws IOException on IO error
+     */
+    public long skip() throws IOException;
+}
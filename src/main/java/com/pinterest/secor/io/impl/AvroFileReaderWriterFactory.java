@@ -172,7 +172,9 @@ public class AvroFileReaderWriterFactory implements FileReaderWriterFactory {
 
         @Override
         public void write(KeyValue keyValue) throws IOException {
-            GenericRecord record = schemaRegistryClient.decodeMessage(topic, keyValue.getValue());
+            GenericRecord record = keyValue.getDecodedValue() instanceof GenericRecord ?
+                    (GenericRecord) keyValue.getDecodedValue() :
+                    schemaRegistryClient.decodeMessage(topic, keyValue.getValue());
             LOG.trace("Writing record {}", record);
             if (record != null){
                 writer.append(record);
@@ -33,12 +33,14 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.parquet.avro.AvroParquetReader;
 import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.column.ParquetProperties;
 import org.apache.parquet.hadoop.ParquetReader;
 import org.apache.parquet.hadoop.ParquetWriter;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 
 import com.pinterest.secor.common.LogFilePath;
 import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.ColumnarMemoryManager;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
 import com.pinterest.secor.io.FileWriter;
@@ -52,15 +54,21 @@ public class AvroParquetFileReaderWriterFactory implements FileReaderWriterFacto
     private static final Logger LOG = LoggerFactory.getLogger(AvroParquetFileReaderWriterFactory.class);
     protected final int blockSize;
     protected final int pageSize;
+    protected final int dictionaryPageSize;
     protected final boolean enableDictionary;
     protected final boolean validating;
+    protected final ParquetProperties.WriterVersion writerVersion;
+    protected final ColumnarMemoryManager memoryManager;
     protected SecorSchemaRegistryClient schemaRegistryClient;
 
     public AvroParquetFileReaderWriterFactory(SecorConfig config) {
         blockSize = ParquetUtil.getParquetBlockSize(config);
         pageSize = ParquetUtil.getParquetPageSize(config);
+        dictionaryPageSize = ParquetUtil.getParquetDictionaryPageSize(config);
         enableDictionary = ParquetUtil.getParquetEnableDictionary(config);
         validating = ParquetUtil.getParquetValidation(config);
+        writerVersion = ParquetUtil.getParquetWriterVersion(config);
+        memoryManager = ColumnarMemoryManager.getInstance(config);
         schemaRegistryClient = new SecorSchemaRegistryClient(config);
     }
 
@@ -126,11 +134,22 @@ public class AvroParquetFileReaderWriterFactory implements FileReaderWriterFacto
             CompressionCodecName codecName = CompressionCodecName
                     .fromCompressionCodec(codec != null ? codec.getClass() : null);
             topic = logFilePath.getTopic();
-            // Not setting blockSize, pageSize, enableDictionary, and validating
-            writer = AvroParquetWriter.builder(path)
-                    .withSchema(schemaRegistryClient.getSchema(topic))
-                    .withCompressionCodec(codecName)
-                    .build();
+            int rowGroupSize = memoryManager.addParquetWriter(this, topic, blockSize);
+            try {
+                writer = AvroParquetWriter.builder(path)
+                        .withSchema(schemaRegistryClient.getSchema(topic))
+                        .withCompressionCodec(codecName)
+                        .withRowGroupSize(rowGroupSize)
+                        .withPageSize(pageSize)
+                        .withDictionaryPageSize(dictionaryPageSize)
+                        .withDictionaryEncoding(enableDictionary)
+                        .withValidation(validating)
+                        .withWriterVersion(writerVersion)
+                        .build();
+            } catch (IOException | RuntimeException e) {
+                memoryManager.removeParquetWriter(this);
+                throw e;
+            }
         }
 
         @Override
@@ -140,7 +159,9 @@ public class AvroParquetFileReaderWriterFactory implements FileReaderWriterFacto
 
         @Override
         public void write(KeyValue keyValue) throws IOException {
-            GenericRecord record = schemaRegistryClient.decodeMessage(topic, keyValue.getValue());
+            GenericRecord record = keyValue.getDecodedValue() instanceof GenericRecord ?
+                    (GenericRecord) keyValue.getDecodedValue() :
+                    schemaRegistryClient.decodeMessage(topic, keyValue.getValue());
             LOG.trace("Writing record {}", record);
             if (record != null){
                 writer.write(record);
@@ -149,7 +170,11 @@ public class AvroParquetFileReaderWriterFactory implements FileReaderWriterFacto
 
         @Override
         public void close() throws IOException {
-            writer.close();
+            try {
+                writer.close();
+            } finally {
+                memoryManager.removeParquetWriter(this);
+            }
         }
     }
 }
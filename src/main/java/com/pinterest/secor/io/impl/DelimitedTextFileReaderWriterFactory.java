@@ -22,12 +22,20 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
+import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
 import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.IndexedFileWriter;
+import com.pinterest.secor.io.MappedFileReaderFactory;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.SeekableFileReader;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -45,8 +53,19 @@ import com.pinterest.secor.util.FileUtil;
  *
  * @author Praveen Murugesan (praveen@uber.com)
  */
-public class DelimitedTextFileReaderWriterFactory implements FileReaderWriterFactory {
+public class DelimitedTextFileReaderWriterFactory implements FileReaderWriterFactory, MappedFileReaderFactory {
     private static final byte DELIMITER = '\n';
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final long mIndexIntervalBytes;
+
+    public DelimitedTextFileReaderWriterFactory() {
+        this.mIndexIntervalBytes = 0;
+    }
+
+    public DelimitedTextFileReaderWriterFactory(SecorConfig config) {
+        this.mIndexIntervalBytes = config.getFileIndexIntervalBytes();
+    }
 
     @Override
     public FileReader BuildFileReader(LogFilePath logFilePath, CompressionCodec codec)
@@ -59,6 +78,16 @@ public class DelimitedTextFileReaderWriterFactory implements FileReaderWriterFac
         return new DelimitedTextFileWriter(logFilePath, codec);
     }
 
+    @Override
+    public SeekableFileReader BuildMappedFileReader(LogFilePath logFilePath, CompressionCodec codec,
+                                                    OffsetIndex index) throws IOException {
+        if (codec != null) {
+            return null;
+        }
+        ByteBuffer buffer = MappedFile.map(logFilePath.getLogFilePath());
+        return buffer == null ? null : new MappedDelimitedTextFileReader(logFilePath, buffer, index);
+    }
+
     protected class DelimitedTextFileReader implements FileReader {
         private final BufferedInputStream mReader;
         private long mOffset;
@@ -101,32 +130,174 @@ public class DelimitedTextFileReaderWriterFactory implements FileReaderWriterFac
         }
     }
 
-    protected class DelimitedTextFileWriter implements FileWriter {
+    // Reads an uncompressed file mapped in memory, finding the delimiters a word at a time.
+    protected class MappedDelimitedTextFileReader implements SeekableFileReader {
+        private ByteBuffer mBuffer;
+        private final OffsetIndex mIndex;
+        private long mOffset;
+
+        public MappedDelimitedTextFileReader(LogFilePath path, ByteBuffer buffer, OffsetIndex index) {
+            this.mBuffer = buffer;
+            this.mIndex = index;
+            this.mOffset = path.getOffset();
+        }
+
+        private int findDelimiter() throws EOFException {
+            int end = MappedFile.indexOf(mBuffer, mBuffer.position(), mBuffer.limit(), DELIMITER);
+            if (end < 0) {
+                throw new EOFException("Non-empty message without delimiter");
+            }
+            return end;
+        }
+
+        @Override
+        public KeyValue next() throws IOException {
+            if (!mBuffer.hasRemaining()) {
+                return null;
+            }
+            byte[] message = new byte[findDelimiter() - mBuffer.position()];
+            mBuffer.get(message);
+            mBuffer.get();
+            return new KeyValue(this.mOffset++, message);
+        }
+
+        @Override
+        public long skip() throws IOException {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            mBuffer.position(findDelimiter() + 1);
+            return this.mOffset++;
+        }
+
+        @Override
+        public void seek(long offset) throws IOException {
+            if (mIndex != null) {
+                int entry = mIndex.floorEntry(offset);
+                if (entry >= 0 && mIndex.getOffset(entry) > this.mOffset &&
+                        mIndex.getPosition(entry) <= mBuffer.limit()) {
+                    mBuffer.position((int) mIndex.getPosition(entry));
+                    this.mOffset = mIndex.getOffset(entry);
+                }
+            }
+            while (this.mOffset < offset) {
+                if (skip() == -1) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBuffer != null) {
+                MappedFile.unmap(mBuffer);
+                mBuffer = null;
+            }
+        }
+    }
+
+    protected class DelimitedTextFileWriter implements IndexedFileWriter, Flushable {
         private final CountingOutputStream mCountingStream;
         private final BufferedOutputStream mWriter;
+        private final boolean mCompressed;
+        private long mUncompressedLength = 0;
         private Compressor mCompressor = null;
+        // Messages are read back with consecutive offsets from the offset of the file.
+        private final long mOffset;
+        private long mMessages = 0;
+        // Compressed files are not indexed, reading cannot start in the middle of the stream.
+        private final OffsetIndex mIndex;
+        private long mBytesSinceIndexEntry = 0;
 
         public DelimitedTextFileWriter(LogFilePath path, CompressionCodec codec) throws IOException {
             Path fsPath = new Path(path.getLogFilePath());
             FileSystem fs = FileUtil.getFileSystem(path.getLogFilePath());
             this.mCountingStream = new CountingOutputStream(fs.create(fsPath));
+            this.mCompressed = codec != null;
             this.mWriter = (codec == null) ? new BufferedOutputStream(
                     this.mCountingStream) : new BufferedOutputStream(
                     codec.createOutputStream(this.mCountingStream,
                                              mCompressor = CodecPool.getCompressor(codec)));
+            this.mOffset = path.getOffset();
+            this.mIndex = (codec == null && mIndexIntervalBytes > 0) ? new OffsetIndex() : null;
         }
 
         @Override
         public long getLength() throws IOException {
             assert this.mCountingStream != null;
-            this.mWriter.flush();
-            return this.mCountingStream.getCount();
+            // Buffered data is not flushed; compressed files report the bytes that have already
+            // left the compressor.
+            return this.mCompressed ? this.mCountingStream.getCount() : this.mUncompressedLength;
         }
 
         @Override
         public void write(KeyValue keyValue) throws IOException {
+            if (mIndex != null && (mIndex.size() == 0 || mBytesSinceIndexEntry >= mIndexIntervalBytes)) {
+                mIndex.add(this.mOffset + this.mMessages, this.mUncompressedLength);
+                mBytesSinceIndexEntry = 0;
+            }
             this.mWriter.write(keyValue.getValue());
             this.mWriter.write(DELIMITER);
+            this.mUncompressedLength += keyValue.getValue().length + 1;
+            this.mMessages++;
+            if (mIndex != null) {
+                mIndex.setLastOffset(this.mOffset + this.mMessages - 1);
+                mBytesSinceIndexEntry += keyValue.getValue().length + 1;
+            }
+        }
+
+        @Override
+        public OffsetIndex getOffsetIndex() {
+            return mIndex;
+        }
+
+        @Override
+        public void append(LogFilePath srcPath, OffsetIndex srcIndex, long startOffset) throws IOException {
+            int entry = Math.max(srcIndex.floorEntry(startOffset), 0);
+            FileSystem fs = FileUtil.getFileSystem(srcPath.getLogFilePath());
+            FSDataInputStream in = fs.open(new Path(srcPath.getLogFilePath()));
+            try {
+                in.seek(srcIndex.getPosition(entry));
+                BufferedInputStream reader = new BufferedInputStream(in, COPY_BUFFER_BYTES);
+                // Skip the messages of the entry below the start offset.
+                long copyPosition = srcIndex.getPosition(entry);
+                for (long offset = srcIndex.getOffset(entry); offset < startOffset; ++copyPosition) {
+                    int nextByte = reader.read();
+                    if (nextByte == -1) {
+                        return;
+                    }
+                    if (nextByte == DELIMITER) {
+                        offset++;
+                    }
+                }
+                long position = this.mUncompressedLength;
+                long firstOffset = this.mOffset + this.mMessages;
+                byte[] buffer = new byte[COPY_BUFFER_BYTES];
+                int length;
+                while ((length = reader.read(buffer)) > 0) {
+                    this.mWriter.write(buffer, 0, length);
+                    this.mUncompressedLength += length;
+                }
+                this.mMessages += srcIndex.getLastOffset() - startOffset + 1;
+                if (mIndex != null) {
+                    if (mIndex.size() == 0) {
+                        mIndex.add(firstOffset, position);
+                    }
+                    for (int i = entry + 1; i < srcIndex.size(); ++i) {
+                        mIndex.add(srcIndex.getOffset(i) - startOffset + firstOffset,
+                                srcIndex.getPosition(i) - copyPosition + position);
+                    }
+                    mIndex.setLastOffset(this.mOffset + this.mMessages - 1);
+                    mBytesSinceIndexEntry = 0;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.mWriter.flush();
         }
 
         @Override
@@ -20,7 +20,6 @@ package com.pinterest.secor.io.impl;
 
 import java.io.IOException;
 import java.io.StringWriter;
-import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -40,19 +39,17 @@ import org.codehaus.jettison.json.JSONWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import com.pinterest.secor.common.FileRegistry;
 import com.pinterest.secor.common.LogFilePath;
 import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.ColumnarMemoryManager;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
 import com.pinterest.secor.io.FileWriter;
 import com.pinterest.secor.io.KeyValue;
 import com.pinterest.secor.util.ReflectionUtil;
 import com.pinterest.secor.util.orc.JsonFieldFiller;
-import com.pinterest.secor.util.orc.VectorColumnFiller;
-import com.pinterest.secor.util.orc.VectorColumnFiller.JsonConverter;
+import com.pinterest.secor.util.orc.JsonRowFiller;
 import com.pinterest.secor.util.orc.schema.ORCSchemaProvider;
 
 /**
@@ -65,10 +62,12 @@ public class JsonORCFileReaderWriterFactory implements FileReaderWriterFactory {
 
     private static final Logger LOG = LoggerFactory.getLogger(FileRegistry.class);
     private ORCSchemaProvider schemaProvider;
+    private ColumnarMemoryManager memoryManager;
 
     public JsonORCFileReaderWriterFactory(SecorConfig config) throws Exception {
         schemaProvider = ReflectionUtil.createORCSchemaProvider(
                 config.getORCSchemaProviderClass(), config);
+        memoryManager = ColumnarMemoryManager.getInstance(config);
     }
 
     @Override
@@ -139,11 +138,9 @@ public class JsonORCFileReaderWriterFactory implements FileReaderWriterFactory {
 
     protected class JsonORCFileWriter implements FileWriter {
 
-        private Gson gson = new Gson();
         private Writer writer;
-        private JsonConverter[] converters;
+        private JsonRowFiller filler;
         private VectorizedRowBatch batch;
-        private int rowIndex;
         private TypeDescription schema;
 
         public JsonORCFileWriter(LogFilePath logFilePath, CompressionCodec codec)
@@ -152,15 +149,11 @@ public class JsonORCFileReaderWriterFactory implements FileReaderWriterFactory {
             Path path = new Path(logFilePath.getLogFilePath());
             schema = schemaProvider.getSchema(logFilePath.getTopic(),
                     logFilePath);
-            List<TypeDescription> fieldTypes = schema.getChildren();
-            converters = new JsonConverter[fieldTypes.size()];
-            for (int c = 0; c < converters.length; ++c) {
-                converters[c] = VectorColumnFiller.createConverter(fieldTypes
-                        .get(c));
-            }
+            filler = new JsonRowFiller(schema);
 
             writer = OrcFile.createWriter(path, OrcFile.writerOptions(conf)
-                    .compress(resolveCompression(codec)).setSchema(schema));
+                    .compress(resolveCompression(codec)).setSchema(schema)
+                    .memory(memoryManager.getOrcMemoryManager(logFilePath.getTopic())));
             batch = schema.createRowBatch();
         }
 
@@ -171,10 +164,8 @@ public class JsonORCFileReaderWriterFactory implements FileReaderWriterFactory {
 
         @Override
         public void write(KeyValue keyValue) throws IOException {
-            rowIndex = batch.size++;
-            VectorColumnFiller.fillRow(rowIndex, converters, schema, batch,
-                    gson.fromJson(new String(keyValue.getValue()),
-                            JsonObject.class));
+            filler.fillRow(keyValue.getValue(), batch, batch.size);
+            batch.size++;
             if (batch.size == batch.getMaxSize()) {
                 writer.addRowBatch(batch);
                 batch.reset();
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Helpers of the readers of local files mapped in memory.
+ */
+final class MappedFile {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedFile.class);
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    // Null if mappings can only be released by the garbage collector.
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    private interface Unmapper {
+        void unmap(ByteBuffer buffer) throws Exception;
+    }
+
+    private static Unmapper createUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                // Java 9 and later.
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                Object unsafe = field.get(null);
+                return buffer -> invokeCleaner.invoke(unsafe, buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8.
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return buffer -> clean.invoke(cleaner.invoke(buffer));
+            }
+        } catch (Exception e) {
+            LOG.warn("Mapped files are released by the garbage collector only", e);
+            return null;
+        }
+    }
+
+    private MappedFile() {
+    }
+
+    /**
+     * @param path Path of the file to map.
+     * @return The mapping of the whole file, or null if the file is remote or too large to be
+     *         mapped at once.
+     * @throws IOException on IO error
+     */
+    static MappedByteBuffer map(String path) throws IOException {
+        if (path.startsWith("file:")) {
+            path = URI.create(path).getPath();
+        } else if (path.contains("://")) {
+            return null;
+        }
+        // The mapping stays valid once the channel is closed.
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Release a mapping returned by {@link #map(String)} without waiting for the garbage collector,
+     * which keeps the pages of uploaded and deleted files mapped until it runs.  The buffer must
+     * not be accessed afterwards.
+     * @param buffer The mapping to release.
+     */
+    static void unmap(ByteBuffer buffer) {
+        if (UNMAPPER == null || !(buffer instanceof MappedByteBuffer)) {
+            return;
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (Exception e) {
+            LOG.warn("Failed to release a mapped file", e);
+        }
+    }
+
+    /**
+     * Find a byte comparing eight bytes at a time.
+     *
+     * @return The index of the first byte equal to value between from and to, -1 if there is none.
+     */
+    static int indexOf(ByteBuffer buffer, int from, int to, byte value) {
+        long pattern = (value & 0xFFL) * 0x0101010101010101L;
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = buffer.getLong(i) ^ pattern;
+            // Sets the high bit of exactly the bytes which are zero, that is equal to the value.
+            long matches = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+            if (matches != 0) {
+                return i + ((bigEndian ? Long.numberOfLeadingZeros(matches) :
+                        Long.numberOfTrailingZeros(matches)) >>> 3);
+            }
+        }
+        for (; i < to; ++i) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
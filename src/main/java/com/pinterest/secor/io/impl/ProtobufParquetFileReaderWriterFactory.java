@@ -32,6 +32,7 @@ import com.google.protobuf.Message.Builder;
 import com.google.protobuf.MessageOrBuilder;
 import com.pinterest.secor.common.LogFilePath;
 import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.ColumnarMemoryManager;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
 import com.pinterest.secor.io.FileWriter;
@@ -52,6 +53,7 @@ public class ProtobufParquetFileReaderWriterFactory implements FileReaderWriterF
     protected final int pageSize;
     protected final boolean enableDictionary;
     protected final boolean validating;
+    protected final ColumnarMemoryManager memoryManager;
 
     public ProtobufParquetFileReaderWriterFactory(SecorConfig config) {
         protobufUtil = new ProtobufUtil(config);
@@ -60,6 +62,7 @@ public class ProtobufParquetFileReaderWriterFactory implements FileReaderWriterF
         pageSize = ParquetUtil.getParquetPageSize(config);
         enableDictionary = ParquetUtil.getParquetEnableDictionary(config);
         validating = ParquetUtil.getParquetValidation(config);
+        memoryManager = ColumnarMemoryManager.getInstance(config);
     }
 
     @Override
@@ -108,8 +111,14 @@ public class ProtobufParquetFileReaderWriterFactory implements FileReaderWriterF
             CompressionCodecName codecName = CompressionCodecName
                     .fromCompressionCodec(codec != null ? codec.getClass() : null);
             topic = logFilePath.getTopic();
-            writer = new ProtoParquetWriter<Message>(path, protobufUtil.getMessageClass(topic), codecName,
-                    blockSize, pageSize, enableDictionary, validating);
+            int rowGroupSize = memoryManager.addParquetWriter(this, topic, blockSize);
+            try {
+                writer = new ProtoParquetWriter<Message>(path, protobufUtil.getMessageClass(topic), codecName,
+                        rowGroupSize, pageSize, enableDictionary, validating);
+            } catch (IOException | RuntimeException e) {
+                memoryManager.removeParquetWriter(this);
+                throw e;
+            }
         }
 
         @Override
@@ -119,13 +128,19 @@ public class ProtobufParquetFileReaderWriterFactory implements FileReaderWriterF
 
         @Override
         public void write(KeyValue keyValue) throws IOException {
-            Message message = protobufUtil.decodeProtobufOrJsonMessage(topic, keyValue.getValue());
+            Message message = keyValue.getDecodedValue() instanceof Message ?
+                    (Message) keyValue.getDecodedValue() :
+                    protobufUtil.decodeProtobufOrJsonMessage(topic, keyValue.getValue());
             writer.write(message);
         }
 
         @Override
         public void close() throws IOException {
-            writer.close();
+            try {
+                writer.close();
+            } finally {
+                memoryManager.removeParquetWriter(this);
+            }
         }
     }
 }
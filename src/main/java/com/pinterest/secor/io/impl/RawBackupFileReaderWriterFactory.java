@@ -0,0 +1,557 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io.impl;
+
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.FileReader;
+import com.pinterest.secor.io.FileReaderWriterFactory;
+import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.IndexedFileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.MappedFileReaderFactory;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.RawFileWriter;
+import com.pinterest.secor.io.SeekableFileReader;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Raw backup file reader writer stores Kafka records verbatim, for the backup group.
+ *
+ * Records are appended to blocks of secor.raw.backup.block.bytes and every block is written to a
+ * {@link FileChannel} at once, compressed with the codec if there is one.  A record is its
+ * offset, timestamp, key length, key, value length, and value, with a key length of -1 for null
+ * keys.  A block starts with its raw and stored lengths.  Closed files end with a block length
+ * of -1 followed by the offset index of the blocks, so that files which have only been flushed
+ * can be read up to their last block.  Readers of local uncompressed files seek with that index:
+ *
+ *   magic
+ *   (raw length, stored length, stored bytes)*
+ *   -1, number of entries, (offset, position)*, last offset, index position, magic
+ */
+public class RawBackupFileReaderWriterFactory implements FileReaderWriterFactory, MappedFileReaderFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(RawBackupFileReaderWriterFactory.class);
+
+    private static final int MAGIC = 0x53524231;
+    private static final int DEFAULT_BLOCK_BYTES = 1024 * 1024;
+    private static final int BLOCK_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 24;
+    private static final int TRAILER_SIZE = 28;
+
+    private final int mBlockBytes;
+
+    public RawBackupFileReaderWriterFactory() {
+        this.mBlockBytes = DEFAULT_BLOCK_BYTES;
+    }
+
+    public RawBackupFileReaderWriterFactory(SecorConfig config) {
+        this.mBlockBytes = config.getRawBackupBlockBytes();
+    }
+
+    @Override
+    public FileReader BuildFileReader(LogFilePath logFilePath, CompressionCodec codec) throws Exception {
+        return new RawBackupFileReader(logFilePath, codec);
+    }
+
+    @Override
+    public FileWriter BuildFileWriter(LogFilePath logFilePath, CompressionCodec codec) throws IOException {
+        return new RawBackupFileWriter(logFilePath, codec);
+    }
+
+    @Override
+    public SeekableFileReader BuildMappedFileReader(LogFilePath logFilePath, CompressionCodec codec,
+                                                    OffsetIndex index) throws IOException {
+        if (codec != null) {
+            return null;
+        }
+        ByteBuffer buffer = MappedFile.map(logFilePath.getLogFilePath());
+        return buffer == null ? null : new MappedRawBackupFileReader(logFilePath, buffer, index);
+    }
+
+    protected class RawBackupFileReader implements FileReader {
+        private final FileChannel mChannel;
+        private final BlockReader mBlocks;
+
+        public RawBackupFileReader(LogFilePath path, CompressionCodec codec) throws IOException {
+            this.mChannel = FileChannel.open(Paths.get(path.getLogFilePath()), StandardOpenOption.READ);
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            if (!readFully(mChannel, magic, 0) || magic.getInt(0) != MAGIC) {
+                mChannel.close();
+                throw new IOException("Not a raw backup file: " + path.getLogFilePath());
+            }
+            this.mBlocks = new BlockReader(mChannel, codec, 4);
+        }
+
+        @Override
+        public KeyValue next() throws IOException {
+            KeyValue keyValue;
+            while ((keyValue = mBlocks.nextRecord()) == null) {
+                if (!mBlocks.nextBlock()) {
+                    return null;
+                }
+            }
+            return keyValue;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mBlocks.close();
+            this.mChannel.close();
+        }
+    }
+
+    // Reads the blocks of an uncompressed file mapped in memory.
+    protected class MappedRawBackupFileReader implements SeekableFileReader {
+        private ByteBuffer mBuffer;
+        private final OffsetIndex mIndex;
+        private int mBlockEnd;
+
+        public MappedRawBackupFileReader(LogFilePath path, ByteBuffer buffer, OffsetIndex index)
+                throws IOException {
+            if (buffer.limit() < 4 || buffer.getInt(0) != MAGIC) {
+                MappedFile.unmap(buffer);
+                throw new IOException("Not a raw backup file: " + path.getLogFilePath());
+            }
+            this.mBuffer = buffer;
+            this.mIndex = index != null ? index : readIndex(buffer);
+            this.mBlockEnd = 4;
+            mBuffer.position(mBlockEnd);
+        }
+
+        // @return false at the end of the blocks
+        private boolean nextBlock() throws EOFException {
+            int remaining = mBuffer.limit() - mBlockEnd;
+            if (remaining == 0 || (remaining >= 4 && mBuffer.getInt(mBlockEnd) == -1)) {
+                return false;
+            }
+            if (remaining < BLOCK_HEADER_SIZE ||
+                    remaining - BLOCK_HEADER_SIZE < mBuffer.getInt(mBlockEnd + 4)) {
+                throw new EOFException("Truncated block at position " + mBlockEnd);
+            }
+            mBuffer.position(mBlockEnd + BLOCK_HEADER_SIZE);
+            mBlockEnd += BLOCK_HEADER_SIZE + mBuffer.getInt(mBlockEnd + 4);
+            return true;
+        }
+
+        // @return false at the end of the file
+        private boolean hasRecord() throws EOFException {
+            while (mBuffer.position() == mBlockEnd) {
+                if (!nextBlock()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public KeyValue next() throws IOException {
+            if (!hasRecord()) {
+                return null;
+            }
+            long offset = mBuffer.getLong();
+            long timestamp = mBuffer.getLong();
+            int keyLength = mBuffer.getInt();
+            byte[] key = null;
+            if (keyLength >= 0) {
+                key = new byte[keyLength];
+                mBuffer.get(key);
+            }
+            byte[] value = new byte[mBuffer.getInt()];
+            mBuffer.get(value);
+            return new KeyValue(offset, key, value, timestamp);
+        }
+
+        @Override
+        public long skip() throws IOException {
+            if (!hasRecord()) {
+                return -1;
+            }
+            long offset = mBuffer.getLong();
+            mBuffer.position(mBuffer.position() + 8);
+            int keyLength = mBuffer.getInt();
+            mBuffer.position(mBuffer.position() + Math.max(keyLength, 0));
+            mBuffer.position(mBuffer.position() + 4 + mBuffer.getInt(mBuffer.position()));
+            return offset;
+        }
+
+        @Override
+        public void seek(long offset) throws IOException {
+            if (mIndex != null) {
+                int entry = mIndex.floorEntry(offset);
+                if (entry >= 0 && mIndex.getPosition(entry) >= mBlockEnd &&
+                        mIndex.getPosition(entry) <= mBuffer.limit()) {
+                    mBlockEnd = (int) mIndex.getPosition(entry);
+                    mBuffer.position(mBlockEnd);
+                }
+            }
+            // Offsets are only known once read, go back to the first record at or above the offset.
+            int position = mBuffer.position();
+            int blockEnd = mBlockEnd;
+            long skipped;
+            while ((skipped = skip()) != -1 && skipped < offset) {
+                position = mBuffer.position();
+                blockEnd = mBlockEnd;
+            }
+            mBuffer.position(position);
+            mBlockEnd = blockEnd;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBuffer != null) {
+                MappedFile.unmap(mBuffer);
+                mBuffer = null;
+            }
+        }
+    }
+
+    // @return the index stored at the end of a closed file, null if the file has not been closed
+    private static OffsetIndex readIndex(ByteBuffer buffer) {
+        int end = buffer.limit();
+        if (end < 4 + TRAILER_SIZE || buffer.getInt(end - 4) != MAGIC) {
+            return null;
+        }
+        long indexPosition = buffer.getLong(end - 12);
+        if (indexPosition < 4 || indexPosition > end - TRAILER_SIZE ||
+                buffer.getInt((int) indexPosition) != -1) {
+            return null;
+        }
+        int size = buffer.getInt((int) indexPosition + 4);
+        if (indexPosition + TRAILER_SIZE + 16L * size != end) {
+            return null;
+        }
+        OffsetIndex index = new OffsetIndex();
+        for (int i = 0; i < size; ++i) {
+            int position = (int) indexPosition + 8 + 16 * i;
+            index.add(buffer.getLong(position), buffer.getLong(position + 8));
+        }
+        index.setLastOffset(buffer.getLong(end - 20));
+        return index;
+    }
+
+    protected class RawBackupFileWriter implements IndexedFileWriter, RawFileWriter, Flushable {
+        private final Path mPath;
+        private final FileChannel mChannel;
+        private final CompressionCodec mCodec;
+        private Compressor mCompressor;
+        private final BlockOutputStream mCompressed;
+        private final ByteBuffer mHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        // Records of the block being filled.  Uncompressed blocks are written from direct memory.
+        private ByteBuffer mBlock;
+        // Block of the configured size, mBlock unless a record did not fit into it.
+        private final ByteBuffer mBlockBuffer;
+        private final OffsetIndex mIndex = new OffsetIndex();
+        private long mPosition;
+
+        public RawBackupFileWriter(LogFilePath path, CompressionCodec codec) throws IOException {
+            this.mPath = Paths.get(path.getLogFilePath());
+            Files.createDirectories(mPath.getParent());
+            this.mChannel = FileChannel.open(mPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.mCodec = codec;
+            if (codec != null) {
+                this.mCompressor = CodecPool.getCompressor(codec);
+                this.mCompressed = new BlockOutputStream();
+            } else {
+                this.mCompressed = null;
+            }
+            this.mBlockBuffer = allocateBlock(mBlockBytes);
+            this.mBlock = mBlockBuffer;
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            magic.putInt(MAGIC).flip();
+            writeFully(magic);
+            LOG.info("Created raw backup file writer: {}", mPath);
+        }
+
+        private ByteBuffer allocateBlock(int capacity) {
+            return mCodec == null ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            // Records of the current block count with their raw length.
+            return this.mPosition + this.mBlock.position();
+        }
+
+        @Override
+        public void write(KeyValue keyValue) throws IOException {
+            write(keyValue.getOffset(), keyValue.getTimestamp(), keyValue.getKafkaKey(), keyValue.getValue());
+        }
+
+        @Override
+        public void write(long offset, long timestamp, byte[] key, byte[] value) throws IOException {
+            int length = RECORD_HEADER_SIZE + (key == null ? 0 : key.length) + value.length;
+            if (mBlock.remaining() < length) {
+                writeBlock();
+                if (mBlock.capacity() < length) {
+                    // The record gets a block of its own.
+                    mBlock = allocateBlock(length);
+                }
+            }
+            if (mBlock.position() == 0) {
+                // Blocks are written in order, this one will start at the current position.
+                mIndex.add(offset, mPosition);
+            }
+            mBlock.putLong(offset);
+            mBlock.putLong(timestamp);
+            if (key == null) {
+                mBlock.putInt(-1);
+            } else {
+                mBlock.putInt(key.length);
+                mBlock.put(key);
+            }
+            mBlock.putInt(value.length);
+            mBlock.put(value);
+            mIndex.setLastOffset(offset);
+        }
+
+        private void writeBlock() throws IOException {
+            if (mBlock.position() == 0) {
+                return;
+            }
+            mBlock.flip();
+            int rawLength = mBlock.remaining();
+            ByteBuffer stored = mBlock;
+            if (mCodec != null) {
+                mCompressed.reset();
+                if (mCompressor != null) {
+                    mCompressor.reset();
+                }
+                CompressionOutputStream out = mCodec.createOutputStream(mCompressed, mCompressor);
+                out.write(mBlock.array(), mBlock.arrayOffset(), rawLength);
+                out.finish();
+                stored = mCompressed.toByteBuffer();
+            }
+            mHeader.clear();
+            mHeader.putInt(rawLength).putInt(stored.remaining()).flip();
+            writeFully(mHeader, stored);
+            mBlock.clear();
+            // Do not keep an oversized block for the rest of the file.
+            mBlock = mBlockBuffer;
+        }
+
+        private void writeFully(ByteBuffer... buffers) throws IOException {
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                mPosition += mChannel.write(buffers);
+            }
+        }
+
+        @Override
+        public OffsetIndex getOffsetIndex() {
+            return mIndex;
+        }
+
+        @Override
+        public void append(LogFilePath srcPath, OffsetIndex srcIndex, long startOffset) throws IOException {
+            int entry = Math.max(srcIndex.floorEntry(startOffset), 0);
+            FileChannel src = FileChannel.open(Paths.get(srcPath.getLogFilePath()), StandardOpenOption.READ);
+            BlockReader blocks = new BlockReader(src, mCodec, srcIndex.getPosition(entry));
+            try {
+                // Rewrite the records of the block containing the start offset.
+                if (blocks.nextBlock()) {
+                    KeyValue keyValue;
+                    while ((keyValue = blocks.nextRecord()) != null) {
+                        if (keyValue.getOffset() >= startOffset) {
+                            write(keyValue);
+                        }
+                    }
+                }
+                if (entry + 1 == srcIndex.size()) {
+                    return;
+                }
+
+                // Transfer the following blocks as they are.
+                writeBlock();
+                long copyPosition = srcIndex.getPosition(entry + 1);
+                long endPosition = blocks.findEnd(copyPosition);
+                long position = mPosition;
+                while (mPosition < position + endPosition - copyPosition) {
+                    mPosition += src.transferTo(copyPosition + mPosition - position,
+                            position + endPosition - copyPosition - mPosition, mChannel);
+                }
+                for (int i = entry + 1; i < srcIndex.size(); ++i) {
+                    mIndex.add(srcIndex.getOffset(i), srcIndex.getPosition(i) - copyPosition + position);
+                }
+                mIndex.setLastOffset(srcIndex.getLastOffset());
+            } finally {
+                blocks.close();
+                src.close();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writeBlock();
+                ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE + 16 * mIndex.size());
+                long indexPosition = mPosition;
+                trailer.putInt(-1).putInt(mIndex.size());
+                for (int i = 0; i < mIndex.size(); ++i) {
+                    trailer.putLong(mIndex.getOffset(i)).putLong(mIndex.getPosition(i));
+                }
+                trailer.putLong(mIndex.getLastOffset()).putLong(indexPosition).putInt(MAGIC).flip();
+                writeFully(trailer);
+            } finally {
+                this.mChannel.close();
+                if (mCompressor != null) {
+                    CodecPool.returnCompressor(mCompressor);
+                    mCompressor = null;
+                }
+            }
+            LOG.info("Closing raw backup file writer: {}", mPath);
+        }
+    }
+
+    // Reads a file block by block, starting at a given position.
+    private static class BlockReader {
+        private final FileChannel mChannel;
+        private final CompressionCodec mCodec;
+        private Decompressor mDecompressor;
+        private final ByteBuffer mHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        private ByteBuffer mStored = ByteBuffer.allocate(0);
+        private ByteBuffer mBlock = ByteBuffer.allocate(0);
+        private long mPosition;
+
+        private BlockReader(FileChannel channel, CompressionCodec codec, long position) {
+            mChannel = channel;
+            mCodec = codec;
+            if (codec != null) {
+                mDecompressor = CodecPool.getDecompressor(codec);
+            }
+            mPosition = position;
+        }
+
+        // @return false at the end of the blocks
+        private boolean nextBlock() throws IOException {
+            mHeader.clear();
+            // A file that has only been flushed ends after its last block.
+            if (!readFully(mChannel, mHeader, mPosition) || mHeader.getInt(0) == -1) {
+                return false;
+            }
+            int rawLength = mHeader.getInt(0);
+            int storedLength = mHeader.getInt(4);
+            if (mStored.capacity() < storedLength) {
+                mStored = ByteBuffer.allocate(storedLength);
+            }
+            mStored.clear().limit(storedLength);
+            if (!readFully(mChannel, mStored, mPosition + BLOCK_HEADER_SIZE)) {
+                throw new EOFException("Truncated block at position " + mPosition);
+            }
+            if (mCodec == null) {
+                mBlock = mStored;
+                mBlock.flip();
+            } else {
+                if (mBlock.capacity() < rawLength || mBlock == mStored) {
+                    mBlock = ByteBuffer.allocate(rawLength);
+                }
+                if (mDecompressor != null) {
+                    mDecompressor.reset();
+                }
+                CompressionInputStream in = mCodec.createInputStream(
+                        new ByteArrayInputStream(mStored.array(), 0, storedLength), mDecompressor);
+                IOUtils.readFully(in, mBlock.array(), 0, rawLength);
+                mBlock.clear().limit(rawLength);
+            }
+            mPosition += BLOCK_HEADER_SIZE + storedLength;
+            return true;
+        }
+
+        // @return the next record of the current block, null at the end of the block
+        private KeyValue nextRecord() {
+            if (!mBlock.hasRemaining()) {
+                return null;
+            }
+            long offset = mBlock.getLong();
+            long timestamp = mBlock.getLong();
+            int keyLength = mBlock.getInt();
+            byte[] key = null;
+            if (keyLength >= 0) {
+                key = new byte[keyLength];
+                mBlock.get(key);
+            }
+            byte[] value = new byte[mBlock.getInt()];
+            mBlock.get(value);
+            return new KeyValue(offset, key, value, timestamp);
+        }
+
+        // @return the position after the last block following a given block position
+        private long findEnd(long position) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            while (readFully(mChannel, header, position) && header.getInt(0) != -1) {
+                position += BLOCK_HEADER_SIZE + header.getInt(4);
+                header.clear();
+            }
+            return position;
+        }
+
+        private void close() {
+            if (mDecompressor != null) {
+                CodecPool.returnDecompressor(mDecompressor);
+                mDecompressor = null;
+            }
+        }
+    }
+
+    // @return false if the channel ends at the position
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position() - start);
+            if (read < 0) {
+                if (buffer.position() == start) {
+                    return false;
+                }
+                throw new EOFException("Truncated file at position " + (position + buffer.position() - start));
+            }
+        }
+        return true;
+    }
+
+    // Exposes the compressed bytes of a block without copying them.
+    private static class BlockOutputStream extends ByteArrayOutputStream {
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -18,19 +18,38 @@
  */
 package com.pinterest.secor.io.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
+import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
-import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.IndexedFileWriter;
+import com.pinterest.secor.io.MappedFileReaderFactory;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.SeekableFileReader;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,10 +62,26 @@ import com.pinterest.secor.util.FileUtil;
  *
  * @author Praveen Murugesan (praveen@uber.com)
  */
-public class SequenceFileReaderWriterFactory implements FileReaderWriterFactory {
+public class SequenceFileReaderWriterFactory implements FileReaderWriterFactory, MappedFileReaderFactory {
 
     private static final Logger LOG = LoggerFactory.getLogger(SequenceFileReaderWriterFactory.class);
 
+    // Length of the sync marker ending the file header.  The marker is repeated, after an escape, at
+    // the start of every compressed block and every few records.
+    private static final int SYNC_SIZE = 16;
+    private static final int SYNC_ESCAPE = -1;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private final long mIndexIntervalBytes;
+
+    public SequenceFileReaderWriterFactory() {
+        this.mIndexIntervalBytes = 0;
+    }
+
+    public SequenceFileReaderWriterFactory(SecorConfig config) {
+        this.mIndexIntervalBytes = config.getFileIndexIntervalBytes();
+    }
+
     @Override
     public FileReader BuildFileReader(LogFilePath logFilePath, CompressionCodec codec) throws Exception {
         return new SequenceFileReader(logFilePath);
@@ -57,6 +92,50 @@ public class SequenceFileReaderWriterFactory implements FileReaderWriterFactory
         return new SequenceFileWriter(logFilePath, codec);
     }
 
+    @Override
+    public SeekableFileReader BuildMappedFileReader(LogFilePath logFilePath, CompressionCodec codec,
+                                                    OffsetIndex index) throws Exception {
+        // Files written with a codec are compressed in blocks.
+        return codec == null ? BuildMappedFileReader(logFilePath.getLogFilePath(), index) : null;
+    }
+
+    /**
+     * Build a reader of a local sequence file mapped in memory.  Values may be compressed record
+     * by record, which is the default without a codec, but not in blocks.
+     *
+     * @param path Path of the file to read.
+     * @param index Offset index to seek with, or null to seek by skipping records.
+     * @return The reader, or null if the file is remote, too large, or compressed in blocks.
+     * @throws Exception on error
+     */
+    public SeekableFileReader BuildMappedFileReader(String path, OffsetIndex index) throws Exception {
+        ByteBuffer buffer = MappedFile.map(path);
+        if (buffer == null) {
+            return null;
+        }
+        SeekableFileReader mappedReader = null;
+        SequenceFile.Reader reader = null;
+        try {
+            reader = new SequenceFile.Reader(FileUtil.getFileSystem(path), new Path(path), new Configuration());
+            if (reader.isBlockCompressed() || !LongWritable.class.equals(reader.getKeyClass()) ||
+                    !BytesWritable.class.equals(reader.getValueClass())) {
+                return null;
+            }
+            // Records start after the header.
+            buffer.position((int) reader.getPosition());
+            mappedReader = new MappedSequenceFileReader(buffer,
+                    reader.isCompressed() ? reader.getCompressionCodec() : null, index);
+            return mappedReader;
+        } finally {
+            if (mappedReader == null) {
+                MappedFile.unmap(buffer);
+            }
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
     protected class SequenceFileReader implements FileReader {
         private final SequenceFile.Reader mReader;
         private final LongWritable mKey;
@@ -86,26 +165,166 @@ public class SequenceFileReaderWriterFactory implements FileReaderWriterFactory
         }
     }
 
-    protected class SequenceFileWriter implements FileWriter {
+    // Reads the records of a file mapped in memory.  A record is its length, the length of its key,
+    // its key and its value, where the length is preceded by an escaped sync marker every few records.
+    protected class MappedSequenceFileReader implements SeekableFileReader {
+        private ByteBuffer mBuffer;
+        private final CompressionCodec mCodec;
+        private Decompressor mDecompressor;
+        private final OffsetIndex mIndex;
+        private byte[] mCompressed = new byte[0];
+
+        public MappedSequenceFileReader(ByteBuffer buffer, CompressionCodec codec, OffsetIndex index) {
+            this.mBuffer = buffer;
+            this.mCodec = codec;
+            if (codec != null) {
+                this.mDecompressor = CodecPool.getDecompressor(codec);
+            }
+            this.mIndex = index;
+        }
+
+        private void require(int bytes) throws EOFException {
+            if (mBuffer.remaining() < bytes) {
+                throw new EOFException("Truncated record at position " + mBuffer.position());
+            }
+        }
+
+        // @return the length of the key and value of the next record, -1 at the end of the file
+        private int nextRecord() throws EOFException {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            require(4);
+            int length = mBuffer.getInt();
+            if (length == SYNC_ESCAPE) {
+                require(SYNC_SIZE);
+                mBuffer.position(mBuffer.position() + SYNC_SIZE);
+                // Flushed files end with a sync marker.
+                if (!mBuffer.hasRemaining()) {
+                    return -1;
+                }
+                require(4);
+                length = mBuffer.getInt();
+            }
+            require(4 + length);
+            return length;
+        }
+
+        private long readKey(int length) throws IOException {
+            int keyLength = mBuffer.getInt();
+            if (keyLength != 8 || length < keyLength) {
+                throw new IOException("Unexpected key length " + keyLength + " at position " +
+                        mBuffer.position());
+            }
+            return mBuffer.getLong();
+        }
+
+        @Override
+        public KeyValue next() throws IOException {
+            int length = nextRecord();
+            if (length < 0) {
+                return null;
+            }
+            long offset = readKey(length);
+            int valueLength = length - 8;
+            if (mCodec != null) {
+                return new KeyValue(offset, decompressValue(valueLength));
+            }
+            // A serialized BytesWritable is its length followed by its bytes.
+            if (valueLength < 4 || mBuffer.getInt() != valueLength - 4) {
+                throw new IOException("Unexpected value length at position " + mBuffer.position());
+            }
+            byte[] value = new byte[valueLength - 4];
+            mBuffer.get(value);
+            return new KeyValue(offset, value);
+        }
+
+        private byte[] decompressValue(int length) throws IOException {
+            if (mCompressed.length < length) {
+                mCompressed = new byte[length];
+            }
+            mBuffer.get(mCompressed, 0, length);
+            if (mDecompressor != null) {
+                mDecompressor.reset();
+            }
+            DataInputStream in = new DataInputStream(mCodec.createInputStream(
+                    new ByteArrayInputStream(mCompressed, 0, length), mDecompressor));
+            byte[] value = new byte[in.readInt()];
+            in.readFully(value);
+            return value;
+        }
+
+        @Override
+        public long skip() throws IOException {
+            int length = nextRecord();
+            if (length < 0) {
+                return -1;
+            }
+            long offset = readKey(length);
+            mBuffer.position(mBuffer.position() + length - 8);
+            return offset;
+        }
+
+        @Override
+        public void seek(long offset) throws IOException {
+            if (mIndex != null) {
+                int entry = mIndex.floorEntry(offset);
+                if (entry >= 0 && mIndex.getPosition(entry) > mBuffer.position() &&
+                        mIndex.getPosition(entry) <= mBuffer.limit()) {
+                    mBuffer.position((int) mIndex.getPosition(entry));
+                }
+            }
+            // Keys are only known once read, go back to the first record at or above the offset.
+            int position = mBuffer.position();
+            long skipped;
+            while ((skipped = skip()) != -1 && skipped < offset) {
+                position = mBuffer.position();
+            }
+            mBuffer.position(position);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mBuffer != null) {
+                MappedFile.unmap(mBuffer);
+                mBuffer = null;
+            }
+            if (mDecompressor != null) {
+                CodecPool.returnDecompressor(mDecompressor);
+                mDecompressor = null;
+            }
+        }
+    }
+
+    protected class SequenceFileWriter implements IndexedFileWriter, Flushable {
+        private final FSDataOutputStream mOut;
         private final SequenceFile.Writer mWriter;
         private final LongWritable mKey;
         private final BytesWritable mValue;
         private final Path fsPath;
+        private final byte[] mSync;
+        private final OffsetIndex mIndex;
+        private long mBytesSinceIndexEntry;
 
         public SequenceFileWriter(LogFilePath path, CompressionCodec codec) throws IOException {
             Configuration config = new Configuration();
             fsPath = new Path(path.getLogFilePath());
             FileSystem fs = FileUtil.getFileSystem(path.getLogFilePath());
+            HeaderCapturingOutputStream stream = new HeaderCapturingOutputStream(fs.create(fsPath));
+            this.mOut = new FSDataOutputStream(stream, null);
+            List<SequenceFile.Writer.Option> options = new ArrayList<SequenceFile.Writer.Option>();
+            options.add(SequenceFile.Writer.stream(mOut));
+            options.add(SequenceFile.Writer.keyClass(LongWritable.class));
+            options.add(SequenceFile.Writer.valueClass(BytesWritable.class));
             if (codec != null) {
-                this.mWriter = SequenceFile.createWriter(fs, config, fsPath,
-                        LongWritable.class, BytesWritable.class,
-                        SequenceFile.CompressionType.BLOCK, codec);
-            } else {
-                this.mWriter = SequenceFile.createWriter(fs, config, fsPath,
-                        LongWritable.class, BytesWritable.class);
+                options.add(SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK, codec));
             }
+            this.mWriter = SequenceFile.createWriter(config,
+                    options.toArray(new SequenceFile.Writer.Option[options.size()]));
+            this.mSync = stream.getSync();
             this.mKey = new LongWritable();
             this.mValue = new BytesWritable();
+            this.mIndex = mIndexIntervalBytes > 0 ? new OffsetIndex() : null;
             LOG.info("Created sequence file writer: {}", fsPath);
         }
 
@@ -116,15 +335,169 @@ public class SequenceFileReaderWriterFactory implements FileReaderWriterFactory
 
         @Override
         public void write(KeyValue keyValue) throws IOException {
+            if (mIndex != null && (mIndex.size() == 0 || mBytesSinceIndexEntry >= mIndexIntervalBytes)) {
+                if (mIndex.size() > 0) {
+                    // Reading can only start at a sync marker once records are compressed in blocks.
+                    this.mWriter.sync();
+                }
+                mIndex.add(keyValue.getOffset(), this.mWriter.getLength());
+                mBytesSinceIndexEntry = 0;
+            }
             this.mKey.set(keyValue.getOffset());
             this.mValue.set(keyValue.getValue(), 0, keyValue.getValue().length);
             this.mWriter.append(this.mKey, this.mValue);
+            if (mIndex != null) {
+                mIndex.setLastOffset(keyValue.getOffset());
+                mBytesSinceIndexEntry += keyValue.getValue().length;
+            }
+        }
+
+        @Override
+        public OffsetIndex getOffsetIndex() {
+            return mIndex;
+        }
+
+        @Override
+        public void append(LogFilePath srcPath, OffsetIndex srcIndex, long startOffset) throws IOException {
+            int entry = Math.max(srcIndex.floorEntry(startOffset), 0);
+            Configuration config = new Configuration();
+            Path srcFsPath = new Path(srcPath.getLogFilePath());
+            FileSystem fs = FileUtil.getFileSystem(srcPath.getLogFilePath());
+            long headerLength;
+            // Rewrite the messages of the entry containing the start offset.
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs, srcFsPath, config);
+            try {
+                headerLength = reader.getPosition();
+                reader.seek(srcIndex.getPosition(entry));
+                long endOffset = entry + 1 < srcIndex.size() ? srcIndex.getOffset(entry + 1) : Long.MAX_VALUE;
+                LongWritable key = new LongWritable();
+                BytesWritable value = new BytesWritable();
+                while (reader.next(key, value) && key.get() < endOffset) {
+                    if (key.get() >= startOffset) {
+                        write(new KeyValue(key.get(), Arrays.copyOfRange(value.getBytes(), 0, value.getLength())));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (entry + 1 == srcIndex.size()) {
+                return;
+            }
+
+            // Copy the following entries.  Their sync markers are the source file's.
+            this.mWriter.sync();
+            long copyPosition = srcIndex.getPosition(entry + 1);
+            long position = this.mWriter.getLength();
+            FSDataInputStream in = fs.open(srcFsPath);
+            try {
+                byte[] srcSync = new byte[SYNC_SIZE];
+                in.readFully(headerLength - SYNC_SIZE, srcSync);
+                in.seek(copyPosition);
+                copyReplacingSync(in, mOut, srcSync, mSync);
+            } finally {
+                in.close();
+            }
+            if (mIndex != null) {
+                for (int i = entry + 1; i < srcIndex.size(); ++i) {
+                    mIndex.add(srcIndex.getOffset(i), srcIndex.getPosition(i) - copyPosition + position);
+                }
+                mIndex.setLastOffset(srcIndex.getLastOffset());
+                mBytesSinceIndexEntry = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Ends the current block of compressed files, so that all records written can be read.
+            this.mWriter.sync();
+            this.mWriter.hflush();
         }
 
         @Override
         public void close() throws IOException {
             this.mWriter.close();
+            // The writer does not close streams it has not opened.
+            this.mOut.close();
             LOG.info("Closing sequence file writer: {}", fsPath);
         }
     }
-}
\ No newline at end of file
+
+    // Copy a stream replacing the escaped sync markers of a file with those of another file.
+    private static void copyReplacingSync(InputStream in, OutputStream out, byte[] fromSync,
+                                          byte[] toSync) throws IOException {
+        int markerLength = 4 + SYNC_SIZE;
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        int length = 0;
+        boolean eof = false;
+        while (!eof || length > 0) {
+            if (!eof) {
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
+                }
+            }
+            // Keep the bytes a marker may start at until the rest of the marker is read.
+            int end = eof ? length : length - (markerLength - 1);
+            if (end <= 0) {
+                continue;
+            }
+            for (int i = 0; i < end && i + markerLength <= length; ++i) {
+                if (isSyncMarker(buffer, i, fromSync)) {
+                    System.arraycopy(toSync, 0, buffer, i + 4, SYNC_SIZE);
+                    i += markerLength - 1;
+                }
+            }
+            out.write(buffer, 0, end);
+            System.arraycopy(buffer, end, buffer, 0, length - end);
+            length -= end;
+        }
+    }
+
+    private static boolean isSyncMarker(byte[] buffer, int start, byte[] sync) {
+        for (int i = 0; i < 4; ++i) {
+            if (buffer[start + i] != (byte) SYNC_ESCAPE) {
+                return false;
+            }
+        }
+        for (int i = 0; i < SYNC_SIZE; ++i) {
+            if (buffer[start + 4 + i] != sync[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Keeps the bytes written until the writer has written the file header, which ends with the
+    // sync marker of the file.
+    private static class HeaderCapturingOutputStream extends FilterOutputStream {
+        private ByteArrayOutputStream mHeader = new ByteArrayOutputStream();
+
+        public HeaderCapturingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (mHeader != null) {
+                mHeader.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (mHeader != null) {
+                mHeader.write(b, off, len);
+            }
+        }
+
+        public byte[] getSync() {
+            byte[] header = mHeader.toByteArray();
+            mHeader = null;
+            return Arrays.copyOfRange(header, header.length - SYNC_SIZE, header.length);
+        }
+    }
+}
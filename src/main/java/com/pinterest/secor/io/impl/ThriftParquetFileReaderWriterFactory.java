@@ -31,6 +31,7 @@ import org.apache.thrift.TException;
 
 import com.pinterest.secor.common.LogFilePath;
 import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.ColumnarMemoryManager;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
 import com.pinterest.secor.io.FileWriter;
@@ -53,6 +54,7 @@ public class ThriftParquetFileReaderWriterFactory implements FileReaderWriterFac
     protected final int pageSize;
     protected final boolean enableDictionary;
     protected final boolean validating;
+    protected final ColumnarMemoryManager memoryManager;
 
     public ThriftParquetFileReaderWriterFactory(SecorConfig config) {
         thriftUtil = new ThriftUtil(config);
@@ -61,6 +63,7 @@ public class ThriftParquetFileReaderWriterFactory implements FileReaderWriterFac
         pageSize = ParquetUtil.getParquetPageSize(config);
         enableDictionary = ParquetUtil.getParquetEnableDictionary(config);
         validating = ParquetUtil.getParquetValidation(config);
+        memoryManager = ColumnarMemoryManager.getInstance(config);
     }
 
     @Override
@@ -121,8 +124,14 @@ public class ThriftParquetFileReaderWriterFactory implements FileReaderWriterFac
             Path path = new Path(logFilePath.getLogFilePath());
             CompressionCodecName codecName = CompressionCodecName.fromCompressionCodec(codec != null ? codec.getClass() : null);
             topic = logFilePath.getTopic();
-            writer = new ThriftParquetWriter(path, thriftUtil.getMessageClass(topic), codecName,
-                    blockSize, pageSize, enableDictionary, validating);
+            int rowGroupSize = memoryManager.addParquetWriter(this, topic, blockSize);
+            try {
+                writer = new ThriftParquetWriter(path, thriftUtil.getMessageClass(topic), codecName,
+                        rowGroupSize, pageSize, enableDictionary, validating);
+            } catch (IOException | RuntimeException e) {
+                memoryManager.removeParquetWriter(this);
+                throw e;
+            }
         }
 
         @Override
@@ -144,7 +153,11 @@ public class ThriftParquetFileReaderWriterFactory implements FileReaderWriterFac
 
         @Override
         public void close() throws IOException {
-            writer.close();
+            try {
+                writer.close();
+            } finally {
+                memoryManager.removeParquetWriter(this);
+            }
         }
     }
 }
@@ -21,9 +21,11 @@ package com.pinterest.secor.main;
 import com.pinterest.secor.common.OstrichAdminService;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.consumer.Consumer;
+import com.pinterest.secor.consumer.PipelinedConsumer;
 import com.pinterest.secor.tools.LogFileDeleter;
 import com.pinterest.secor.util.FileUtil;
 import com.pinterest.secor.util.RateLimitUtil;
+import com.pinterest.secor.writer.LocalSpool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,6 +60,9 @@ public class ConsumerMain {
             ostrichService.start();
             FileUtil.configure(config);
 
+            if (config.getLocalSpoolCheckpointSeconds() > 0) {
+                LocalSpool.recover(config);
+            }
             LogFileDeleter logFileDeleter = new LogFileDeleter(config);
             logFileDeleter.deleteOldLogs();
 
@@ -71,7 +76,8 @@ public class ConsumerMain {
             LOG.info("starting {} consumer threads", config.getConsumerThreads());
             LinkedList<Consumer> consumers = new LinkedList<Consumer>();
             for (int i = 0; i < config.getConsumerThreads(); ++i) {
-                Consumer consumer = new Consumer(config);
+                Consumer consumer = config.getConsumerParserThreads() > 0 ?
+                    new PipelinedConsumer(config) : new Consumer(config);
                 consumer.setUncaughtExceptionHandler(handler);
                 consumers.add(consumer);
                 consumer.start();
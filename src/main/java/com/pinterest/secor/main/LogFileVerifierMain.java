@@ -34,7 +34,7 @@ import org.slf4j.LoggerFactory;
  *     $ cd target
  *     $ java -ea -Dlog4j.configuration=log4j.dev.properties -Dconfig=secor.dev.backup.properties \
  *         -cp "secor-0.1-SNAPSHOT.jar:lib/*" com.pinterest.secor.main.LogFileVerifierMain -t \
- *         topic -q
+ *         topic -q -p 32 -c /tmp/topic.verifier
  *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
@@ -68,8 +68,19 @@ public class LogFileVerifierMain {
                .withType(Number.class)
                .create("m"));
         options.addOption("q", "sequence_offsets", false, "whether to verify that offsets " +
-                          "increase sequentially.  Requires loading all offsets in a snapshot " +
-                          "to memory so use cautiously");
+                          "increase sequentially");
+        options.addOption(OptionBuilder.withLongOpt("threads")
+               .withDescription("number of threads listing and reading files")
+               .hasArg()
+               .withArgName("<threads>")
+               .withType(Number.class)
+               .create("p"));
+        options.addOption(OptionBuilder.withLongOpt("checkpoint")
+               .withDescription("local file to resume the verification from")
+               .hasArg()
+               .withArgName("<path>")
+               .withType(String.class)
+               .create("c"));
 
         CommandLineParser parser = new GnuParser();
         return parser.parse(options, args);
@@ -80,8 +91,13 @@ public class LogFileVerifierMain {
             CommandLine commandLine = parseArgs(args);
             SecorConfig config = SecorConfig.load();
             FileUtil.configure(config);
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (commandLine.hasOption("threads")) {
+                threads = ((Number) commandLine.getParsedOptionValue("threads")).intValue();
+            }
             LogFileVerifier verifier = new LogFileVerifier(config,
-                commandLine.getOptionValue("topic"));
+                commandLine.getOptionValue("topic"), threads,
+                commandLine.getOptionValue("checkpoint"));
             long startOffset = -2;
             long endOffset = Long.MAX_VALUE;
             if (commandLine.hasOption("start_offset")) {
@@ -94,9 +110,13 @@ public class LogFileVerifierMain {
             if (commandLine.hasOption("messages")) {
                 numMessages = ((Number) commandLine.getParsedOptionValue("messages")).intValue();
             }
-            verifier.verifyCounts(startOffset, endOffset, numMessages);
-            if (commandLine.hasOption("sequence_offsets")) {
-                verifier.verifySequences(startOffset, endOffset);
+            try {
+                verifier.verifyCounts(startOffset, endOffset, numMessages);
+                if (commandLine.hasOption("sequence_offsets")) {
+                    verifier.verifySequences(startOffset, endOffset);
+                }
+            } finally {
+                verifier.close();
             }
             System.out.println("verification succeeded");
         } catch (Throwable t) {
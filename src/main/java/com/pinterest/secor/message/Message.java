@@ -43,6 +43,9 @@ public class Message {
     private byte[] mKafkaKey;
     private byte[] mPayload;
     private long mTimestamp;
+    // Payload decoded by the parser, e.g., an Avro record or a protobuf message.  Writers may
+    // reuse it instead of decoding the payload again.
+    private Object mDecodedPayload;
 
     private static final int TRUNCATED_STRING_MAX_LEN = 1024;
     /**
@@ -87,6 +90,10 @@ public class Message {
         return "Message{" + fieldsToString(false) + '}';
     }
 
+    public String toTruncatedString() {
+        return "Message{" + fieldsToString(true) + '}';
+    }
+
     public Message(String topic, int kafkaPartition, long offset, byte[] kafkaKey, byte[] payload, long timestamp) {
         mTopic = topic;
         mKafkaPartition = kafkaPartition;
@@ -126,6 +133,14 @@ public class Message {
         return mTimestamp;
     }
 
+    public Object getDecodedPayload() {
+        return mDecodedPayload;
+    }
+
+    public void setDecodedPayload(Object decodedPayload) {
+        mDecodedPayload = decodedPayload;
+    }
+
     public void write(OutputStream output) throws IOException {
         output.write(mPayload);
     }
@@ -36,6 +36,7 @@ public class ParsedMessage extends Message {
                Arrays.toString(mPartitions) + '}';
     }
 
+    @Override
     public String toTruncatedString() {
         return "ParsedMessage{" + fieldsToString(true) +  ", mPartitions=" +
                 Arrays.toString(mPartitions) + '}';
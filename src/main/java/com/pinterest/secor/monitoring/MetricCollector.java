@@ -59,7 +59,8 @@ public interface MetricCollector {
      *
      * @param label gauge name
      * @param value the new reading of the gauge
-     * @param topic a tag which describes which topic this data is collected for
+     * @param topic a tag which describes which topic this data is collected for, or null if the gauge is not
+     *              specific to a topic
      */
     void gauge(String label, double value, String topic);
 }
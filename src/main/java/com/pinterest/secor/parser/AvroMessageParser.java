@@ -48,6 +48,7 @@ public class AvroMessageParser extends TimestampedMessageParser {
     public long extractTimestampMillis(final Message message) {
         try {
             GenericRecord record = schemaRegistryClient.decodeMessage(message.getTopic(), message.getPayload());
+            message.setDecodedPayload(record);
             if (record != null) {
                 Object fieldValue = record.get(mConfig.getMessageTimestampName());
                 if (fieldValue != null) {
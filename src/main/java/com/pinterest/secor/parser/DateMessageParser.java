@@ -28,9 +28,6 @@ import org.slf4j.LoggerFactory;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.message.Message;
 
-import net.minidev.json.JSONObject;
-import net.minidev.json.JSONValue;
-
 /**
  * DateMessageParser extracts the timestamp field (specified by 'message.timestamp.name')
  *  and the date pattern (specified by 'message.timestamp.input.pattern')
@@ -49,6 +46,7 @@ public class DateMessageParser extends MessageParser {
     protected SimpleDateFormat inputFormatter;
 
     protected final String mDtPrefix;
+    private final JsonFieldExtractor mFieldExtractor;
 
     public DateMessageParser(SecorConfig config) {
         super(config);
@@ -62,23 +60,21 @@ public class DateMessageParser extends MessageParser {
         outputFormatter.setTimeZone(timeZone);
 
         mDtPrefix = TimestampedMessageParser.usingDatePrefix(config);
+        mFieldExtractor = new JsonFieldExtractor(getTimestampFieldPath());
     }
 
     @Override
     public String[] extractPartitions(Message message) {
-        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
+        String fieldValue = mFieldExtractor.extract(message.getPayload()).getString(0);
         String result[] = { defaultDate };
 
-        if (jsonObject != null) {
-            Object fieldValue = getJsonFieldValue(jsonObject);
-            if (fieldValue != null && inputPattern != null) {
-                try {
-                    Date dateFormat = inputFormatter.parse(fieldValue.toString());
-                    result[0] = mDtPrefix + outputFormatter.format(dateFormat);
-                } catch (Exception e) {
-                    LOG.warn("Impossible to convert date = {} with the input pattern = {}. Using date default = {}",
-                             fieldValue.toString(), inputPattern.toString(), result[0]);
-                }
+        if (fieldValue != null && inputPattern != null) {
+            try {
+                Date dateFormat = inputFormatter.parse(fieldValue);
+                result[0] = mDtPrefix + outputFormatter.format(dateFormat);
+            } catch (Exception e) {
+                LOG.warn("Impossible to convert date = {} with the input pattern = {}. Using date default = {}",
+                         fieldValue, inputPattern.toString(), result[0]);
             }
         }
 
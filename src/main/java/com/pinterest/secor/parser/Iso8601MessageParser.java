@@ -20,8 +20,6 @@ package com.pinterest.secor.parser;
 
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.message.Message;
-import net.minidev.json.JSONObject;
-import net.minidev.json.JSONValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,16 +34,17 @@ import java.util.Date;
  */
 public class Iso8601MessageParser extends TimestampedMessageParser {
     private final boolean m_timestampRequired;
+    private final JsonFieldExtractor mFieldExtractor;
 
     public Iso8601MessageParser(SecorConfig config) {
         super(config);
         m_timestampRequired = config.isMessageTimestampRequired();
+        mFieldExtractor = new JsonFieldExtractor(getTimestampFieldPath());
     }
 
     @Override
     public long extractTimestampMillis(final Message message) {
-        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
-        Object fieldValue = jsonObject != null ? getJsonFieldValue(jsonObject) : null;
+        String fieldValue = mFieldExtractor.extract(message.getPayload()).getString(0);
 
         if (m_timestampRequired && fieldValue == null) {
             throw new RuntimeException("Missing timestamp field for message: " + message);
@@ -53,7 +52,7 @@ public class Iso8601MessageParser extends TimestampedMessageParser {
 
         if (fieldValue != null) {
             try {
-                Date dateFormat = DatatypeConverter.parseDateTime(fieldValue.toString()).getTime();
+                Date dateFormat = DatatypeConverter.parseDateTime(fieldValue).getTime();
                 return dateFormat.getTime();
             } catch (IllegalArgumentException ex) {
                 if (m_timestampRequired){
@@ -0,0 +1,404 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * JsonFieldExtractor finds the values of a few (possibly nested) fields in a UTF-8 encoded JSON
+ * object without building a JSON tree.  It scans the payload bytes once, descends only into
+ * objects on the configured field paths, and stops as soon as all fields are found.  Values are
+ * located as byte ranges of the payload and converted only on request.
+ *
+ * Like json-smart in permissive mode, single quoted and unquoted keys and strings are accepted.
+ * If a field occurs more than once, the first occurrence wins.
+ *
+ * The extractor is immutable and can be shared between threads.
+ */
+public class JsonFieldExtractor {
+    private static final int MAX_FIELDS = 32;
+
+    private static final int MALFORMED = -1;
+    private static final int DONE = -2;
+
+    private static final byte MISSING = 0;
+    private static final byte STRING = 1;
+    private static final byte ESCAPED_STRING = 2;
+    private static final byte SCALAR = 3;
+    private static final byte STRUCTURE = 4;
+
+    // Field -> path level -> UTF-8 encoded field name.
+    private final byte[][][] mPaths;
+    private final int mAllFields;
+
+    /**
+     * @param paths field paths, each listing the names of the nested fields leading to the value
+     */
+    public JsonFieldExtractor(String[]... paths) {
+        if (paths.length == 0 || paths.length > MAX_FIELDS) {
+            throw new IllegalArgumentException("Between 1 and " + MAX_FIELDS +
+                                               " fields can be extracted, got " + paths.length);
+        }
+        mPaths = new byte[paths.length][][];
+        for (int i = 0; i < paths.length; ++i) {
+            mPaths[i] = new byte[paths[i].length][];
+            for (int j = 0; j < paths[i].length; ++j) {
+                // A missing field name never matches.
+                mPaths[i][j] = paths[i][j] == null ? null : paths[i][j].getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        mAllFields = paths.length == MAX_FIELDS ? -1 : (1 << paths.length) - 1;
+    }
+
+    /**
+     * Locate the configured fields in a JSON payload.
+     *
+     * @param json UTF-8 encoded JSON
+     * @return the located field values, indexed in the order the field paths were given
+     * @throws ClassCastException if the payload is not a JSON object, mirroring the cast of
+     *         {@code JSONValue.parse} results the parsers used to do
+     */
+    public Values extract(byte[] json) {
+        int pos = skipWhitespace(json, 0);
+        if (pos >= json.length || json[pos] != '{') {
+            throw new ClassCastException("JSON payload is not an object");
+        }
+        Values values = new Values(json, mPaths.length);
+        if (scanObject(json, pos, 0, mAllFields, values) == MALFORMED) {
+            values.mMalformed = true;
+        }
+        return values;
+    }
+
+    // Scan the object starting at pos, collecting the values of the given fields whose path
+    // prefix matches the object's position in the document.
+    // @return the position following the object, or MALFORMED, or DONE if all fields were found
+    private int scanObject(byte[] json, int pos, int level, int fields, Values values) {
+        pos = skipWhitespace(json, pos + 1);
+        if (pos < json.length && json[pos] == '}') {
+            return pos + 1;
+        }
+        while (pos < json.length) {
+            int keyStart;
+            int keyEnd;
+            byte quote = json[pos];
+            if (quote == '"' || quote == '\'') {
+                keyStart = pos + 1;
+                keyEnd = stringEnd(json, pos);
+                if (keyEnd == MALFORMED) {
+                    return MALFORMED;
+                }
+                pos = keyEnd + 1;
+            } else {
+                keyStart = pos;
+                while (pos < json.length && json[pos] != ':' && !isWhitespace(json[pos])) {
+                    pos++;
+                }
+                keyEnd = pos;
+            }
+
+            int matched = 0;
+            int pending = fields & ~values.mFound;
+            for (int i = 0; pending != 0; ++i, pending >>>= 1) {
+                if ((pending & 1) != 0 && keyEquals(json, keyStart, keyEnd, mPaths[i][level])) {
+                    matched |= 1 << i;
+                }
+            }
+
+            pos = skipWhitespace(json, pos);
+            if (pos >= json.length || json[pos] != ':') {
+                return MALFORMED;
+            }
+            pos = skipWhitespace(json, pos + 1);
+            if (pos >= json.length) {
+                return MALFORMED;
+            }
+
+            int valueEnd;
+            if (matched == 0) {
+                valueEnd = skipValue(json, pos);
+            } else {
+                int leaves = 0;
+                for (int i = 0; i < mPaths.length; ++i) {
+                    if ((matched & (1 << i)) != 0 && mPaths[i].length == level + 1) {
+                        leaves |= 1 << i;
+                    }
+                }
+                int nested = matched & ~leaves;
+                if (nested != 0 && json[pos] == '{') {
+                    valueEnd = scanObject(json, pos, level + 1, nested, values);
+                    if (valueEnd == DONE) {
+                        return DONE;
+                    }
+                } else {
+                    valueEnd = skipValue(json, pos);
+                }
+                if (leaves != 0 && valueEnd != MALFORMED) {
+                    values.set(leaves, json, pos, valueEnd);
+                    if ((values.mFound & mAllFields) == mAllFields) {
+                        return DONE;
+                    }
+                }
+            }
+            if (valueEnd == MALFORMED) {
+                return MALFORMED;
+            }
+
+            pos = skipWhitespace(json, valueEnd);
+            if (pos >= json.length) {
+                return MALFORMED;
+            }
+            if (json[pos] == '}') {
+                return pos + 1;
+            }
+            if (json[pos] != ',') {
+                return MALFORMED;
+            }
+            pos = skipWhitespace(json, pos + 1);
+            if (pos < json.length && json[pos] == '}') {
+                // Trailing comma.
+                return pos + 1;
+            }
+        }
+        return MALFORMED;
+    }
+
+    private static boolean keyEquals(byte[] json, int start, int end, byte[] name) {
+        if (name == null) {
+            return false;
+        }
+        for (int i = start; i < end; ++i) {
+            if (json[i] == '\\') {
+                // Rare enough to afford decoding.
+                return Arrays.equals(unescape(json, start, end).getBytes(StandardCharsets.UTF_8), name);
+            }
+        }
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; ++i) {
+            if (json[start + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // @return the position following the value starting at pos, or MALFORMED
+    private static int skipValue(byte[] json, int pos) {
+        byte c = json[pos];
+        if (c == '"' || c == '\'') {
+            int end = stringEnd(json, pos);
+            return end == MALFORMED ? MALFORMED : end + 1;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            for (; pos < json.length; ++pos) {
+                c = json[pos];
+                if (c == '"' || c == '\'') {
+                    pos = stringEnd(json, pos);
+                    if (pos == MALFORMED) {
+                        return MALFORMED;
+                    }
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return pos + 1;
+                    }
+                }
+            }
+            return MALFORMED;
+        }
+        int start = pos;
+        while (pos < json.length && !isWhitespace(json[pos]) && json[pos] != ',' &&
+               json[pos] != '}' && json[pos] != ']') {
+            pos++;
+        }
+        return pos == start ? MALFORMED : pos;
+    }
+
+    // @return the position of the quote closing the string opened at pos, or MALFORMED
+    private static int stringEnd(byte[] json, int pos) {
+        byte quote = json[pos];
+        for (int i = pos + 1; i < json.length; ++i) {
+            if (json[i] == '\\') {
+                i++;
+            } else if (json[i] == quote) {
+                return i;
+            }
+        }
+        return MALFORMED;
+    }
+
+    private static int skipWhitespace(byte[] json, int pos) {
+        while (pos < json.length && isWhitespace(json[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isWhitespace(byte c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static String unescape(byte[] json, int start, int end) {
+        StringBuilder builder = new StringBuilder(end - start);
+        int chunkStart = start;
+        for (int i = start; i < end; ++i) {
+            if (json[i] != '\\') {
+                continue;
+            }
+            builder.append(new String(json, chunkStart, i - chunkStart, StandardCharsets.UTF_8));
+            if (++i >= end) {
+                break;
+            }
+            switch (json[i]) {
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if (i + 4 < end) {
+                        builder.append((char) Integer.parseInt(
+                            new String(json, i + 1, 4, StandardCharsets.US_ASCII), 16));
+                        i += 4;
+                    }
+                    break;
+                default: builder.append((char) json[i]);
+            }
+            chunkStart = i + 1;
+        }
+        builder.append(new String(json, chunkStart, end - chunkStart, StandardCharsets.UTF_8));
+        return builder.toString();
+    }
+
+    /**
+     * Values of the extracted fields, as byte ranges of the scanned payload.
+     */
+    public static class Values {
+        private final byte[] mJson;
+        private final byte[] mTypes;
+        private final int[] mStarts;
+        private final int[] mEnds;
+        private int mFound;
+        private boolean mMalformed;
+
+        private Values(byte[] json, int fields) {
+            mJson = json;
+            mTypes = new byte[fields];
+            mStarts = new int[fields];
+            mEnds = new int[fields];
+        }
+
+        private void set(int fields, byte[] json, int start, int end) {
+            byte type;
+            byte c = json[start];
+            if (c == '"' || c == '\'') {
+                type = STRING;
+                start++;
+                end--;
+                for (int i = start; i < end; ++i) {
+                    if (json[i] == '\\') {
+                        type = ESCAPED_STRING;
+                        break;
+                    }
+                }
+            } else if (c == '{' || c == '[') {
+                type = STRUCTURE;
+            } else if (end - start == 4 && c == 'n' && json[start + 1] == 'u' &&
+                       json[start + 2] == 'l' && json[start + 3] == 'l') {
+                // A null value is the same as a missing one.
+                type = MISSING;
+            } else {
+                type = SCALAR;
+            }
+            for (int i = 0; i < mTypes.length; ++i) {
+                if ((fields & (1 << i)) != 0) {
+                    mTypes[i] = type;
+                    mStarts[i] = start;
+                    mEnds[i] = end;
+                }
+            }
+            mFound |= fields;
+        }
+
+        /**
+         * @return true if the payload turned out not to be valid JSON before all fields were found
+         */
+        public boolean isMalformed() {
+            return mMalformed;
+        }
+
+        public boolean has(int field) {
+            return mTypes[field] != MISSING;
+        }
+
+        /**
+         * Convert a field value to a long the same way as
+         * {@code Double.valueOf(value.toString()).longValue()} on a json-smart value.  Plain
+         * integers are converted without allocation.
+         *
+         * @throws NumberFormatException if the value is not a number
+         */
+        public long getLong(int field) {
+            if (mTypes[field] == STRING || mTypes[field] == SCALAR) {
+                int pos = mStarts[field];
+                int end = mEnds[field];
+                boolean negative = pos < end && mJson[pos] == '-';
+                if (negative) {
+                    pos++;
+                }
+                // 18 digits always fit in a long.
+                if (pos < end && end - pos <= 18) {
+                    long value = 0;
+                    for (; pos < end; ++pos) {
+                        byte c = mJson[pos];
+                        if (c < '0' || c > '9') {
+                            break;
+                        }
+                        value = value * 10 + (c - '0');
+                    }
+                    if (pos == end) {
+                        return (long) (double) (negative ? -value : value);
+                    }
+                }
+            }
+            return Double.valueOf(getString(field)).longValue();
+        }
+
+        /**
+         * @return the field value as a string, with strings unescaped, or null if the field is
+         *         missing
+         */
+        public String getString(int field) {
+            switch (mTypes[field]) {
+                case MISSING:
+                    return null;
+                case ESCAPED_STRING:
+                    return unescape(mJson, mStarts[field], mEnds[field]);
+                default:
+                    return new String(mJson, mStarts[field], mEnds[field] - mStarts[field],
+                                      StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
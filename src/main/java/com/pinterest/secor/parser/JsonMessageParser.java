@@ -20,8 +20,6 @@ package com.pinterest.secor.parser;
 
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.message.Message;
-import net.minidev.json.JSONObject;
-import net.minidev.json.JSONValue;
 
 /**
  * JsonMessageParser extracts timestamp field (specified by 'message.timestamp.name')
@@ -29,21 +27,20 @@ import net.minidev.json.JSONValue;
  */
 public class JsonMessageParser extends TimestampedMessageParser {
     private final boolean m_timestampRequired;
+    private final JsonFieldExtractor mFieldExtractor;
 
     public JsonMessageParser(SecorConfig config) {
         super(config);
         m_timestampRequired = config.isMessageTimestampRequired();
+        mFieldExtractor = new JsonFieldExtractor(getTimestampFieldPath());
     }
 
     @Override
     public long extractTimestampMillis(final Message message) {
-        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
-        if (jsonObject != null) {
-            Object fieldValue = getJsonFieldValue(jsonObject);
-            if (fieldValue != null) {
-                return toMillis(Double.valueOf(fieldValue.toString()).longValue());
-            }
-        } else if (m_timestampRequired) {
+        JsonFieldExtractor.Values values = mFieldExtractor.extract(message.getPayload());
+        if (values.has(0)) {
+            return toMillis(values.getLong(0));
+        } else if (values.isMalformed() && m_timestampRequired) {
             throw new RuntimeException("Missing timestamp field for message: " + message);
         }
         return 0;
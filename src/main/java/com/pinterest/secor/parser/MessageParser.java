@@ -60,13 +60,23 @@ public abstract class MessageParser {
 
     public ParsedMessage parse(Message message) throws Exception {
         String[] partitions = extractPartitions(message);
-        return new ParsedMessage(message.getTopic(), message.getKafkaPartition(),
-                                 message.getOffset(), message.getKafkaKey(),
-                                 message.getPayload(), partitions, message.getTimestamp());
+        ParsedMessage parsedMessage = new ParsedMessage(message.getTopic(), message.getKafkaPartition(),
+                                                        message.getOffset(), message.getKafkaKey(),
+                                                        message.getPayload(), partitions, message.getTimestamp());
+        parsedMessage.setDecodedPayload(message.getDecodedPayload());
+        return parsedMessage;
     }
 
     public abstract String[] extractPartitions(Message payload) throws Exception;
 
+    // @return the path to the 'message.timestamp.name' field, split by the configured separator
+    protected String[] getTimestampFieldPath() {
+        if (mNestedFields != null) {
+            return mNestedFields;
+        }
+        return new String[]{mConfig.getMessageTimestampName()};
+    }
+
     public Object getJsonFieldValue(JSONObject jsonObject) {
         Object fieldValue = null;
         if (mNestedFields != null) {
@@ -27,16 +27,24 @@ import com.pinterest.secor.message.Message;
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class OffsetMessageParser extends MessageParser {
+    private final long mOffsetsPerPartition;
+    // Partitions returned last.  Consecutive messages mostly fall into the same offset range.
+    private long mLastPartition = -1;
+    private String[] mLastPartitions;
+
     public OffsetMessageParser(SecorConfig config) {
         super(config);
+        mOffsetsPerPartition = mConfig.getOffsetsPerPartition();
     }
 
     @Override
     public String[] extractPartitions(Message message) throws Exception {
         long offset = message.getOffset();
-        long offsetsPerPartition = mConfig.getOffsetsPerPartition();
-        long partition = (offset / offsetsPerPartition) * offsetsPerPartition;
-        String[] result = {offsetPrefix + partition};
-        return result;
+        long partition = (offset / mOffsetsPerPartition) * mOffsetsPerPartition;
+        if (partition != mLastPartition) {
+            mLastPartitions = new String[]{offsetPrefix + partition};
+            mLastPartition = partition;
+        }
+        return mLastPartitions;
     }
 }
@@ -42,7 +42,7 @@ public class PartitionFinalizer {
     private static final Logger LOG = LoggerFactory.getLogger(PartitionFinalizer.class);
 
     private final SecorConfig mConfig;
-    private final ZookeeperConnector mZookeeperConnector;
+    private final OffsetStore mOffsetStore;
     private final TimestampedMessageParser mMessageParser;
     private final KafkaClient mKafkaClient;
     private final QuboleClient mQuboleClient;
@@ -54,7 +54,7 @@ public class PartitionFinalizer {
         Class kafkaClientClass = Class.forName(mConfig.getKafkaClientClass());
         this.mKafkaClient = (KafkaClient) kafkaClientClass.newInstance();
         this.mKafkaClient.init(config);
-        mZookeeperConnector = new ZookeeperConnector(mConfig);
+        mOffsetStore = OffsetStoreFactory.getOffsetStore(mConfig);
         mMessageParser = (TimestampedMessageParser) ReflectionUtil.createMessageParser(
           mConfig.getMessageParserClass(), mConfig);
         mQuboleClient = new QuboleClient(mConfig);
@@ -199,7 +199,7 @@ public class PartitionFinalizer {
     }
 
     public void finalizePartitions() throws Exception {
-        List<String> topics = mZookeeperConnector.getCommittedOffsetTopics();
+        List<String> topics = mOffsetStore.getCommittedOffsetTopics();
         for (String topic : topics) {
             if (!topic.matches(mConfig.getKafkaTopicFilter())) {
                 LOG.info("skipping topic {}", topic);
@@ -69,25 +69,18 @@ public class ProtobufMessageParser extends TimestampedMessageParser {
 
     @Override
     public long extractTimestampMillis(final Message message) throws IOException {
+        if (timestampFieldPath != null) {
+            com.google.protobuf.Message decodedMessage = protobufUtil.decodeProtobufOrJsonMessage(
+                    message.getTopic(), message.getPayload());
+            message.setDecodedPayload(decodedMessage);
+            return extractTimestampMillisFromDecoded(decodedMessage);
+        }
         return extractTimestampMillis(message.getTopic(), message.getPayload());
     }
 
     public long extractTimestampMillis(String topic, final byte[] bytes) throws IOException {
         if (timestampFieldPath != null) {
-            com.google.protobuf.Message decodedMessage = protobufUtil.decodeProtobufOrJsonMessage(topic,
-                    bytes);
-            int i = 0;
-            for (; i < timestampFieldPath.length - 1; ++i) {
-                decodedMessage = (com.google.protobuf.Message) decodedMessage
-                        .getField(decodedMessage.getDescriptorForType().findFieldByName(timestampFieldPath[i]));
-            }
-            Object timestampObject = decodedMessage
-                    .getField(decodedMessage.getDescriptorForType().findFieldByName(timestampFieldPath[i]));
-            if (timestampObject instanceof com.google.protobuf.Timestamp){
-                return Timestamps.toMillis((com.google.protobuf.Timestamp) timestampObject);
-            }else {
-                return toMillis((Long) timestampObject);
-            }
+            return extractTimestampMillisFromDecoded(protobufUtil.decodeProtobufOrJsonMessage(topic, bytes));
         } else {
             // Assume that the timestamp field is the first field, is required,
             // and is a uint64.
@@ -99,4 +92,19 @@ public class ProtobufMessageParser extends TimestampedMessageParser {
             return toMillis(input.readUInt64());
         }
     }
+
+    private long extractTimestampMillisFromDecoded(com.google.protobuf.Message decodedMessage) {
+        int i = 0;
+        for (; i < timestampFieldPath.length - 1; ++i) {
+            decodedMessage = (com.google.protobuf.Message) decodedMessage
+                    .getField(decodedMessage.getDescriptorForType().findFieldByName(timestampFieldPath[i]));
+        }
+        Object timestampObject = decodedMessage
+                .getField(decodedMessage.getDescriptorForType().findFieldByName(timestampFieldPath[i]));
+        if (timestampObject instanceof com.google.protobuf.Timestamp){
+            return Timestamps.toMillis((com.google.protobuf.Timestamp) timestampObject);
+        }else {
+            return toMillis((Long) timestampObject);
+        }
+    }
 }
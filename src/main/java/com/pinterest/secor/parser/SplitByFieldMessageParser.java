@@ -21,7 +21,6 @@ package com.pinterest.secor.parser;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.message.Message;
 import net.minidev.json.JSONObject;
-import net.minidev.json.JSONValue;
 import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,12 +36,17 @@ import java.util.List;
  */
 public class SplitByFieldMessageParser extends TimestampedMessageParser implements Partitioner {
     private static final Logger LOG = LoggerFactory.getLogger(SplitByFieldMessageParser.class);
+    private static final int EVENT_TYPE_FIELD = 0;
+    private static final int TIMESTAMP_FIELD = 1;
+
     private final String mSplitFieldName;
+    private final JsonFieldExtractor mFieldExtractor;
 
     public SplitByFieldMessageParser(SecorConfig config) {
         super(config);
 
         mSplitFieldName = config.getMessageSplitFieldName();
+        mFieldExtractor = new JsonFieldExtractor(new String[]{mSplitFieldName}, getTimestampFieldPath());
     }
 
     @Override
@@ -52,13 +56,19 @@ public class SplitByFieldMessageParser extends TimestampedMessageParser implemen
 
     @Override
     public String[] extractPartitions(Message message) throws Exception {
-        JSONObject jsonObject = (JSONObject) JSONValue.parse(message.getPayload());
-        if (jsonObject == null) {
+        JsonFieldExtractor.Values values = mFieldExtractor.extract(message.getPayload());
+        if (values.isMalformed() && !(values.has(EVENT_TYPE_FIELD) && values.has(TIMESTAMP_FIELD))) {
             throw new RuntimeException("Failed to parse message as Json object");
         }
+        if (!values.has(EVENT_TYPE_FIELD)) {
+            throw new RuntimeException("Could not find key " + mSplitFieldName + " in Json message");
+        }
+        if (!values.has(TIMESTAMP_FIELD)) {
+            throw new RuntimeException("Failed to extract timestamp from the message");
+        }
 
-        String eventType = extractEventType(jsonObject);
-        long timestampMillis = extractTimestampMillis(jsonObject);
+        String eventType = values.getString(EVENT_TYPE_FIELD);
+        long timestampMillis = toMillis(values.getLong(TIMESTAMP_FIELD));
 
         String[] timestampPartitions = generatePartitions(timestampMillis, mUsingHourly, mUsingMinutely);
         return (String[]) ArrayUtils.addAll(new String[]{eventType}, timestampPartitions);
@@ -75,6 +85,11 @@ public class SplitByFieldMessageParser extends TimestampedMessageParser implemen
         throw new UnsupportedOperationException("Partition finalization is not supported");
     }
 
+    /**
+     * @deprecated {@link #extractPartitions(Message)} reads the field without parsing the message
+     *     into a JSONObject.  Kept for subclasses.
+     */
+    @Deprecated
     protected String extractEventType(JSONObject jsonObject) {
         if (!jsonObject.containsKey(mSplitFieldName)) {
             throw new RuntimeException("Could not find key " + mSplitFieldName + " in Json message");
@@ -82,6 +97,11 @@ public class SplitByFieldMessageParser extends TimestampedMessageParser implemen
         return jsonObject.get(mSplitFieldName).toString();
     }
 
+    /**
+     * @deprecated {@link #extractPartitions(Message)} reads the field without parsing the message
+     *     into a JSONObject.  Kept for subclasses.
+     */
+    @Deprecated
     protected long extractTimestampMillis(JSONObject jsonObject) {
         Object fieldValue = getJsonFieldValue(jsonObject);
         if (fieldValue != null) {
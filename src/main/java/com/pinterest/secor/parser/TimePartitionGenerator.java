@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.parser;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * TimePartitionGenerator turns timestamps into date, hour, and minute partitions.
+ *
+ * Consecutive messages almost always fall into the same time bucket, so the partitions of
+ * recently seen buckets are cached together with the time range they cover.  A cache hit is a
+ * range check returning a shared array; formatting happens only for a new bucket.  The bucket
+ * width follows the granularity and the finest field used by the configured formats.
+ *
+ * The generator is thread safe.  Returned arrays are shared and must not be modified.
+ */
+public class TimePartitionGenerator {
+    private static final int CACHE_SIZE = 16;
+
+    // Bucket widths, from the coarsest.
+    private static final int DAY = 0;
+    private static final int HOUR = 1;
+    private static final int MINUTE = 2;
+    private static final int UNCACHEABLE = 3;
+
+    private static final long[] UNIT_MILLIS = {24L * 3600L * 1000L, 3600L * 1000L, 60L * 1000L};
+
+    private final String mDtPrefix;
+    private final String mHrPrefix;
+    private final String mMinPrefix;
+
+    // Guarded by this.
+    private final SimpleDateFormat mDtFormatter;
+    private final SimpleDateFormat mHrFormatter;
+    private final SimpleDateFormat mMinFormatter;
+    private final Calendar mCalendar;
+
+    // Aligns cache slots with local buckets.
+    private final long mSlotOffsetMillis;
+    // Bucket width for daily, hourly, and minutely partitions.
+    private final int[] mUnits;
+    // Cached buckets for daily, hourly, and minutely partitions.  Buckets are immutable, so they
+    // are safely published through the array without synchronization.
+    private final Bucket[][] mBuckets = new Bucket[3][CACHE_SIZE];
+
+    public TimePartitionGenerator(TimeZone timeZone, String dtFormat, String hrFormat, String minFormat,
+                                  String dtPrefix, String hrPrefix, String minPrefix) {
+        mDtPrefix = dtPrefix;
+        mHrPrefix = hrPrefix;
+        mMinPrefix = minPrefix;
+
+        mDtFormatter = new SimpleDateFormat(dtFormat);
+        mDtFormatter.setTimeZone(timeZone);
+        mHrFormatter = new SimpleDateFormat(hrFormat);
+        mHrFormatter.setTimeZone(timeZone);
+        mMinFormatter = new SimpleDateFormat(minFormat);
+        mMinFormatter.setTimeZone(timeZone);
+        mCalendar = Calendar.getInstance(timeZone);
+        mSlotOffsetMillis = timeZone.getRawOffset();
+
+        int dtUnit = Math.max(DAY, finestField(dtFormat));
+        int hrUnit = Math.max(HOUR, Math.max(dtUnit, finestField(hrFormat)));
+        int minUnit = Math.max(MINUTE, Math.max(hrUnit, finestField(minFormat)));
+        mUnits = new int[]{dtUnit, hrUnit, minUnit};
+    }
+
+    public String[] generate(long timestampMillis, boolean usingHourly, boolean usingMinutely) {
+        int mode = usingMinutely ? 2 : usingHourly ? 1 : 0;
+        int unit = mUnits[mode];
+        if (unit == UNCACHEABLE) {
+            synchronized (this) {
+                return format(timestampMillis, mode);
+            }
+        }
+        int slot = (int) (Math.floorDiv(timestampMillis + mSlotOffsetMillis, UNIT_MILLIS[unit]) & (CACHE_SIZE - 1));
+        Bucket bucket = mBuckets[mode][slot];
+        if (bucket != null && bucket.mStartMillis <= timestampMillis && timestampMillis < bucket.mEndMillis) {
+            return bucket.mPartitions;
+        }
+        return generateBucket(timestampMillis, mode, unit, slot);
+    }
+
+    private synchronized String[] generateBucket(long timestampMillis, int mode, int unit, int slot) {
+        mCalendar.setTimeInMillis(timestampMillis);
+        mCalendar.set(Calendar.MILLISECOND, 0);
+        mCalendar.set(Calendar.SECOND, 0);
+        if (unit < MINUTE) {
+            mCalendar.set(Calendar.MINUTE, 0);
+        }
+        if (unit < HOUR) {
+            mCalendar.set(Calendar.HOUR_OF_DAY, 0);
+        }
+        long startMillis = mCalendar.getTimeInMillis();
+        mCalendar.add(unit == DAY ? Calendar.DATE : unit == HOUR ? Calendar.HOUR_OF_DAY : Calendar.MINUTE, 1);
+        long endMillis = mCalendar.getTimeInMillis();
+
+        String[] partitions = format(timestampMillis, mode);
+        // Guard against time zone transitions inside the bucket.
+        if (startMillis <= timestampMillis && timestampMillis < endMillis &&
+            Arrays.equals(partitions, format(startMillis, mode)) &&
+            Arrays.equals(partitions, format(endMillis - 1, mode))) {
+            mBuckets[mode][slot] = new Bucket(startMillis, endMillis, partitions);
+        }
+        return partitions;
+    }
+
+    private String[] format(long timestampMillis, int mode) {
+        Date date = new Date(timestampMillis);
+        String dt = mDtPrefix + mDtFormatter.format(date);
+        if (mode == 0) {
+            return new String[]{dt};
+        }
+        String hr = mHrPrefix + mHrFormatter.format(date);
+        if (mode == 1) {
+            return new String[]{dt, hr};
+        }
+        return new String[]{dt, hr, mMinPrefix + mMinFormatter.format(date)};
+    }
+
+    // @return the width of the narrowest bucket in which the pattern's output cannot change
+    private static int finestField(String pattern) {
+        int finest = DAY;
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); ++i) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted) {
+                switch (c) {
+                    case 'a': case 'H': case 'k': case 'K': case 'h':
+                        finest = Math.max(finest, HOUR);
+                        break;
+                    case 'm':
+                        finest = Math.max(finest, MINUTE);
+                        break;
+                    case 's': case 'S':
+                        finest = UNCACHEABLE;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return finest;
+    }
+
+    private static final class Bucket {
+        private final long mStartMillis;
+        private final long mEndMillis;
+        private final String[] mPartitions;
+
+        private Bucket(long startMillis, long endMillis, String[] partitions) {
+            mStartMillis = startMillis;
+            mEndMillis = endMillis;
+            mPartitions = partitions;
+        }
+    }
+}
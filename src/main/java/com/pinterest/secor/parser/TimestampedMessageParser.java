@@ -38,7 +38,8 @@ public abstract class TimestampedMessageParser extends MessageParser implements
     /*
      * IMPORTANT
      * SimpleDateFormat are NOT thread-safe.
-     * Each parser needs to have their own local SimpleDateFormat or it'll cause race condition.
+     * Partitions are generated by the thread-safe mPartitionGenerator; the formatters below are
+     * kept for subclasses, and parsing partitions synchronizes on mDtHrMinFormatter.
      */
     protected final SimpleDateFormat mDtFormatter;
     protected final SimpleDateFormat mHrFormatter;
@@ -60,6 +61,7 @@ public abstract class TimestampedMessageParser extends MessageParser implements
 
     protected final boolean mUseKafkaTimestamp;
 
+    private final TimePartitionGenerator mPartitionGenerator;
 
     public TimestampedMessageParser(SecorConfig config) {
         super(config);
@@ -94,6 +96,9 @@ public abstract class TimestampedMessageParser extends MessageParser implements
 
         mDtHrMinFormatter = new SimpleDateFormat(mDtFormat+ "-" + mHrFormat + "-" + mMinFormat);
         mDtHrMinFormatter.setTimeZone(config.getTimeZone());
+
+        mPartitionGenerator = new TimePartitionGenerator(config.getTimeZone(), mDtFormat, mHrFormat, mMinFormat,
+            mDtPrefix, mHrPrefix, mMinPrefix);
     }
 
     static boolean usingHourly(SecorConfig config) {
@@ -155,19 +160,10 @@ public abstract class TimestampedMessageParser extends MessageParser implements
         return (mUseKafkaTimestamp) ? toMillis(message.getTimestamp()) : extractTimestampMillis(message);
     }
 
+    // The returned array may be shared between calls and must not be modified.
     protected String[] generatePartitions(long timestampMillis, boolean usingHourly, boolean usingMinutely)
             throws Exception {
-        Date date = new Date(timestampMillis);
-        String dt = mDtPrefix + mDtFormatter.format(date);
-        String hr = mHrPrefix + mHrFormatter.format(date);
-        String min = mMinPrefix + mMinFormatter.format(date);
-        if (usingMinutely) {
-            return new String[]{dt, hr, min};
-        } else if (usingHourly) {
-            return new String[]{dt, hr};
-        } else {
-            return new String[]{dt};
-        }
+        return mPartitionGenerator.generate(timestampMillis, usingHourly, usingMinutely);
     }
 
     protected long parsePartitions(String[] partitions) throws Exception {
@@ -175,7 +171,10 @@ public abstract class TimestampedMessageParser extends MessageParser implements
         String hrValue = partitions.length > 1 ? partitions[1].split("=")[1] : "00";
         String minValue = partitions.length > 2 ? partitions[2].split("=")[1] : "00";
         String value = dtValue + "-" + hrValue + "-" + minValue;
-        Date date = mDtHrMinFormatter.parse(value);
+        Date date;
+        synchronized (mDtHrMinFormatter) {
+            date = mDtHrMinFormatter.parse(value);
+        }
         return date.getTime();
     }
 
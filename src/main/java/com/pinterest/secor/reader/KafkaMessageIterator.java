@@ -18,15 +18,64 @@
  */
 package com.pinterest.secor.reader;
 
+import com.pinterest.secor.common.OffsetStore;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.TopicPartition;
 import com.pinterest.secor.message.Message;
 
 import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
 
 public interface KafkaMessageIterator {
     boolean hasNext();
     Message next();
+
+    /**
+     * Returns all messages of a single fetch, in the order they were fetched.  The default
+     * implementation hands out one message at a time.
+     *
+     * @return fetched messages, empty if nothing was fetched
+     */
+    default List<Message> nextBatch() {
+        Message message = next();
+        if (message == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(message);
+    }
+
     void init(SecorConfig config) throws UnknownHostException;
     void commit(TopicPartition topicPartition, long offset);
+
+    /**
+     * Returns the offset store committing through the consumer of this iterator, used with
+     * secor.offsets.store=kafka.
+     *
+     * @return the offset store, null if offsets cannot be stored through this iterator
+     */
+    default OffsetStore getOffsetStore() {
+        return null;
+    }
+
+    /**
+     * Sets the listener called when topic partitions are revoked.  Iterators that are not told
+     * about revocations ignore it.
+     *
+     * @param listener the listener
+     */
+    default void setRevocationListener(PartitionRevocationListener listener) {
+    }
+
+    /**
+     * Skips the messages of a topic partition below a given offset that have not been fetched
+     * yet.  Messages that have been fetched already are still returned.
+     *
+     * @param topicPartition the topic partition
+     * @param offset offset of the next message to fetch
+     * @return false if the iterator cannot skip messages and returns them all
+     */
+    default boolean seek(TopicPartition topicPartition, long offset) {
+        return false;
+    }
 }
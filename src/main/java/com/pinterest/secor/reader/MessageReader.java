@@ -18,6 +18,7 @@
  */
 package com.pinterest.secor.reader;
 
+import com.pinterest.secor.common.OffsetStore;
 import com.pinterest.secor.common.OffsetTracker;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.TopicPartition;
@@ -29,8 +30,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -63,6 +66,10 @@ public class MessageReader {
     private void updateAccessTime(TopicPartition topicPartition) {
         long now = System.currentTimeMillis() / 1000L;
         mLastAccessTime.put(topicPartition, now);
+        forgetTopicPartitions(now);
+    }
+
+    private void forgetTopicPartitions(long now) {
         Iterator iterator = mLastAccessTime.entrySet().iterator();
         while (iterator.hasNext()) {
             Map.Entry pair = (Map.Entry) iterator.next();
@@ -99,11 +106,11 @@ public class MessageReader {
         if (message == null) {
             return null;
         }
-        TopicPartition topicPartition = new TopicPartition(message.getTopic(),
-                                                           message.getKafkaPartition());
+        TopicPartition topicPartition = TopicPartition.of(message.getTopic(),
+                                                          message.getKafkaPartition());
         updateAccessTime(topicPartition);
         // Skip already committed messages.
-        long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(topicPartition);
+        long committedOffsetCount = mOffsetTracker.getOffsets(topicPartition).getTrueCommittedOffsetCount();
         LOG.debug("read message {}", message);
         if (mNMessages % mCheckMessagesPerSecond == 0) {
             exportStats();
@@ -116,7 +123,69 @@ public class MessageReader {
         return message;
     }
 
+    /**
+     * Read all messages of a single fetch.  Rate limiting, access time tracking, stats export,
+     * and committed offset lookups are done once per batch or once per topic partition in the
+     * batch rather than once per message.
+     *
+     * @return fetched messages whose offsets are not committed yet, in fetch order
+     */
+    public List<Message> readBatch() {
+        assert hasNext();
+        List<Message> messages = mKafkaMessageIterator.nextBatch();
+        if (messages.isEmpty()) {
+            return messages;
+        }
+        RateLimitUtil.acquire(messages.size());
+
+        long now = System.currentTimeMillis() / 1000L;
+        List<Message> result = null;
+        String topic = null;
+        int partition = -1;
+        long committedOffsetCount = -1;
+        for (int i = 0; i < messages.size(); ++i) {
+            Message message = messages.get(i);
+            // A fetch returns messages grouped by topic partition.
+            if (message.getKafkaPartition() != partition || !message.getTopic().equals(topic)) {
+                topic = message.getTopic();
+                partition = message.getKafkaPartition();
+                TopicPartition topicPartition = TopicPartition.of(topic, partition);
+                mLastAccessTime.put(topicPartition, now);
+                committedOffsetCount = mOffsetTracker.getOffsets(topicPartition).getTrueCommittedOffsetCount();
+            }
+            if (message.getOffset() < committedOffsetCount) {
+                LOG.debug("skipping message {} because its offset precedes committed offset count {}",
+                        message, committedOffsetCount);
+                if (result == null) {
+                    result = new ArrayList<Message>(messages.subList(0, i));
+                }
+            } else if (result != null) {
+                result.add(message);
+            }
+        }
+        forgetTopicPartitions(now);
+
+        mNMessages += messages.size();
+        if (mNMessages >= mCheckMessagesPerSecond) {
+            mNMessages %= mCheckMessagesPerSecond;
+            exportStats();
+        }
+        return result == null ? messages : result;
+    }
+
     public void commit(TopicPartition topicPartition, long offset) {
         mKafkaMessageIterator.commit(topicPartition, offset);
     }
+
+    public OffsetStore getOffsetStore() {
+        return mKafkaMessageIterator.getOffsetStore();
+    }
+
+    public void setRevocationListener(PartitionRevocationListener listener) {
+        mKafkaMessageIterator.setRevocationListener(listener);
+    }
+
+    public boolean seek(TopicPartition topicPartition, long offset) {
+        return mKafkaMessageIterator.seek(topicPartition, offset);
+    }
 }
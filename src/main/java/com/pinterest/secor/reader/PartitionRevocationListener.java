@@ -16,25 +16,20 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-package com.pinterest.secor.uploader;
+package com.pinterest.secor.reader;
 
-import com.amazonaws.services.s3.transfer.Upload;
-import com.amazonaws.services.s3.transfer.model.UploadResult;
+import com.pinterest.secor.common.TopicPartition;
+
+import java.util.Collection;
 
 /**
- * Wraps an Upload being managed by the AWS SDK TransferManager. `get`
- * blocks until the upload completes.
- *
- * @author Liam Stewart (liam.stewart@gmail.com)
+ * Listener called by the message iterator on the consumer thread when topic partitions are
+ * revoked in a rebalance, before the consumer rejoins the group.
  */
-public class S3UploadHandle implements Handle<UploadResult> {
-    private Upload mUpload;
-
-    public S3UploadHandle(Upload u) {
-        mUpload = u;
-    }
-
-    public UploadResult get() throws Exception {
-        return mUpload.waitForUploadResult();
-    }
+public interface PartitionRevocationListener {
+    /**
+     * @param topicPartitions the revoked topic partitions
+     * @throws Exception on error
+     */
+    void onPartitionsRevoked(Collection<TopicPartition> topicPartitions) throws Exception;
 }
@@ -20,6 +20,9 @@ package com.pinterest.secor.reader;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import com.pinterest.secor.common.KafkaOffsetStore;
+import com.pinterest.secor.common.OffsetStore;
+import com.pinterest.secor.common.OffsetStoreFactory;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.ZookeeperConnector;
 import com.pinterest.secor.message.Message;
@@ -41,8 +44,20 @@ public class SecorKafkaMessageIterator implements KafkaMessageIterator {
     private KafkaConsumer<byte[], byte[]> mKafkaConsumer;
     private Deque<ConsumerRecord<byte[], byte[]>> mRecordsBatch;
     private ZookeeperConnector mZookeeperConnector;
+    private KafkaOffsetStore mOffsetStore;
+    private PartitionRevocationListener mRevocationListener;
     private int mPollTimeout;
 
+    public SecorKafkaMessageIterator() {
+    }
+
+    // For testing use only.
+    SecorKafkaMessageIterator(KafkaConsumer<byte[], byte[]> kafkaConsumer, int pollTimeout) {
+        mKafkaConsumer = kafkaConsumer;
+        mPollTimeout = pollTimeout;
+        mRecordsBatch = new ArrayDeque<>();
+    }
+
     @Override
     public boolean hasNext() {
         return true;
@@ -57,12 +72,34 @@ public class SecorKafkaMessageIterator implements KafkaMessageIterator {
         if (mRecordsBatch.isEmpty()) {
             return null;
         } else {
-            ConsumerRecord<byte[], byte[]> consumerRecord = mRecordsBatch.pop();
-            return new Message(consumerRecord.topic(), consumerRecord.partition(), consumerRecord.offset(),
-                    consumerRecord.key(), consumerRecord.value(), consumerRecord.timestamp());
+            return toMessage(mRecordsBatch.pop());
         }
     }
 
+    @Override
+    public List<Message> nextBatch() {
+        List<Message> messages;
+        if (mRecordsBatch.isEmpty()) {
+            ConsumerRecords<byte[], byte[]> records = mKafkaConsumer.poll(Duration.ofSeconds(mPollTimeout));
+            messages = new ArrayList<>(records.count());
+            for (ConsumerRecord<byte[], byte[]> consumerRecord : records) {
+                messages.add(toMessage(consumerRecord));
+            }
+        } else {
+            // Hand out what is left over from a poll started by next().
+            messages = new ArrayList<>(mRecordsBatch.size());
+            while (!mRecordsBatch.isEmpty()) {
+                messages.add(toMessage(mRecordsBatch.pop()));
+            }
+        }
+        return messages;
+    }
+
+    private static Message toMessage(ConsumerRecord<byte[], byte[]> consumerRecord) {
+        return new Message(consumerRecord.topic(), consumerRecord.partition(), consumerRecord.offset(),
+                consumerRecord.key(), consumerRecord.value(), consumerRecord.timestamp());
+    }
+
     @Override
     public void init(SecorConfig config) throws UnknownHostException {
         Properties props = new Properties();
@@ -104,21 +141,46 @@ public class SecorKafkaMessageIterator implements KafkaMessageIterator {
 
         String dualCommitEnabled = config.getDualCommitEnabled();
         String offsetStorage = config.getOffsetsStorage();
-        final boolean skipZookeeperOffsetSeek = offsetStorage.equals("kafka") && dualCommitEnabled.equals("true");
+        final boolean kafkaOffsetStore = OffsetStoreFactory.isKafkaOffsetStore(config);
+        final boolean skipZookeeperOffsetSeek = kafkaOffsetStore ||
+            (offsetStorage.equals("kafka") && dualCommitEnabled.equals("true"));
 
-        mZookeeperConnector = new ZookeeperConnector(config);
+        if (!skipZookeeperOffsetSeek) {
+            mZookeeperConnector = new ZookeeperConnector(config);
+        }
         mRecordsBatch = new ArrayDeque<>();
         mKafkaConsumer = new KafkaConsumer<>(props);
+        if (kafkaOffsetStore) {
+            mOffsetStore = new KafkaOffsetStore(config, mKafkaConsumer);
+        }
         ConsumerRebalanceListener reBalanceListener = new ConsumerRebalanceListener() {
             @Override
             public void onPartitionsRevoked(Collection<TopicPartition> assignedPartitions) {
+                List<com.pinterest.secor.common.TopicPartition> revokedPartitions = new ArrayList<>();
                 for (TopicPartition topicPartition : assignedPartitions) {
                     LOG.debug("re-balance will happen for assigned topic partition {}", topicPartition);
+                    revokedPartitions.add(new com.pinterest.secor.common.TopicPartition(
+                        topicPartition.topic(), topicPartition.partition()));
+                }
+                try {
+                    // Uploads and commits of the revoked partitions have to end before the
+                    // partitions are assigned to another consumer.
+                    if (mRevocationListener != null) {
+                        mRevocationListener.onPartitionsRevoked(revokedPartitions);
+                    }
+                    if (mOffsetStore != null) {
+                        mOffsetStore.onPartitionsRevoked(revokedPartitions);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to revoke partitions " + revokedPartitions, e);
                 }
             }
 
             @Override
             public void onPartitionsAssigned(Collection<TopicPartition> collection) {
+                if (mOffsetStore != null) {
+                    mOffsetStore.onRebalance();
+                }
                 if (skipZookeeperOffsetSeek) {
                     LOG.debug("offset storage set to kafka. Skipping reading offsets from zookeeper");
                     return;
@@ -178,6 +240,27 @@ public class SecorKafkaMessageIterator implements KafkaMessageIterator {
         }
     }
 
+    @Override
+    public OffsetStore getOffsetStore() {
+        return mOffsetStore;
+    }
+
+    @Override
+    public void setRevocationListener(PartitionRevocationListener listener) {
+        mRevocationListener = listener;
+    }
+
+    @Override
+    public boolean seek(com.pinterest.secor.common.TopicPartition topicPartition, long offset) {
+        TopicPartition kafkaTopicPartition = new TopicPartition(topicPartition.getTopic(), topicPartition.getPartition());
+        // Never go back to messages that have already been fetched.
+        if (mKafkaConsumer.position(kafkaTopicPartition) < offset) {
+            LOG.info("Seeking {} to offset {}", kafkaTopicPartition, offset);
+            mKafkaConsumer.seek(kafkaTopicPartition, offset);
+        }
+        return true;
+    }
+
     private void optionalConfig(String maybeConf, Consumer<String> configConsumer) {
         Optional.ofNullable(maybeConf).filter(conf -> !conf.isEmpty()).ifPresent(configConsumer);
     }
@@ -18,16 +18,27 @@
  */
 package com.pinterest.secor.tools;
 
+import com.pinterest.secor.common.LocalFileTracker;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.util.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Log file deleter removes message old log files stored locally.
+ * Log file deleter removes message old log files stored locally.  It also removes the files left
+ * behind by a consumer that shuts down.  Files are deleted by up to
+ * secor.local.log.delete.threads threads.
  *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
@@ -46,6 +57,7 @@ public class LogFileDeleter {
         String[] consumerDirs = FileUtil.list(mConfig.getLocalPath());
         SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
         format.setTimeZone(mConfig.getTimeZone());
+        List<String> oldDirs = new ArrayList<String>();
         for (String consumerDir : consumerDirs) {
             long modificationTime = FileUtil.getModificationTimeMsRecursive(consumerDir);
             String modificationTimeStr = format.format(modificationTime);
@@ -54,8 +66,69 @@ public class LogFileDeleter {
                     mConfig.getLocalLogDeleteAgeHours() * 60L * 60L * 1000L;
             if (System.currentTimeMillis() - modificationTime > localLogDeleteAgeMs) {
                 LOG.info("Deleting directory {} last modified at {}", consumerDir, modificationTimeStr);
-                FileUtil.delete(consumerDir);
+                oldDirs.add(consumerDir);
             }
         }
+        delete(oldDirs);
+    }
+
+    /**
+     * Delete the local files of a consumer that are still tracked, and the directories left empty.
+     * @param tracker Tracker of the consumer local files.
+     * @throws Exception on error
+     */
+    public void deleteLocalFiles(LocalFileTracker tracker) throws Exception {
+        Collection<String> files = tracker.getFiles();
+        LOG.info("Deleting {} local files", files.size());
+        delete(files);
+        for (String topicDir : tracker.getTopicDirs()) {
+            deleteEmptyDirs(new File(topicDir));
+        }
+    }
+
+    private void delete(Collection<String> paths) throws Exception {
+        if (paths.isEmpty()) {
+            return;
+        }
+        int threads = Math.max(1, Math.min(mConfig.getLocalLogDeleteThreads(), paths.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(paths.size());
+            for (final String path : paths) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            FileUtil.delete(path);
+                        } catch (IOException e) {
+                            throw new RuntimeException("Failed to delete " + path, e);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    LOG.warn("Failed to delete local log file", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean deleteEmptyDirs(File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return false;
+        }
+        boolean empty = true;
+        for (File child : children) {
+            if (!child.isDirectory() || !deleteEmptyDirs(child)) {
+                empty = false;
+            }
+        }
+        return empty && dir.delete();
     }
 }
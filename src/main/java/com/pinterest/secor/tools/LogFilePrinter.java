@@ -18,6 +18,9 @@
  */
 package com.pinterest.secor.tools;
 
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.SeekableFileReader;
+import com.pinterest.secor.io.impl.SequenceFileReaderWriterFactory;
 import com.pinterest.secor.util.FileUtil;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -41,6 +44,28 @@ public class LogFilePrinter {
     }
 
     public void printFile(String path) throws Exception {
+        // Local files are read through a memory mapping.
+        SeekableFileReader mappedReader = new SequenceFileReaderWriterFactory().BuildMappedFileReader(path, null);
+        if (mappedReader != null) {
+            System.out.println("reading file " + path);
+            try {
+                if (mPrintOffsetsOnly) {
+                    long offset;
+                    while ((offset = mappedReader.skip()) != -1) {
+                        System.out.println(Long.toString(offset));
+                    }
+                } else {
+                    KeyValue keyValue;
+                    while ((keyValue = mappedReader.next()) != null) {
+                        System.out.println(Long.toString(keyValue.getOffset()) + ": " +
+                                new String(keyValue.getValue()));
+                    }
+                }
+            } finally {
+                mappedReader.close();
+            }
+            return;
+        }
         FileSystem fileSystem = FileUtil.getFileSystem(path);
         Path fsPath = new Path(path);
         SequenceFile.Reader reader = new SequenceFile.Reader(fileSystem, fsPath,
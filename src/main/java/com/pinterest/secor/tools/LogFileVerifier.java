@@ -23,31 +23,78 @@ import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.TopicPartition;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.SeekableFileReader;
 import com.pinterest.secor.util.CompressionUtil;
 import com.pinterest.secor.util.FileUtil;
 import com.pinterest.secor.util.ReflectionUtil;
 
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
 
 /**
  * Log file verifier checks the consistency of log files.
  *
+ * Files are listed and read in parallel on a fork-join pool.  Every file is read once into a
+ * summary of its message count and of the runs of consecutive offsets it contains, and both
+ * checks are made from the summaries.  Summaries may be appended to a local checkpoint file, so
+ * that an interrupted verification resumes without reading the files it has summarized again,
+ * unless their length or modification time has changed since.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class LogFileVerifier {
+    private static final Logger LOG = LoggerFactory.getLogger(LogFileVerifier.class);
+    private static final String ATTEMPTS_DIR = "/_attempts/";
+
     private SecorConfig mConfig;
     private String mTopic;
+    private final ForkJoinPool mPool;
+    private final String mCheckpointPath;
+    private Writer mCheckpoint;
     private HashMap<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>>
         mTopicPartitionToOffsetToFiles;
+    private final ConcurrentHashMap<String, FileSummary> mPathToSummary =
+        new ConcurrentHashMap<String, FileSummary>();
+    private final HashMap<String, FileStatus> mPathToStatus = new HashMap<String, FileStatus>();
+    // Final paths of the files uploaded by upload attempts, see Uploader.
+    private final List<LogFilePath> mAttemptFinalPaths = new ArrayList<LogFilePath>();
 
     public LogFileVerifier(SecorConfig config, String topic) throws IOException {
+        this(config, topic, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * @param config Secor configuration.
+     * @param topic Topic to verify.
+     * @param threads Number of threads listing and reading files.
+     * @param checkpointPath Local file to resume from and append file summaries to, or null.
+     * @throws IOException on IO error
+     */
+    public LogFileVerifier(SecorConfig config, String topic, int threads, String checkpointPath)
+            throws IOException {
         mConfig = config;
         mTopic = topic;
-        mTopicPartitionToOffsetToFiles =
-            new HashMap<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>>();
+        mPool = new ForkJoinPool(threads);
+        mCheckpointPath = checkpointPath;
+        if (checkpointPath != null) {
+            loadCheckpoint();
+        }
     }
 
     private String getTopicPrefix() throws IOException {
@@ -55,39 +102,84 @@ public class LogFileVerifier {
     }
 
     private void populateTopicPartitionToOffsetToFiles() throws IOException {
-        String prefix = FileUtil.getPrefix(mTopic, mConfig);
+        if (mTopicPartitionToOffsetToFiles != null) {
+            return;
+        }
+        mTopicPartitionToOffsetToFiles =
+            new HashMap<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>>();
+        final String prefix = FileUtil.getPrefix(mTopic, mConfig);
         String topicPrefix = getTopicPrefix();
-        String[] paths = FileUtil.listRecursively(topicPrefix);
-        for (String path : paths) {
-            if (!path.endsWith("/_SUCCESS")) {
-                LogFilePath logFilePath = new LogFilePath(prefix, path);
-                TopicPartition topicPartition = new TopicPartition(logFilePath.getTopic(),
-                    logFilePath.getKafkaPartition());
-                SortedMap<Long, HashSet<LogFilePath>> offsetToFiles =
-                    mTopicPartitionToOffsetToFiles.get(topicPartition);
-                if (offsetToFiles == null) {
-                    offsetToFiles = new TreeMap<Long, HashSet<LogFilePath>>();
-                    mTopicPartitionToOffsetToFiles.put(topicPartition, offsetToFiles);
+        FileUtil.listRecursively(topicPrefix, mPool, new BiConsumer<String, FileStatus>() {
+            @Override
+            public void accept(String path, FileStatus status) {
+                // Skips the markers of finished partitions and the checksums of local files.
+                if (path.endsWith("/_SUCCESS") || path.substring(path.lastIndexOf('/') + 1).startsWith(".")) {
+                    return;
                 }
-                long offset = logFilePath.getOffset();
-                HashSet<LogFilePath> logFilePaths = offsetToFiles.get(offset);
-                if (logFilePaths == null) {
-                    logFilePaths = new HashSet<LogFilePath>();
-                    offsetToFiles.put(offset, logFilePaths);
+                int attemptsIndex = path.indexOf(ATTEMPTS_DIR);
+                if (attemptsIndex >= 0) {
+                    int attemptEnd = path.indexOf('/', attemptsIndex + ATTEMPTS_DIR.length());
+                    addAttemptFinalPath(new LogFilePath(prefix,
+                        path.substring(0, attemptsIndex) + path.substring(attemptEnd)));
+                } else {
+                    addLogFilePath(new LogFilePath(prefix, path), status);
                 }
-                logFilePaths.add(logFilePath);
             }
+        });
+    }
+
+    private synchronized void addAttemptFinalPath(LogFilePath logFilePath) {
+        mAttemptFinalPaths.add(logFilePath);
+    }
+
+    /**
+     * Attempt uploads are left behind by consumers that died while uploading or before moving the
+     * files of a committed attempt to their final paths.  The latter hold committed messages that
+     * are nowhere else until the next upload of the partition moves them.
+     */
+    private void checkAttempts() {
+        List<String> attemptOnlyPaths = new ArrayList<String>();
+        for (LogFilePath logFilePath : mAttemptFinalPaths) {
+            if (!mPathToStatus.containsKey(logFilePath.getLogFilePath())) {
+                attemptOnlyPaths.add(logFilePath.getLogFilePath());
+            }
+        }
+        if (!attemptOnlyPaths.isEmpty()) {
+            Collections.sort(attemptOnlyPaths);
+            throw new RuntimeException("Files " + attemptOnlyPaths + " exist only as uploads of " +
+                "attempts, either an upload is in progress or its commit was never promoted");
         }
     }
 
-    private void filterOffsets(long fromOffset, long toOffset) {
-        Iterator iterator = mTopicPartitionToOffsetToFiles.entrySet().iterator();
-        while (iterator.hasNext()) {
+    private synchronized void addLogFilePath(LogFilePath logFilePath, FileStatus status) {
+        mPathToStatus.put(logFilePath.getLogFilePath(), status);
+        TopicPartition topicPartition = new TopicPartition(logFilePath.getTopic(),
+            logFilePath.getKafkaPartition());
+        SortedMap<Long, HashSet<LogFilePath>> offsetToFiles =
+            mTopicPartitionToOffsetToFiles.get(topicPartition);
+        if (offsetToFiles == null) {
+            offsetToFiles = new TreeMap<Long, HashSet<LogFilePath>>();
+            mTopicPartitionToOffsetToFiles.put(topicPartition, offsetToFiles);
+        }
+        long offset = logFilePath.getOffset();
+        HashSet<LogFilePath> logFilePaths = offsetToFiles.get(offset);
+        if (logFilePaths == null) {
+            logFilePaths = new HashSet<LogFilePath>();
+            offsetToFiles.put(offset, logFilePaths);
+        }
+        logFilePaths.add(logFilePath);
+    }
+
+    // The files listed are kept unfiltered so that both checks can be made from one listing.
+    private Map<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>> filterOffsets(
+            long fromOffset, long toOffset) {
+        Map<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>> result =
+            new HashMap<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>>();
+        for (Map.Entry<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>> entry :
+                mTopicPartitionToOffsetToFiles.entrySet()) {
             long firstOffset = -2;
             long lastOffset = Long.MAX_VALUE;
-            Map.Entry entry = (Map.Entry) iterator.next();
-            SortedMap<Long, HashSet<LogFilePath>> offsetToFiles =
-                (SortedMap<Long, HashSet<LogFilePath>>) entry.getValue();
+            SortedMap<Long, HashSet<LogFilePath>> offsetToFiles = entry.getValue();
             for (long offset : offsetToFiles.keySet()) {
                 if (offset <= fromOffset || firstOffset == -2) {
                     firstOffset = offset;
@@ -97,28 +189,52 @@ public class LogFileVerifier {
                 }
             }
             if (firstOffset != -2) {
-                TopicPartition topicPartition = (TopicPartition) entry.getKey();
                 offsetToFiles = offsetToFiles.subMap(firstOffset, lastOffset);
-                mTopicPartitionToOffsetToFiles.put(topicPartition, offsetToFiles);
             }
+            result.put(entry.getKey(), offsetToFiles);
         }
+        return result;
     }
 
-    private int getMessageCount(LogFilePath logFilePath) throws Exception {
-        FileReader reader = createFileReader(logFilePath);
-        int result = 0;
-        while (reader.next() != null) {
-            result++;
+    /**
+     * List the files, select those in the offset range, and summarize those that have not been.
+     */
+    private Map<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>> summarize(
+            long fromOffset, long toOffset) throws IOException {
+        populateTopicPartitionToOffsetToFiles();
+        checkAttempts();
+        Map<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>> topicPartitionToOffsetToFiles =
+            filterOffsets(fromOffset, toOffset);
+        List<LogFilePath> logFilePaths = new ArrayList<LogFilePath>();
+        for (SortedMap<Long, HashSet<LogFilePath>> offsetToFiles : topicPartitionToOffsetToFiles.values()) {
+            for (HashSet<LogFilePath> paths : offsetToFiles.values()) {
+                for (LogFilePath logFilePath : paths) {
+                    FileStatus status = mPathToStatus.get(logFilePath.getLogFilePath());
+                    FileSummary summary = getSummary(logFilePath);
+                    // Files rewritten since they were summarized are read again.
+                    if (summary == null || summary.mLength != status.getLen() ||
+                            summary.mModificationTime != status.getModificationTime()) {
+                        logFilePaths.add(logFilePath);
+                    }
+                }
+            }
         }
-        reader.close();
-        return result;
+        LOG.info("summarizing {} files of topic {}", logFilePaths.size(), mTopic);
+        if (!logFilePaths.isEmpty()) {
+            mPool.invoke(new SummarizeTask(logFilePaths, 0, logFilePaths.size()));
+        }
+        return topicPartitionToOffsetToFiles;
+    }
+
+    private FileSummary getSummary(LogFilePath logFilePath) {
+        return mPathToSummary.get(logFilePath.getLogFilePath());
     }
 
     public void verifyCounts(long fromOffset, long toOffset, int numMessages) throws Exception {
-        populateTopicPartitionToOffsetToFiles();
-        filterOffsets(fromOffset, toOffset);
-        Iterator iterator = mTopicPartitionToOffsetToFiles.entrySet().iterator();
-        int aggregateMessageCount = 0;
+        Map<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>> topicPartitionToOffsetToFiles =
+            summarize(fromOffset, toOffset);
+        Iterator iterator = topicPartitionToOffsetToFiles.entrySet().iterator();
+        long aggregateMessageCount = 0;
         while (iterator.hasNext()) {
             long previousOffset = -2L;
             long previousMessageCount = -2L;
@@ -126,12 +242,12 @@ public class LogFileVerifier {
             SortedMap<Long, HashSet<LogFilePath>> offsetToFiles =
                 (SortedMap<Long, HashSet<LogFilePath>>) entry.getValue();
             for (HashSet<LogFilePath> logFilePaths : offsetToFiles.values()) {
-                int messageCount = 0;
+                long messageCount = 0;
                 long offset = -2;
                 for (LogFilePath logFilePath : logFilePaths) {
                     assert offset == -2 || offset == logFilePath.getOffset():
                         Long.toString(offset) + " || " + offset + " == " + logFilePath.getOffset();
-                    messageCount += getMessageCount(logFilePath);
+                    messageCount += getSummary(logFilePath).mCount;
                     offset = logFilePath.getOffset();
                 }
                 if (previousOffset != -2 && offset - previousOffset != previousMessageCount) {
@@ -153,43 +269,227 @@ public class LogFileVerifier {
         }
     }
 
-    private void getOffsets(LogFilePath logFilePath, Set<Long> offsets) throws Exception {
-        FileReader reader = createFileReader(logFilePath);
-        KeyValue record;
-        while ((record = reader.next()) != null) {
-            if (!offsets.add(record.getOffset())) {
-                throw new RuntimeException("duplicate key " + record.getOffset() + " found in file " +
-                    logFilePath.getLogFilePath());
-            }
-        }
-        reader.close();
-    }
-
     public void verifySequences(long fromOffset, long toOffset) throws Exception {
-        populateTopicPartitionToOffsetToFiles();
-        filterOffsets(fromOffset, toOffset);
+        Map<TopicPartition, SortedMap<Long, HashSet<LogFilePath>>> topicPartitionToOffsetToFiles =
+            summarize(fromOffset, toOffset);
 
-        Iterator iterator = mTopicPartitionToOffsetToFiles.entrySet().iterator();
+        Iterator iterator = topicPartitionToOffsetToFiles.entrySet().iterator();
         while (iterator.hasNext()) {
-            TreeSet<Long> offsets = new TreeSet<Long>();
+            OffsetRuns offsets = new OffsetRuns();
             Map.Entry entry = (Map.Entry) iterator.next();
             TopicPartition topicPartition = (TopicPartition) entry.getKey();
             SortedMap<Long, HashSet<LogFilePath>> offsetToFiles =
                     (SortedMap<Long, HashSet<LogFilePath>>) entry.getValue();
             for (HashSet<LogFilePath> logFilePaths : offsetToFiles.values()) {
                 for (LogFilePath logFilePath : logFilePaths) {
-                    getOffsets(logFilePath, offsets);
+                    FileSummary summary = getSummary(logFilePath);
+                    long duplicateOffset = summary.mDuplicateOffset;
+                    for (int i = 0; duplicateOffset == -1 && i < summary.mRuns.length; i += 2) {
+                        duplicateOffset = offsets.add(summary.mRuns[i], summary.mRuns[i + 1]);
+                    }
+                    if (duplicateOffset != -1) {
+                        throw new RuntimeException("duplicate key " + duplicateOffset + " found in file " +
+                            logFilePath.getLogFilePath());
+                    }
                 }
             }
             long lastOffset = -2;
-            for (Long offset : offsets) {
+            for (Map.Entry<Long, Long> run : offsets.getRuns().entrySet()) {
                 if (lastOffset != -2) {
-                    assert lastOffset + 1 == offset: Long.toString(offset) + " + 1 == " + offset +
-                        " for topic " + topicPartition.getTopic() + " partition " +
+                    assert lastOffset + 1 == run.getKey(): Long.toString(lastOffset) + " + 1 == " +
+                        run.getKey() + " for topic " + topicPartition.getTopic() + " partition " +
                         topicPartition.getPartition();
                 }
+                lastOffset = run.getValue();
+            }
+        }
+    }
+
+    /**
+     * Read a file into its summary.
+     */
+    private FileSummary summarizeFile(LogFilePath logFilePath, FileStatus status) throws Exception {
+        FileReader reader = createFileReader(logFilePath);
+        try {
+            OffsetRuns runs = new OffsetRuns();
+            long count = 0;
+            long duplicateOffset = -1;
+            long firstOffset = -1;
+            long lastOffset = -1;
+            long offset;
+            while ((offset = nextOffset(reader)) != -1) {
+                count++;
+                if (firstOffset != -1 && offset == lastOffset + 1) {
+                    lastOffset = offset;
+                    continue;
+                }
+                if (firstOffset != -1) {
+                    long duplicate = runs.add(firstOffset, lastOffset);
+                    if (duplicateOffset == -1) {
+                        duplicateOffset = duplicate;
+                    }
+                }
+                firstOffset = offset;
                 lastOffset = offset;
             }
+            if (firstOffset != -1) {
+                long duplicate = runs.add(firstOffset, lastOffset);
+                if (duplicateOffset == -1) {
+                    duplicateOffset = duplicate;
+                }
+            }
+            long[] runOffsets = new long[2 * runs.size()];
+            int i = 0;
+            for (Map.Entry<Long, Long> run : runs.getRuns().entrySet()) {
+                runOffsets[i++] = run.getKey();
+                runOffsets[i++] = run.getValue();
+            }
+            return new FileSummary(status.getLen(), status.getModificationTime(), count,
+                duplicateOffset, runOffsets);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // @return the offset of the next message, -1 at the end of the file
+    private static long nextOffset(FileReader reader) throws IOException {
+        if (reader instanceof SeekableFileReader) {
+            // Mapped files are read without copying the messages.
+            return ((SeekableFileReader) reader).skip();
+        }
+        KeyValue record = reader.next();
+        return record == null ? -1 : record.getOffset();
+    }
+
+    // Summarizes a range of files, splitting it until it is a single file.
+    private class SummarizeTask extends RecursiveAction {
+        private final List<LogFilePath> mLogFilePaths;
+        private final int mFrom;
+        private final int mTo;
+
+        private SummarizeTask(List<LogFilePath> logFilePaths, int from, int to) {
+            mLogFilePaths = logFilePaths;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > 1) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new SummarizeTask(mLogFilePaths, mFrom, middle),
+                          new SummarizeTask(mLogFilePaths, middle, mTo));
+                return;
+            }
+            LogFilePath logFilePath = mLogFilePaths.get(mFrom);
+            try {
+                FileSummary summary = summarizeFile(logFilePath,
+                    mPathToStatus.get(logFilePath.getLogFilePath()));
+                mPathToSummary.put(logFilePath.getLogFilePath(), summary);
+                appendCheckpoint(logFilePath.getLogFilePath(), summary);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to read " + logFilePath.getLogFilePath(), e);
+            }
+        }
+    }
+
+    // Message count and offset runs of a file, with the length and modification time it had.
+    private static class FileSummary {
+        private final long mLength;
+        private final long mModificationTime;
+        private final long mCount;
+        // The first offset found twice in the file, -1 if there is none.
+        private final long mDuplicateOffset;
+        // The first and last offsets of every run.
+        private final long[] mRuns;
+
+        private FileSummary(long length, long modificationTime, long count, long duplicateOffset,
+                            long[] runs) {
+            mLength = length;
+            mModificationTime = modificationTime;
+            mCount = count;
+            mDuplicateOffset = duplicateOffset;
+            mRuns = runs;
+        }
+    }
+
+    /**
+     * Load the summaries of a checkpoint file, one line per file with its path, length,
+     * modification time, message count, duplicate offset, and runs.  A file summarized more than
+     * once keeps its last summary.
+     */
+    private void loadCheckpoint() throws IOException {
+        java.nio.file.Path path = Paths.get(mCheckpointPath);
+        if (Files.exists(path)) {
+            // Drop the line that was being written when the verifier stopped.
+            RandomAccessFile file = new RandomAccessFile(mCheckpointPath, "rw");
+            try {
+                long length = file.length();
+                while (length > 0) {
+                    file.seek(length - 1);
+                    if (file.read() == '\n') {
+                        break;
+                    }
+                    length--;
+                }
+                file.setLength(length);
+            } finally {
+                file.close();
+            }
+            BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    String[] runs = fields[5].isEmpty() ? new String[0] : fields[5].split(",");
+                    long[] runOffsets = new long[2 * runs.length];
+                    for (int i = 0; i < runs.length; ++i) {
+                        int separator = runs[i].indexOf(':');
+                        runOffsets[2 * i] = Long.parseLong(runs[i].substring(0, separator));
+                        runOffsets[2 * i + 1] = Long.parseLong(runs[i].substring(separator + 1));
+                    }
+                    mPathToSummary.put(fields[0], new FileSummary(Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+                        runOffsets));
+                }
+            } finally {
+                reader.close();
+            }
+            LOG.info("resuming verification of {} files summarized in {}", mPathToSummary.size(),
+                mCheckpointPath);
+        }
+        mCheckpoint = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private synchronized void appendCheckpoint(String path, FileSummary summary) throws IOException {
+        if (mCheckpoint == null) {
+            return;
+        }
+        StringBuilder line = new StringBuilder();
+        line.append(path).append('\t').append(summary.mLength).append('\t')
+            .append(summary.mModificationTime).append('\t').append(summary.mCount).append('\t')
+            .append(summary.mDuplicateOffset).append('\t');
+        for (int i = 0; i < summary.mRuns.length; i += 2) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(summary.mRuns[i]).append(':').append(summary.mRuns[i + 1]);
+        }
+        line.append('\n');
+        mCheckpoint.write(line.toString());
+        mCheckpoint.flush();
+    }
+
+    /**
+     * Stop the threads of the verifier and close its checkpoint file.
+     *
+     * @throws IOException on IO error
+     */
+    public void close() throws IOException {
+        mPool.shutdown();
+        if (mCheckpoint != null) {
+            mCheckpoint.close();
         }
     }
 
@@ -205,11 +505,13 @@ public class LogFileVerifier {
         if (mConfig.getCompressionCodec() != null && !mConfig.getCompressionCodec().isEmpty()) {
             codec = CompressionUtil.createCompressionCodec(mConfig.getCompressionCodec());
         }
-        FileReader fileReader = ReflectionUtil.createFileReader(
+        // Local files are mapped in memory when the factory supports it.
+        FileReader fileReader = ReflectionUtil.createMappedFileReader(
                 mConfig.getFileReaderWriterFactory(),
                 logFilePath,
                 codec,
-                mConfig
+                mConfig,
+                null
         );
         return fileReader;
     }
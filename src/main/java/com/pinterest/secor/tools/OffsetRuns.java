@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.tools;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Offset runs keep a set of offsets as the runs of consecutive offsets it is made of, so that the
+ * offsets of a partition take space in the number of gaps between them rather than in their
+ * number.
+ */
+public class OffsetRuns {
+    // Maps the first offset of every run to its last offset.
+    private final TreeMap<Long, Long> mRuns = new TreeMap<Long, Long>();
+
+    /**
+     * Add the offsets from first to last, both included, unless some of them are already there.
+     *
+     * @return The first of the offsets that were already there, -1 if there was none.
+     */
+    public long add(long first, long last) {
+        Map.Entry<Long, Long> floor = mRuns.floorEntry(first);
+        if (floor != null && floor.getValue() >= first) {
+            return first;
+        }
+        Map.Entry<Long, Long> ceiling = mRuns.ceilingEntry(first);
+        if (ceiling != null && ceiling.getKey() <= last) {
+            return ceiling.getKey();
+        }
+        if (floor != null && floor.getValue() + 1 == first) {
+            first = floor.getKey();
+        }
+        if (ceiling != null && ceiling.getKey() == last + 1) {
+            mRuns.remove(ceiling.getKey());
+            last = ceiling.getValue();
+        }
+        mRuns.put(first, last);
+        return -1;
+    }
+
+    /**
+     * @return The number of runs.
+     */
+    public int size() {
+        return mRuns.size();
+    }
+
+    /**
+     * @return The runs ordered by offset, each mapping its first offset to its last offset.
+     */
+    public Map<Long, Long> getRuns() {
+        return mRuns;
+    }
+}
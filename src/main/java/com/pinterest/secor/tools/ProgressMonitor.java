@@ -58,7 +58,7 @@ public class ProgressMonitor {
     private static final String PERIOD = ".";
 
     private SecorConfig mConfig;
-    private ZookeeperConnector mZookeeperConnector;
+    private OffsetStore mOffsetStore;
     private KafkaClient mKafkaClient;
     private MessageParser mMessageParser;
     private String mPrefix;
@@ -68,7 +68,7 @@ public class ProgressMonitor {
             throws Exception
     {
         mConfig = config;
-        mZookeeperConnector = new ZookeeperConnector(mConfig);
+        mOffsetStore = OffsetStoreFactory.getOffsetStore(mConfig);
         try {
             Class timestampClass = Class.forName(mConfig.getKafkaClientClass());
             this.mKafkaClient = (KafkaClient) timestampClass.newInstance();
@@ -192,7 +192,7 @@ public class ProgressMonitor {
     }
 
     private List<Stat> getStats() throws Exception {
-        List<String> topics = mZookeeperConnector.getCommittedOffsetTopics();
+        List<String> topics = mOffsetStore.getCommittedOffsetTopics();
         List<Stat> stats = Lists.newArrayList();
 
         for (String topic : topics) {
@@ -201,7 +201,7 @@ public class ProgressMonitor {
                 LOG.info("skipping topic {}", topic);
                 continue;
             }
-            List<Integer> partitions = mZookeeperConnector.getCommittedOffsetPartitions(topic);
+            List<Integer> partitions = mOffsetStore.getCommittedOffsetPartitions(topic);
             for (Integer partition : partitions) {
                 TopicPartition topicPartition = new TopicPartition(topic, partition);
                 Message committedMessage = mKafkaClient.getCommittedMessage(topicPartition);
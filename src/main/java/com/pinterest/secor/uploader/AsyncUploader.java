@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Async uploader uploads files in the background so that the consumer thread keeps consuming
+ * while files are being uploaded.
+ *
+ * When the policy decides to upload a topic partition, its writers are closed and its files are
+ * sealed: they are removed from the file registry and handed to the upload manager.  Messages
+ * consumed in the meantime go to fresh files starting after the last sealed offset.  Once all
+ * sealed files have been uploaded, the consumer thread deletes them and commits the offset
+ * exactly as the synchronous uploader does.  The partition lock is held from sealing to
+ * committing and a partition has at most one upload in flight.  Sealed files are no longer in
+ * the file registry and could not be trimmed after losing a race, so with offsets in zookeeper
+ * this uploader always locks regardless of secor.upload.coordination.  With offsets in Kafka,
+ * uploads of revoked partitions are committed while the consumer still owns them.
+ *
+ * Enable it with secor.upload.class=com.pinterest.secor.uploader.AsyncUploader.
+ */
+public class AsyncUploader extends Uploader {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncUploader.class);
+
+    // Uploads waiting for completion in the order they were started.
+    private final Map<TopicPartition, PendingUpload> mPendingUploads =
+        new LinkedHashMap<TopicPartition, PendingUpload>();
+
+    @Override
+    protected void uploadFiles(TopicPartition topicPartition) throws Exception {
+        long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(topicPartition);
+        long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
+
+        // Offsets stored in Kafka are fenced by the partition assignment instead of a lock.
+        if (mZookeeperConnector == null && !isAssigned(topicPartition)) {
+            return;
+        }
+        final String lockPath = mZookeeperConnector == null ? null : getLockPath(topicPartition);
+
+        if (lockPath != null) {
+            mZookeeperConnector.lock(lockPath);
+        }
+        boolean started = false;
+        try {
+            // Check if the committed offset has changed.
+            long storedCommittedOffsetCount = mOffsetStore.getCommittedOffsetCount(topicPartition);
+            if (storedCommittedOffsetCount == committedOffsetCount) {
+                LOG.info("uploading topic {} partition {} in the background", topicPartition.getTopic(),
+                    topicPartition.getPartition());
+                Collection<LogFilePath> paths = mFileRegistry.sealTopicPartition(topicPartition);
+                List<Handle<?>> uploadHandles = new ArrayList<Handle<?>>();
+                for (LogFilePath path : paths) {
+                    uploadHandles.add(mUploadManager.upload(path));
+                }
+                mOffsetTracker.setSealedOffsetCount(topicPartition, lastSeenOffset + 1);
+                mPendingUploads.put(topicPartition,
+                    new PendingUpload(paths, lockPath, lastSeenOffset + 1, uploadHandles));
+                started = true;
+            }
+        } finally {
+            if (!started && lockPath != null) {
+                mZookeeperConnector.unlock(lockPath);
+            }
+        }
+    }
+
+    @Override
+    protected void checkTopicPartition(TopicPartition topicPartition, boolean forceUpload) throws Exception {
+        if (mPendingUploads.containsKey(topicPartition)) {
+            return;
+        }
+        super.checkTopicPartition(topicPartition, forceUpload);
+    }
+
+    @Override
+    protected void uploadEvictedFiles(TopicPartition topicPartition) throws Exception {
+        // A partition has at most one upload in flight, wait for it before sealing the files.
+        PendingUpload pendingUpload = mPendingUploads.remove(topicPartition);
+        if (pendingUpload != null) {
+            try {
+                commit(Collections.singletonMap(topicPartition, pendingUpload));
+            } catch (Exception e) {
+                // The files written after the failed upload cannot be committed without it and
+                // the closed ones cannot be written to again.  The messages are consumed again
+                // from the committed offset.
+                mFileRegistry.deleteTopicPartition(topicPartition);
+                throw e;
+            }
+        }
+        super.uploadEvictedFiles(topicPartition);
+    }
+
+    @Override
+    protected void onPartitionsRevoked(Collection<TopicPartition> topicPartitions) throws Exception {
+        // The consumer still owns the partitions, finish their uploads before another consumer
+        // can start uploading the same offsets.
+        Map<TopicPartition, PendingUpload> revoked = new LinkedHashMap<TopicPartition, PendingUpload>();
+        for (TopicPartition topicPartition : topicPartitions) {
+            PendingUpload pendingUpload = mPendingUploads.remove(topicPartition);
+            if (pendingUpload != null) {
+                revoked.put(topicPartition, pendingUpload);
+            }
+        }
+        if (!revoked.isEmpty()) {
+            commit(revoked);
+        }
+        super.onPartitionsRevoked(topicPartitions);
+    }
+
+    @Override
+    public void applyPolicy(Collection<TopicPartition> topicPartitions, boolean forceUpload) throws Exception {
+        completeUploads(forceUpload);
+        super.applyPolicy(topicPartitions, forceUpload);
+        if (forceUpload) {
+            completeUploads(true);
+            mOffsetStore.flush();
+        }
+    }
+
+    @Override
+    public void completeUploads() throws Exception {
+        completeUploads(false);
+    }
+
+    // Commit finished uploads.  If blocking, wait for all pending uploads.  The offsets of all
+    // uploads finishing together are committed in one batch.
+    private void completeUploads(boolean blocking) throws Exception {
+        Map<TopicPartition, PendingUpload> completed = new LinkedHashMap<TopicPartition, PendingUpload>();
+        Iterator<Map.Entry<TopicPartition, PendingUpload>> iterator = mPendingUploads.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<TopicPartition, PendingUpload> entry = iterator.next();
+            if (blocking || entry.getValue().isDone()) {
+                iterator.remove();
+                completed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!completed.isEmpty()) {
+            commit(completed);
+        }
+    }
+
+    private void commit(Map<TopicPartition, PendingUpload> uploads) throws Exception {
+        try {
+            Map<TopicPartition, Long> offsetCounts = new LinkedHashMap<TopicPartition, Long>();
+            for (Map.Entry<TopicPartition, PendingUpload> entry : uploads.entrySet()) {
+                TopicPartition topicPartition = entry.getKey();
+                PendingUpload upload = entry.getValue();
+                try {
+                    for (Handle<?> uploadHandle : upload.mUploadHandles) {
+                        uploadHandle.get();
+                    }
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Failed to upload topic " + topicPartition.getTopic() +
+                        " partition " + topicPartition.getPartition(), e.getCause());
+                }
+                offsetCounts.put(topicPartition, upload.mOffsetCount);
+            }
+            for (PendingUpload upload : uploads.values()) {
+                for (LogFilePath path : upload.mPaths) {
+                    mFileRegistry.deletePath(path);
+                }
+            }
+            mOffsetStore.setCommittedOffsetCounts(offsetCounts);
+            for (Map.Entry<TopicPartition, PendingUpload> entry : uploads.entrySet()) {
+                TopicPartition topicPartition = entry.getKey();
+                PendingUpload upload = entry.getValue();
+                mOffsetTracker.setCommittedOffsetCount(topicPartition, upload.mOffsetCount);
+                commitToKafka(topicPartition, upload.mOffsetCount);
+                mMetricCollector.increment("uploader.file_uploads.count", upload.mPaths.size(),
+                    topicPartition.getTopic());
+            }
+        } finally {
+            for (PendingUpload upload : uploads.values()) {
+                if (upload.mLockPath != null) {
+                    mZookeeperConnector.unlock(upload.mLockPath);
+                }
+            }
+        }
+    }
+
+    private static class PendingUpload {
+        private final Collection<LogFilePath> mPaths;
+        private final String mLockPath;
+        private final long mOffsetCount;
+        private final List<Handle<?>> mUploadHandles;
+
+        private PendingUpload(Collection<LogFilePath> paths, String lockPath, long offsetCount,
+                              List<Handle<?>> uploadHandles) {
+            mPaths = paths;
+            mLockPath = lockPath;
+            mOffsetCount = offsetCount;
+            mUploadHandles = uploadHandles;
+        }
+
+        private boolean isDone() {
+            for (Handle<?> uploadHandle : mUploadHandles) {
+                if (!uploadHandle.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.microsoft.azure.storage.StorageException;
 import com.microsoft.azure.storage.blob.CloudBlobClient;
 import com.microsoft.azure.storage.blob.CloudBlobContainer;
 import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.CopyStatus;
 import com.pinterest.secor.common.LogFilePath;
 import com.pinterest.secor.common.SecorConfig;
 import org.slf4j.Logger;
@@ -33,8 +34,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 /**
@@ -46,7 +45,7 @@ import java.util.concurrent.Future;
  */
 public class AzureUploadManager extends UploadManager {
     private static final Logger LOG = LoggerFactory.getLogger(AzureUploadManager.class);
-    private static final ExecutorService executor = Executors.newFixedThreadPool(256);
+    private static final long COPY_POLL_MILLIS = 100;
 
     private CloudBlobClient blobClient;
 
@@ -69,7 +68,8 @@ public class AzureUploadManager extends UploadManager {
         final File localFile = new File(localPath.getLogFilePath());
 
         LOG.info("uploading file {} to azure://{}/{}", localFile, azureContainer, azureKey);
-        final Future<?> f = executor.submit(new Runnable() {
+        final Future<?> f = UploadExecutor.getInstance(mConfig).submit(localPath.getTopic(),
+                localFile.length(), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -93,4 +93,52 @@ public class AzureUploadManager extends UploadManager {
 
         return new FutureHandle(f);
     }
+
+    @java.lang.Override
+    public Handle<?> promote(LogFilePath uploadedPath, LogFilePath localPath) throws Exception {
+        final String azureContainer = mConfig.getAzureContainer();
+        final String srcKey = uploadedPath.withPrefix(mConfig.getAzurePath()).getLogFilePath();
+        final String dstKey = localPath.withPrefix(mConfig.getAzurePath()).getLogFilePath();
+
+        LOG.info("copying azure://{}/{} to azure://{}/{}", azureContainer, srcKey, azureContainer, dstKey);
+        final Future<?> f = UploadExecutor.getInstance(mConfig).submit(localPath.getTopic(), 0,
+                new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CloudBlobContainer container = blobClient.getContainerReference(azureContainer);
+                    CloudBlockBlob blob = container.getBlockBlobReference(dstKey);
+                    blob.startCopy(container.getBlockBlobReference(srcKey));
+
+                    // The copy is asynchronous even within a storage account.
+                    while (blob.getCopyState().getStatus() == CopyStatus.PENDING) {
+                        Thread.sleep(COPY_POLL_MILLIS);
+                        blob.downloadAttributes();
+                    }
+                    if (blob.getCopyState().getStatus() != CopyStatus.SUCCESS) {
+                        throw new RuntimeException("Copy of azure://" + azureContainer + "/" + srcKey +
+                            " to " + dstKey + " ended with status " + blob.getCopyState().getStatus() +
+                            ": " + blob.getCopyState().getStatusDescription());
+                    }
+                } catch (URISyntaxException e) {
+                    throw new RuntimeException(e);
+                } catch (StorageException e) {
+                    throw new RuntimeException(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        return new FutureHandle(f);
+    }
+
+    @java.lang.Override
+    public void delete(LogFilePath localPath) throws Exception {
+        String azureContainer = mConfig.getAzureContainer();
+        String azureKey = localPath.withPrefix(mConfig.getAzurePath()).getLogFilePath();
+        LOG.info("deleting azure://{}/{}", azureContainer, azureKey);
+        blobClient.getContainerReference(azureContainer).getBlockBlobReference(azureKey).deleteIfExists();
+    }
 }
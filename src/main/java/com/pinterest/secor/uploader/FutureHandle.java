@@ -35,4 +35,8 @@ public class FutureHandle<T> implements Handle<T> {
     public T get() throws Exception {
         return mFuture.get();
     }
+
+    public boolean isDone() {
+        return mFuture.isDone();
+    }
 }
@@ -39,8 +39,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.util.Collections;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,8 +61,6 @@ public class GsUploadManager extends UploadManager {
 
     private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
 
-    private final ExecutorService executor;
-
     protected RateLimiter rateLimiter;
 
     /**
@@ -77,7 +73,6 @@ public class GsUploadManager extends UploadManager {
 
     public GsUploadManager(SecorConfig config) throws Exception {
         super(config);
-        executor = Executors.newFixedThreadPool(mConfig.getGsThreadPoolSize());
         rateLimiter = RateLimiter.create(mConfig.getGsRateLimit());
 
         mClient = getService(mConfig.getGsCredentialsPath(),
@@ -100,7 +95,8 @@ public class GsUploadManager extends UploadManager {
 
         rateLimiter.acquire();
 
-        final Future<?> f = executor.submit(new Runnable() {
+        final UploadExecutor executor = UploadExecutor.getInstance(mConfig);
+        final Future<?> f = executor.submit(localPath.getTopic(), localFile.length(), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -114,13 +110,16 @@ public class GsUploadManager extends UploadManager {
                         try (WriteChannel out = mClient.writer(sourceBlob);
                             FileChannel in = new FileInputStream(localFile).getChannel();
                             ) {
-                            ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024 * 5); // 5 MiB buffer (remember this is pr. thread)
-
-                            int bytesRead;
-                            while ((bytesRead = in.read(buffer)) > 0) {
-                                buffer.flip();
-                                out.write(buffer);
-                                buffer.clear();
+                            ByteBuffer buffer = executor.acquireBuffer();
+                            try {
+                                int bytesRead;
+                                while ((bytesRead = in.read(buffer)) > 0) {
+                                    buffer.flip();
+                                    out.write(buffer);
+                                    buffer.clear();
+                                }
+                            } finally {
+                                executor.releaseBuffer(buffer);
                             }
                         }
                         long elapsedTime = System.nanoTime() - startTime;
@@ -135,6 +134,35 @@ public class GsUploadManager extends UploadManager {
         return new FutureHandle(f);
     }
 
+    @Override
+    public Handle<?> promote(LogFilePath uploadedPath, LogFilePath localPath) throws Exception {
+        final String gsBucket = mConfig.getGsBucket();
+        final String srcKey = uploadedPath.withPrefix(mConfig.getGsPath()).getLogFilePath();
+        final String dstKey = localPath.withPrefix(mConfig.getGsPath()).getLogFilePath();
+
+        LOG.info("copying gs://{}/{} to gs://{}/{}", gsBucket, srcKey, gsBucket, dstKey);
+
+        final Future<?> f = UploadExecutor.getInstance(mConfig).submit(localPath.getTopic(), 0,
+            new Runnable() {
+                @Override
+                public void run() {
+                    // Large objects are copied in several calls, getResult makes them all.
+                    mClient.copy(Storage.CopyRequest.of(BlobId.of(gsBucket, srcKey),
+                        BlobId.of(gsBucket, dstKey))).getResult();
+                }
+            });
+
+        return new FutureHandle(f);
+    }
+
+    @Override
+    public void delete(LogFilePath localPath) throws Exception {
+        String gsBucket = mConfig.getGsBucket();
+        String gsKey = localPath.withPrefix(mConfig.getGsPath()).getLogFilePath();
+        LOG.info("deleting gs://{}/{}", gsBucket, gsKey);
+        mClient.delete(BlobId.of(gsBucket, gsKey));
+    }
+
     private static Storage getService(String credentialsPath, int connectTimeoutMs, int readTimeoutMs) throws Exception {
         if (mStorageService == null) {
 
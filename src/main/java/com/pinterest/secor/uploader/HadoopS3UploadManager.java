@@ -21,12 +21,10 @@ package com.pinterest.secor.uploader;
 import com.pinterest.secor.common.*;
 import com.pinterest.secor.util.FileUtil;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Future;
@@ -39,29 +37,30 @@ import java.util.concurrent.Future;
 public class HadoopS3UploadManager extends UploadManager {
     private static final Logger LOG = LoggerFactory.getLogger(HadoopS3UploadManager.class);
 
-    protected static final ExecutorService executor = Executors.newFixedThreadPool(256);
-
     public HadoopS3UploadManager(SecorConfig config) {
         super(config);
     }
 
-    public Handle<?> upload(LogFilePath localPath) throws Exception {
+    private String getLogFileName(LogFilePath localPath) throws Exception {
         String prefix = FileUtil.getPrefix(localPath.getTopic(), mConfig);
         LogFilePath path = localPath.withPrefix(prefix);
-        final String localLogFilename = localPath.getLogFilePath();
-        final String logFileName;
 
         if (FileUtil.s3PathPrefixIsAltered(path.getLogFilePath(), mConfig)) {
-           logFileName = localPath.withPrefix(FileUtil.getS3AlternativePrefix(mConfig)).getLogFilePath();
+           String logFileName = localPath.withPrefix(FileUtil.getS3AlternativePrefix(mConfig)).getLogFilePath();
            LOG.info("Will upload file to alternative s3 prefix path {}", logFileName);
+           return logFileName;
         }
-        else {
-            logFileName = path.getLogFilePath();
-        }
+        return path.getLogFilePath();
+    }
+
+    public Handle<?> upload(LogFilePath localPath) throws Exception {
+        final String localLogFilename = localPath.getLogFilePath();
+        final String logFileName = getLogFileName(localPath);
 
         LOG.info("uploading file {} to {}", localLogFilename, logFileName);
 
-        final Future<?> f = executor.submit(new Runnable() {
+        final Future<?> f = UploadExecutor.getInstance(mConfig).submit(localPath.getTopic(),
+                new File(localLogFilename).length(), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -74,4 +73,31 @@ public class HadoopS3UploadManager extends UploadManager {
 
         return new FutureHandle(f);
     }
+
+    @Override
+    public Handle<?> promote(LogFilePath uploadedPath, LogFilePath localPath) throws Exception {
+        final String srcLogFileName = getLogFileName(uploadedPath);
+        final String dstLogFileName = getLogFileName(localPath);
+
+        LOG.info("moving file {} to {}", srcLogFileName, dstLogFileName);
+
+        final Future<?> f = UploadExecutor.getInstance(mConfig).submit(localPath.getTopic(), 0,
+                new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileUtil.moveInCloud(srcLogFileName, dstLogFileName);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        return new FutureHandle(f);
+    }
+
+    @Override
+    public void delete(LogFilePath localPath) throws Exception {
+        FileUtil.delete(getLogFileName(localPath));
+    }
 }
@@ -25,4 +25,6 @@ package com.pinterest.secor.uploader;
  */
 public interface Handle<T> {
     public T get() throws Exception;
+
+    public boolean isDone();
 }
@@ -19,6 +19,7 @@
 package com.pinterest.secor.uploader;
 
 import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.SSEAwsKeyManagementParams;
@@ -32,8 +33,9 @@ import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.S3ClientOptions;
-import com.amazonaws.services.s3.transfer.Upload;
 import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import com.amazonaws.client.builder.ExecutorFactory;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
 import com.amazonaws.auth.AWSCredentialsProvider;
@@ -45,6 +47,11 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.pinterest.secor.common.LogFilePath;
 import com.pinterest.secor.common.SecorConfig;
@@ -75,6 +82,9 @@ public class S3UploadManager extends UploadManager {
     private static final String S3 = "S3";
     private static final String CUSTOMER = "customer";
 
+    // Part upload pool shared by all consumer threads, created on first use.
+    private static ExecutorService sUploadExecutor;
+
     private final String s3Path;
 
     private TransferManager mManager;
@@ -106,6 +116,15 @@ public class S3UploadManager extends UploadManager {
         	clientConfiguration.setProxyPort(httpProxyPort);        	
         }
 
+        // Every part is a separate request and is retried on its own.
+        if (mConfig.getAwsClientMaxErrorRetry() >= 0) {
+            clientConfiguration.setMaxErrorRetry(mConfig.getAwsClientMaxErrorRetry());
+        }
+        final int uploadThreads = mConfig.getAwsS3UploadThreads();
+        if (uploadThreads > clientConfiguration.getMaxConnections()) {
+            clientConfiguration.setMaxConnections(uploadThreads);
+        }
+
         if (accessKey.isEmpty() || secretKey.isEmpty()) {
             provider = new DefaultAWSCredentialsProviderChain();
         } else {
@@ -139,29 +158,67 @@ public class S3UploadManager extends UploadManager {
             client.setRegion(Region.getRegion(Regions.fromName(region)));
         }
 
-        mManager = new TransferManager(client);
+        TransferManagerBuilder builder = TransferManagerBuilder.standard()
+            .withS3Client(client)
+            .withMultipartUploadThreshold(mConfig.getAwsS3MultipartThresholdBytes())
+            .withMinimumUploadPartSize(mConfig.getAwsS3MultipartPartSizeBytes());
+        if (uploadThreads > 0) {
+            final ExecutorService executor = getUploadExecutor(uploadThreads);
+            builder.withExecutorFactory(new ExecutorFactory() {
+                @Override
+                public ExecutorService newExecutor() {
+                    return executor;
+                }
+            }).withShutDownThreadPools(false);
+        }
+        mManager = builder.build();
     }
 
-    public Handle<?> upload(LogFilePath localPath) throws Exception {
-        String s3Bucket = mConfig.getS3Bucket();
-        String curS3Path = s3Path;
-        String s3Key;
+    static synchronized ExecutorService getUploadExecutor(int threads) {
+        if (sUploadExecutor == null) {
+            sUploadExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger mThreadCount = new AtomicInteger();
 
-        File localFile = new File(localPath.getLogFilePath());
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "s3-upload-" + mThreadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sUploadExecutor;
+    }
+
+    // For testing use only.
+    TransferManager getTransferManager() {
+        return mManager;
+    }
+
+    private String getS3Key(LogFilePath localPath) throws Exception {
+        String curS3Path = s3Path;
 
         if (FileUtil.s3PathPrefixIsAltered(localPath.withPrefix(curS3Path).getLogFilePath(), mConfig)) {
             curS3Path = FileUtil.getS3AlternativePathPrefix(mConfig);
-            LOG.info("Will upload file {} to alternative s3 path s3://{}/{}", localFile, s3Bucket, curS3Path);
+            LOG.info("Will upload file {} to alternative s3 path s3://{}/{}", localPath.getLogFilePath(),
+                mConfig.getS3Bucket(), curS3Path);
         }
 
         if (mConfig.getS3MD5HashPrefix()) {
             // add MD5 hash to the prefix to have proper partitioning of the secor logs on s3
             String md5Hash = FileUtil.getMd5Hash(localPath.getTopic(), localPath.getPartitions());
-            s3Key = localPath.withPrefix(md5Hash + "/" + curS3Path).getLogFilePath();
+            return localPath.withPrefix(md5Hash + "/" + curS3Path).getLogFilePath();
         }
         else {
-            s3Key = localPath.withPrefix(curS3Path).getLogFilePath();
+            return localPath.withPrefix(curS3Path).getLogFilePath();
         }
+    }
+
+    public Handle<?> upload(LogFilePath localPath) throws Exception {
+        String s3Bucket = mConfig.getS3Bucket();
+        String s3Key = getS3Key(localPath);
+
+        File localFile = new File(localPath.getLogFilePath());
 
         // make upload request, taking into account configured options for encryption
         PutObjectRequest uploadRequest = new PutObjectRequest(s3Bucket, s3Key, localFile);
@@ -183,8 +240,73 @@ public class S3UploadManager extends UploadManager {
             LOG.info("uploading file {} to s3://{}/{} with no encryption", localFile, s3Bucket, s3Key);
         }
 
-        Upload upload = mManager.upload(uploadRequest);
-        return new S3UploadHandle(upload);
+        final PutObjectRequest request = uploadRequest;
+        Future<?> f = UploadExecutor.getInstance(mConfig).submit(localPath.getTopic(), localFile.length(),
+            new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Parts are uploaded by the transfer manager threads.
+                        mManager.upload(request).waitForUploadResult();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        return new FutureHandle(f);
+    }
+
+    @Override
+    public Handle<?> promote(LogFilePath uploadedPath, LogFilePath localPath) throws Exception {
+        String s3Bucket = mConfig.getS3Bucket();
+        String srcKey = getS3Key(uploadedPath);
+        String dstKey = getS3Key(localPath);
+
+        // The copy is made by S3, so the destination is encrypted the way an upload would be.
+        CopyObjectRequest copyRequest = new CopyObjectRequest(s3Bucket, srcKey, s3Bucket, dstKey);
+        if (!mConfig.getAwsSseType().isEmpty()) {
+            if (S3.equals(mConfig.getAwsSseType())) {
+                ObjectMetadata objectMetadata = new ObjectMetadata();
+                objectMetadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+                copyRequest.setNewObjectMetadata(objectMetadata);
+            } else if (KMS.equals(mConfig.getAwsSseType())) {
+                String keyId = mConfig.getAwsSseKmsKey();
+                copyRequest.setSSEAwsKeyManagementParams(keyId.isEmpty() ?
+                    new SSEAwsKeyManagementParams() : new SSEAwsKeyManagementParams(keyId));
+            } else if (CUSTOMER.equals(mConfig.getAwsSseType())) {
+                SSECustomerKey sseKey = new SSECustomerKey(mConfig.getAwsSseCustomerKey());
+                copyRequest.setSourceSSECustomerKey(sseKey);
+                copyRequest.setDestinationSSECustomerKey(sseKey);
+            } else {
+                // bad option
+                throw new IllegalArgumentException(mConfig.getAwsSseType() + "is not a suitable type for AWS SSE encryption");
+            }
+        }
+        LOG.info("copying s3://{}/{} to s3://{}/{}", s3Bucket, srcKey, s3Bucket, dstKey);
+
+        final CopyObjectRequest request = copyRequest;
+        Future<?> f = UploadExecutor.getInstance(mConfig).submit(localPath.getTopic(), 0,
+            new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        mManager.copy(request).waitForCopyResult();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        return new FutureHandle(f);
+    }
+
+    @Override
+    public void delete(LogFilePath localPath) throws Exception {
+        String s3Bucket = mConfig.getS3Bucket();
+        String s3Key = getS3Key(localPath);
+        LOG.info("deleting s3://{}/{}", s3Bucket, s3Key);
+        mManager.getAmazonS3Client().deleteObject(s3Bucket, s3Key);
     }
 
     private void enableCustomerEncryption(PutObjectRequest uploadRequest) {
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.monitoring.MetricCollector;
+import com.pinterest.secor.util.ReflectionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upload executor runs the uploads of all upload managers in the process.
+ *
+ * Uploads are queued per topic and started round robin across topics, so that a topic rolling
+ * over many files at once does not hold back the others.  At most secor.upload.threads files and
+ * secor.upload.max.inflight.bytes bytes are uploaded at a time; a file larger than the byte
+ * budget is uploaded alone.  Upload managers streaming files through memory borrow transfer
+ * buffers from a pool shared by the upload threads.
+ */
+public class UploadExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadExecutor.class);
+
+    private static final int DEFAULT_THREADS = 256;
+    private static final int DEFAULT_BUFFER_BYTES = 5 * 1024 * 1024;
+
+    private static UploadExecutor sInstance;
+
+    private final int mMaxInFlightFiles;
+    private final long mMaxInFlightBytes;
+    private final int mBufferBytes;
+    private final ExecutorService mExecutor;
+    private final MetricCollector mMetricCollector;
+
+    // Guarded by this.
+    private final HashMap<String, ArrayDeque<QueuedUpload>> mQueues = new HashMap<String, ArrayDeque<QueuedUpload>>();
+    // Topics with queued uploads in the order they get to start their next upload.
+    private final ArrayDeque<String> mTopics = new ArrayDeque<String>();
+    private int mInFlightFiles;
+    private long mInFlightBytes;
+    private final ArrayDeque<ByteBuffer> mBuffers = new ArrayDeque<ByteBuffer>();
+
+    /**
+     * @param config Secor configuration, used when the executor is created by the first caller.
+     * @return The upload executor of this process.
+     */
+    public static synchronized UploadExecutor getInstance(SecorConfig config) {
+        if (sInstance == null) {
+            sInstance = new UploadExecutor(config);
+        }
+        return sInstance;
+    }
+
+    protected UploadExecutor(SecorConfig config) {
+        int threads = config.getUploadThreads();
+        mMaxInFlightFiles = threads > 0 ? threads : DEFAULT_THREADS;
+        mMaxInFlightBytes = config.getUploadMaxInFlightBytes() > 0 ?
+            config.getUploadMaxInFlightBytes() : Long.MAX_VALUE;
+        mBufferBytes = config.getUploadBufferBytes() > 0 ? config.getUploadBufferBytes() : DEFAULT_BUFFER_BYTES;
+        mExecutor = Executors.newFixedThreadPool(mMaxInFlightFiles, new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "upload-" + mThreadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mMetricCollector = createMetricCollector(config);
+        LOG.info("Uploading up to {} files and {} bytes at a time", mMaxInFlightFiles, mMaxInFlightBytes);
+    }
+
+    private static MetricCollector createMetricCollector(SecorConfig config) {
+        try {
+            return ReflectionUtil.createMetricCollector(config.getMetricsCollectorClass());
+        } catch (Exception e) {
+            LOG.warn("Failed to create metric collector, upload queue metrics are disabled", e);
+            return null;
+        }
+    }
+
+    /**
+     * Queue an upload.
+     * @param topic The topic the file belongs to.
+     * @param bytes Size of the file.
+     * @param upload The upload to run.
+     * @return Future completing with the upload.
+     */
+    public synchronized Future<?> submit(String topic, long bytes, Runnable upload) {
+        ArrayDeque<QueuedUpload> queue = mQueues.get(topic);
+        if (queue == null) {
+            queue = new ArrayDeque<QueuedUpload>();
+            mQueues.put(topic, queue);
+            mTopics.addLast(topic);
+        }
+        QueuedUpload queuedUpload = new QueuedUpload(topic, bytes, upload);
+        queue.addLast(queuedUpload);
+        reportQueueDepth(topic, queue.size());
+        startUploads();
+        return queuedUpload;
+    }
+
+    /**
+     * Borrow a transfer buffer.  It has to be returned with {@link #releaseBuffer(ByteBuffer)}.
+     * @return A cleared direct buffer.
+     */
+    public ByteBuffer acquireBuffer() {
+        synchronized (mBuffers) {
+            ByteBuffer buffer = mBuffers.pollFirst();
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(mBufferBytes);
+    }
+
+    public void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        synchronized (mBuffers) {
+            // There are never more buffers in use than upload threads.
+            if (mBuffers.size() < mMaxInFlightFiles) {
+                mBuffers.addLast(buffer);
+            }
+        }
+    }
+
+    private synchronized void startUploads() {
+        while (!mTopics.isEmpty() && mInFlightFiles < mMaxInFlightFiles) {
+            String topic = mTopics.peekFirst();
+            ArrayDeque<QueuedUpload> queue = mQueues.get(topic);
+            QueuedUpload upload = queue.peekFirst();
+            if (mInFlightFiles > 0 && upload.mBytes > mMaxInFlightBytes - mInFlightBytes) {
+                // Wait for the budget rather than letting smaller files of other topics go first.
+                break;
+            }
+            queue.pollFirst();
+            mTopics.pollFirst();
+            if (queue.isEmpty()) {
+                mQueues.remove(topic);
+            } else {
+                mTopics.addLast(topic);
+            }
+            reportQueueDepth(topic, queue.size());
+            upload.mDispatched = true;
+            mInFlightFiles++;
+            mInFlightBytes += upload.mBytes;
+            mExecutor.execute(upload);
+        }
+    }
+
+    private synchronized void finishUpload(QueuedUpload upload) {
+        mInFlightFiles--;
+        mInFlightBytes -= upload.mBytes;
+        startUploads();
+    }
+
+    private void reportQueueDepth(String topic, int depth) {
+        if (mMetricCollector != null) {
+            mMetricCollector.gauge("uploader.queue_depth", depth, topic);
+        }
+    }
+
+    private class QueuedUpload extends FutureTask<Void> {
+        private final String mTopic;
+        private final long mBytes;
+        // Guarded by UploadExecutor.this.
+        private boolean mDispatched;
+
+        private QueuedUpload(String topic, long bytes, Runnable upload) {
+            super(upload, null);
+            mTopic = topic;
+            mBytes = bytes;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                // A running upload cancelled with an interrupt keeps its budget until the
+                // transfer has actually stopped.
+                finishUpload(this);
+            }
+        }
+
+        @Override
+        protected void done() {
+            synchronized (UploadExecutor.this) {
+                if (!mDispatched) {
+                    // Cancelled while queued.
+                    ArrayDeque<QueuedUpload> queue = mQueues.get(mTopic);
+                    queue.remove(this);
+                    if (queue.isEmpty()) {
+                        mQueues.remove(mTopic);
+                        mTopics.remove(mTopic);
+                    }
+                    reportQueueDepth(mTopic, queue.size());
+                }
+            }
+        }
+    }
+}
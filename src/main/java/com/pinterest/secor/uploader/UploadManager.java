@@ -19,6 +19,8 @@
 package com.pinterest.secor.uploader;
 
 import com.pinterest.secor.common.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Manages uploads.
@@ -26,6 +28,8 @@ import com.pinterest.secor.common.*;
  * @author Liam Stewart (liam.stewart@gmail.com)
  */
 public abstract class UploadManager {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadManager.class);
+
     protected SecorConfig mConfig;
 
     public UploadManager(SecorConfig config) {
@@ -33,4 +37,33 @@ public abstract class UploadManager {
     }
 
     public abstract Handle<?> upload(LogFilePath localPath) throws Exception;
+
+    /**
+     * Move the remote file uploaded from one local path to the remote location of another local
+     * path, replacing any file there.  The default implementation uploads the local file of the
+     * destination again, managers that can copy or rename remote files override it.  The source is
+     * removed with {@link #delete(LogFilePath)}.  A file committed by a consumer that died before
+     * moving it is moved by another consumer, which does not have the local file, so only the
+     * overrides can do that.
+     *
+     * @param uploadedPath local path the remote file was uploaded from
+     * @param localPath local path whose remote location the file is moved to
+     * @return handle completing when the file is in place
+     * @throws Exception on error
+     */
+    public Handle<?> promote(LogFilePath uploadedPath, LogFilePath localPath) throws Exception {
+        return upload(localPath);
+    }
+
+    /**
+     * Delete the remote file uploaded from a local path if it exists.  The default implementation
+     * leaves the file in place.
+     *
+     * @param localPath local path the remote file was uploaded from
+     * @throws Exception on error
+     */
+    public void delete(LogFilePath localPath) throws Exception {
+        LOG.warn("{} cannot delete uploaded files, leaving the upload of {}", getClass().getName(),
+            localPath.getLogFilePath());
+    }
 }
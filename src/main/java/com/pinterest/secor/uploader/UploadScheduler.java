@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.pinterest.secor.common.FileRegistry;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.common.TopicPartition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Upload scheduler keeps track of when the upload policy of each topic partition with local files
+ * has to be evaluated next, so that the consumer does not have to sweep all partitions
+ * periodically.
+ *
+ * A partition becomes due when its files reach the maximum age, when the upload minute mark
+ * starts for topics matching the minute mark filter, or as soon as a write makes its files reach
+ * the maximum size.  Due partitions are handed to {@link Uploader#applyPolicy(Collection, boolean)}
+ * which makes the actual decision, and are then rescheduled while they still have local files.
+ *
+ * Like the file registry, the scheduler is confined to the consumer thread.
+ */
+public class UploadScheduler {
+    private static final long HOUR_IN_MILLIS = 3600L * 1000L;
+    private static final long MINUTE_IN_MILLIS = 60L * 1000L;
+    private static final long RETRY_MILLIS = 1000L;
+
+    private final FileRegistry mFileRegistry;
+    private final long mMaxFileSizeBytes;
+    private final long mMaxFileAgeSeconds;
+    private final String mTopicFilter;
+    private final int mUploadMinuteMark;
+
+    private final HashMap<TopicPartition, Schedule> mSchedules = new HashMap<TopicPartition, Schedule>();
+    // May contain stale deadlines which are skipped when they come up.
+    private final PriorityQueue<Deadline> mDeadlines = new PriorityQueue<Deadline>();
+
+    public UploadScheduler(SecorConfig config, FileRegistry fileRegistry) {
+        mFileRegistry = fileRegistry;
+        mMaxFileSizeBytes = config.getMaxFileSizeBytes();
+        mMaxFileAgeSeconds = config.getMaxFileAgeSeconds();
+        mTopicFilter = config.getKafkaTopicUploadAtMinuteMarkFilter();
+        mUploadMinuteMark = config.getUploadMinuteMark();
+    }
+
+    /**
+     * Record that a message has been appended to the files of a topic partition.
+     * @param topicPartition The topic partition written to.
+     * @param now Current time in milliseconds.
+     * @throws IOException on error
+     */
+    public void recordWrite(TopicPartition topicPartition, long now) throws IOException {
+        Schedule schedule = mSchedules.get(topicPartition);
+        if (schedule == null) {
+            schedule = new Schedule(topicPartition);
+            mSchedules.put(topicPartition, schedule);
+            if (mTopicFilter != null && !mTopicFilter.isEmpty() &&
+                topicPartition.getTopic().matches(mTopicFilter)) {
+                schedule.mMinuteMarkMillis = getMinuteMarkMillis(now - MINUTE_IN_MILLIS + 1);
+            }
+            scheduleAge(schedule, now);
+        }
+        if (!schedule.mOversized && mFileRegistry.peekSize(topicPartition) >= mMaxFileSizeBytes) {
+            schedule.mOversized = true;
+            schedule(schedule, now);
+        }
+    }
+
+    /**
+     * @return Time in milliseconds when the next topic partition becomes due or Long.MAX_VALUE if
+     *     there is nothing to upload.
+     */
+    public long getNextDeadline() {
+        while (!mDeadlines.isEmpty() && mDeadlines.peek().isStale()) {
+            mDeadlines.poll();
+        }
+        return mDeadlines.isEmpty() ? Long.MAX_VALUE : mDeadlines.peek().mMillis;
+    }
+
+    /**
+     * Remove and return the topic partitions that are due.
+     * @param now Current time in milliseconds.
+     * @return Collection of due topic partitions.
+     */
+    public Collection<TopicPartition> pollDue(long now) {
+        List<TopicPartition> result = new ArrayList<TopicPartition>();
+        while (getNextDeadline() <= now) {
+            Schedule schedule = mDeadlines.poll().mSchedule;
+            schedule.mDeadline = Long.MAX_VALUE;
+            result.add(schedule.mTopicPartition);
+        }
+        return result;
+    }
+
+    /**
+     * Schedule the next evaluation of topic partitions whose upload policy has been applied.
+     * Partitions without local files are forgotten until they are written to again.
+     * @param topicPartitions The topic partitions returned by pollDue.
+     * @param now Current time in milliseconds.
+     * @throws IOException on error
+     */
+    public void reschedule(Collection<TopicPartition> topicPartitions, long now) throws IOException {
+        for (TopicPartition topicPartition : topicPartitions) {
+            Schedule schedule = mSchedules.get(topicPartition);
+            if (schedule == null) {
+                continue;
+            }
+            if (mFileRegistry.getModificationAgeSec(topicPartition) < 0) {
+                mSchedules.remove(topicPartition);
+                continue;
+            }
+            if (schedule.mMinuteMarkMillis <= now) {
+                schedule.mMinuteMarkMillis = getMinuteMarkMillis(now + 1);
+            }
+            scheduleAge(schedule, now);
+            schedule.mOversized = mFileRegistry.getSize(topicPartition) >= mMaxFileSizeBytes;
+            if (schedule.mOversized) {
+                // The files were not uploaded, e.g. because another consumer committed an offset in
+                // the meantime.  Retry shortly rather than on every write.
+                schedule(schedule, now + RETRY_MILLIS);
+            }
+        }
+    }
+
+    // @return start of the first upload minute mark beginning at or after a given time
+    private long getMinuteMarkMillis(long millis) {
+        long minuteMark = millis - Math.floorMod(millis, HOUR_IN_MILLIS) + mUploadMinuteMark * MINUTE_IN_MILLIS;
+        if (minuteMark < millis) {
+            minuteMark += HOUR_IN_MILLIS;
+        }
+        return minuteMark;
+    }
+
+    private void scheduleAge(Schedule schedule, long now) throws IOException {
+        long ageSec = mFileRegistry.getModificationAgeSec(schedule.mTopicPartition);
+        long deadline = schedule.mMinuteMarkMillis;
+        if (ageSec >= 0) {
+            // Ages are measured in whole seconds.
+            long nowSec = now / 1000L;
+            deadline = Math.min(deadline, (nowSec + Math.max(0, mMaxFileAgeSeconds - ageSec)) * 1000L);
+        } else {
+            // The files have not been registered yet.
+            deadline = Math.min(deadline, now + RETRY_MILLIS);
+        }
+        schedule(schedule, deadline);
+    }
+
+    private void schedule(Schedule schedule, long deadline) {
+        if (deadline < schedule.mDeadline) {
+            schedule.mDeadline = deadline;
+            mDeadlines.add(new Deadline(schedule, deadline));
+        }
+    }
+
+    private static class Schedule {
+        private final TopicPartition mTopicPartition;
+        private long mDeadline = Long.MAX_VALUE;
+        private long mMinuteMarkMillis = Long.MAX_VALUE;
+        // Whether the files have reached the maximum size since the policy was last applied.
+        private boolean mOversized;
+
+        private Schedule(TopicPartition topicPartition) {
+            mTopicPartition = topicPartition;
+        }
+    }
+
+    private static class Deadline implements Comparable<Deadline> {
+        private final Schedule mSchedule;
+        private final long mMillis;
+
+        private Deadline(Schedule schedule, long millis) {
+            mSchedule = schedule;
+            mMillis = millis;
+        }
+
+        private boolean isStale() {
+            return mSchedule.mDeadline != mMillis;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            return Long.compare(mMillis, other.mMillis);
+        }
+    }
+}
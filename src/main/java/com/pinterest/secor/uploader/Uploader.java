@@ -21,6 +21,8 @@ package com.pinterest.secor.uploader;
 import com.google.common.base.Joiner;
 import com.pinterest.secor.common.FileRegistry;
 import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.OffsetStore;
+import com.pinterest.secor.common.OffsetStoreFactory;
 import com.pinterest.secor.common.OffsetTracker;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.SecorConstants;
@@ -28,41 +30,67 @@ import com.pinterest.secor.common.TopicPartition;
 import com.pinterest.secor.common.ZookeeperConnector;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.IndexedFileWriter;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.SeekableFileReader;
 import com.pinterest.secor.monitoring.MetricCollector;
 import com.pinterest.secor.reader.MessageReader;
+import com.pinterest.secor.reader.PartitionRevocationListener;
 import com.pinterest.secor.util.CompressionUtil;
 import com.pinterest.secor.util.IdUtil;
 import com.pinterest.secor.util.ReflectionUtil;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.zookeeper.data.Stat;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * Uploader applies a set of policies to determine if any of the locally stored files should be
  * uploaded to the cloud.
  *
+ * Offsets are committed one topic partition at a time, right after its files are uploaded and
+ * while its lock is held, so zookeeper commits are not batched.  {@link AsyncUploader} batches
+ * the commits of uploads that complete together.
+ *
  * @author Pawel Garbacki (pawel@pinterest.com)
  */
 public class Uploader {
     private static final Logger LOG = LoggerFactory.getLogger(Uploader.class);
 
+    // Directory under the topic holding files uploaded before their offsets are committed.
+    private static final String ATTEMPTS_DIR = "_attempts";
+
     protected SecorConfig mConfig;
     protected MetricCollector mMetricCollector;
     protected OffsetTracker mOffsetTracker;
     protected FileRegistry mFileRegistry;
+    // Null if offsets are stored in Kafka.
     protected ZookeeperConnector mZookeeperConnector;
+    protected OffsetStore mOffsetStore;
     protected UploadManager mUploadManager;
     protected MessageReader mMessageReader;
     protected String mTopicFilter;
+    private CompressionCodec mCodec;
 
     private boolean isOffsetsStorageKafka = false;
+    // Whether uploads are coordinated with versioned offset writes rather than locks.
+    private boolean mCompareAndSetCoordination = false;
 
 
     /**
@@ -77,7 +105,8 @@ public class Uploader {
     public void init(SecorConfig config, OffsetTracker offsetTracker, FileRegistry fileRegistry,
                      UploadManager uploadManager, MessageReader messageReader, MetricCollector metricCollector) {
         init(config, offsetTracker, fileRegistry, uploadManager, messageReader,
-                new ZookeeperConnector(config), metricCollector);
+                OffsetStoreFactory.isKafkaOffsetStore(config) ? null : new ZookeeperConnector(config),
+                metricCollector);
     }
 
     // For testing use only.
@@ -89,54 +118,288 @@ public class Uploader {
         mFileRegistry = fileRegistry;
         mUploadManager = uploadManager;
         mMessageReader = messageReader;
-        mZookeeperConnector = zookeeperConnector;
+        if (OffsetStoreFactory.isKafkaOffsetStore(mConfig)) {
+            mOffsetStore = messageReader.getOffsetStore();
+            if (mOffsetStore == null) {
+                throw new RuntimeException("secor.offsets.store=kafka is not supported by " +
+                    mConfig.getKafkaMessageIteratorClass());
+            }
+            // Without partition locks the files of revoked partitions must not outlive the
+            // assignment.
+            messageReader.setRevocationListener(new PartitionRevocationListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> topicPartitions) throws Exception {
+                    Uploader.this.onPartitionsRevoked(topicPartitions);
+                }
+            });
+        } else {
+            mZookeeperConnector = zookeeperConnector;
+            mOffsetStore = zookeeperConnector;
+        }
         mTopicFilter = mConfig.getKafkaTopicUploadAtMinuteMarkFilter();
         mMetricCollector = metricCollector;
-        if (mConfig.getOffsetsStorage().equals(SecorConstants.KAFKA_OFFSETS_STORAGE_KAFKA)) {
+        // The Kafka offset store commits to Kafka itself.
+        if (mConfig.getOffsetsStorage().equals(SecorConstants.KAFKA_OFFSETS_STORAGE_KAFKA) &&
+                mZookeeperConnector != null) {
             isOffsetsStorageKafka = true;
         }
+        if ("cas".equals(mConfig.getUploadCoordination())) {
+            mCompareAndSetCoordination = true;
+        }
     }
 
-    protected void uploadFiles(TopicPartition topicPartition) throws Exception {
-        long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(topicPartition);
-        long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
-
+    protected String getLockPath(TopicPartition topicPartition) {
         String stripped = StringUtils.strip(mConfig.getZookeeperPath(), "/");
-        final String lockPath = Joiner.on("/").skipNulls().join(
+        return Joiner.on("/").skipNulls().join(
             "",
             stripped.isEmpty() ? null : stripped,
             "secor",
             "locks",
             topicPartition.getTopic(),
             topicPartition.getPartition());
+    }
+
+    /**
+     * Drop the local files of topic partitions revoked from this consumer.  Called on the
+     * consumer thread before it rejoins the group when offsets are stored in Kafka, which fences
+     * uploads by partition assignment instead of locks.
+     *
+     * @param topicPartitions the revoked topic partitions
+     * @throws Exception if any error occurs while deleting the files
+     */
+    protected void onPartitionsRevoked(Collection<TopicPartition> topicPartitions) throws Exception {
+        for (TopicPartition topicPartition : topicPartitions) {
+            if (!mFileRegistry.getPaths(topicPartition).isEmpty()) {
+                LOG.info("deleting files of revoked topic {} partition {}", topicPartition.getTopic(),
+                    topicPartition.getPartition());
+                mFileRegistry.deleteTopicPartition(topicPartition);
+            }
+        }
+    }
+
+    // Whether the files of a topic partition may be uploaded.  The local files of a partition that
+    // is no longer assigned are deleted.
+    protected boolean isAssigned(TopicPartition topicPartition) throws Exception {
+        if (mOffsetStore.isAssigned(topicPartition)) {
+            return true;
+        }
+        LOG.warn("topic {} partition {} is not assigned, deleting its files instead of uploading them",
+            topicPartition.getTopic(), topicPartition.getPartition());
+        mFileRegistry.deleteTopicPartition(topicPartition);
+        return false;
+    }
+
+    protected void uploadFiles(TopicPartition topicPartition) throws Exception {
+        if (mZookeeperConnector == null) {
+            // The coordinator does not check partition ownership of commits, the store does.
+            if (isAssigned(topicPartition)) {
+                uploadAndCommit(topicPartition);
+            }
+            return;
+        }
+        if (mCompareAndSetCoordination) {
+            compareAndSetUploadFiles(topicPartition);
+            return;
+        }
+        final String lockPath = getLockPath(topicPartition);
 
         mZookeeperConnector.lock(lockPath);
         try {
-            // Check if the committed offset has changed.
-            long zookeeperCommittedOffsetCount = mZookeeperConnector.getCommittedOffsetCount(
-                    topicPartition);
-            if (zookeeperCommittedOffsetCount == committedOffsetCount) {
-                LOG.info("uploading topic {} partition {}", topicPartition.getTopic(), topicPartition.getPartition());
-                // Deleting writers closes their streams flushing all pending data to the disk.
-                mFileRegistry.deleteWriters(topicPartition);
-                Collection<LogFilePath> paths = mFileRegistry.getPaths(topicPartition);
-                List<Handle<?>> uploadHandles = new ArrayList<Handle<?>>();
-                for (LogFilePath path : paths) {
-                    uploadHandles.add(mUploadManager.upload(path));
-                }
-                for (Handle<?> uploadHandle : uploadHandles) {
-                    uploadHandle.get();
-                }
+            uploadAndCommit(topicPartition);
+        } finally {
+            mZookeeperConnector.unlock(lockPath);
+        }
+    }
+
+    private void uploadAndCommit(TopicPartition topicPartition) throws Exception {
+        long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(topicPartition);
+        long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
+
+        // Check if the committed offset has changed.
+        long storedCommittedOffsetCount = mOffsetStore.getCommittedOffsetCount(topicPartition);
+        if (storedCommittedOffsetCount == committedOffsetCount) {
+            LOG.info("uploading topic {} partition {}", topicPartition.getTopic(), topicPartition.getPartition());
+            Collection<LogFilePath> paths = uploadTopicPartition(topicPartition);
+            mFileRegistry.deleteTopicPartition(topicPartition);
+            mOffsetStore.setCommittedOffsetCount(topicPartition, lastSeenOffset + 1);
+            mOffsetTracker.setCommittedOffsetCount(topicPartition, lastSeenOffset + 1);
+            commitToKafka(topicPartition, lastSeenOffset + 1);
+            mMetricCollector.increment("uploader.file_uploads.count", paths.size(), topicPartition.getTopic());
+        }
+    }
+
+    /**
+     * Upload without a lock.  The new offset is committed only if the offset znode still has the
+     * version it had when the committed offset was checked, so of two consumers uploading the
+     * same offsets after a rebalance only one commits.  Files are uploaded under names unique to
+     * the attempt and moved to their final names only by the consumer that committed, so the
+     * other one never overwrites committed files.  It deletes its uploads and, since its writers
+     * have been closed, trims or deletes its local files right away, before anything is written
+     * to their paths again.
+     *
+     * The attempt is recorded in zookeeper together with the new offset and the record is
+     * deleted once the files have been moved, so if the consumer dies in between, the next one
+     * to upload the topic partition moves them first.
+     */
+    private void compareAndSetUploadFiles(TopicPartition topicPartition) throws Exception {
+        rollForwardAttempt(topicPartition);
+        long committedOffsetCount = mOffsetTracker.getTrueCommittedOffsetCount(topicPartition);
+        long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
+
+        // Check if the committed offset has changed.
+        Stat stat = new Stat();
+        long zookeeperCommittedOffsetCount = mZookeeperConnector.getCommittedOffsetCount(
+                topicPartition, stat);
+        if (zookeeperCommittedOffsetCount == committedOffsetCount) {
+            LOG.info("uploading topic {} partition {}", topicPartition.getTopic(), topicPartition.getPartition());
+            String attemptId = UUID.randomUUID().toString();
+            Map<LogFilePath, LogFilePath> attemptPaths = uploadAttempt(topicPartition, attemptId);
+            if (mZookeeperConnector.compareAndSetCommittedOffsetCount(topicPartition, stat.getVersion(),
+                    lastSeenOffset + 1, encodeAttempt(attemptId, attemptPaths.keySet()))) {
+                promote(topicPartition, attemptPaths);
                 mFileRegistry.deleteTopicPartition(topicPartition);
-                mZookeeperConnector.setCommittedOffsetCount(topicPartition, lastSeenOffset + 1);
                 mOffsetTracker.setCommittedOffsetCount(topicPartition, lastSeenOffset + 1);
-                if (isOffsetsStorageKafka) {
-                    mMessageReader.commit(topicPartition, lastSeenOffset + 1);
+                commitToKafka(topicPartition, lastSeenOffset + 1);
+                mMetricCollector.increment("uploader.file_uploads.count", attemptPaths.size(),
+                    topicPartition.getTopic());
+            } else {
+                LOG.warn("committed offset of topic {} partition {} changed during upload, not committing",
+                    topicPartition.getTopic(), topicPartition.getPartition());
+                mMetricCollector.increment("uploader.commit_conflicts", topicPartition.getTopic());
+                for (LogFilePath attemptPath : attemptPaths.values()) {
+                    mUploadManager.delete(attemptPath);
                 }
-                mMetricCollector.increment("uploader.file_uploads.count", paths.size(), topicPartition.getTopic());
+                long newOffsetCount = mZookeeperConnector.getCommittedOffsetCount(topicPartition);
+                mOffsetTracker.setCommittedOffsetCount(topicPartition, newOffsetCount);
+                dropCommittedFiles(topicPartition, newOffsetCount);
+            }
+        }
+    }
+
+    // Delete or trim the local files of a topic partition after another consumer committed its
+    // offsets up to a given count.
+    private void dropCommittedFiles(TopicPartition topicPartition, long committedOffsetCount)
+            throws Exception {
+        if (committedOffsetCount > mOffsetTracker.getLastSeenOffset(topicPartition)) {
+            mFileRegistry.deleteTopicPartition(topicPartition);
+        } else {
+            trimFiles(topicPartition, committedOffsetCount);
+        }
+    }
+
+    // The path a file is uploaded under before its offset is committed.  The attempt directory is
+    // hidden from readers of the topic.
+    private static LogFilePath getAttemptPath(LogFilePath path, String attemptId) {
+        String[] partitions = new String[path.getPartitions().length + 2];
+        partitions[0] = ATTEMPTS_DIR;
+        partitions[1] = attemptId;
+        System.arraycopy(path.getPartitions(), 0, partitions, 2, path.getPartitions().length);
+        return path.withPartitions(partitions);
+    }
+
+    // The record of an attempt: its id, the prefix of the local paths, and the local paths.
+    private static byte[] encodeAttempt(String attemptId, Collection<LogFilePath> paths) {
+        List<String> lines = new ArrayList<String>();
+        lines.add(attemptId);
+        lines.add(paths.isEmpty() ? "" : paths.iterator().next().getPrefix());
+        for (LogFilePath path : paths) {
+            lines.add(path.getLogFilePath());
+        }
+        return Joiner.on("\n").join(lines).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // @return attempt paths by local path
+    private static Map<LogFilePath, LogFilePath> decodeAttempt(byte[] attempt) {
+        String[] lines = new String(attempt, StandardCharsets.UTF_8).split("\n");
+        Map<LogFilePath, LogFilePath> attemptPaths = new LinkedHashMap<LogFilePath, LogFilePath>();
+        for (int i = 2; i < lines.length; ++i) {
+            LogFilePath path = new LogFilePath(lines[1], lines[i]);
+            attemptPaths.put(path, getAttemptPath(path, lines[0]));
+        }
+        return attemptPaths;
+    }
+
+    // Finish an attempt committed by a consumer that did not get to move its files.  The local
+    // files are gone, so this relies on the upload manager moving the files remotely.
+    private void rollForwardAttempt(TopicPartition topicPartition) throws Exception {
+        byte[] attempt = mZookeeperConnector.getPendingAttempt(topicPartition);
+        if (attempt == null) {
+            return;
+        }
+        Map<LogFilePath, LogFilePath> attemptPaths = decodeAttempt(attempt);
+        LOG.warn("rolling forward committed attempt of topic {} partition {} with {} files",
+            topicPartition.getTopic(), topicPartition.getPartition(), attemptPaths.size());
+        promote(topicPartition, attemptPaths);
+        mMetricCollector.increment("uploader.file_uploads.count", attemptPaths.size(),
+            topicPartition.getTopic());
+    }
+
+    // Upload the local files of a topic partition under attempt paths, linked to the local files,
+    // and wait for the uploads to finish.
+    // @return attempt paths by local path
+    private Map<LogFilePath, LogFilePath> uploadAttempt(TopicPartition topicPartition, String attemptId)
+            throws Exception {
+        // Deleting writers closes their streams flushing all pending data to the disk.
+        mFileRegistry.deleteWriters(topicPartition);
+        Map<LogFilePath, LogFilePath> attemptPaths = new LinkedHashMap<LogFilePath, LogFilePath>();
+        List<Handle<?>> uploadHandles = new ArrayList<Handle<?>>();
+        try {
+            for (LogFilePath path : mFileRegistry.getPaths(topicPartition)) {
+                LogFilePath attemptPath = getAttemptPath(path, attemptId);
+                Path link = Paths.get(attemptPath.getLogFilePath());
+                Files.createDirectories(link.getParent());
+                Files.createLink(link, Paths.get(path.getLogFilePath()));
+                attemptPaths.put(path, attemptPath);
+                uploadHandles.add(mUploadManager.upload(attemptPath));
+            }
+            for (Handle<?> uploadHandle : uploadHandles) {
+                uploadHandle.get();
             }
         } finally {
-            mZookeeperConnector.unlock(lockPath);
+            // The attempt directory holds nothing but the links.
+            if (!attemptPaths.isEmpty()) {
+                String topicDir = attemptPaths.values().iterator().next().getLogFileParentDir();
+                FileUtils.deleteQuietly(new File(topicDir + "/" + ATTEMPTS_DIR + "/" + attemptId));
+            }
+        }
+        return attemptPaths;
+    }
+
+    // Move the uploads of a committed attempt to their final paths.  The record of the attempt is
+    // deleted only after all of them have been copied.
+    private void promote(TopicPartition topicPartition, Map<LogFilePath, LogFilePath> attemptPaths)
+            throws Exception {
+        List<Handle<?>> promoteHandles = new ArrayList<Handle<?>>();
+        for (Map.Entry<LogFilePath, LogFilePath> entry : attemptPaths.entrySet()) {
+            promoteHandles.add(mUploadManager.promote(entry.getValue(), entry.getKey()));
+        }
+        for (Handle<?> promoteHandle : promoteHandles) {
+            promoteHandle.get();
+        }
+        mZookeeperConnector.deletePendingAttempt(topicPartition);
+        for (LogFilePath attemptPath : attemptPaths.values()) {
+            mUploadManager.delete(attemptPath);
+        }
+    }
+
+    // Upload the local files of a topic partition and wait for the uploads to finish.
+    private Collection<LogFilePath> uploadTopicPartition(TopicPartition topicPartition) throws Exception {
+        // Deleting writers closes their streams flushing all pending data to the disk.
+        mFileRegistry.deleteWriters(topicPartition);
+        Collection<LogFilePath> paths = mFileRegistry.getPaths(topicPartition);
+        List<Handle<?>> uploadHandles = new ArrayList<Handle<?>>();
+        for (LogFilePath path : paths) {
+            uploadHandles.add(mUploadManager.upload(path));
+        }
+        for (Handle<?> uploadHandle : uploadHandles) {
+            uploadHandle.get();
+        }
+        return paths;
+    }
+
+    protected void commitToKafka(TopicPartition topicPartition, long offsetCount) {
+        if (isOffsetsStorageKafka) {
+            mMessageReader.commit(topicPartition, offsetCount);
         }
     }
 
@@ -148,18 +411,38 @@ public class Uploader {
      * @throws Exception on error
      */
     protected FileReader createReader(LogFilePath srcPath, CompressionCodec codec) throws Exception {
-        return ReflectionUtil.createFileReader(
+        return ReflectionUtil.createMappedFileReader(
                 mConfig.getFileReaderWriterFactory(),
                 srcPath,
                 codec,
-                mConfig
+                mConfig,
+                null
         );
     }
 
+    private CompressionCodec getCompressionCodec() throws Exception {
+        if (mCodec == null && mConfig.getCompressionCodec() != null &&
+                !mConfig.getCompressionCodec().isEmpty()) {
+            mCodec = CompressionUtil.createCompressionCodec(mConfig.getCompressionCodec());
+        }
+        return mCodec;
+    }
+
+    private LogFilePath getTrimmedPath(LogFilePath srcPath, long startOffset, String extension) {
+        String localPrefix = mConfig.getLocalPath() + '/' + IdUtil.getLocalMessageDir();
+        return new LogFilePath(localPrefix, srcPath.getTopic(), srcPath.getPartitions(),
+                               srcPath.getGeneration(), srcPath.getKafkaPartition(), startOffset,
+                               extension);
+    }
+
     private void trim(LogFilePath srcPath, long startOffset) throws Exception {
         if (startOffset == srcPath.getOffset()) {
             return;
         }
+        // Writers of indexed files can copy most of the file instead of rewriting every message.
+        FileWriter srcWriter = mFileRegistry.getWriter(srcPath);
+        OffsetIndex index = srcWriter instanceof IndexedFileWriter ?
+            ((IndexedFileWriter) srcWriter).getOffsetIndex() : null;
         FileReader reader = null;
         FileWriter writer = null;
         LogFilePath dstPath = null;
@@ -167,30 +450,36 @@ public class Uploader {
         // Deleting the writer closes its stream flushing all pending data to the disk.
         mFileRegistry.deleteWriter(srcPath);
         try {
-            CompressionCodec codec = null;
-            String extension = "";
-            if (mConfig.getCompressionCodec() != null && !mConfig.getCompressionCodec().isEmpty()) {
-                codec = CompressionUtil.createCompressionCodec(mConfig.getCompressionCodec());
-                extension = codec.getDefaultExtension();
-            }
-            reader = createReader(srcPath, codec);
-            KeyValue keyVal;
-            while ((keyVal = reader.next()) != null) {
-                if (keyVal.getOffset() >= startOffset) {
-                    if (writer == null) {
-                        String localPrefix = mConfig.getLocalPath() + '/' +
-                            IdUtil.getLocalMessageDir();
-                        dstPath = new LogFilePath(localPrefix, srcPath.getTopic(),
-                                                  srcPath.getPartitions(), srcPath.getGeneration(),
-                                                  srcPath.getKafkaPartition(), startOffset,
-                                                  extension);
-                        writer = mFileRegistry.getOrCreateWriter(dstPath,
-                        		codec);
+            CompressionCodec codec = getCompressionCodec();
+            String extension = codec == null ? "" : codec.getDefaultExtension();
+            if (index != null) {
+                if (index.getLastOffset() >= startOffset) {
+                    dstPath = getTrimmedPath(srcPath, startOffset, extension);
+                    writer = mFileRegistry.getOrCreateWriter(dstPath, codec);
+                    ((IndexedFileWriter) writer).append(srcPath, index, startOffset);
+                }
+            } else {
+                reader = createReader(srcPath, codec);
+                if (reader instanceof SeekableFileReader) {
+                    // Mapped files skip the trimmed messages without copying them.
+                    ((SeekableFileReader) reader).seek(startOffset);
+                }
+                KeyValue keyVal;
+                while ((keyVal = reader.next()) != null) {
+                    if (keyVal.getOffset() >= startOffset) {
+                        if (writer == null) {
+                            dstPath = getTrimmedPath(srcPath, startOffset, extension);
+                            writer = mFileRegistry.getOrCreateWriter(dstPath,
+                            		codec);
+                        }
+                        writer.write(keyVal);
+                        copiedMessages++;
                     }
-                    writer.write(keyVal);
-                    copiedMessages++;
                 }
             }
+            if (dstPath != null) {
+                mFileRegistry.updateLength(dstPath, index == null ? copiedMessages : -1);
+            }
         } finally {
             if (reader != null) {
                 reader.close();
@@ -199,6 +488,9 @@ public class Uploader {
         mFileRegistry.deletePath(srcPath);
         if (dstPath == null) {
             LOG.info("removed file {}", srcPath.getLogFilePath());
+        } else if (index != null) {
+            LOG.info("trimmed {} to {} with start offset {} using its offset index",
+                    srcPath.getLogFilePath(), dstPath.getLogFilePath(), startOffset);
         } else {
             LOG.info("trimmed {} messages from {} to {} with start offset {}",
                     copiedMessages, srcPath.getLogFilePath(), dstPath.getLogFilePath(), startOffset);
@@ -239,7 +531,8 @@ public class Uploader {
                 size >= mConfig.getMaxFileSizeBytes() ||
                 modificationAgeSec >= mConfig.getMaxFileAgeSeconds() ||
                 isRequiredToUploadAtTime(topicPartition)) {
-            long newOffsetCount = mZookeeperConnector.getCommittedOffsetCount(topicPartition);
+            // The cached count may miss a concurrent commit; uploadFiles checks it again under lock.
+            long newOffsetCount = mOffsetStore.getCachedCommittedOffsetCount(topicPartition);
             long oldOffsetCount = mOffsetTracker.setCommittedOffsetCount(topicPartition,
                     newOffsetCount);
             long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
@@ -267,6 +560,54 @@ public class Uploader {
         }
     }
 
+    /**
+     * Upload the topic partitions the file registry closed writers of to stay within
+     * secor.max.open.writers.  It is called by the consumer thread after every write, before a
+     * closed file could be written to again.  If an upload is skipped because another consumer
+     * committed the offsets, the closed files are trimmed to the committed offset or deleted.
+     *
+     * @throws Exception if any error occurs while uploading
+     */
+    public void uploadEvictedFiles() throws Exception {
+        for (TopicPartition topicPartition : mFileRegistry.pollEvictedTopicPartitions()) {
+            if (!mFileRegistry.getPaths(topicPartition).isEmpty()) {
+                LOG.info("uploading topic {} partition {} early to close files", topicPartition.getTopic(),
+                    topicPartition.getPartition());
+                uploadEvictedFiles(topicPartition);
+            }
+        }
+    }
+
+    protected void uploadEvictedFiles(TopicPartition topicPartition) throws Exception {
+        checkTopicPartition(topicPartition, true);
+        if (mFileRegistry.hasClosedFiles(topicPartition)) {
+            // The upload was skipped because the stored offset no longer matches the cached one.
+            // Drop what another consumer committed and, if that left closed files, upload them
+            // with the stored offset rather than the cached one.
+            long committedOffsetCount = mOffsetStore.getCommittedOffsetCount(topicPartition);
+            LOG.warn("early upload of topic {} partition {} skipped, dropping files up to committed offset count {}",
+                topicPartition.getTopic(), topicPartition.getPartition(), committedOffsetCount);
+            mOffsetTracker.setCommittedOffsetCount(topicPartition, committedOffsetCount);
+            dropCommittedFiles(topicPartition, committedOffsetCount);
+            if (mFileRegistry.hasClosedFiles(topicPartition)) {
+                uploadFiles(topicPartition);
+            }
+            if (mFileRegistry.hasClosedFiles(topicPartition)) {
+                throw new IllegalStateException("Failed to upload or trim closed files of topic " +
+                    topicPartition.getTopic() + " partition " + topicPartition.getPartition());
+            }
+        }
+    }
+
+    /**
+     * Complete uploads running in the background.  It is called by the consumer thread between
+     * messages.  This uploader uploads files synchronously and has nothing to complete.
+     *
+     * @throws Exception if any error occurs while completing uploads
+     */
+    public void completeUploads() throws Exception {
+    }
+
     /**
      * Apply the Uploader policy for pushing partition files to the underlying storage.
      *
@@ -279,9 +620,23 @@ public class Uploader {
      * @throws Exception if any error occurs while appying the policy
      */
     public void applyPolicy(boolean forceUpload) throws Exception {
-        Collection<TopicPartition> topicPartitions = mFileRegistry.getTopicPartitions();
+        applyPolicy(mFileRegistry.getTopicPartitions(), forceUpload);
+    }
+
+    /**
+     * Apply the Uploader policy to a subset of partitions, e.g. those reported due by the
+     * {@link UploadScheduler}.
+     *
+     * @param topicPartitions the partitions to apply the policy to
+     * @param forceUpload whether to upload regardless of the policy
+     * @throws Exception if any error occurs while appying the policy
+     */
+    public void applyPolicy(Collection<TopicPartition> topicPartitions, boolean forceUpload) throws Exception {
         for (TopicPartition topicPartition : topicPartitions) {
             checkTopicPartition(topicPartition, forceUpload);
         }
+        if (forceUpload) {
+            mOffsetStore.flush();
+        }
     }
 }
@@ -18,8 +18,8 @@
  */
 package com.pinterest.secor.util;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.security.MessageDigest;
@@ -27,6 +27,10 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
 
 import java.text.SimpleDateFormat;
 import java.util.regex.Matcher;
@@ -155,18 +159,22 @@ public class FileUtil {
         FileStatus[] statuses = fs.listStatus(fsPath);
         if (statuses != null) {
             for (FileStatus status : statuses) {
-                Path statusPath = status.getPath();
-                if (path.startsWith("s3://") || path.startsWith("s3n://") || path.startsWith("s3a://") ||
-                        path.startsWith("swift://") || path.startsWith("gs://")) {
-                    paths.add(statusPath.toUri().toString());
-                } else {
-                    paths.add(statusPath.toUri().getPath());
-                }
+                paths.add(getStatusPath(path, status));
             }
         }
         return paths.toArray(new String[] {});
     }
 
+    private static String getStatusPath(String path, FileStatus status) {
+        Path statusPath = status.getPath();
+        if (path.startsWith("s3://") || path.startsWith("s3n://") || path.startsWith("s3a://") ||
+                path.startsWith("swift://") || path.startsWith("gs://")) {
+            return statusPath.toUri().toString();
+        } else {
+            return statusPath.toUri().getPath();
+        }
+    }
+
     public static String[] listRecursively(String path) throws IOException {
         ArrayList<String> paths = new ArrayList<String>();
         String[] directPaths = list(path);
@@ -182,6 +190,56 @@ public class FileUtil {
         return paths.toArray(new String[] {});
     }
 
+    /**
+     * List the files under a path, listing the directories in parallel.  Files are passed to the
+     * consumer with their status as they are found, from the threads of the pool.
+     *
+     * @param path Path to list.
+     * @param pool Pool listing the directories.
+     * @param consumer Thread-safe consumer of the paths and statuses of the files found.
+     * @throws IOException on IO error
+     */
+    public static void listRecursively(String path, ForkJoinPool pool,
+                                       BiConsumer<String, FileStatus> consumer)
+            throws IOException {
+        try {
+            pool.invoke(new ListTask(path, consumer));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class ListTask extends RecursiveAction {
+        private final String mPath;
+        private final BiConsumer<String, FileStatus> mConsumer;
+
+        private ListTask(String path, BiConsumer<String, FileStatus> consumer) {
+            mPath = path;
+            mConsumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            List<ListTask> subtasks = new ArrayList<ListTask>();
+            try {
+                FileStatus[] statuses = getFileSystem(mPath).listStatus(new Path(mPath));
+                if (statuses != null) {
+                    // Unlike list, files are known from their status without being listed.
+                    for (FileStatus status : statuses) {
+                        if (status.isDirectory()) {
+                            subtasks.add(new ListTask(getStatusPath(mPath, status), mConsumer));
+                        } else {
+                            mConsumer.accept(getStatusPath(mPath, status), status);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            invokeAll(subtasks);
+        }
+    }
+
     public static boolean exists(String path) throws IOException {
         FileSystem fs = getFileSystem(path);
         Path fsPath = new Path(path);
@@ -209,6 +267,17 @@ public class FileUtil {
         getFileSystem(dstCloudPath).moveFromLocalFile(srcPath, dstPath);
     }
 
+    // Rename a cloud file, replacing the destination if it exists.
+    public static void moveInCloud(String srcCloudPath, String dstCloudPath) throws IOException {
+        delete(dstCloudPath);
+        FileSystem fs = getFileSystem(srcCloudPath);
+        Path dstPath = new Path(dstCloudPath);
+        fs.mkdirs(dstPath.getParent());
+        if (!fs.rename(new Path(srcCloudPath), dstPath)) {
+            throw new IOException("Failed to move " + srcCloudPath + " to " + dstCloudPath);
+        }
+    }
+
     public static void touch(String path) throws IOException {
         FileSystem fs = getFileSystem(path);
         Path fsPath = new Path(path);
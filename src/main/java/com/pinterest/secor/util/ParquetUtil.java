@@ -19,6 +19,7 @@
 package com.pinterest.secor.util;
 
 import com.pinterest.secor.common.SecorConfig;
+import org.apache.parquet.column.ParquetProperties;
 import org.apache.parquet.hadoop.ParquetWriter;
 
 public class ParquetUtil {
@@ -30,6 +31,18 @@ public class ParquetUtil {
         return config.getInt("parquet.page.size", ParquetWriter.DEFAULT_PAGE_SIZE);
     }
 
+    public static int getParquetDictionaryPageSize(SecorConfig config) {
+        return config.getInt("parquet.dictionary.page.size", ParquetWriter.DEFAULT_PAGE_SIZE);
+    }
+
+    public static ParquetProperties.WriterVersion getParquetWriterVersion(SecorConfig config) {
+        String version = config.getString("parquet.writer.version", null);
+        if (version == null || version.isEmpty()) {
+            return ParquetWriter.DEFAULT_WRITER_VERSION;
+        }
+        return ParquetProperties.WriterVersion.fromString(version);
+    }
+
     public static boolean getParquetEnableDictionary(SecorConfig config) {
         return config.getBoolean("parquet.enable.dictionary", ParquetWriter.DEFAULT_IS_DICTIONARY_ENABLED);
     }
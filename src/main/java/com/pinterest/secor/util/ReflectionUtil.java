@@ -23,6 +23,8 @@ import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileReaderWriterFactory;
 import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.MappedFileReaderFactory;
+import com.pinterest.secor.io.OffsetIndex;
 import com.pinterest.secor.monitoring.MetricCollector;
 import com.pinterest.secor.parser.MessageParser;
 import com.pinterest.secor.transformer.MessageTransformer;
@@ -173,6 +175,33 @@ public class ReflectionUtil {
         return createFileReaderWriterFactory(className, config).BuildFileReader(logFilePath, codec);
     }
 
+    /**
+     * Use the FileReaderWriterFactory specified by className to build a FileReader of a local file
+     * mapped in memory, falling back to a regular FileReader if the factory or the file does not
+     * support it
+     *
+     * @param className the class name of a subclass of FileReaderWriterFactory to create a FileReader from
+     * @param logFilePath the LogFilePath that the returned FileReader should read from
+     * @param codec an instance CompressionCodec to decompress the file being read, or null for no compression
+     * @param config The SecorCondig to initialize the FileReader with
+     * @param index the offset index of the file to seek with, or null
+     * @return a SeekableFileReader if the file could be mapped, a regular FileReader otherwise
+     * @throws Exception on error
+     */
+    public static FileReader createMappedFileReader(String className, LogFilePath logFilePath,
+                                                    CompressionCodec codec, SecorConfig config,
+                                                    OffsetIndex index)
+            throws Exception {
+        FileReaderWriterFactory factory = createFileReaderWriterFactory(className, config);
+        if (factory instanceof MappedFileReaderFactory) {
+            FileReader reader = ((MappedFileReaderFactory) factory).BuildMappedFileReader(logFilePath, codec, index);
+            if (reader != null) {
+                return reader;
+            }
+        }
+        return factory.BuildFileReader(logFilePath, codec);
+    }
+
     /**
      * Create a MessageTransformer from it's fully qualified class name. The
      * class passed in by name must be assignable to MessageTransformers and have
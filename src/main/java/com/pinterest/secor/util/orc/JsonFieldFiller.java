@@ -26,8 +26,10 @@ import org.apache.hadoop.hive.ql.exec.vector.DecimalColumnVector;
 import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
 import org.apache.hadoop.hive.ql.exec.vector.ListColumnVector;
 import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.MapColumnVector;
 import org.apache.hadoop.hive.ql.exec.vector.StructColumnVector;
 import org.apache.hadoop.hive.ql.exec.vector.TimestampColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.UnionColumnVector;
 import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
 import org.apache.hadoop.hive.serde2.io.DateWritable;
 import org.apache.orc.TypeDescription;
@@ -41,6 +43,8 @@ import org.codehaus.jettison.json.JSONWriter;
  */
 public class JsonFieldFiller {
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static void processRow(JSONWriter writer, VectorizedRowBatch batch,
             TypeDescription schema, int row) throws JSONException {
         if (schema.getCategory() == TypeDescription.Category.STRUCT) {
@@ -102,13 +106,13 @@ public class JsonFieldFiller {
                 setStruct(writer, (StructColumnVector) vector, schema, row);
                 break;
             case UNION:
-                // printUnion(writer, (UnionColumnVector) vector, schema, row);
+                setUnion(writer, (UnionColumnVector) vector, schema, row);
                 break;
             case BINARY:
-                // printBinary(writer, (BytesColumnVector) vector, row);
+                setBinary(writer, (BytesColumnVector) vector, row);
                 break;
             case MAP:
-                // printMap(writer, (MapColumnVector) vector, schema, row);
+                setMap(writer, (MapColumnVector) vector, schema, row);
                 break;
             default:
                 throw new IllegalArgumentException("Unknown type "
@@ -130,6 +134,71 @@ public class JsonFieldFiller {
         writer.endArray();
     }
 
+    private static void setMap(JSONWriter writer, MapColumnVector vector,
+            TypeDescription schema, int row) throws JSONException {
+        writer.object();
+        int offset = (int) vector.offsets[row];
+        TypeDescription keyType = schema.getChildren().get(0);
+        TypeDescription valueType = schema.getChildren().get(1);
+        for (int i = 0; i < vector.lengths[row]; ++i) {
+            writer.key(getKey(vector.keys, keyType, offset + i));
+            setValue(writer, vector.values, valueType, offset + i);
+        }
+        writer.endObject();
+    }
+
+    // JSON object keys are strings, map keys are written as the text of their value.
+    private static String getKey(ColumnVector vector, TypeDescription schema,
+            int row) throws JSONException {
+        if (vector.isRepeating) {
+            row = 0;
+        }
+        switch (schema.getCategory()) {
+        case BOOLEAN:
+            return Boolean.toString(((LongColumnVector) vector).vector[row] != 0);
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+            return Long.toString(((LongColumnVector) vector).vector[row]);
+        case FLOAT:
+        case DOUBLE:
+            return Double.toString(((DoubleColumnVector) vector).vector[row]);
+        case STRING:
+        case CHAR:
+        case VARCHAR:
+            return ((BytesColumnVector) vector).toString(row);
+        case DECIMAL:
+            return ((DecimalColumnVector) vector).vector[row].toString();
+        case TIMESTAMP:
+            return ((TimestampColumnVector) vector).asScratchTimestamp(row)
+                    .toString();
+        default:
+            throw new JSONException("Unsupported map key type "
+                    + schema.toString());
+        }
+    }
+
+    private static void setUnion(JSONWriter writer, UnionColumnVector vector,
+            TypeDescription schema, int row) throws JSONException {
+        int tag = vector.tags[row];
+        setValue(writer, vector.fields[tag], schema.getChildren().get(tag),
+                row);
+    }
+
+    private static void setBinary(JSONWriter writer, BytesColumnVector vector,
+            int row) throws JSONException {
+        byte[] bytes = vector.vector[row];
+        int start = vector.start[row];
+        char[] hex = new char[vector.length[row] * 2];
+        for (int i = 0; i < vector.length[row]; ++i) {
+            int b = bytes[start + i] & 0xff;
+            hex[i * 2] = HEX_DIGITS[b >> 4];
+            hex[i * 2 + 1] = HEX_DIGITS[b & 0xf];
+        }
+        writer.value(new String(hex));
+    }
+
     private static void setStruct(JSONWriter writer, StructColumnVector batch,
             TypeDescription schema, int row) throws JSONException {
         writer.object();
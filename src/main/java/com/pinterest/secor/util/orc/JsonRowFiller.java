@@ -0,0 +1,796 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.util.orc;
+
+import com.pinterest.secor.util.BackOffUtil;
+import org.apache.hadoop.hive.common.type.HiveDecimal;
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DecimalColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ListColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.MapColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.StructColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.TimestampColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.UnionColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.orc.TypeDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Json row filler parses JSON messages straight into the columns of a row batch.
+ *
+ * The fillers of all columns are built once from the ORC schema.  A message is scanned once as
+ * UTF-8 bytes: object keys are looked up in a precomputed table of field names, unknown fields
+ * are skipped, and strings without escapes are referenced in the message rather than copied.
+ * Values are converted as {@link VectorColumnFiller} converts them.  Maps are filled from JSON
+ * objects, and unions from the first alternative accepting the JSON value.
+ *
+ * A filler is not thread safe.
+ */
+public class JsonRowFiller {
+    private static final Logger LOG = LoggerFactory.getLogger(JsonRowFiller.class);
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    // Kinds of JSON values, used to pick union alternatives.
+    private static final int KIND_BOOLEAN = 0;
+    private static final int KIND_INTEGER = 1;
+    private static final int KIND_FLOAT = 2;
+    private static final int KIND_STRING = 3;
+    private static final int KIND_OBJECT = 4;
+    private static final int KIND_ARRAY = 5;
+    private static final int KINDS = 6;
+
+    private final StructFiller mRoot;
+
+    // The message being parsed.
+    private byte[] mBuf;
+    private int mPos;
+    private int mEnd;
+    // The last string or number read.  It points into the message unless the string had escapes.
+    private byte[] mSliceBuf;
+    private int mSliceStart;
+    private int mSliceLength;
+
+    public JsonRowFiller(TypeDescription schema) {
+        if (schema.getCategory() != TypeDescription.Category.STRUCT) {
+            throw new IllegalArgumentException("Expected a struct schema, got " + schema);
+        }
+        mRoot = new StructFiller(schema);
+    }
+
+    /**
+     * Fill a row of a batch.  The batch keeps references to the message, which must not be
+     * modified until the batch is reset.
+     * @param json UTF-8 encoded JSON object.
+     * @param batch The batch to fill.
+     * @param row The row to fill.
+     */
+    public void fillRow(byte[] json, VectorizedRowBatch batch, int row) {
+        mBuf = json;
+        mPos = 0;
+        mEnd = json.length;
+        mRoot.fillFields(batch.cols, row);
+    }
+
+    private Filler createFiller(TypeDescription schema) {
+        switch (schema.getCategory()) {
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+            return new LongFiller();
+        case FLOAT:
+        case DOUBLE:
+            return new DoubleFiller();
+        case CHAR:
+        case VARCHAR:
+        case STRING:
+            return new StringFiller();
+        case DECIMAL:
+            return new DecimalFiller();
+        case TIMESTAMP:
+            return new TimestampFiller();
+        case BINARY:
+            return new BinaryFiller();
+        case BOOLEAN:
+            return new BooleanFiller();
+        case STRUCT:
+            return new StructFiller(schema);
+        case LIST:
+            return new ListFiller(schema);
+        case MAP:
+            return new MapFiller(schema);
+        case UNION:
+            return new UnionFiller(schema);
+        default:
+            throw new IllegalArgumentException("Unhandled type " + schema);
+        }
+    }
+
+    private abstract class Filler {
+        // Parse the next value of the message into a row of a column.
+        abstract void fill(ColumnVector vector, int row);
+    }
+
+    private class LongFiller extends Filler {
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+            } else if (b == '"') {
+                readString();
+                ((LongColumnVector) vector).vector[row] = Long.parseLong(sliceToString());
+            } else if (isNumberStart(b)) {
+                ((LongColumnVector) vector).vector[row] = readLong();
+            } else {
+                throw typeError("a number");
+            }
+        }
+    }
+
+    private class DoubleFiller extends Filler {
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+            } else if (b == '"') {
+                readString();
+                ((DoubleColumnVector) vector).vector[row] = Double.parseDouble(sliceToString());
+            } else if (isNumberStart(b)) {
+                readNumber();
+                ((DoubleColumnVector) vector).vector[row] = Double.parseDouble(sliceToString());
+            } else {
+                throw typeError("a number");
+            }
+        }
+    }
+
+    private class BooleanFiller extends Filler {
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+            } else if (b == 't') {
+                readLiteral(TRUE);
+                ((LongColumnVector) vector).vector[row] = 1;
+            } else if (b == 'f') {
+                readLiteral(FALSE);
+                ((LongColumnVector) vector).vector[row] = 0;
+            } else if (b == '"') {
+                readString();
+                ((LongColumnVector) vector).vector[row] = Boolean.parseBoolean(sliceToString()) ? 1 : 0;
+            } else if (isNumberStart(b)) {
+                readNumber();
+                ((LongColumnVector) vector).vector[row] = 0;
+            } else {
+                throw typeError("a boolean");
+            }
+        }
+    }
+
+    private class StringFiller extends Filler {
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+                return;
+            }
+            if (b == '"') {
+                readString();
+            } else {
+                // Numbers and literals keep their text, objects and arrays their JSON.
+                int start = mPos;
+                skipValue();
+                slice(mBuf, start, mPos - start);
+            }
+            ((BytesColumnVector) vector).setRef(row, mSliceBuf, mSliceStart, mSliceLength);
+        }
+    }
+
+    private class BinaryFiller extends Filler {
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+                return;
+            }
+            if (b != '"') {
+                throw typeError("a hex string");
+            }
+            readString();
+            byte[] bytes = new byte[mSliceLength / 2];
+            for (int i = 0; i < bytes.length; ++i) {
+                int offset = mSliceStart + i * 2;
+                bytes[i] = (byte) ((hexDigit(mSliceBuf[offset]) << 4) | hexDigit(mSliceBuf[offset + 1]));
+            }
+            ((BytesColumnVector) vector).setRef(row, bytes, 0, bytes.length);
+        }
+    }
+
+    private class DecimalFiller extends Filler {
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+                return;
+            }
+            if (b == '"') {
+                readString();
+            } else if (isNumberStart(b)) {
+                readNumber();
+            } else {
+                throw typeError("a number");
+            }
+            ((DecimalColumnVector) vector).vector[row].set(HiveDecimal.create(sliceToString()));
+        }
+    }
+
+    private class TimestampFiller extends Filler {
+        private final BackOffUtil mBackOff = new BackOffUtil(true);
+
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+            } else if (b == '"') {
+                readString();
+                String value = sliceToString().replace('T', ' ').replace('Z', ' ');
+                ((TimestampColumnVector) vector).set(row, Timestamp.valueOf(value));
+            } else if (isNumberStart(b)) {
+                ((TimestampColumnVector) vector).set(row, new Timestamp(readLong()));
+            } else {
+                int start = mPos;
+                skipValue();
+                if (!mBackOff.isBackOff()) {
+                    LOG.warn("Timestamp is neither string nor number: {}",
+                        new String(mBuf, start, mPos - start, StandardCharsets.UTF_8));
+                }
+                setNull(vector, row);
+            }
+        }
+    }
+
+    private class StructFiller extends Filler {
+        private final Filler[] mFields;
+        private final FieldTable mFieldTable;
+        private final boolean[] mSeen;
+
+        StructFiller(TypeDescription schema) {
+            List<TypeDescription> fieldTypes = schema.getChildren();
+            mFields = new Filler[fieldTypes.size()];
+            for (int i = 0; i < mFields.length; ++i) {
+                mFields[i] = createFiller(fieldTypes.get(i));
+            }
+            mFieldTable = new FieldTable(schema.getFieldNames());
+            mSeen = new boolean[mFields.length];
+        }
+
+        void fill(ColumnVector vector, int row) {
+            if (peek() == 'n') {
+                readNull(vector, row);
+            } else {
+                fillFields(((StructColumnVector) vector).fields, row);
+            }
+        }
+
+        void fillFields(ColumnVector[] fields, int row) {
+            if (peek() != '{') {
+                throw typeError("an object");
+            }
+            mPos++;
+            Arrays.fill(mSeen, false);
+            if (!consume('}')) {
+                do {
+                    readString();
+                    int field = mFieldTable.get(mSliceBuf, mSliceStart, mSliceLength);
+                    expect(':');
+                    if (field < 0) {
+                        skipValue();
+                    } else {
+                        mSeen[field] = true;
+                        mFields[field].fill(fields[field], row);
+                    }
+                } while (consume(','));
+                expect('}');
+            }
+            for (int i = 0; i < mFields.length; ++i) {
+                if (!mSeen[i]) {
+                    setNull(fields[i], row);
+                }
+            }
+        }
+    }
+
+    private class ListFiller extends Filler {
+        private final Filler mChild;
+
+        ListFiller(TypeDescription schema) {
+            mChild = createFiller(schema.getChildren().get(0));
+        }
+
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+                return;
+            }
+            if (b != '[') {
+                throw typeError("an array");
+            }
+            mPos++;
+            ListColumnVector list = (ListColumnVector) vector;
+            int offset = list.childCount;
+            list.offsets[row] = offset;
+            if (!consume(']')) {
+                do {
+                    int childRow = list.childCount++;
+                    ensureSize(list.child, list.childCount);
+                    mChild.fill(list.child, childRow);
+                } while (consume(','));
+                expect(']');
+            }
+            list.lengths[row] = list.childCount - offset;
+        }
+    }
+
+    private class MapFiller extends Filler {
+        private final Filler mKey;
+        private final Filler mValue;
+
+        MapFiller(TypeDescription schema) {
+            // Keys are JSON strings, converted as string values of the key type.
+            mKey = createFiller(schema.getChildren().get(0));
+            mValue = createFiller(schema.getChildren().get(1));
+        }
+
+        void fill(ColumnVector vector, int row) {
+            byte b = peek();
+            if (b == 'n') {
+                readNull(vector, row);
+                return;
+            }
+            if (b != '{') {
+                throw typeError("an object");
+            }
+            mPos++;
+            MapColumnVector map = (MapColumnVector) vector;
+            int offset = map.childCount;
+            map.offsets[row] = offset;
+            if (!consume('}')) {
+                do {
+                    int childRow = map.childCount++;
+                    ensureSize(map.keys, map.childCount);
+                    ensureSize(map.values, map.childCount);
+                    if (peek() != '"') {
+                        throw error("Expected an object key");
+                    }
+                    mKey.fill(map.keys, childRow);
+                    expect(':');
+                    mValue.fill(map.values, childRow);
+                } while (consume(','));
+                expect('}');
+            }
+            map.lengths[row] = map.childCount - offset;
+        }
+    }
+
+    private class UnionFiller extends Filler {
+        private final Filler[] mAlternatives;
+        // Alternative filled for each kind of JSON value, -1 if none accepts it.
+        private final int[] mTags = new int[KINDS];
+
+        UnionFiller(TypeDescription schema) {
+            List<TypeDescription> alternatives = schema.getChildren();
+            mAlternatives = new Filler[alternatives.size()];
+            for (int i = 0; i < mAlternatives.length; ++i) {
+                mAlternatives[i] = createFiller(alternatives.get(i));
+            }
+            mTags[KIND_BOOLEAN] = findTag(alternatives, TypeDescription.Category.BOOLEAN);
+            mTags[KIND_INTEGER] = findTag(alternatives, TypeDescription.Category.LONG,
+                TypeDescription.Category.INT, TypeDescription.Category.SHORT, TypeDescription.Category.BYTE,
+                TypeDescription.Category.DOUBLE, TypeDescription.Category.FLOAT,
+                TypeDescription.Category.DECIMAL, TypeDescription.Category.TIMESTAMP,
+                TypeDescription.Category.STRING, TypeDescription.Category.VARCHAR, TypeDescription.Category.CHAR);
+            mTags[KIND_FLOAT] = findTag(alternatives, TypeDescription.Category.DOUBLE,
+                TypeDescription.Category.FLOAT, TypeDescription.Category.DECIMAL,
+                TypeDescription.Category.STRING, TypeDescription.Category.VARCHAR, TypeDescription.Category.CHAR);
+            mTags[KIND_STRING] = findTag(alternatives, TypeDescription.Category.STRING,
+                TypeDescription.Category.VARCHAR, TypeDescription.Category.CHAR,
+                TypeDescription.Category.TIMESTAMP, TypeDescription.Category.DECIMAL, TypeDescription.Category.BINARY);
+            mTags[KIND_OBJECT] = findTag(alternatives, TypeDescription.Category.STRUCT,
+                TypeDescription.Category.MAP,
+                TypeDescription.Category.STRING, TypeDescription.Category.VARCHAR, TypeDescription.Category.CHAR);
+            mTags[KIND_ARRAY] = findTag(alternatives, TypeDescription.Category.LIST,
+                TypeDescription.Category.STRING, TypeDescription.Category.VARCHAR, TypeDescription.Category.CHAR);
+        }
+
+        void fill(ColumnVector vector, int row) {
+            int kind = peekKind();
+            if (kind < 0) {
+                readNull(vector, row);
+                return;
+            }
+            int tag = mTags[kind];
+            if (tag < 0) {
+                throw typeError("a value matching the union alternatives");
+            }
+            UnionColumnVector union = (UnionColumnVector) vector;
+            union.tags[row] = tag;
+            mAlternatives[tag].fill(union.fields[tag], row);
+        }
+    }
+
+    // First alternative of one of the categories, in order of preference.
+    private static int findTag(List<TypeDescription> alternatives, TypeDescription.Category... categories) {
+        for (TypeDescription.Category category : categories) {
+            for (int i = 0; i < alternatives.size(); ++i) {
+                if (alternatives.get(i).getCategory() == category) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Open addressing table from UTF-8 encoded field names to field indexes.
+     */
+    private static class FieldTable {
+        private final byte[][] mNames;
+        private final int[] mFields;
+        private final int mMask;
+
+        FieldTable(List<String> names) {
+            int capacity = Integer.highestOneBit(Math.max(names.size(), 1) * 4 - 1) << 1;
+            mNames = new byte[capacity][];
+            mFields = new int[capacity];
+            mMask = capacity - 1;
+            for (int field = 0; field < names.size(); ++field) {
+                byte[] name = names.get(field).getBytes(StandardCharsets.UTF_8);
+                int slot = hash(name, 0, name.length) & mMask;
+                while (mNames[slot] != null) {
+                    slot = (slot + 1) & mMask;
+                }
+                mNames[slot] = name;
+                mFields[slot] = field;
+            }
+        }
+
+        int get(byte[] buf, int start, int length) {
+            int slot = hash(buf, start, length) & mMask;
+            while (mNames[slot] != null) {
+                byte[] name = mNames[slot];
+                if (name.length == length && regionMatches(name, buf, start)) {
+                    return mFields[slot];
+                }
+                slot = (slot + 1) & mMask;
+            }
+            return -1;
+        }
+
+        private static boolean regionMatches(byte[] name, byte[] buf, int start) {
+            for (int i = 0; i < name.length; ++i) {
+                if (name[i] != buf[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int hash(byte[] buf, int start, int length) {
+            int hash = 0;
+            for (int i = start; i < start + length; ++i) {
+                hash = 31 * hash + buf[i];
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    private static void setNull(ColumnVector vector, int row) {
+        vector.noNulls = false;
+        vector.isNull[row] = true;
+    }
+
+    private static void ensureSize(ColumnVector vector, int size) {
+        if (vector.isNull.length < size) {
+            vector.ensureSize(Math.max(size, vector.isNull.length * 2), true);
+        }
+    }
+
+    private void readNull(ColumnVector vector, int row) {
+        readLiteral(NULL);
+        setNull(vector, row);
+    }
+
+    // @return the kind of the next value, -1 for null
+    private int peekKind() {
+        byte b = peek();
+        switch (b) {
+        case 'n':
+            return -1;
+        case 't':
+        case 'f':
+            return KIND_BOOLEAN;
+        case '"':
+            return KIND_STRING;
+        case '{':
+            return KIND_OBJECT;
+        case '[':
+            return KIND_ARRAY;
+        default:
+            if (!isNumberStart(b)) {
+                throw error("Unexpected character '" + (char) b + "'");
+            }
+            for (int i = mPos; i < mEnd && isNumberPart(mBuf[i]); ++i) {
+                if (mBuf[i] == '.' || mBuf[i] == 'e' || mBuf[i] == 'E') {
+                    return KIND_FLOAT;
+                }
+            }
+            return KIND_INTEGER;
+        }
+    }
+
+    private byte peek() {
+        while (mPos < mEnd) {
+            byte b = mBuf[mPos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b;
+            }
+            mPos++;
+        }
+        throw error("Unexpected end of message");
+    }
+
+    private boolean consume(char c) {
+        if (peek() == c) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+    private void readLiteral(byte[] literal) {
+        peek();
+        if (mEnd - mPos < literal.length) {
+            throw error("Unexpected end of message");
+        }
+        for (int i = 0; i < literal.length; ++i) {
+            if (mBuf[mPos + i] != literal[i]) {
+                throw error("Unexpected literal");
+            }
+        }
+        mPos += literal.length;
+    }
+
+    private void skipValue() {
+        byte b = peek();
+        switch (b) {
+        case '{':
+            mPos++;
+            if (!consume('}')) {
+                do {
+                    readString();
+                    expect(':');
+                    skipValue();
+                } while (consume(','));
+                expect('}');
+            }
+            break;
+        case '[':
+            mPos++;
+            if (!consume(']')) {
+                do {
+                    skipValue();
+                } while (consume(','));
+                expect(']');
+            }
+            break;
+        case '"':
+            readString();
+            break;
+        case 't':
+            readLiteral(TRUE);
+            break;
+        case 'f':
+            readLiteral(FALSE);
+            break;
+        case 'n':
+            readLiteral(NULL);
+            break;
+        default:
+            readNumber();
+        }
+    }
+
+    private void readString() {
+        if (peek() != '"') {
+            throw error("Expected a string");
+        }
+        int start = ++mPos;
+        while (mPos < mEnd) {
+            byte b = mBuf[mPos];
+            if (b == '"') {
+                slice(mBuf, start, mPos - start);
+                mPos++;
+                return;
+            }
+            if (b == '\\') {
+                readEscapedString(start);
+                return;
+            }
+            mPos++;
+        }
+        throw error("Unterminated string");
+    }
+
+    private void readEscapedString(int start) {
+        StringBuilder builder = new StringBuilder(mPos - start + 16);
+        builder.append(new String(mBuf, start, mPos - start, StandardCharsets.UTF_8));
+        while (mPos < mEnd) {
+            byte b = mBuf[mPos];
+            if (b == '"') {
+                mPos++;
+                byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+                slice(bytes, 0, bytes.length);
+                return;
+            }
+            if (b != '\\') {
+                int runStart = mPos;
+                while (mPos < mEnd && mBuf[mPos] != '"' && mBuf[mPos] != '\\') {
+                    mPos++;
+                }
+                builder.append(new String(mBuf, runStart, mPos - runStart, StandardCharsets.UTF_8));
+                continue;
+            }
+            if (mPos + 1 >= mEnd) {
+                break;
+            }
+            byte escaped = mBuf[mPos + 1];
+            mPos += 2;
+            switch (escaped) {
+            case '"':
+            case '\\':
+            case '/':
+                builder.append((char) escaped);
+                break;
+            case 'b':
+                builder.append('\b');
+                break;
+            case 'f':
+                builder.append('\f');
+                break;
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case 'u':
+                if (mEnd - mPos < 4) {
+                    throw error("Unterminated escape");
+                }
+                int c = 0;
+                for (int i = 0; i < 4; ++i) {
+                    c = (c << 4) | hexDigit(mBuf[mPos++]);
+                }
+                builder.append((char) c);
+                break;
+            default:
+                throw error("Invalid escape '\\" + (char) escaped + "'");
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private void readNumber() {
+        peek();
+        int start = mPos;
+        while (mPos < mEnd && isNumberPart(mBuf[mPos])) {
+            mPos++;
+        }
+        if (mPos == start) {
+            throw error("Expected a value");
+        }
+        slice(mBuf, start, mPos - start);
+    }
+
+    // Integers of up to 18 digits are parsed in place, others as gson does.
+    private long readLong() {
+        readNumber();
+        int i = mSliceStart;
+        int end = mSliceStart + mSliceLength;
+        boolean negative = mSliceBuf[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (end - i == 0 || end - i > 18) {
+            return new BigDecimal(sliceToString()).longValue();
+        }
+        long value = 0;
+        for (; i < end; ++i) {
+            byte b = mSliceBuf[i];
+            if (b < '0' || b > '9') {
+                return new BigDecimal(sliceToString()).longValue();
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private void slice(byte[] buf, int start, int length) {
+        mSliceBuf = buf;
+        mSliceStart = start;
+        mSliceLength = length;
+    }
+
+    private String sliceToString() {
+        return new String(mSliceBuf, mSliceStart, mSliceLength, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isNumberStart(byte b) {
+        return (b >= '0' && b <= '9') || b == '-';
+    }
+
+    private static boolean isNumberPart(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        throw error("Invalid hex digit '" + (char) b + "'");
+    }
+
+    private IllegalArgumentException typeError(String expected) {
+        return error("Expected " + expected);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + mPos + " of " +
+            new String(mBuf, 0, Math.min(mEnd, 1024), StandardCharsets.UTF_8));
+    }
+}
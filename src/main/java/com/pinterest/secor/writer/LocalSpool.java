@@ -0,0 +1,408 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.writer;
+
+import com.pinterest.secor.common.FileRegistry;
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.OffsetTracker;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.common.TopicPartition;
+import com.pinterest.secor.common.TopicPartitionGroup;
+import com.pinterest.secor.io.FileReader;
+import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.reader.MessageReader;
+import com.pinterest.secor.util.CompressionUtil;
+import com.pinterest.secor.util.FileUtil;
+import com.pinterest.secor.util.IdUtil;
+import com.pinterest.secor.util.ReflectionUtil;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local spool keeps the local files of a consumer across restarts, so that the messages written
+ * to them are not consumed again.
+ *
+ * Every secor.local.spool.checkpoint.seconds the consumer thread flushes its writers and writes a
+ * manifest listing the files of every topic partition, the number of messages in each file, and
+ * the offset of the last message consumed.  On startup, {@link #recover(SecorConfig)} loads the
+ * manifests left by the previous process.  When a consumer thread gets the first message of a
+ * recovered topic partition and that message is the first one of the recovered files, the
+ * recorded messages are copied to new files which are then appended to, and the messages up to
+ * the last recorded offset are skipped.  Otherwise the recovered files are deleted and the topic
+ * partition is consumed again from its committed offset.  Recovered files that no consumer thread
+ * has claimed after secor.max.file.age.seconds are deleted too: by then the process consuming their
+ * topic partition has uploaded its own files and committed past them.
+ *
+ * Only uncompressed files whose writers are {@link java.io.Flushable} and which hold the messages
+ * of a single Kafka partition are checkpointed.
+ */
+public class LocalSpool {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalSpool.class);
+
+    private static final String MANIFEST = "spool.manifest";
+    private static final String RECOVERED_SUFFIX = ".recovered";
+
+    // Recovered topic partitions that no consumer thread has claimed yet.
+    private static final ConcurrentHashMap<TopicPartition, RecoveredPartition> sRecovered =
+        new ConcurrentHashMap<TopicPartition, RecoveredPartition>();
+    // Time in milliseconds after which unclaimed recovered topic partitions are deleted.
+    private static volatile long sRecoveredExpiry = Long.MAX_VALUE;
+
+    private final SecorConfig mConfig;
+    private final OffsetTracker mOffsetTracker;
+    private final FileRegistry mFileRegistry;
+    private final MessageReader mMessageReader;
+    private final CompressionCodec mCodec;
+    private final String mLocalPrefix;
+    private final long mCheckpointIntervalMs;
+    private long mNextCheckpoint;
+    // Last recovered offset of adopted topic partitions, until a message past it is consumed.
+    private final HashMap<TopicPartition, Long> mAdoptedOffsets = new HashMap<TopicPartition, Long>();
+
+    public LocalSpool(SecorConfig config, OffsetTracker offsetTracker, FileRegistry fileRegistry,
+                      MessageReader messageReader) throws Exception {
+        mConfig = config;
+        mOffsetTracker = offsetTracker;
+        mFileRegistry = fileRegistry;
+        mMessageReader = messageReader;
+        if (mConfig.getCompressionCodec() != null && !mConfig.getCompressionCodec().isEmpty()) {
+            mCodec = CompressionUtil.createCompressionCodec(mConfig.getCompressionCodec());
+        } else {
+            mCodec = null;
+        }
+        mLocalPrefix = mConfig.getLocalPath() + '/' + IdUtil.getLocalMessageDir();
+        mCheckpointIntervalMs = mConfig.getLocalSpoolCheckpointSeconds() * 1000L;
+        mNextCheckpoint = System.currentTimeMillis() + mCheckpointIntervalMs;
+    }
+
+    /**
+     * @return Time in milliseconds at which the next checkpoint is due.
+     */
+    public long getNextCheckpoint() {
+        return mNextCheckpoint;
+    }
+
+    /**
+     * Flush the writers and replace the manifest of this consumer thread.
+     * @throws IOException on error
+     */
+    public void checkpoint() throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        int partitions = 0;
+        for (TopicPartitionGroup group : mFileRegistry.getTopicPartitionGroups()) {
+            if (group.getPartitions().length != 1) {
+                continue;
+            }
+            List<FileRegistry.FileState> files = mFileRegistry.flushWriters(group);
+            if (files == null) {
+                continue;
+            }
+            long lastOffset = mOffsetTracker.getLastSeenOffset(group.getTopicPartitions().get(0));
+            for (FileRegistry.FileState file : files) {
+                appendEntry(manifest, lastOffset, file);
+            }
+            partitions++;
+        }
+        Path path = new File(mLocalPrefix, MANIFEST).toPath();
+        Path tmpPath = new File(mLocalPrefix, MANIFEST + ".tmp").toPath();
+        Files.createDirectories(path.getParent());
+        Files.write(tmpPath, manifest.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mNextCheckpoint = System.currentTimeMillis() + mCheckpointIntervalMs;
+        LOG.debug("checkpointed files of {} topic partitions to {}", partitions, path);
+        if (!sRecovered.isEmpty() && System.currentTimeMillis() >= sRecoveredExpiry) {
+            expireRecovered();
+        }
+    }
+
+    private static void expireRecovered() throws IOException {
+        for (TopicPartition topicPartition : sRecovered.keySet()) {
+            RecoveredPartition recovered = sRecovered.remove(topicPartition);
+            if (recovered != null) {
+                LOG.info("Deleting unclaimed local files of topic {} partition {}",
+                        topicPartition.getTopic(), topicPartition.getPartition());
+                delete(recovered);
+            }
+        }
+    }
+
+    // Manifest entries are tab separated: topic, Kafka partition, last offset consumed,
+    // generation, file offset, extension, messages, creation time, and partitions.
+    private static void appendEntry(StringBuilder manifest, long lastOffset, FileRegistry.FileState file) {
+        LogFilePath path = file.getPath();
+        manifest.append(path.getTopic()).append('\t')
+            .append(path.getKafkaPartition()).append('\t')
+            .append(lastOffset).append('\t')
+            .append(path.getGeneration()).append('\t')
+            .append(path.getOffset()).append('\t')
+            .append(path.getExtension()).append('\t')
+            .append(file.getMessages()).append('\t')
+            .append(file.getCreationTime());
+        for (String partition : path.getPartitions()) {
+            manifest.append('\t').append(partition);
+        }
+        manifest.append('\n');
+    }
+
+    /**
+     * Check whether a message is held by recovered files.  The first message of a recovered topic
+     * partition claims its files.
+     * @param message The message consumed.
+     * @return true if the message has been recovered and must not be written again.
+     * @throws Exception on error
+     */
+    public boolean isRecovered(Message message) throws Exception {
+        if (sRecovered.isEmpty() && mAdoptedOffsets.isEmpty()) {
+            return false;
+        }
+        TopicPartition topicPartition = TopicPartition.of(message.getTopic(), message.getKafkaPartition());
+        Long adoptedOffset = mAdoptedOffsets.get(topicPartition);
+        if (adoptedOffset == null) {
+            RecoveredPartition recovered = sRecovered.remove(topicPartition);
+            if (recovered == null || !adopt(topicPartition, recovered, message.getOffset())) {
+                return false;
+            }
+            adoptedOffset = recovered.mLastOffset;
+        }
+        if (message.getOffset() <= adoptedOffset) {
+            return true;
+        }
+        mAdoptedOffsets.remove(topicPartition);
+        return false;
+    }
+
+    private boolean adopt(TopicPartition topicPartition, RecoveredPartition recovered, long offset)
+            throws Exception {
+        try {
+            if (offset != recovered.mFirstOffset) {
+                LOG.info("Not resuming topic {} partition {}: consuming from offset {} but local files " +
+                        "start at offset {}", topicPartition.getTopic(), topicPartition.getPartition(),
+                        offset, recovered.mFirstOffset);
+                return false;
+            }
+            try {
+                for (FileRegistry.FileState file : recovered.mFiles) {
+                    copy(file);
+                }
+            } catch (Exception e) {
+                LOG.warn("Failed to resume topic {} partition {} from local files",
+                        topicPartition.getTopic(), topicPartition.getPartition(), e);
+                mFileRegistry.deleteTopicPartition(topicPartition);
+                return false;
+            }
+        } finally {
+            delete(recovered);
+        }
+        mOffsetTracker.getOffsets(topicPartition).resume(offset, recovered.mLastOffset);
+        mAdoptedOffsets.put(topicPartition, recovered.mLastOffset);
+        mMessageReader.seek(topicPartition, recovered.mLastOffset + 1);
+        return true;
+    }
+
+    // Delete the files of a recovered topic partition, the directories they leave empty, and the
+    // recovered directory once no other topic partition is left in it.
+    private static void delete(RecoveredPartition recovered) throws IOException {
+        for (FileRegistry.FileState file : recovered.mFiles) {
+            FileUtil.delete(file.getPath().getLogFilePath());
+            FileUtil.delete(file.getPath().getLogFileCrcPath());
+            // Other consumer threads may be emptying the same directories, so failures are ignored.
+            for (File dir = new File(file.getPath().getLogFilePath()).getParentFile();
+                 dir != null && !dir.equals(recovered.mDir) && dir.delete();
+                 dir = dir.getParentFile()) {
+            }
+        }
+        boolean empty;
+        try (Stream<Path> paths = Files.walk(recovered.mDir.toPath())) {
+            empty = paths.noneMatch(path -> Files.isRegularFile(path) &&
+                    !path.getFileName().toString().equals(MANIFEST));
+        } catch (IOException e) {
+            // Deleted by another consumer thread.
+            return;
+        }
+        if (empty) {
+            LOG.info("Deleting recovered directory {}", recovered.mDir);
+            FileUtils.deleteQuietly(recovered.mDir);
+        }
+    }
+
+    private void copy(FileRegistry.FileState file) throws Exception {
+        LogFilePath srcPath = file.getPath();
+        LogFilePath dstPath = srcPath.withPrefix(mLocalPrefix);
+        FileWriter writer = mFileRegistry.getOrCreateWriter(dstPath, mCodec, file.getCreationTime());
+        FileReader reader = ReflectionUtil.createFileReader(mConfig.getFileReaderWriterFactory(),
+                srcPath, mCodec, mConfig);
+        long messages = 0;
+        try {
+            // Anything after the recorded messages was written after the last checkpoint.
+            KeyValue keyValue;
+            while (messages < file.getMessages() && (keyValue = reader.next()) != null) {
+                writer.write(keyValue);
+                messages++;
+            }
+        } finally {
+            reader.close();
+        }
+        if (messages < file.getMessages()) {
+            throw new IOException(srcPath.getLogFilePath() + " holds " + messages +
+                    " messages instead of " + file.getMessages());
+        }
+        mFileRegistry.updateLength(dstPath, messages);
+        LOG.info("recovered {} messages from {} to {}", messages, srcPath.getLogFilePath(),
+                dstPath.getLogFilePath());
+    }
+
+    /**
+     * Load the manifests left in secor.local.path by the previous process.  Their directories are
+     * renamed so that consumer threads of this process never write to them, and the files not
+     * listed in the manifests are deleted, as are directories with no files left.  Directories
+     * renamed on an earlier startup are deleted.
+     * @param config The secor config.
+     * @throws IOException on error
+     */
+    public static void recover(SecorConfig config) throws IOException {
+        File[] dirs = new File(config.getLocalPath()).listFiles();
+        if (dirs == null) {
+            return;
+        }
+        List<File> recoveredDirs = new ArrayList<File>();
+        for (File dir : dirs) {
+            if (dir.isDirectory() && dir.getName().endsWith(RECOVERED_SUFFIX)) {
+                LOG.info("Deleting directory {} left by an earlier recovery", dir);
+                FileUtil.delete(dir.getPath());
+            }
+        }
+        for (File dir : dirs) {
+            if (!dir.isDirectory() || dir.getName().endsWith(RECOVERED_SUFFIX) ||
+                    !new File(dir, MANIFEST).isFile()) {
+                continue;
+            }
+            File recoveredDir = new File(dir.getPath() + RECOVERED_SUFFIX);
+            if (!dir.renameTo(recoveredDir)) {
+                throw new IOException("Failed to rename " + dir + " to " + recoveredDir);
+            }
+            recoveredDirs.add(recoveredDir);
+        }
+
+        Map<TopicPartition, RecoveredPartition> partitions = new HashMap<TopicPartition, RecoveredPartition>();
+        for (File dir : recoveredDirs) {
+            try {
+                load(dir, partitions);
+            } catch (RuntimeException e) {
+                LOG.warn("Ignoring invalid manifest in {}", dir, e);
+            }
+        }
+        HashSet<String> listedPaths = new HashSet<String>();
+        for (RecoveredPartition partition : partitions.values()) {
+            for (FileRegistry.FileState file : partition.mFiles) {
+                File logFile = new File(file.getPath().getLogFilePath());
+                listedPaths.add(logFile.getPath());
+                // Checksums let readers detect data that did not make it to the disk.
+                listedPaths.add(new File(logFile.getParent(), "." + logFile.getName() + ".crc").getPath());
+            }
+        }
+        for (File dir : recoveredDirs) {
+            List<Path> files;
+            try (Stream<Path> paths = Files.walk(dir.toPath())) {
+                files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            boolean empty = true;
+            for (Path file : files) {
+                if (!listedPaths.contains(file.toString())) {
+                    Files.delete(file);
+                } else {
+                    empty = false;
+                }
+            }
+            if (empty) {
+                FileUtil.delete(dir.getPath());
+            }
+        }
+        sRecoveredExpiry = System.currentTimeMillis() + config.getMaxFileAgeSeconds() * 1000L;
+        sRecovered.putAll(partitions);
+        LOG.info("Recovered local files of {} topic partitions", partitions.size());
+    }
+
+    private static void load(File dir, Map<TopicPartition, RecoveredPartition> partitions)
+            throws IOException {
+        Map<TopicPartition, RecoveredPartition> dirPartitions = new HashMap<TopicPartition, RecoveredPartition>();
+        List<String> lines = Files.readAllLines(new File(dir, MANIFEST).toPath(), StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length < 8) {
+                throw new IllegalArgumentException("Invalid manifest entry " + line);
+            }
+            TopicPartition topicPartition = new TopicPartition(fields[0], Integer.parseInt(fields[1]));
+            LogFilePath path = new LogFilePath(dir.getPath(), fields[0],
+                    Arrays.copyOfRange(fields, 8, fields.length), Integer.parseInt(fields[3]),
+                    topicPartition.getPartition(), Long.parseLong(fields[4]), fields[5]);
+            RecoveredPartition partition = dirPartitions.get(topicPartition);
+            if (partition == null) {
+                partition = new RecoveredPartition(dir, Long.parseLong(fields[2]));
+                dirPartitions.put(topicPartition, partition);
+            }
+            partition.add(new FileRegistry.FileState(path, Long.parseLong(fields[6]),
+                    Long.parseLong(fields[7])));
+        }
+        // A topic partition moved between threads is recovered from the thread that consumed it last.
+        for (Map.Entry<TopicPartition, RecoveredPartition> entry : dirPartitions.entrySet()) {
+            RecoveredPartition partition = partitions.get(entry.getKey());
+            if (partition == null || partition.mLastOffset < entry.getValue().mLastOffset) {
+                partitions.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // Files of a topic partition listed in a manifest.
+    private static class RecoveredPartition {
+        private final File mDir;
+        private final long mLastOffset;
+        private final List<FileRegistry.FileState> mFiles = new ArrayList<FileRegistry.FileState>();
+        private long mFirstOffset = Long.MAX_VALUE;
+
+        private RecoveredPartition(File dir, long lastOffset) {
+            mDir = dir;
+            mLastOffset = lastOffset;
+        }
+
+        private void add(FileRegistry.FileState file) {
+            mFiles.add(file);
+            mFirstOffset = Math.min(mFirstOffset, file.getPath().getOffset());
+        }
+    }
+}
@@ -25,6 +25,7 @@ import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.TopicPartition;
 import com.pinterest.secor.io.FileWriter;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.RawFileWriter;
 import com.pinterest.secor.message.Message;
 import com.pinterest.secor.message.ParsedMessage;
 import com.pinterest.secor.util.CompressionUtil;
@@ -35,6 +36,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * Message writer appends Kafka messages to local log files.
@@ -52,6 +55,12 @@ public class MessageWriter {
     protected String mLocalPrefix;
     protected final int mGeneration;
 
+    // Files messages were recently written to, valid while the registry writers version is
+    // unchanged.  Lets write() find the writer without rendering a log file path per message.
+    private final HashMap<FileKey, CachedFile> mFiles = new HashMap<FileKey, CachedFile>();
+    private final FileKey mProbe = new FileKey();
+    private long mFilesVersion = -1;
+
     public MessageWriter(SecorConfig config, OffsetTracker offsetTracker,
                          FileRegistry fileRegistry) throws Exception {
         mConfig = config;
@@ -72,9 +81,10 @@ public class MessageWriter {
     }
 
     public void adjustOffset(Message message) throws IOException {
-        TopicPartition topicPartition = new TopicPartition(message.getTopic(),
-                                                           message.getKafkaPartition());
-        long lastSeenOffset = mOffsetTracker.getLastSeenOffset(topicPartition);
+        TopicPartition topicPartition = TopicPartition.of(message.getTopic(),
+                                                          message.getKafkaPartition());
+        OffsetTracker.PartitionOffsets offsets = mOffsetTracker.getOffsets(topicPartition);
+        long lastSeenOffset = offsets.getLastSeenOffset();
         if (message.getOffset() != lastSeenOffset + 1) {
             StatsUtil.incr("secor.consumer_rebalance_count." + topicPartition.getTopic());
             // There was a rebalancing event since we read the last message.
@@ -84,18 +94,104 @@ public class MessageWriter {
 
             mFileRegistry.deleteTopicPartition(topicPartition);
         }
-        mOffsetTracker.setLastSeenOffset(topicPartition, message.getOffset());
+        offsets.setLastSeenOffset(message.getOffset());
     }
 
     public void write(ParsedMessage message) throws Exception {
-        TopicPartition topicPartition = new TopicPartition(message.getTopic(),
-                                                           message.getKafkaPartition());
-        long offset = mOffsetTracker.getAdjustedCommittedOffsetCount(topicPartition);
-        LogFilePath path = new LogFilePath(mLocalPrefix, mGeneration, offset, message,
-        		mFileExtension);
-        FileWriter writer = mFileRegistry.getOrCreateWriter(path, mCodec);
-        writer.write(new KeyValue(message.getOffset(), message.getKafkaKey(), message.getPayload(), message.getTimestamp()));
+        write(message, message.getPartitions());
+    }
+
+    /**
+     * Append a message to the file of given partitions.  Writers storing messages as they are get
+     * the fields of the message directly, so callers knowing the partitions of a message need
+     * not build a {@link ParsedMessage}.
+     *
+     * @param message The message to append.
+     * @param partitions The partitions extracted from the message.
+     * @throws Exception on error
+     */
+    public void write(Message message, String[] partitions) throws Exception {
+        TopicPartition topicPartition = TopicPartition.of(message.getTopic(),
+                                                          message.getKafkaPartition());
+        long offset = mOffsetTracker.getOffsets(topicPartition).getAdjustedCommittedOffsetCount();
+        CachedFile file = getFile(topicPartition, partitions, offset);
+        if (file.mWriter instanceof RawFileWriter) {
+            ((RawFileWriter) file.mWriter).write(message.getOffset(), message.getTimestamp(),
+                    message.getKafkaKey(), message.getPayload());
+        } else {
+            file.mWriter.write(new KeyValue(message.getOffset(), message.getKafkaKey(), message.getPayload(), message.getTimestamp(),
+                    message.getDecodedPayload()));
+        }
+        long length = mFileRegistry.updateLength(file.mPath, 1);
         LOG.debug("appended message {} to file {}.  File length {}",
-                  message, path, writer.getLength());
+                  message, file.mPath, length);
+    }
+
+    private CachedFile getFile(TopicPartition topicPartition, String[] partitions, long offset)
+            throws Exception {
+        long version = mFileRegistry.getWritersVersion();
+        if (version != mFilesVersion) {
+            mFiles.clear();
+            mFilesVersion = version;
+        }
+        CachedFile file = mFiles.get(mProbe.set(topicPartition, partitions, offset));
+        if (file == null) {
+            LogFilePath path = new LogFilePath(mLocalPrefix, topicPartition.getTopic(), partitions,
+                    mGeneration, topicPartition.getPartition(), offset, mFileExtension);
+            FileWriter writer = mFileRegistry.getOrCreateWriter(path, mCodec);
+            if (mFileRegistry.getWritersVersion() != mFilesVersion) {
+                // Creating the writer closed others.
+                mFiles.clear();
+                mFilesVersion = mFileRegistry.getWritersVersion();
+            }
+            file = new CachedFile(path, writer);
+            mFiles.put(new FileKey().set(topicPartition, path.getPartitions(), offset), file);
+        }
+        return file;
+    }
+
+    private static class FileKey {
+        private TopicPartition mTopicPartition;
+        private String[] mPartitions;
+        private long mOffset;
+        private int mHashCode;
+
+        private FileKey set(TopicPartition topicPartition, String[] partitions, long offset) {
+            mTopicPartition = topicPartition;
+            mPartitions = partitions;
+            mOffset = offset;
+            int result = topicPartition.hashCode();
+            result = 31 * result + Arrays.hashCode(partitions);
+            result = 31 * result + (int) (offset ^ (offset >>> 32));
+            mHashCode = result;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileKey)) return false;
+
+            FileKey that = (FileKey) o;
+            return mHashCode == that.mHashCode &&
+                   mOffset == that.mOffset &&
+                   mTopicPartition.equals(that.mTopicPartition) &&
+                   Arrays.equals(mPartitions, that.mPartitions);
+        }
+    }
+
+    private static class CachedFile {
+        private final LogFilePath mPath;
+        private final FileWriter mWriter;
+
+        private CachedFile(LogFilePath path, FileWriter writer) {
+            mPath = path;
+            mWriter = writer;
+        }
     }
 }
@@ -121,6 +121,22 @@ public class FileRegistryTest extends TestCase {
         assertTrue(logFilePaths.contains(mLogFilePath));
     }
 
+    public void testGetOrCreateWriterClosedFile() throws Exception {
+        createWriter();
+        mRegistry.deleteWriters(mTopicPartition);
+
+        try {
+            mRegistry.getOrCreateWriter(mLogFilePath, null);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        // The closed file is neither truncated nor forgotten.
+        PowerMockito.verifyStatic();
+        FileUtil.delete(PATH);
+        assertNull(mRegistry.getWriter(mLogFilePath));
+        assertEquals(1, mRegistry.getPaths(mTopicPartition).size());
+    }
+
     public void testGetWriterShowBeNullForNewFilePaths() throws Exception {
         assertNull(mRegistry.getWriter(mLogFilePath));
     }
@@ -199,6 +215,40 @@ public class FileRegistryTest extends TestCase {
         assertTrue(mRegistry.getTopicPartitions().isEmpty());
     }
 
+    public void testEvictWriter() throws Exception {
+        PropertiesConfiguration properties = new PropertiesConfiguration();
+        properties.addProperty("secor.file.reader.writer.factory",
+                "com.pinterest.secor.io.impl.SequenceFileReaderWriterFactory");
+        properties.addProperty("secor.file.age.youngest", true);
+        properties.addProperty("secor.max.open.writers", 1);
+        mRegistry = new FileRegistry(new SecorConfig(properties));
+        FileWriter writer = createWriter();
+        assertTrue(mRegistry.pollEvictedTopicPartitions().isEmpty());
+
+        mRegistry.getOrCreateWriter(mLogFilePathGz, null);
+        Mockito.verify(writer).close();
+        assertNull(mRegistry.getWriter(mLogFilePath));
+        assertEquals(2, mRegistry.getPaths(mTopicPartition).size());
+
+        Collection<TopicPartition> evicted = mRegistry.pollEvictedTopicPartitions();
+        assertEquals(1, evicted.size());
+        assertTrue(evicted.contains(mTopicPartition));
+        assertTrue(mRegistry.pollEvictedTopicPartitions().isEmpty());
+    }
+
+    public void testLocalFileTracker() throws Exception {
+        createWriter();
+
+        LocalFileTracker tracker = mRegistry.getLocalFileTracker();
+        assertEquals(2, tracker.getFiles().size());
+        assertTrue(tracker.getFiles().contains(PATH));
+        assertTrue(tracker.getFiles().contains(CRC_PATH));
+        assertEquals(1, tracker.getTopicDirs().size());
+
+        mRegistry.deletePath(mLogFilePath);
+        assertTrue(tracker.getFiles().isEmpty());
+    }
+
     public void testDeleteTopicPartition() throws Exception {
         createWriter();
 
@@ -220,6 +270,46 @@ public class FileRegistryTest extends TestCase {
         assertEquals(123L, mRegistry.getSize(mTopicPartition));
     }
 
+    public void testUpdateLength() throws Exception {
+        FileWriter writer = createWriter();
+        Mockito.when(writer.getLength()).thenReturn(200L);
+
+        assertEquals(200L, mRegistry.updateLength(mLogFilePath));
+        assertEquals(200L, mRegistry.getSize(mTopicPartition));
+
+        mRegistry.deleteWriters(mTopicPartition);
+        assertEquals(0L, mRegistry.getSize(mTopicPartition));
+        assertEquals(0L, mRegistry.getModificationAgeSec(mTopicPartition));
+        assertEquals(1, mRegistry.getPaths(mTopicPartition).size());
+    }
+
+    public void testPeekSize() throws Exception {
+        FileWriter writer = createWriter();
+        assertEquals(123L, mRegistry.peekSize(mTopicPartition));
+
+        Mockito.when(writer.getLength()).thenReturn(200L);
+        mRegistry.updateLength(mLogFilePath);
+        assertEquals(200L, mRegistry.peekSize(mTopicPartition));
+
+        // The files of the partition are forgotten once they are deleted.
+        PowerMockito.mockStatic(FileUtil.class);
+        mRegistry.deleteTopicPartition(mTopicPartition);
+        assertEquals(0L, mRegistry.peekSize(mTopicPartition));
+        assertEquals(0L, mRegistry.peekSize(new TopicPartition("other_topic", 0)));
+    }
+
+    public void testGetWritersVersion() throws Exception {
+        createWriter();
+        long version = mRegistry.getWritersVersion();
+
+        // Reusing an open writer does not change the version.
+        createWriter();
+        assertEquals(version, mRegistry.getWritersVersion());
+
+        mRegistry.deleteWriters(mTopicPartition);
+        assertTrue(mRegistry.getWritersVersion() != version);
+    }
+
     public void testGetModificationAgeSec() throws Exception {
         PowerMockito.mockStatic(System.class);
         PowerMockito.when(System.currentTimeMillis()).thenReturn(10000L)
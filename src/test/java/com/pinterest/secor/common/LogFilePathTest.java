@@ -87,4 +87,12 @@ public class LogFilePathTest extends TestCase {
     public void testGetLogFileCrcPath() throws Exception {
         assertEquals(CRC_PATH, mLogFilePath.getLogFileCrcPath());
     }
+
+    public void testEquals() throws Exception {
+        LogFilePath logFilePath = new LogFilePath(PREFIX, PATH);
+
+        assertEquals(mLogFilePath.hashCode(), logFilePath.hashCode());
+        assertEquals(mLogFilePath, logFilePath);
+        assertFalse(mLogFilePath.equals(mLogFilePath.withPrefix("/other_parent_dir")));
+    }
 }
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class OffsetTrackerTest {
+
+    @Test
+    public void testCanonicalTopicPartition() {
+        TopicPartition topicPartition = TopicPartition.of("some_topic", 3);
+        assertSame(topicPartition, TopicPartition.of(new String("some_topic"), 3));
+        assertSame(TopicPartition.of("some_topic", 0), TopicPartition.of("some_topic", 0));
+        assertSame(topicPartition, TopicPartition.of("some_topic", 3));
+        assertNotSame(topicPartition, TopicPartition.of("some_topic", 2));
+        assertEquals(new TopicPartition("some_topic", 3), topicPartition);
+        assertEquals(new TopicPartition("some_topic", 3).hashCode(), topicPartition.hashCode());
+    }
+
+    @Test
+    public void testOffsets() {
+        OffsetTracker offsetTracker = new OffsetTracker();
+        TopicPartition topicPartition = TopicPartition.of("some_topic", 0);
+        OffsetTracker.PartitionOffsets offsets = offsetTracker.getOffsets(topicPartition);
+        assertSame(offsets, offsetTracker.getOffsets(new TopicPartition("some_topic", 0)));
+
+        assertEquals(-2L, offsets.getLastSeenOffset());
+        assertEquals(-1L, offsets.getTrueCommittedOffsetCount());
+        assertEquals(-1L, offsets.getAdjustedCommittedOffsetCount());
+
+        assertEquals(-2L, offsets.setLastSeenOffset(10L));
+        assertEquals(10L, offsets.setLastSeenOffset(11L));
+        assertEquals(11L, offsetTracker.getLastSeenOffset(topicPartition));
+        // Files start at the first seen offset until an offset is committed.
+        assertEquals(10L, offsets.getAdjustedCommittedOffsetCount());
+
+        assertEquals(-1L, offsetTracker.setCommittedOffsetCount(topicPartition, 5L));
+        assertEquals(5L, offsets.getAdjustedCommittedOffsetCount());
+
+        offsetTracker.setSealedOffsetCount(topicPartition, 12L);
+        assertEquals(5L, offsets.getTrueCommittedOffsetCount());
+        assertEquals(12L, offsets.getAdjustedCommittedOffsetCount());
+        assertEquals(5L, offsetTracker.setCommittedOffsetCount(topicPartition, 12L));
+        assertEquals(12L, offsetTracker.getAdjustedCommittedOffsetCount(topicPartition));
+
+        // Other partitions are independent.
+        TopicPartition otherTopicPartition = TopicPartition.of("some_topic", 1);
+        assertEquals(-2L, offsetTracker.getLastSeenOffset(otherTopicPartition));
+        assertEquals(12L, offsetTracker.getTrueCommittedOffsetCount(topicPartition));
+    }
+}
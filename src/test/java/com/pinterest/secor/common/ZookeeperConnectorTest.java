@@ -18,15 +18,165 @@
  */
 package com.pinterest.secor.common;
 
+import com.twitter.common.zookeeper.ZooKeeperClient;
 import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class ZookeeperConnectorTest {
+    private static final String OFFSET_PATH = "/consumers/secor_cg/offsets/some_topic/0";
+    private static final String OTHER_OFFSET_PATH = "/consumers/secor_cg/offsets/some_topic/1";
+
+    private TopicPartition mTopicPartition;
+    private TopicPartition mOtherTopicPartition;
+    private ZooKeeper mZookeeper;
+    private ZookeeperConnector mZookeeperConnector;
 
     @Before
     public void setUp() throws Exception {
+        mTopicPartition = new TopicPartition("some_topic", 0);
+        mOtherTopicPartition = new TopicPartition("some_topic", 1);
+        mZookeeper = Mockito.mock(ZooKeeper.class);
+        ZooKeeperClient zookeeperClient = Mockito.mock(ZooKeeperClient.class);
+        Mockito.when(zookeeperClient.get()).thenReturn(mZookeeper);
+        mZookeeperConnector = createZookeeperConnector("/");
+        mZookeeperConnector.setZookeeperClient(zookeeperClient);
+    }
+
+    private static ZookeeperConnector createZookeeperConnector(String zookeeperPath) {
+        ZookeeperConnector zookeeperConnector = new ZookeeperConnector();
+        PropertiesConfiguration properties = new PropertiesConfiguration();
+        properties.setProperty("kafka.zookeeper.path", zookeeperPath);
+        properties.setProperty("secor.kafka.group", "secor_cg");
+        zookeeperConnector.setConfig(new SecorConfig(properties));
+        return zookeeperConnector;
+    }
+
+    private Watcher getOffsetWatcher() throws Exception {
+        ArgumentCaptor<Watcher> watcher = ArgumentCaptor.forClass(Watcher.class);
+        Mockito.verify(mZookeeper, Mockito.atLeastOnce()).getData(Mockito.eq(OFFSET_PATH), watcher.capture(),
+            (Stat) Mockito.isNull());
+        return watcher.getValue();
+    }
+
+    @Test
+    public void testCachedCommittedOffsetCount() throws Exception {
+        Mockito.when(mZookeeper.getData(Mockito.eq(OFFSET_PATH), Mockito.any(Watcher.class),
+            (Stat) Mockito.isNull())).thenReturn("5".getBytes(), "6".getBytes(), "7".getBytes());
+
+        Assert.assertEquals(5L, mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition));
+        Assert.assertEquals(5L, mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition));
+        Watcher watcher = getOffsetWatcher();
+
+        // The watch of the offset fires.
+        watcher.process(new WatchedEvent(Watcher.Event.EventType.NodeDataChanged,
+            Watcher.Event.KeeperState.SyncConnected, OFFSET_PATH));
+        Assert.assertEquals(6L, mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition));
+
+        // Watches may have been lost with the connection, so every cached offset is dropped.
+        watcher.process(new WatchedEvent(Watcher.Event.EventType.None,
+            Watcher.Event.KeeperState.Disconnected, null));
+        Assert.assertEquals(7L, mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition));
+        Mockito.verify(mZookeeper, Mockito.times(3)).getData(Mockito.eq(OFFSET_PATH),
+            Mockito.any(Watcher.class), (Stat) Mockito.isNull());
+    }
+
+    @Test
+    public void testCachedCommittedOffsetCountInvalidatedWhileRead() throws Exception {
+        Mockito.when(mZookeeper.getData(Mockito.eq(OFFSET_PATH), Mockito.any(Watcher.class),
+            (Stat) Mockito.isNull())).thenAnswer(new Answer<byte[]>() {
+                private int mReads;
+
+                @Override
+                public byte[] answer(InvocationOnMock invocation) {
+                    if (mReads++ == 0) {
+                        // The offset changes after it has been read, before it is cached.
+                        Watcher watcher = (Watcher) invocation.getArguments()[1];
+                        watcher.process(new WatchedEvent(Watcher.Event.EventType.NodeDataChanged,
+                            Watcher.Event.KeeperState.SyncConnected, OFFSET_PATH));
+                        return "5".getBytes();
+                    }
+                    return "6".getBytes();
+                }
+            });
+
+        Assert.assertEquals(5L, mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition));
+        // The stale value has not been cached.
+        Assert.assertEquals(6L, mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition));
+        Assert.assertEquals(6L, mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition));
+        Mockito.verify(mZookeeper, Mockito.times(2)).getData(Mockito.eq(OFFSET_PATH),
+            Mockito.any(Watcher.class), (Stat) Mockito.isNull());
+    }
+
+    // Complete the asynchronous write of an offset with a result code.
+    private void answerSetData(String path, final KeeperException.Code code) {
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Object[] arguments = invocation.getArguments();
+                ((AsyncCallback.StatCallback) arguments[3]).processResult(code.intValue(),
+                    (String) arguments[0], arguments[4], null);
+                return null;
+            }
+        }).when(mZookeeper).setData(Mockito.eq(path), Mockito.any(byte[].class), Mockito.eq(-1),
+            Mockito.any(AsyncCallback.StatCallback.class), Mockito.anyObject());
+    }
+
+    private Map<TopicPartition, Long> getCounts() {
+        Map<TopicPartition, Long> counts = new LinkedHashMap<TopicPartition, Long>();
+        counts.put(mTopicPartition, 21L);
+        counts.put(mOtherTopicPartition, 31L);
+        return counts;
+    }
+
+    @Test
+    public void testSetCommittedOffsetCountsCreatesMissingOffsets() throws Exception {
+        answerSetData(OFFSET_PATH, KeeperException.Code.OK);
+        answerSetData(OTHER_OFFSET_PATH, KeeperException.Code.NONODE);
+
+        mZookeeperConnector.setCommittedOffsetCounts(getCounts());
+
+        // Only the missing offset is created, with its parents.
+        Mockito.verify(mZookeeper).create("/consumers/secor_cg/offsets/some_topic", null,
+            ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        Mockito.verify(mZookeeper).create(Mockito.eq(OTHER_OFFSET_PATH), Mockito.aryEq("31".getBytes()),
+            Mockito.eq(ZooDefs.Ids.OPEN_ACL_UNSAFE), Mockito.eq(CreateMode.PERSISTENT));
+        Mockito.verify(mZookeeper, Mockito.never()).create(Mockito.eq(OFFSET_PATH), Mockito.any(byte[].class),
+            Mockito.eq(ZooDefs.Ids.OPEN_ACL_UNSAFE), Mockito.eq(CreateMode.PERSISTENT));
+    }
+
+    @Test
+    public void testSetCommittedOffsetCountsError() throws Exception {
+        answerSetData(OFFSET_PATH, KeeperException.Code.OK);
+        answerSetData(OTHER_OFFSET_PATH, KeeperException.Code.CONNECTIONLOSS);
+
+        try {
+            mZookeeperConnector.setCommittedOffsetCounts(getCounts());
+            Assert.fail("The failed write was not reported");
+        } catch (KeeperException.ConnectionLossException e) {
+            Assert.assertEquals(OTHER_OFFSET_PATH, e.getPath());
+        }
+        // Both writes were sent before waiting for either.
+        Mockito.verify(mZookeeper).setData(Mockito.eq(OFFSET_PATH), Mockito.aryEq("21".getBytes()),
+            Mockito.eq(-1), Mockito.any(AsyncCallback.StatCallback.class), Mockito.anyObject());
+        Mockito.verify(mZookeeper).setData(Mockito.eq(OTHER_OFFSET_PATH), Mockito.aryEq("31".getBytes()),
+            Mockito.eq(-1), Mockito.any(AsyncCallback.StatCallback.class), Mockito.anyObject());
     }
 
     @Test
@@ -37,12 +187,7 @@ public class ZookeeperConnectorTest {
     }
 
     protected void verify(String zookeeperPath, String expectedOffsetPath) {
-        ZookeeperConnector zookeeperConnector = new ZookeeperConnector();
-        PropertiesConfiguration properties = new PropertiesConfiguration();
-        properties.setProperty("kafka.zookeeper.path", zookeeperPath);
-        properties.setProperty("secor.kafka.group", "secor_cg");
-        SecorConfig secorConfig = new SecorConfig(properties);
-        zookeeperConnector.setConfig(secorConfig);
+        ZookeeperConnector zookeeperConnector = createZookeeperConnector(zookeeperPath);
         Assert.assertEquals(expectedOffsetPath, zookeeperConnector.getCommittedOffsetGroupPath());
     }
 }
\ No newline at end of file
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.consumer;
+
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.message.ParsedMessage;
+import com.pinterest.secor.monitoring.MetricCollector;
+import com.pinterest.secor.parser.MessageParser;
+import com.pinterest.secor.transformer.IdentityMessageTransformer;
+import com.pinterest.secor.uploader.Uploader;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedConsumerTest {
+    private static final Queue<String> sParserThreads = new ConcurrentLinkedQueue<String>();
+
+    private SecorConfig mConfig;
+    private Uploader mUploader;
+    private MetricCollector mMetricCollector;
+
+    // Parses earlier messages more slowly, so that they are parsed out of order.
+    public static class SlowParser extends MessageParser {
+        public SlowParser(SecorConfig config) {
+            super(config);
+        }
+
+        @Override
+        public String[] extractPartitions(Message message) throws Exception {
+            sParserThreads.add(Thread.currentThread().getName());
+            if ("unparsable".equals(new String(message.getPayload(), StandardCharsets.UTF_8))) {
+                throw new RuntimeException("Unparsable message");
+            }
+            Thread.sleep(Math.max(0, 20 - 2 * message.getOffset()));
+            return new String[]{"part-1"};
+        }
+    }
+
+    // Consumes queued messages and records the offsets adjusted and written.
+    private static class TestConsumer extends PipelinedConsumer {
+        private final ArrayDeque<Message> mMessages = new ArrayDeque<Message>();
+        private final List<String> mEvents = new ArrayList<String>();
+        private long mFailingOffset = -1;
+        private long mCommittedOffsetCount = -1;
+
+        private TestConsumer(SecorConfig config) {
+            super(config);
+            setName("test-consumer");
+        }
+
+        @Override
+        protected void init() {
+            initParsers();
+        }
+
+        @Override
+        protected boolean hasNextMessage() {
+            return !mMessages.isEmpty();
+        }
+
+        @Override
+        protected Message nextMessage() {
+            return mMessages.poll();
+        }
+
+        @Override
+        protected boolean isCommitted(Message rawMessage) {
+            return rawMessage.getOffset() < mCommittedOffsetCount;
+        }
+
+        @Override
+        protected void adjustOffset(Message rawMessage) {
+            mEvents.add("adjust " + rawMessage.getOffset());
+        }
+
+        @Override
+        protected void writeMessage(Message rawMessage, ParsedMessage parsedMessage) {
+            if (rawMessage.getOffset() == mFailingOffset) {
+                throw new RuntimeException("Failed to write message " + rawMessage);
+            }
+            mEvents.add("write " + rawMessage.getOffset());
+        }
+
+        @Override
+        protected void writeMessage(Message rawMessage, Message message, String[] partitions) {
+            mEvents.add("write raw " + message.getOffset() + " " + Arrays.toString(partitions));
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        sParserThreads.clear();
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getMessageTransformerClass()).thenReturn(IdentityMessageTransformer.class.getName());
+        Mockito.when(mConfig.getMessageParserClass()).thenReturn(SlowParser.class.getName());
+        Mockito.when(mConfig.getConsumerParserThreads()).thenReturn(4);
+        Mockito.when(mConfig.getConsumerParserQueueSize()).thenReturn(3);
+        Mockito.when(mConfig.getMessagesPerSecond()).thenReturn(1);
+        mUploader = Mockito.mock(Uploader.class);
+        mMetricCollector = Mockito.mock(MetricCollector.class);
+    }
+
+    private TestConsumer createConsumer(String... payloads) {
+        TestConsumer consumer = new TestConsumer(mConfig);
+        consumer.mUploader = mUploader;
+        consumer.mMetricCollector = mMetricCollector;
+        for (int offset = 0; offset < payloads.length; ++offset) {
+            consumer.mMessages.add(new Message("test-topic", 1, offset, null,
+                payloads[offset].getBytes(StandardCharsets.UTF_8), 0));
+        }
+        return consumer;
+    }
+
+    private static List<String> events(String... events) {
+        return Arrays.asList(events);
+    }
+
+    @Test
+    public void testWritesInPollOrder() throws Exception {
+        TestConsumer consumer = createConsumer("a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+        consumer.initParsers();
+        while (consumer.consumeNextMessage()) {
+        }
+
+        List<String> expected = new ArrayList<String>();
+        for (int offset = 0; offset < 10; ++offset) {
+            expected.add("adjust " + offset);
+            expected.add("write " + offset);
+        }
+        assertEquals(expected, consumer.mEvents);
+        assertEquals(10, sParserThreads.size());
+        for (String thread : sParserThreads) {
+            assertTrue(thread, thread.startsWith("test-consumer-parser-"));
+        }
+    }
+
+    @Test
+    public void testUnparsableMessage() throws Exception {
+        TestConsumer consumer = createConsumer("a", "unparsable", "c");
+        consumer.initParsers();
+        while (consumer.consumeNextMessage()) {
+        }
+
+        assertEquals(events("adjust 0", "write 0", "adjust 1", "adjust 2", "write 2"), consumer.mEvents);
+        assertEquals(1., consumer.mUnparsableMessages, 0.01);
+        Mockito.verify(mMetricCollector).increment("consumer.message_errors.count", "test-topic");
+    }
+
+    @Test
+    public void testSkipsCommittedMessages() throws Exception {
+        TestConsumer consumer = createConsumer("a", "b", "c", "d");
+        // Committed after the messages were polled.
+        consumer.mCommittedOffsetCount = 2;
+        consumer.initParsers();
+        while (consumer.consumeNextMessage()) {
+        }
+
+        assertEquals(events("adjust 2", "write 2", "adjust 3", "write 3"), consumer.mEvents);
+    }
+
+    @Test
+    public void testWritesRawMessages() throws Exception {
+        TestConsumer consumer = createConsumer("a", "b");
+        consumer.mWriteRawMessages = true;
+        consumer.initParsers();
+        while (consumer.consumeNextMessage()) {
+        }
+
+        assertEquals(events("adjust 0", "write raw 0 [part-1]", "adjust 1", "write raw 1 [part-1]"),
+            consumer.mEvents);
+    }
+
+    @Test
+    public void testForcedUploadWritesPendingMessages() throws Exception {
+        final TestConsumer consumer = createConsumer("a", "b", "c", "d");
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                consumer.mEvents.add("upload");
+                return null;
+            }
+        }).when(mUploader).applyPolicy(true);
+        consumer.initParsers();
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(consumer.consumeNextMessage());
+        }
+
+        // Messages still being parsed are written before the upload.
+        consumer.checkUploadPolicy(true);
+        assertEquals(events("adjust 0", "write 0", "adjust 1", "write 1", "adjust 2", "write 2",
+            "adjust 3", "write 3", "upload"), consumer.mEvents);
+    }
+
+    @Test
+    public void testWriteErrorStopsParsers() throws Exception {
+        TestConsumer consumer = createConsumer("a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+        consumer.mFailingOffset = 5;
+        try {
+            consumer.run();
+            fail("The write error was not propagated");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Failed to write message"));
+        }
+
+        assertEquals(events("adjust 0", "write 0", "adjust 1", "write 1", "adjust 2", "write 2",
+            "adjust 3", "write 3", "adjust 4", "write 4", "adjust 5"), consumer.mEvents);
+        Mockito.verify(mUploader, Mockito.never()).applyPolicy(true);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (hasParserThreads() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(hasParserThreads());
+    }
+
+    private static boolean hasParserThreads() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("test-consumer-parser-") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
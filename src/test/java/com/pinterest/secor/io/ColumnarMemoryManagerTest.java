@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io;
+
+import com.pinterest.secor.common.SecorConfig;
+import org.apache.hadoop.fs.Path;
+import org.apache.orc.MemoryManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnarMemoryManagerTest {
+    private static final int MB = 1024 * 1024;
+
+    private ColumnarMemoryManager mManager;
+
+    @Before
+    public void setUp() throws Exception {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getColumnarMemoryBytes()).thenReturn(100L * MB);
+        mManager = new ColumnarMemoryManager(config);
+    }
+
+    @Test
+    public void testParquetRowGroupSize() throws Exception {
+        Object first = new Object();
+        Object second = new Object();
+        assertEquals(64 * MB, mManager.addParquetWriter(first, "topic", 64 * MB));
+        // 128MB reserved for a 100MB budget.
+        assertEquals(50 * MB, mManager.addParquetWriter(second, "topic", 64 * MB));
+
+        mManager.removeParquetWriter(second);
+        assertEquals(50 * MB, mManager.addParquetWriter(second, "topic", 64 * MB));
+        mManager.removeParquetWriter(second);
+        mManager.removeParquetWriter(first);
+        assertEquals(64 * MB, mManager.addParquetWriter(first, "topic", 64 * MB));
+    }
+
+    @Test
+    public void testParquetMinRowGroupSize() throws Exception {
+        mManager.addParquetWriter(new Object(), "topic", 1000 * MB);
+        assertEquals(MB, mManager.addParquetWriter(new Object(), "topic", 5 * MB));
+        assertEquals(1000, mManager.addParquetWriter(new Object(), "topic", 1000));
+    }
+
+    @Test
+    public void testOrcWriters() throws Exception {
+        MemoryManager orcManager = mManager.getOrcMemoryManager("topic");
+        MemoryManager.Callback first = Mockito.mock(MemoryManager.Callback.class);
+        MemoryManager.Callback second = Mockito.mock(MemoryManager.Callback.class);
+        orcManager.addWriter(new Path("/first"), 100 * MB, first);
+
+        orcManager.addedRow(4999);
+        Mockito.verify(first, Mockito.never()).checkMemory(Mockito.anyDouble());
+        orcManager.addedRow(1);
+        Mockito.verify(first).checkMemory(1.0);
+
+        orcManager.addWriter(new Path("/second"), 300 * MB, second);
+        orcManager.addedRow(5000);
+        Mockito.verify(first).checkMemory(0.25);
+        Mockito.verify(second).checkMemory(0.25);
+
+        orcManager.removeWriter(new Path("/second"));
+        orcManager.addedRow(5000);
+        Mockito.verify(first, Mockito.times(2)).checkMemory(1.0);
+        Mockito.verifyNoMoreInteractions(second);
+    }
+}
@@ -35,6 +35,7 @@ import org.apache.avro.io.Encoder;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.parquet.hadoop.ParquetWriter;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
@@ -78,6 +79,18 @@ public class AvroParquetFileReaderWriterFactoryTest extends TestCase {
 
         config = Mockito.mock(SecorConfig.class);
         when(config.getSchemaRegistryUrl()).thenReturn("");
+        when(config.getInt("parquet.block.size", ParquetWriter.DEFAULT_BLOCK_SIZE))
+                .thenReturn(ParquetWriter.DEFAULT_BLOCK_SIZE);
+        when(config.getInt("parquet.page.size", ParquetWriter.DEFAULT_PAGE_SIZE))
+                .thenReturn(ParquetWriter.DEFAULT_PAGE_SIZE);
+        when(config.getInt("parquet.dictionary.page.size", ParquetWriter.DEFAULT_PAGE_SIZE))
+                .thenReturn(ParquetWriter.DEFAULT_PAGE_SIZE);
+        when(config.getBoolean("parquet.enable.dictionary", ParquetWriter.DEFAULT_IS_DICTIONARY_ENABLED))
+                .thenReturn(ParquetWriter.DEFAULT_IS_DICTIONARY_ENABLED);
+        when(config.getBoolean("parquet.validation", ParquetWriter.DEFAULT_IS_VALIDATING_ENABLED))
+                .thenReturn(ParquetWriter.DEFAULT_IS_VALIDATING_ENABLED);
+        when(config.getString("parquet.writer.version", null))
+                .thenReturn(ParquetWriter.DEFAULT_WRITER_VERSION.getShortName());
         secorSchemaRegistryClient = Mockito.mock(SecorSchemaRegistryClient.class);
         when(secorSchemaRegistryClient.getSchema(anyString())).thenReturn(schema);
         mFactory = new AvroParquetFileReaderWriterFactory(config);
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io.impl;
+
+import com.google.common.io.Files;
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.IndexedFileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.SeekableFileReader;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.EOFException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DelimitedTextFileReaderWriterFactoryTest {
+    private static byte[] message(int offset) {
+        // Lengths around a multiple of the word size.
+        byte[] message = new byte[offset % 19];
+        for (int i = 0; i < message.length; ++i) {
+            message[i] = (byte) ('a' + offset % 26);
+        }
+        return message;
+    }
+
+    @Test
+    public void testMappedRead() throws Exception {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getFileIndexIntervalBytes()).thenReturn(100L);
+        DelimitedTextFileReaderWriterFactory factory = new DelimitedTextFileReaderWriterFactory(config);
+        LogFilePath path = new LogFilePath(Files.createTempDir().toString(), "test-topic",
+                new String[]{"part-1"}, 0, 1, 10, ".log");
+        IndexedFileWriter writer = (IndexedFileWriter) factory.BuildFileWriter(path, null);
+        for (int offset = 10; offset < 110; ++offset) {
+            writer.write(new KeyValue(offset, message(offset)));
+        }
+        writer.close();
+
+        SeekableFileReader reader = factory.BuildMappedFileReader(path, null, null);
+        for (int offset = 10; offset < 110; ++offset) {
+            KeyValue keyValue = reader.next();
+            assertEquals(offset, keyValue.getOffset());
+            assertArrayEquals(message(offset), keyValue.getValue());
+        }
+        assertNull(reader.next());
+        reader.close();
+
+        reader = factory.BuildMappedFileReader(path, null, writer.getOffsetIndex());
+        reader.seek(47);
+        assertEquals(47, reader.skip());
+        reader.seek(100);
+        assertArrayEquals(message(100), reader.next().getValue());
+        reader.seek(110);
+        assertEquals(-1, reader.skip());
+        reader.close();
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getFileIndexIntervalBytes()).thenReturn(100L);
+        DelimitedTextFileReaderWriterFactory factory = new DelimitedTextFileReaderWriterFactory(config);
+        String dir = Files.createTempDir().toString();
+        LogFilePath srcPath = new LogFilePath(dir, "test-topic", new String[]{"part-1"}, 0, 1, 10, ".log");
+        IndexedFileWriter srcWriter = (IndexedFileWriter) factory.BuildFileWriter(srcPath, null);
+        for (int offset = 10; offset < 110; ++offset) {
+            srcWriter.write(new KeyValue(offset, message(offset)));
+        }
+        srcWriter.close();
+        OffsetIndex index = srcWriter.getOffsetIndex();
+        assertEquals(52, index.getOffset(index.floorEntry(59)));
+
+        // Start in the middle of an index entry, skipping the empty message at offset 57.
+        LogFilePath dstPath = new LogFilePath(dir, "test-topic", new String[]{"part-1"}, 0, 1, 59, ".log");
+        IndexedFileWriter dstWriter = (IndexedFileWriter) factory.BuildFileWriter(dstPath, null);
+        dstWriter.append(srcPath, index, 59);
+        dstWriter.write(new KeyValue(110, message(110)));
+        dstWriter.close();
+        OffsetIndex dstIndex = dstWriter.getOffsetIndex();
+        assertEquals(110, dstIndex.getLastOffset());
+        assertEquals(59, dstIndex.getOffset(0));
+        assertEquals(0, dstIndex.getPosition(0));
+
+        SeekableFileReader reader = factory.BuildMappedFileReader(dstPath, null, null);
+        for (int offset = 59; offset <= 110; ++offset) {
+            KeyValue keyValue = reader.next();
+            assertEquals(offset, keyValue.getOffset());
+            assertArrayEquals(message(offset), keyValue.getValue());
+        }
+        assertNull(reader.next());
+        reader.close();
+
+        // Every rebased index entry points at the message of its offset.
+        reader = factory.BuildMappedFileReader(dstPath, null, dstIndex);
+        for (int entry = 0; entry < dstIndex.size(); ++entry) {
+            long offset = dstIndex.getOffset(entry);
+            reader.seek(offset);
+            KeyValue keyValue = reader.next();
+            assertEquals(offset, keyValue.getOffset());
+            assertArrayEquals(message((int) offset), keyValue.getValue());
+        }
+        reader.close();
+    }
+
+    @Test(expected = EOFException.class)
+    public void testMappedReadWithoutDelimiter() throws Exception {
+        LogFilePath path = new LogFilePath(Files.createTempDir().toString(), "test-topic",
+                new String[]{"part-1"}, 0, 1, 0, ".log");
+        java.nio.file.Files.createDirectories(java.nio.file.Paths.get(path.getLogFileDir()));
+        java.nio.file.Files.write(java.nio.file.Paths.get(path.getLogFilePath()), "a\nbc".getBytes());
+
+        SeekableFileReader reader = new DelimitedTextFileReaderWriterFactory().BuildMappedFileReader(path, null, null);
+        assertEquals(0, reader.skip());
+        reader.next();
+    }
+}
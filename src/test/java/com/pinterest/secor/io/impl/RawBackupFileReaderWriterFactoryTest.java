@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.io.impl;
+
+import com.google.common.io.Files;
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.FileReader;
+import com.pinterest.secor.io.IndexedFileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.RawFileWriter;
+import com.pinterest.secor.io.SeekableFileReader;
+import com.pinterest.secor.util.CompressionUtil;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.Flushable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RawBackupFileReaderWriterFactoryTest {
+    private RawBackupFileReaderWriterFactory mFactory;
+    private String mDir;
+
+    @Before
+    public void setUp() throws Exception {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getRawBackupBlockBytes()).thenReturn(100);
+        mFactory = new RawBackupFileReaderWriterFactory(config);
+        mDir = Files.createTempDir().toString();
+    }
+
+    private LogFilePath getPath(long offset) {
+        return new LogFilePath(mDir, "test-topic", new String[]{"part-1"}, 0, 1, offset, "");
+    }
+
+    private IndexedFileWriter writeMessages(LogFilePath path, CompressionCodec codec) throws Exception {
+        IndexedFileWriter writer = (IndexedFileWriter) mFactory.BuildFileWriter(path, codec);
+        for (int offset = 0; offset < 100; ++offset) {
+            // One message does not fit in a block.
+            byte[] value = new byte[offset == 50 ? 300 : 10];
+            value[0] = (byte) offset;
+            byte[] key = offset % 3 == 0 ? null : new byte[]{(byte) offset};
+            writer.write(new KeyValue(offset * 2, key, value, 1000 + offset));
+        }
+        return writer;
+    }
+
+    private void testRoundTrip(CompressionCodec codec) throws Exception {
+        LogFilePath path = getPath(0);
+        IndexedFileWriter writer = writeMessages(path, codec);
+        writer.close();
+
+        FileReader reader = mFactory.BuildFileReader(path, codec);
+        for (int offset = 0; offset < 100; ++offset) {
+            KeyValue keyValue = reader.next();
+            assertEquals(offset * 2, keyValue.getOffset());
+            assertEquals(1000 + offset, keyValue.getTimestamp());
+            assertEquals((byte) offset, keyValue.getValue()[0]);
+            if (offset % 3 == 0) {
+                assertNull(keyValue.getKafkaKey());
+            } else {
+                assertArrayEquals(new byte[]{(byte) offset}, keyValue.getKafkaKey());
+            }
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        testRoundTrip(null);
+    }
+
+    @Test
+    public void testRoundTripCompressed() throws Exception {
+        testRoundTrip(CompressionUtil.createCompressionCodec("org.apache.hadoop.io.compress.DefaultCodec"));
+    }
+
+    @Test
+    public void testRawWrite() throws Exception {
+        LogFilePath path = getPath(0);
+        RawFileWriter writer = (RawFileWriter) mFactory.BuildFileWriter(path, null);
+        for (int offset = 0; offset < 100; ++offset) {
+            byte[] value = new byte[offset == 50 ? 300 : 10];
+            value[0] = (byte) offset;
+            writer.write(offset, 1000 + offset, null, value);
+        }
+        writer.close();
+        // Two records per block before and after the one that needs a block of its own.
+        assertEquals(25 + 1 + 25, ((IndexedFileWriter) writer).getOffsetIndex().size());
+
+        FileReader reader = mFactory.BuildFileReader(path, null);
+        for (int offset = 0; offset < 100; ++offset) {
+            KeyValue keyValue = reader.next();
+            assertEquals(offset, keyValue.getOffset());
+            assertEquals(1000 + offset, keyValue.getTimestamp());
+            assertNull(keyValue.getKafkaKey());
+            assertEquals(offset == 50 ? 300 : 10, keyValue.getValue().length);
+            assertEquals((byte) offset, keyValue.getValue()[0]);
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testReadFlushed() throws Exception {
+        LogFilePath path = getPath(0);
+        IndexedFileWriter writer = writeMessages(path, null);
+        ((Flushable) writer).flush();
+
+        FileReader reader = mFactory.BuildFileReader(path, null);
+        for (int offset = 0; offset < 100; ++offset) {
+            assertEquals(offset * 2, reader.next().getOffset());
+        }
+        assertNull(reader.next());
+        reader.close();
+        writer.close();
+    }
+
+    private void testAppend(CompressionCodec codec) throws Exception {
+        LogFilePath srcPath = getPath(0);
+        IndexedFileWriter srcWriter = writeMessages(srcPath, codec);
+        srcWriter.close();
+        OffsetIndex index = srcWriter.getOffsetIndex();
+        assertEquals(198, index.getLastOffset());
+
+        // Start in the middle of a block.
+        LogFilePath dstPath = getPath(47);
+        IndexedFileWriter dstWriter = (IndexedFileWriter) mFactory.BuildFileWriter(dstPath, codec);
+        dstWriter.append(srcPath, index, 47);
+        dstWriter.write(new KeyValue(200, null, new byte[]{100}, 0));
+        dstWriter.close();
+        assertEquals(200, dstWriter.getOffsetIndex().getLastOffset());
+
+        FileReader reader = mFactory.BuildFileReader(dstPath, codec);
+        for (int offset = 24; offset <= 100; ++offset) {
+            KeyValue keyValue = reader.next();
+            assertEquals(offset * 2, keyValue.getOffset());
+            assertEquals((byte) offset, keyValue.getValue()[0]);
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        testAppend(null);
+    }
+
+    @Test
+    public void testAppendCompressed() throws Exception {
+        testAppend(CompressionUtil.createCompressionCodec("org.apache.hadoop.io.compress.DefaultCodec"));
+    }
+
+    @Test
+    public void testMappedRead() throws Exception {
+        LogFilePath path = getPath(0);
+        IndexedFileWriter writer = writeMessages(path, null);
+        writer.close();
+
+        SeekableFileReader reader = mFactory.BuildMappedFileReader(path, null, null);
+        for (int offset = 0; offset < 100; ++offset) {
+            KeyValue keyValue = reader.next();
+            assertEquals(offset * 2, keyValue.getOffset());
+            assertEquals(1000 + offset, keyValue.getTimestamp());
+            assertEquals((byte) offset, keyValue.getValue()[0]);
+        }
+        assertNull(reader.next());
+        reader.close();
+
+        // Seeks with the index at the end of the file.
+        reader = mFactory.BuildMappedFileReader(path, null, null);
+        reader.seek(47);
+        assertEquals(48, reader.skip());
+        reader.seek(101);
+        KeyValue keyValue = reader.next();
+        assertEquals(102, keyValue.getOffset());
+        assertEquals((byte) 51, keyValue.getValue()[0]);
+        reader.seek(199);
+        assertNull(reader.next());
+        reader.close();
+    }
+}
@@ -20,13 +20,21 @@ package com.pinterest.secor.io.impl;
 
 import com.google.common.io.Files;
 import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.IndexedFileWriter;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.io.OffsetIndex;
+import com.pinterest.secor.io.SeekableFileReader;
+import com.pinterest.secor.util.CompressionUtil;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.junit.Test;
+import org.mockito.Mockito;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class SequenceFileReaderWriterFactoryTest {
     private SequenceFileReaderWriterFactory mFactory;
@@ -62,5 +70,82 @@ public class SequenceFileReaderWriterFactoryTest {
         assertArrayEquals(kv2.getValue(), kvout.getValue());
     }
 
+    private void testAppend(CompressionCodec codec) throws Exception {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getFileIndexIntervalBytes()).thenReturn(100L);
+        SequenceFileReaderWriterFactory factory = new SequenceFileReaderWriterFactory(config);
+        String dir = Files.createTempDir().toString();
+        LogFilePath srcPath = new LogFilePath(dir, "test-topic", new String[]{"part-1"}, 0, 1, 0, ".log");
+        IndexedFileWriter srcWriter = (IndexedFileWriter) factory.BuildFileWriter(srcPath, codec);
+        for (int offset = 0; offset < 100; ++offset) {
+            srcWriter.write(new KeyValue(offset * 2, new byte[]{(byte) offset, 1, 2, 3, 4, 5, 6, 7, 8, 9}));
+        }
+        srcWriter.close();
+        OffsetIndex index = srcWriter.getOffsetIndex();
+        assertEquals(10, index.size());
+        assertEquals(198, index.getLastOffset());
 
-}
\ No newline at end of file
+        // Start in the middle of an index entry.
+        LogFilePath dstPath = new LogFilePath(dir, "test-topic", new String[]{"part-1"}, 0, 1, 47, ".log");
+        IndexedFileWriter dstWriter = (IndexedFileWriter) factory.BuildFileWriter(dstPath, codec);
+        dstWriter.append(srcPath, index, 47);
+        dstWriter.write(new KeyValue(200, new byte[]{100}));
+        dstWriter.close();
+        assertEquals(200, dstWriter.getOffsetIndex().getLastOffset());
+
+        FileReader reader = factory.BuildFileReader(dstPath, codec);
+        for (int offset = 24; offset <= 100; ++offset) {
+            KeyValue keyValue = reader.next();
+            assertEquals(offset * 2, keyValue.getOffset());
+            assertEquals((byte) offset, keyValue.getValue()[0]);
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        testAppend(null);
+    }
+
+    @Test
+    public void testAppendCompressed() throws Exception {
+        testAppend(CompressionUtil.createCompressionCodec("org.apache.hadoop.io.compress.DefaultCodec"));
+    }
+
+    @Test
+    public void testMappedRead() throws Exception {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getFileIndexIntervalBytes()).thenReturn(100L);
+        SequenceFileReaderWriterFactory factory = new SequenceFileReaderWriterFactory(config);
+        LogFilePath path = new LogFilePath(Files.createTempDir().toString(), "test-topic",
+                new String[]{"part-1"}, 0, 1, 0, ".log");
+        IndexedFileWriter writer = (IndexedFileWriter) factory.BuildFileWriter(path, null);
+        for (int offset = 0; offset < 100; ++offset) {
+            writer.write(new KeyValue(offset * 2, new byte[]{(byte) offset, 1, 2, 3, 4, 5, 6, 7, 8, 9}));
+        }
+        writer.close();
+
+        SeekableFileReader reader = factory.BuildMappedFileReader(path, null, null);
+        for (int offset = 0; offset < 100; ++offset) {
+            KeyValue keyValue = reader.next();
+            assertEquals(offset * 2, keyValue.getOffset());
+            assertArrayEquals(new byte[]{(byte) offset, 1, 2, 3, 4, 5, 6, 7, 8, 9}, keyValue.getValue());
+        }
+        assertNull(reader.next());
+        reader.close();
+
+        reader = factory.BuildMappedFileReader(path, null, writer.getOffsetIndex());
+        reader.seek(47);
+        assertEquals(48, reader.skip());
+        reader.seek(150);
+        assertEquals(150, reader.next().getOffset());
+        reader.seek(199);
+        assertEquals(-1, reader.skip());
+        reader.close();
+
+        // Files compressed in blocks are not mapped.
+        CompressionCodec codec = CompressionUtil.createCompressionCodec("org.apache.hadoop.io.compress.DefaultCodec");
+        assertNull(factory.BuildMappedFileReader(path, codec, null));
+    }
+}
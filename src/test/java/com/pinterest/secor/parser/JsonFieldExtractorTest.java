@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsonFieldExtractorTest {
+
+    private static JsonFieldExtractor.Values extract(String json, String[]... paths) throws Exception {
+        return new JsonFieldExtractor(paths).extract(json.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testTopLevelField() throws Exception {
+        JsonFieldExtractor.Values values = extract(
+            "{\"id\":0,\"tags\":[\"a\",{\"timestamp\":1}],\"timestamp\":1405911096123}",
+            new String[]{"timestamp"});
+        assertTrue(values.has(0));
+        assertEquals(1405911096123L, values.getLong(0));
+        assertEquals("1405911096123", values.getString(0));
+    }
+
+    @Test
+    public void testNestedFields() throws Exception {
+        JsonFieldExtractor.Values values = extract(
+            "{ \"type\" : \"event1\", \"meta\" : { \"other\" : {\"created\": 2}, \"created\" : \"1405911096.5\" } }",
+            new String[]{"type"}, new String[]{"meta", "created"});
+        assertEquals("event1", values.getString(0));
+        assertEquals(1405911096L, values.getLong(1));
+        assertFalse(values.isMalformed());
+    }
+
+    @Test
+    public void testMissingField() throws Exception {
+        JsonFieldExtractor.Values values = extract("{\"meta\":{\"id\":1},\"timestamp\":null}",
+            new String[]{"meta", "created"}, new String[]{"timestamp"});
+        assertFalse(values.has(0));
+        assertFalse(values.has(1));
+        assertNull(values.getString(0));
+        assertFalse(values.isMalformed());
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        JsonFieldExtractor.Values values = extract(
+            "{\"about\":\"say \\\"hi\\\" }\",\"na\\u006de\":\"a\\tb\\u00e9\u00e9\"}",
+            new String[]{"name"}, new String[]{"about"});
+        assertEquals("a\tb\u00e9\u00e9", values.getString(0));
+        assertEquals("say \"hi\" }", values.getString(1));
+    }
+
+    @Test
+    public void testPermissiveSyntax() throws Exception {
+        JsonFieldExtractor.Values values = extract("{type:'event1', 'timestamp':-12,}",
+            new String[]{"type"}, new String[]{"timestamp"});
+        assertEquals("event1", values.getString(0));
+        assertEquals(-12L, values.getLong(1));
+    }
+
+    @Test
+    public void testStopsAtFoundField() throws Exception {
+        JsonFieldExtractor.Values values = extract("{\"timestamp\":1, garbage", new String[]{"timestamp"});
+        assertEquals(1L, values.getLong(0));
+        assertFalse(values.isMalformed());
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        JsonFieldExtractor.Values values = extract("{\"id\":\"unterminated}", new String[]{"timestamp"});
+        assertFalse(values.has(0));
+        assertTrue(values.isMalformed());
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void testNotAnObject() throws Exception {
+        extract("[{\"timestamp\":1}]", new String[]{"timestamp"});
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testNotANumber() throws Exception {
+        extract("{\"timestamp\":\"yesterday\"}", new String[]{"timestamp"}).getLong(0);
+    }
+}
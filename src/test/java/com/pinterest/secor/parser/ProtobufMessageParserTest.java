@@ -20,6 +20,7 @@ package com.pinterest.secor.parser;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TimeZone;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -29,6 +30,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import com.google.protobuf.CodedOutputStream;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.message.Message;
+import com.pinterest.secor.message.ParsedMessage;
 import com.pinterest.secor.protobuf.Messages.UnitTestMessage1;
 import com.pinterest.secor.protobuf.Messages.UnitTestMessage2;
 
@@ -113,4 +115,20 @@ public class ProtobufMessageParserTest extends TestCase {
         assertEquals(1405970352123l,
                 parser.extractTimestampMillis(new Message("test", 0, 0, null, message.toByteArray(), timestamp)));
     }
+
+    @Test
+    public void testParseKeepsDecodedMessage() throws Exception {
+        Map<String, String> classPerTopic = new HashMap<String, String>();
+        classPerTopic.put("test", UnitTestMessage1.class.getName());
+        Mockito.when(mConfig.getMessageTimestampName()).thenReturn("timestamp");
+        Mockito.when(mConfig.getProtobufMessageClassPerTopic()).thenReturn(classPerTopic);
+        Mockito.when(mConfig.getTimeZone()).thenReturn(TimeZone.getTimeZone("UTC"));
+
+        ProtobufMessageParser parser = new ProtobufMessageParser(mConfig);
+
+        UnitTestMessage1 message = UnitTestMessage1.newBuilder().setTimestamp(1405970352L).build();
+        ParsedMessage parsedMessage = parser.parse(new Message("test", 0, 0, null, message.toByteArray(), timestamp));
+        assertEquals(message, parsedMessage.getDecodedPayload());
+        assertEquals("dt=2014-07-21", parsedMessage.getPartitions()[0]);
+    }
 }
@@ -114,6 +114,39 @@ public class SplitByFieldMessageParserTest extends TestCase {
         jsonMessageParser.extractEventType((JSONObject) JSONValue.parse(mMessageWithoutType.getPayload()));
     }
 
+    @Test
+    public void testExtractPartitionsSecondsTimestamp() throws Exception {
+        SplitByFieldMessageParser jsonMessageParser = new SplitByFieldMessageParser(mConfig);
+
+        byte messageWithSecondsTimestamp[] = "{\"timestamp\":1405911096,\"type\":\"event2\"}".getBytes("UTF-8");
+        String result[] = jsonMessageParser.extractPartitions(
+                new Message("test", 0, 0, null, messageWithSecondsTimestamp, timestamp));
+        assertEquals("event2", result[0]);
+        assertEquals("dt=2014-07-21", result[1]);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testExtractPartitionsExceptionNoTimestamp() throws Exception {
+        SplitByFieldMessageParser jsonMessageParser = new SplitByFieldMessageParser(mConfig);
+
+        jsonMessageParser.extractPartitions(mMessageWithoutTimestamp);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testExtractPartitionsExceptionNoType() throws Exception {
+        SplitByFieldMessageParser jsonMessageParser = new SplitByFieldMessageParser(mConfig);
+
+        jsonMessageParser.extractPartitions(mMessageWithoutType);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testExtractPartitionsExceptionEmpty() throws Exception {
+        SplitByFieldMessageParser jsonMessageParser = new SplitByFieldMessageParser(mConfig);
+
+        byte emptyBytes[] = {};
+        jsonMessageParser.extractPartitions(new Message("test", 0, 0, null, emptyBytes, timestamp));
+    }
+
     @Test
     public void testExtractPartitions() throws Exception {
         SplitByFieldMessageParser jsonMessageParser = new SplitByFieldMessageParser(mConfig);
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.parser;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+public class TimePartitionGeneratorTest {
+    private static final long TIMESTAMP = 1405911096123L;  // 2014-07-21 02:51:36.123 UTC
+
+    private static TimePartitionGenerator generator(String timeZone, String dtFormat, String hrFormat) {
+        return new TimePartitionGenerator(TimeZone.getTimeZone(timeZone), dtFormat, hrFormat, "mm",
+            "dt=", "hr=", "min=");
+    }
+
+    @Test
+    public void testGranularities() throws Exception {
+        TimePartitionGenerator generator = generator("UTC", "yyyy-MM-dd", "HH");
+        assertArrayEquals(new String[]{"dt=2014-07-21"}, generator.generate(TIMESTAMP, false, false));
+        assertArrayEquals(new String[]{"dt=2014-07-21", "hr=02"}, generator.generate(TIMESTAMP, true, false));
+        assertArrayEquals(new String[]{"dt=2014-07-21", "hr=02", "min=51"},
+            generator.generate(TIMESTAMP, true, true));
+    }
+
+    @Test
+    public void testBucketBoundaries() throws Exception {
+        TimePartitionGenerator generator = generator("Asia/Kolkata", "yyyy-MM-dd", "HH");
+        long hourStart = 1405909800000L;  // 2014-07-21 08:00 IST
+        String[] partitions = generator.generate(TIMESTAMP, true, false);
+        assertArrayEquals(new String[]{"dt=2014-07-21", "hr=08"}, partitions);
+        assertSame(partitions, generator.generate(hourStart, true, false));
+        assertSame(partitions, generator.generate(hourStart + 3599999L, true, false));
+        assertArrayEquals(new String[]{"dt=2014-07-21", "hr=07"}, generator.generate(hourStart - 1L, true, false));
+        assertArrayEquals(new String[]{"dt=2014-07-21", "hr=09"}, generator.generate(hourStart + 3600000L, true, false));
+    }
+
+    @Test
+    public void testDaylightSavingTime() throws Exception {
+        TimePartitionGenerator generator = generator("America/Los_Angeles", "yyyy-MM-dd", "HH");
+        long fallBack = 1414918800000L;  // 2014-11-02 01:00 PST, the second 1 AM of the day
+        assertArrayEquals(new String[]{"dt=2014-11-02", "hr=01"}, generator.generate(fallBack - 1L, true, false));
+        assertArrayEquals(new String[]{"dt=2014-11-02", "hr=01"}, generator.generate(fallBack, true, false));
+        assertArrayEquals(new String[]{"dt=2014-11-02", "hr=02"},
+            generator.generate(fallBack + 3600000L, true, false));
+        assertArrayEquals(new String[]{"dt=2014-11-01"}, generator.generate(fallBack - 26 * 3600000L, false, false));
+        assertArrayEquals(new String[]{"dt=2014-11-02"}, generator.generate(fallBack + 22 * 3600000L, false, false));
+        assertArrayEquals(new String[]{"dt=2014-11-03"}, generator.generate(fallBack + 23 * 3600000L, false, false));
+    }
+
+    @Test
+    public void testFinerDateFormat() throws Exception {
+        TimePartitionGenerator generator = generator("UTC", "yyyy-MM-dd-HH-mm", "HH");
+        assertArrayEquals(new String[]{"dt=2014-07-21-02-51"}, generator.generate(TIMESTAMP, false, false));
+        assertArrayEquals(new String[]{"dt=2014-07-21-02-52"}, generator.generate(TIMESTAMP + 60000L, false, false));
+
+        generator = generator("UTC", "yyyy-MM-dd'T'HH:mm:ss", "HH");
+        assertArrayEquals(new String[]{"dt=2014-07-21T02:51:36"}, generator.generate(TIMESTAMP, false, false));
+        assertArrayEquals(new String[]{"dt=2014-07-21T02:51:37"}, generator.generate(TIMESTAMP + 1000L, false, false));
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.reader;
+
+import com.pinterest.secor.common.OffsetTracker;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.common.TopicPartition;
+import com.pinterest.secor.consumer.Consumer;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.util.RateLimitUtil;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageReaderTest {
+    private static final ArrayDeque<List<Message>> sBatches = new ArrayDeque<List<Message>>();
+
+    private SecorConfig mConfig;
+    private OffsetTracker mOffsetTracker;
+
+    // Hands out the queued batches.
+    public static class TestIterator implements KafkaMessageIterator {
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public Message next() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Message> nextBatch() {
+            List<Message> batch = sBatches.poll();
+            return batch == null ? Collections.<Message>emptyList() : batch;
+        }
+
+        @Override
+        public void init(SecorConfig config) {
+        }
+
+        @Override
+        public void commit(TopicPartition topicPartition, long offset) {
+        }
+    }
+
+    // Exposes the batch handling of the consumer.
+    private static class TestConsumer extends Consumer {
+        private TestConsumer(SecorConfig config, MessageReader messageReader, OffsetTracker offsetTracker) {
+            super(config);
+            mMessageReader = messageReader;
+            mOffsetTracker = offsetTracker;
+        }
+
+        private Message next() {
+            return nextMessage();
+        }
+
+        private boolean committed(Message message) {
+            return isCommitted(message);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        sBatches.clear();
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getTopicPartitionForgetSeconds()).thenReturn(600);
+        Mockito.when(mConfig.getMessagesPerSecond()).thenReturn(1000);
+        Mockito.when(mConfig.getConsumerThreads()).thenReturn(1);
+        Mockito.when(mConfig.getKafkaMessageIteratorClass()).thenReturn(TestIterator.class.getName());
+        RateLimitUtil.configure(mConfig);
+        mOffsetTracker = new OffsetTracker();
+    }
+
+    private static Message message(String topic, int partition, long offset) {
+        return new Message(topic, partition, offset, null, new byte[0], 0);
+    }
+
+    private static List<Long> offsets(List<Message> messages) {
+        List<Long> offsets = new ArrayList<Long>();
+        for (Message message : messages) {
+            offsets.add(message.getOffset());
+        }
+        return offsets;
+    }
+
+    @Test
+    public void testReadBatch() throws Exception {
+        List<Message> batch = Arrays.asList(message("topic", 0, 5), message("topic", 1, 7));
+        sBatches.add(batch);
+        MessageReader reader = new MessageReader(mConfig, mOffsetTracker);
+
+        // Nothing is copied when no message is committed.
+        assertSame(batch, reader.readBatch());
+        assertTrue(reader.readBatch().isEmpty());
+    }
+
+    @Test
+    public void testReadBatchSkipsCommittedMessages() throws Exception {
+        mOffsetTracker.setCommittedOffsetCount(new TopicPartition("topic", 0), 3);
+        mOffsetTracker.setCommittedOffsetCount(new TopicPartition("topic", 1), 1);
+        mOffsetTracker.setCommittedOffsetCount(new TopicPartition("other_topic", 0), 10);
+        sBatches.add(Arrays.asList(
+            message("topic", 0, 1), message("topic", 0, 2), message("topic", 0, 3), message("topic", 0, 4),
+            message("topic", 1, 0), message("topic", 1, 1),
+            message("other_topic", 0, 9), message("other_topic", 0, 10)));
+        MessageReader reader = new MessageReader(mConfig, mOffsetTracker);
+
+        List<Message> messages = reader.readBatch();
+        assertEquals(Arrays.asList(3L, 4L, 1L, 10L), offsets(messages));
+        assertEquals("topic", messages.get(2).getTopic());
+        assertEquals(1, messages.get(2).getKafkaPartition());
+        assertEquals("other_topic", messages.get(3).getTopic());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNextBatchHandsOutLeftovers() throws Exception {
+        org.apache.kafka.common.TopicPartition topicPartition =
+            new org.apache.kafka.common.TopicPartition("topic", 0);
+        List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<ConsumerRecord<byte[], byte[]>>();
+        for (long offset = 0; offset < 3; ++offset) {
+            records.add(new ConsumerRecord<byte[], byte[]>("topic", 0, offset, null, new byte[0]));
+        }
+        Map<org.apache.kafka.common.TopicPartition, List<ConsumerRecord<byte[], byte[]>>> polled =
+            Collections.singletonMap(topicPartition, records);
+        Map<org.apache.kafka.common.TopicPartition, List<ConsumerRecord<byte[], byte[]>>> empty =
+            Collections.emptyMap();
+        KafkaConsumer<byte[], byte[]> kafkaConsumer = Mockito.mock(KafkaConsumer.class);
+        Mockito.when(kafkaConsumer.poll(Mockito.any(Duration.class))).thenReturn(
+            new ConsumerRecords<byte[], byte[]>(polled), new ConsumerRecords<byte[], byte[]>(empty));
+        SecorKafkaMessageIterator iterator = new SecorKafkaMessageIterator(kafkaConsumer, 1);
+
+        assertEquals(0L, iterator.next().getOffset());
+        // The rest of the poll started by next() comes before anything polled again.
+        assertEquals(Arrays.asList(1L, 2L), offsets(iterator.nextBatch()));
+        Mockito.verify(kafkaConsumer, Mockito.times(1)).poll(Mockito.any(Duration.class));
+        assertTrue(iterator.nextBatch().isEmpty());
+        Mockito.verify(kafkaConsumer, Mockito.times(2)).poll(Mockito.any(Duration.class));
+    }
+
+    @Test
+    public void testConsumerSkipsMessagesCommittedDuringBatch() throws Exception {
+        TopicPartition topicPartition = new TopicPartition("topic", 0);
+        mOffsetTracker.setCommittedOffsetCount(topicPartition, 0);
+        MessageReader reader = Mockito.mock(MessageReader.class);
+        Mockito.when(reader.readBatch()).thenReturn(
+            Arrays.asList(message("topic", 0, 0), message("topic", 0, 1), message("topic", 0, 2)),
+            Collections.<Message>emptyList());
+        TestConsumer consumer = new TestConsumer(mConfig, reader, mOffsetTracker);
+
+        assertEquals(0L, consumer.next().getOffset());
+        // An upload commits offset 1 before the rest of the batch is handed out.
+        mOffsetTracker.setCommittedOffsetCount(topicPartition, 2);
+        assertTrue(consumer.committed(message("topic", 0, 1)));
+        assertFalse(consumer.committed(message("topic", 0, 2)));
+        assertEquals(2L, consumer.next().getOffset());
+        Mockito.verify(reader, Mockito.times(1)).readBatch();
+
+        // A new batch is read once the current one is handed out.
+        assertNull(consumer.next());
+        Mockito.verify(reader, Mockito.times(2)).readBatch();
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.tools;
+
+import com.google.common.io.Files;
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.io.FileWriter;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.util.ReflectionUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.File;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogFileVerifierTest {
+    private static final String FACTORY = "com.pinterest.secor.io.impl.SequenceFileReaderWriterFactory";
+
+    private SecorConfig mConfig;
+    private String mPrefix;
+
+    @Before
+    public void setUp() throws Exception {
+        mPrefix = Files.createTempDir().toString();
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getCloudService()).thenReturn("S3");
+        Mockito.when(mConfig.getS3Prefix()).thenReturn(mPrefix);
+        Mockito.when(mConfig.getFileReaderWriterFactory()).thenReturn(FACTORY);
+    }
+
+    private LogFilePath getPath(String partition, long fileOffset) {
+        return new LogFilePath(mPrefix, "test-topic", new String[]{partition}, 0, 1, fileOffset, "");
+    }
+
+    private void write(String partition, long fileOffset, long firstOffset, long lastOffset)
+            throws Exception {
+        write(getPath(partition, fileOffset), firstOffset, lastOffset);
+    }
+
+    private void write(LogFilePath path, long firstOffset, long lastOffset) throws Exception {
+        FileWriter writer = ReflectionUtil.createFileWriter(FACTORY, path, null, mConfig);
+        for (long offset = firstOffset; offset <= lastOffset; ++offset) {
+            writer.write(new KeyValue(offset, new byte[]{(byte) offset}));
+        }
+        writer.close();
+    }
+
+    private void writeFiles() throws Exception {
+        write("dt=1", 0, 0, 9);
+        // Messages split across partitions.
+        write("dt=1", 10, 10, 14);
+        write("dt=2", 10, 15, 24);
+        write("dt=2", 25, 25, 29);
+        // The last file is not verified without an end offset.
+        write("dt=2", 30, 30, 30);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        writeFiles();
+        LogFileVerifier verifier = new LogFileVerifier(mConfig, "test-topic", 4, null);
+        verifier.verifyCounts(-2, Long.MAX_VALUE, 30);
+        verifier.verifySequences(-2, Long.MAX_VALUE);
+        verifier.close();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDuplicateOffset() throws Exception {
+        writeFiles();
+        write("dt=2", 28, 28, 29);
+        LogFileVerifier verifier = new LogFileVerifier(mConfig, "test-topic", 4, null);
+        verifier.verifySequences(-2, Long.MAX_VALUE);
+    }
+
+    private LogFilePath getAttemptPath(String partition, long fileOffset) {
+        return new LogFilePath(mPrefix, "test-topic",
+            new String[]{"_attempts", "some_attempt_id", partition}, 0, 1, fileOffset, "");
+    }
+
+    @Test
+    public void testPromotedAttempt() throws Exception {
+        writeFiles();
+        // The attempt upload of a file that has been moved to its final path.
+        write(getAttemptPath("dt=2", 30), 30, 30);
+        LogFileVerifier verifier = new LogFileVerifier(mConfig, "test-topic", 4, null);
+        verifier.verifyCounts(-2, Long.MAX_VALUE, 30);
+        verifier.close();
+    }
+
+    @Test
+    public void testAttemptOnly() throws Exception {
+        writeFiles();
+        write(getAttemptPath("dt=2", 31), 31, 35);
+        LogFileVerifier verifier = new LogFileVerifier(mConfig, "test-topic", 4, null);
+        try {
+            verifier.verifyCounts(-2, Long.MAX_VALUE, 30);
+            fail("The file of the attempt was not reported");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains(getPath("dt=2", 31).getLogFilePath()));
+        } finally {
+            verifier.close();
+        }
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        writeFiles();
+        String checkpointPath = Files.createTempDir() + "/checkpoint";
+        LogFileVerifier verifier = new LogFileVerifier(mConfig, "test-topic", 4, checkpointPath);
+        verifier.verifyCounts(-2, Long.MAX_VALUE, 30);
+        verifier.close();
+
+        // Summarized files are not read again while their length and modification time are the same.
+        File file = new File(getPath("dt=1", 0).getLogFilePath());
+        long modificationTime = file.lastModified();
+        write("dt=1", 0, 100, 109);
+        assertTrue(file.setLastModified(modificationTime));
+        verifier = new LogFileVerifier(mConfig, "test-topic", 4, checkpointPath);
+        verifier.verifyCounts(-2, Long.MAX_VALUE, 30);
+        verifier.verifySequences(-2, Long.MAX_VALUE);
+        verifier.close();
+
+        // Rewritten files are read again.
+        write("dt=1", 0, 0, 0);
+        verifier = new LogFileVerifier(mConfig, "test-topic", 4, checkpointPath);
+        try {
+            verifier.verifyCounts(-2, Long.MAX_VALUE, 30);
+            fail("The rewritten file was not read again");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("does not agree with adjacent offsets"));
+        } finally {
+            verifier.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.tools;
+
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class OffsetRunsTest {
+    @Test
+    public void testAdd() throws Exception {
+        OffsetRuns runs = new OffsetRuns();
+        assertEquals(-1, runs.add(10, 19));
+        assertEquals(-1, runs.add(30, 39));
+        assertEquals(-1, runs.add(0, 4));
+        assertEquals(3, runs.size());
+
+        // Overlapping runs are rejected.
+        assertEquals(15, runs.add(15, 25));
+        assertEquals(30, runs.add(25, 30));
+        assertEquals(4, runs.add(4, 4));
+        assertEquals(3, runs.size());
+
+        // Adjacent runs are merged.
+        assertEquals(-1, runs.add(20, 29));
+        assertEquals(-1, runs.add(5, 9));
+        assertEquals(-1, runs.add(40, 40));
+        assertEquals(1, runs.size());
+        Iterator<Map.Entry<Long, Long>> iterator = runs.getRuns().entrySet().iterator();
+        Map.Entry<Long, Long> run = iterator.next();
+        assertEquals(0L, (long) run.getKey());
+        assertEquals(40L, (long) run.getValue());
+        assertFalse(iterator.hasNext());
+    }
+}
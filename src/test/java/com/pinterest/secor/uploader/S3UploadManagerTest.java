@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
+import com.amazonaws.services.s3.transfer.Upload;
+import com.google.common.io.Files;
+import com.pinterest.secor.common.SecorConfig;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class S3UploadManagerTest {
+
+    private static SecorConfig createConfig() {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getAwsAccessKey()).thenReturn("access-key");
+        Mockito.when(config.getAwsSecretKey()).thenReturn("secret-key");
+        Mockito.when(config.getAwsSessionToken()).thenReturn("");
+        // Nothing listens on this port, so uploads fail at once.
+        Mockito.when(config.getAwsEndpoint()).thenReturn("http://127.0.0.1:1");
+        Mockito.when(config.getAwsRegion()).thenReturn("");
+        Mockito.when(config.getAwsRole()).thenReturn("");
+        Mockito.when(config.getS3Path()).thenReturn("secor");
+        Mockito.when(config.getAwsClientPathStyleAccess()).thenReturn(true);
+        Mockito.when(config.getAwsClientMaxErrorRetry()).thenReturn(0);
+        Mockito.when(config.getAwsS3UploadThreads()).thenReturn(4);
+        Mockito.when(config.getAwsS3MultipartThresholdBytes()).thenReturn(64L * 1024L * 1024L);
+        Mockito.when(config.getAwsS3MultipartPartSizeBytes()).thenReturn(32L * 1024L * 1024L);
+        return config;
+    }
+
+    @Test
+    public void testSharedUploadPool() throws Exception {
+        S3UploadManager manager1 = new S3UploadManager(createConfig());
+        S3UploadManager manager2 = new S3UploadManager(createConfig());
+
+        TransferManagerConfiguration configuration = manager1.getTransferManager().getConfiguration();
+        assertEquals(64L * 1024L * 1024L, configuration.getMultipartUploadThreshold());
+        assertEquals(32L * 1024L * 1024L, configuration.getMinimumUploadPartSize());
+
+        // Transfers of all managers run on the pool shared by the consumer threads.
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) S3UploadManager.getUploadExecutor(4);
+        long tasks = pool.getTaskCount();
+        File file = new File(Files.createTempDir(), "file");
+        Files.write(new byte[]{1, 2, 3}, file);
+        for (S3UploadManager manager : new S3UploadManager[]{manager1, manager2}) {
+            Upload upload = manager.getTransferManager().upload("bucket", "key", file);
+            AmazonClientException e = upload.waitForException();
+            assertNotNull(e);
+        }
+        assertTrue(pool.getTaskCount() >= tasks + 2);
+
+        // Shutting a transfer manager down leaves the shared pool to the other managers.
+        TransferManager transferManager = manager1.getTransferManager();
+        transferManager.shutdownNow(false);
+        assertFalse(pool.isShutdown());
+    }
+}
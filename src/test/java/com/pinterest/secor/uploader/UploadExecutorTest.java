@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.pinterest.secor.common.SecorConfig;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class UploadExecutorTest {
+
+    private static UploadExecutor createExecutor(int threads, long maxInFlightBytes) {
+        SecorConfig config = Mockito.mock(SecorConfig.class);
+        Mockito.when(config.getUploadThreads()).thenReturn(threads);
+        Mockito.when(config.getUploadMaxInFlightBytes()).thenReturn(maxInFlightBytes);
+        Mockito.when(config.getUploadBufferBytes()).thenReturn(1024);
+        return new UploadExecutor(config);
+    }
+
+    private static Runnable record(final List<String> uploads, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                uploads.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void testRoundRobinAcrossTopics() throws Exception {
+        UploadExecutor executor = createExecutor(1, 0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        List<String> uploads = Collections.synchronizedList(new ArrayList<String>());
+
+        executor.submit("a", 1, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        executor.submit("a", 1, record(uploads, "a1"));
+        executor.submit("a", 1, record(uploads, "a2"));
+        executor.submit("b", 1, record(uploads, "b1"));
+        Future<?> last = executor.submit("a", 1, record(uploads, "a3"));
+        latch.countDown();
+        last.get();
+
+        assertEquals(Arrays.asList("a1", "b1", "a2", "a3"), uploads);
+    }
+
+    @Test
+    public void testByteBudget() throws Exception {
+        UploadExecutor executor = createExecutor(4, 10);
+        final CountDownLatch latch = new CountDownLatch(1);
+        List<String> uploads = Collections.synchronizedList(new ArrayList<String>());
+
+        // A file larger than the budget is uploaded alone.
+        executor.submit("a", 20, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        Future<?> upload = executor.submit("b", 5, record(uploads, "b1"));
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), uploads);
+
+        latch.countDown();
+        upload.get();
+        assertEquals(Arrays.asList("b1"), uploads);
+    }
+
+    @Test
+    public void testCancelRunningUpload() throws Exception {
+        UploadExecutor executor = createExecutor(2, 10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        List<String> uploads = Collections.synchronizedList(new ArrayList<String>());
+
+        Future<?> cancelled = executor.submit("a", 10, new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                // The transfer does not stop as soon as it is interrupted.
+                while (true) {
+                    try {
+                        stopped.await();
+                        return;
+                    } catch (InterruptedException e) {
+                        // Keep transferring.
+                    }
+                }
+            }
+        });
+        started.await();
+        cancelled.cancel(true);
+
+        // The cancelled upload holds the byte budget until its transfer stops.
+        Future<?> upload = executor.submit("b", 5, record(uploads, "b1"));
+        Thread.sleep(100);
+        assertEquals(Collections.emptyList(), uploads);
+
+        stopped.countDown();
+        upload.get();
+        assertEquals(Arrays.asList("b1"), uploads);
+    }
+
+    @Test
+    public void testBufferPool() throws Exception {
+        UploadExecutor executor = createExecutor(1, 0);
+        ByteBuffer buffer = executor.acquireBuffer();
+        assertEquals(1024, buffer.capacity());
+        buffer.put((byte) 1);
+        executor.releaseBuffer(buffer);
+
+        ByteBuffer reused = executor.acquireBuffer();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.uploader;
+
+import com.pinterest.secor.common.FileRegistry;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UploadSchedulerTest {
+    private static final long NOW = 1405911096000L;  // 2014-07-21 02:51:36 UTC
+
+    private TopicPartition mTopicPartition;
+    private SecorConfig mConfig;
+    private FileRegistry mFileRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        mTopicPartition = new TopicPartition("some_topic", 0);
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getMaxFileSizeBytes()).thenReturn(1000L);
+        Mockito.when(mConfig.getMaxFileAgeSeconds()).thenReturn(60L);
+        mFileRegistry = Mockito.mock(FileRegistry.class);
+        Mockito.when(mFileRegistry.getSize(mTopicPartition)).thenReturn(10L);
+        Mockito.when(mFileRegistry.peekSize(mTopicPartition)).thenReturn(10L);
+        Mockito.when(mFileRegistry.getModificationAgeSec(mTopicPartition)).thenReturn(0L);
+    }
+
+    @Test
+    public void testAgeDeadline() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(mConfig, mFileRegistry);
+        assertEquals(Long.MAX_VALUE, scheduler.getNextDeadline());
+
+        scheduler.recordWrite(mTopicPartition, NOW);
+        assertEquals(NOW + 60000L, scheduler.getNextDeadline());
+        assertTrue(scheduler.pollDue(NOW + 59999L).isEmpty());
+
+        Collection<TopicPartition> due = scheduler.pollDue(NOW + 60000L);
+        assertEquals(Collections.singletonList(mTopicPartition), due);
+        assertEquals(Long.MAX_VALUE, scheduler.getNextDeadline());
+
+        // Files are still there and half as old as the limit.
+        Mockito.when(mFileRegistry.getModificationAgeSec(mTopicPartition)).thenReturn(30L);
+        scheduler.reschedule(due, NOW + 60000L);
+        assertEquals(NOW + 90000L, scheduler.getNextDeadline());
+    }
+
+    @Test
+    public void testForgetUploadedPartitions() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(mConfig, mFileRegistry);
+        scheduler.recordWrite(mTopicPartition, NOW);
+        Collection<TopicPartition> due = scheduler.pollDue(NOW + 60000L);
+
+        Mockito.when(mFileRegistry.getModificationAgeSec(mTopicPartition)).thenReturn(-1L);
+        scheduler.reschedule(due, NOW + 60000L);
+        assertEquals(Long.MAX_VALUE, scheduler.getNextDeadline());
+    }
+
+    @Test
+    public void testSizeDeadline() throws Exception {
+        UploadScheduler scheduler = new UploadScheduler(mConfig, mFileRegistry);
+        scheduler.recordWrite(mTopicPartition, NOW);
+
+        Mockito.when(mFileRegistry.getSize(mTopicPartition)).thenReturn(1000L);
+        Mockito.when(mFileRegistry.peekSize(mTopicPartition)).thenReturn(1000L);
+        scheduler.recordWrite(mTopicPartition, NOW + 1000L);
+        assertEquals(NOW + 1000L, scheduler.getNextDeadline());
+        Collection<TopicPartition> due = scheduler.pollDue(NOW + 1000L);
+        assertEquals(1, due.size());
+
+        // The upload did not go through; do not retry on every write.
+        scheduler.reschedule(due, NOW + 1000L);
+        scheduler.recordWrite(mTopicPartition, NOW + 1001L);
+        assertEquals(NOW + 2000L, scheduler.getNextDeadline());
+    }
+
+    @Test
+    public void testMinuteMarkDeadline() throws Exception {
+        Mockito.when(mConfig.getKafkaTopicUploadAtMinuteMarkFilter()).thenReturn("some_.*");
+        Mockito.when(mConfig.getUploadMinuteMark()).thenReturn(55);
+        Mockito.when(mConfig.getMaxFileAgeSeconds()).thenReturn(7200L);
+        UploadScheduler scheduler = new UploadScheduler(mConfig, mFileRegistry);
+        long minuteMark = NOW - 96000L + 5 * 60000L;  // 02:55:00
+
+        scheduler.recordWrite(mTopicPartition, NOW);
+        assertEquals(minuteMark, scheduler.getNextDeadline());
+
+        Collection<TopicPartition> due = scheduler.pollDue(minuteMark);
+        scheduler.reschedule(due, minuteMark);
+        assertEquals(minuteMark + 3600000L, scheduler.getNextDeadline());
+    }
+}
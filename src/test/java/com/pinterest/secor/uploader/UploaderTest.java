@@ -20,6 +20,7 @@ package com.pinterest.secor.uploader;
 
 import com.pinterest.secor.common.FileRegistry;
 import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.OffsetStore;
 import com.pinterest.secor.common.OffsetTracker;
 import com.pinterest.secor.common.SecorConfig;
 import com.pinterest.secor.common.SecorConstants;
@@ -28,14 +29,19 @@ import com.pinterest.secor.common.ZookeeperConnector;
 import com.pinterest.secor.io.FileReader;
 import com.pinterest.secor.io.FileWriter;
 import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.message.Message;
 import com.pinterest.secor.monitoring.MetricCollector;
 import com.pinterest.secor.reader.MessageReader;
 import com.pinterest.secor.util.FileUtil;
 import com.pinterest.secor.util.IdUtil;
+import com.pinterest.secor.writer.MessageWriter;
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.zookeeper.data.Stat;
 import org.joda.time.DateTime;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -43,8 +49,17 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 
 /**
  * UploaderTest tests the log file uploader logic.
@@ -80,6 +95,7 @@ public class UploaderTest extends TestCase {
     private TopicPartition mTopicPartition;
 
     private LogFilePath mLogFilePath;
+    private File mLocalDir;
 
     private SecorConfig mConfig;
     private OffsetTracker mOffsetTracker;
@@ -121,6 +137,14 @@ public class UploaderTest extends TestCase {
                 mZookeeperConnector);
     }
 
+    @Override
+    public void tearDown() throws Exception {
+        if (mLocalDir != null) {
+            FileUtils.deleteDirectory(mLocalDir);
+        }
+        super.tearDown();
+    }
+
     public void testUploadAtTime() throws Exception {
         final int minuteUploadMark = 1;
 
@@ -164,6 +188,9 @@ public class UploaderTest extends TestCase {
         Mockito.when(
                 mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
                 .thenReturn(11L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
         Mockito.when(
                 mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 11L))
                 .thenReturn(11L);
@@ -208,10 +235,401 @@ public class UploaderTest extends TestCase {
         Mockito.verify(mZookeeperConnector).unlock(lockPath);
     }
 
+    public void testAsyncUploadFiles() throws Exception {
+        Mockito.when(
+                mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(
+                mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 11L))
+                .thenReturn(11L);
+        Mockito.when(mOffsetTracker.getLastSeenOffset(mTopicPartition))
+                .thenReturn(20L);
+        Mockito.when(
+                mOffsetTracker.getTrueCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+
+        Mockito.when(mConfig.getCloudService()).thenReturn("S3");
+        Mockito.when(mConfig.getS3Bucket()).thenReturn("some_bucket");
+        Mockito.when(mConfig.getS3Path()).thenReturn("some_s3_parent_dir");
+
+        Mockito.when(mFileRegistry.sealTopicPartition(mTopicPartition)).thenReturn(
+                Collections.singletonList(mLogFilePath));
+
+        PowerMockito.mockStatic(FileUtil.class);
+        Mockito.when(FileUtil.getPrefix("some_topic", mConfig)).
+                thenReturn("s3a://some_bucket/some_s3_parent_dir");
+        AsyncUploader uploader = new AsyncUploader();
+        uploader.init(mConfig, mOffsetTracker, mFileRegistry, mUploadManager, messageReader,
+                mZookeeperConnector, Mockito.mock(MetricCollector.class));
+        uploader.applyPolicy(false);
+
+        final String lockPath = "/secor/locks/some_topic/0";
+        Mockito.verify(mZookeeperConnector).lock(lockPath);
+        Mockito.verify(mOffsetTracker).setSealedOffsetCount(mTopicPartition, 21L);
+
+        // Wait for the upload without starting new ones.
+        Mockito.when(mFileRegistry.getTopicPartitions()).thenReturn(new HashSet<TopicPartition>());
+        uploader.applyPolicy(true);
+
+        PowerMockito.verifyStatic();
+        FileUtil.moveToCloud(
+                "/some_parent_dir/some_topic/some_partition/some_other_partition/"
+                        + "10_0_00000000000000000010",
+                "s3a://some_bucket/some_s3_parent_dir/some_topic/some_partition/"
+                        + "some_other_partition/10_0_00000000000000000010");
+        PowerMockito.verifyStatic();
+        FileUtil.delete("/some_parent_dir/some_topic/some_partition/some_other_partition/"
+                        + "10_0_00000000000000000010");
+        Mockito.verify(mZookeeperConnector).setCommittedOffsetCounts(
+                Collections.singletonMap(mTopicPartition, 21L));
+        Mockito.verify(mOffsetTracker).setCommittedOffsetCount(mTopicPartition,
+                21L);
+        Mockito.verify(mZookeeperConnector).unlock(lockPath);
+    }
+
+    private TestUploader createCompareAndSetUploader(boolean commitSucceeds) throws Exception {
+        Mockito.when(mConfig.getUploadCoordination()).thenReturn("cas");
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(
+                mZookeeperConnector.getCommittedOffsetCount(Mockito.eq(mTopicPartition), Mockito.any(Stat.class)))
+                .thenReturn(11L);
+        Mockito.when(
+                mZookeeperConnector.compareAndSetCommittedOffsetCount(Mockito.eq(mTopicPartition),
+                        Mockito.eq(0), Mockito.eq(21L), Mockito.any(byte[].class)))
+                .thenReturn(commitSucceeds);
+        Mockito.when(
+                mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 11L))
+                .thenReturn(11L);
+        Mockito.when(mOffsetTracker.getLastSeenOffset(mTopicPartition))
+                .thenReturn(20L);
+        Mockito.when(
+                mOffsetTracker.getTrueCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+
+        Mockito.when(mConfig.getCloudService()).thenReturn("S3");
+        Mockito.when(mConfig.getS3Bucket()).thenReturn("some_bucket");
+        Mockito.when(mConfig.getS3Path()).thenReturn("some_s3_parent_dir");
+
+        // Files are linked to their attempt paths before the upload, so they have to exist.
+        mLocalDir = Files.createTempDirectory("secor_uploader_test").toFile();
+        mLogFilePath = new LogFilePath(mLocalDir.getPath(),
+                mLocalDir.getPath() + "/some_topic/some_partition/some_other_partition/"
+                        + "10_0_00000000000000000010");
+        new File(mLogFilePath.getLogFileDir()).mkdirs();
+        new File(mLogFilePath.getLogFilePath()).createNewFile();
+
+        HashSet<LogFilePath> logFilePaths = new HashSet<LogFilePath>();
+        logFilePaths.add(mLogFilePath);
+        Mockito.when(mFileRegistry.getPaths(mTopicPartition)).thenReturn(
+                logFilePaths);
+
+        PowerMockito.mockStatic(FileUtil.class);
+        Mockito.when(FileUtil.getPrefix("some_topic", mConfig)).
+                thenReturn("s3a://some_bucket/some_s3_parent_dir");
+        return new TestUploader(mConfig, mOffsetTracker, mFileRegistry, mUploadManager, messageReader,
+                mZookeeperConnector);
+    }
+
+    private static final String ATTEMPT_PATH = "s3a://some_bucket/some_s3_parent_dir/some_topic/_attempts/" +
+            "[-0-9a-f]+/some_partition/some_other_partition/10_0_00000000000000000010";
+
+    public void testCompareAndSetUploadFiles() throws Exception {
+        createCompareAndSetUploader(true).applyPolicy(false);
+
+        // The file is uploaded under an attempt path and moved to its final path after the commit.
+        PowerMockito.verifyStatic();
+        FileUtil.moveToCloud(
+                Mockito.matches(mLocalDir.getPath() + "/some_topic/_attempts/[-0-9a-f]+/some_partition/"
+                        + "some_other_partition/10_0_00000000000000000010"),
+                Mockito.matches(ATTEMPT_PATH));
+        PowerMockito.verifyStatic();
+        FileUtil.moveInCloud(Mockito.matches(ATTEMPT_PATH),
+                Mockito.eq("s3a://some_bucket/some_s3_parent_dir/some_topic/some_partition/"
+                        + "some_other_partition/10_0_00000000000000000010"));
+        PowerMockito.verifyStatic();
+        FileUtil.delete(Mockito.matches(ATTEMPT_PATH));
+        assertFalse(new File(mLocalDir, "some_topic/_attempts").exists());
+        Mockito.verify(mZookeeperConnector).compareAndSetCommittedOffsetCount(
+                Mockito.eq(mTopicPartition), Mockito.eq(0), Mockito.eq(21L), Mockito.any(byte[].class));
+        Mockito.verify(mFileRegistry).deleteTopicPartition(mTopicPartition);
+        Mockito.verify(mOffsetTracker).setCommittedOffsetCount(mTopicPartition,
+                21L);
+        Mockito.verify(mZookeeperConnector, Mockito.never()).lock(Mockito.anyString());
+    }
+
+    public void testCompareAndSetUploadFilesRollForward() throws Exception {
+        TestUploader uploader = createCompareAndSetUploader(true);
+        // A consumer committed offsets 5 to 10 and died before moving its files.
+        String localPrefix = "/some_parent_dir/some_message_dir";
+        byte[] attempt = ("some_attempt_id\n" + localPrefix + "\n" + localPrefix +
+                "/some_topic/some_partition/some_other_partition/10_0_00000000000000000005")
+                .getBytes(StandardCharsets.UTF_8);
+        Mockito.when(mZookeeperConnector.getPendingAttempt(mTopicPartition)).thenReturn(attempt);
+        uploader.applyPolicy(false);
+
+        InOrder inOrder = Mockito.inOrder(mZookeeperConnector);
+        inOrder.verify(mZookeeperConnector).getPendingAttempt(mTopicPartition);
+        inOrder.verify(mZookeeperConnector).deletePendingAttempt(mTopicPartition);
+        inOrder.verify(mZookeeperConnector).compareAndSetCommittedOffsetCount(
+                Mockito.eq(mTopicPartition), Mockito.eq(0), Mockito.eq(21L), Mockito.any(byte[].class));
+        PowerMockito.verifyStatic();
+        FileUtil.moveInCloud("s3a://some_bucket/some_s3_parent_dir/some_topic/_attempts/some_attempt_id/" +
+                        "some_partition/some_other_partition/10_0_00000000000000000005",
+                "s3a://some_bucket/some_s3_parent_dir/some_topic/some_partition/some_other_partition/" +
+                        "10_0_00000000000000000005");
+    }
+
+    public void testCompareAndSetUploadFilesConflict() throws Exception {
+        TestUploader uploader = createCompareAndSetUploader(false);
+        // The other consumer committed past the last seen offset.
+        Mockito.when(
+                mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
+                .thenReturn(31L);
+        uploader.applyPolicy(false);
+
+        Mockito.verify(mZookeeperConnector).compareAndSetCommittedOffsetCount(
+                Mockito.eq(mTopicPartition), Mockito.eq(0), Mockito.eq(21L), Mockito.any(byte[].class));
+        // The upload of the losing attempt never reaches the final path.
+        PowerMockito.verifyStatic(Mockito.never());
+        FileUtil.moveInCloud(Mockito.anyString(), Mockito.anyString());
+        PowerMockito.verifyStatic();
+        FileUtil.delete(Mockito.matches(ATTEMPT_PATH));
+        // The closed local files are dropped before they could be written to again.
+        Mockito.verify(mFileRegistry).deleteTopicPartition(mTopicPartition);
+        Mockito.verify(mOffsetTracker).setCommittedOffsetCount(mTopicPartition, 31L);
+        Mockito.verify(mOffsetTracker, Mockito.never()).setCommittedOffsetCount(mTopicPartition,
+                21L);
+    }
+
+    public void testCompareAndSetUploadFilesConflictWriteAgain() throws Exception {
+        PowerMockito.mockStatic(IdUtil.class);
+        Mockito.when(IdUtil.getLocalMessageDir())
+                .thenReturn("some_message_dir");
+        mLocalDir = Files.createTempDirectory("secor_uploader_test").toFile();
+        Mockito.when(mConfig.getLocalPath()).thenReturn(mLocalDir.getPath());
+        Mockito.when(mConfig.getFileReaderWriterFactory()).thenReturn(
+                "com.pinterest.secor.io.impl.DelimitedTextFileReaderWriterFactory");
+        Mockito.when(mConfig.getUploadCoordination()).thenReturn("cas");
+
+        // Another consumer commits offsets 11 to 15 while offsets 11 to 20 are uploaded.
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L, 16L);
+        Mockito.when(
+                mZookeeperConnector.getCommittedOffsetCount(Mockito.eq(mTopicPartition), Mockito.any(Stat.class)))
+                .thenReturn(11L, 16L);
+        Mockito.when(
+                mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
+                .thenReturn(16L);
+        Mockito.when(
+                mZookeeperConnector.compareAndSetCommittedOffsetCount(Mockito.eq(mTopicPartition),
+                        Mockito.eq(0), Mockito.eq(21L), Mockito.any(byte[].class)))
+                .thenReturn(false);
+        Mockito.when(
+                mZookeeperConnector.compareAndSetCommittedOffsetCount(Mockito.eq(mTopicPartition),
+                        Mockito.eq(0), Mockito.eq(22L), Mockito.any(byte[].class)))
+                .thenReturn(true);
+
+        final List<String> uploads = new ArrayList<String>();
+        UploadManager uploadManager = Mockito.mock(UploadManager.class);
+        Mockito.when(uploadManager.upload(Mockito.any(LogFilePath.class))).thenAnswer(new Answer<Handle<?>>() {
+            @Override
+            public Handle<?> answer(InvocationOnMock invocation) throws Throwable {
+                LogFilePath path = (LogFilePath) invocation.getArguments()[0];
+                uploads.add(new String(Files.readAllBytes(Paths.get(path.getLogFilePath()))));
+                return Mockito.mock(Handle.class);
+            }
+        });
+        Mockito.doReturn(Mockito.mock(Handle.class)).when(uploadManager).promote(
+                Mockito.any(LogFilePath.class), Mockito.any(LogFilePath.class));
+
+        FileRegistry fileRegistry = new FileRegistry(mConfig);
+        OffsetTracker offsetTracker = new OffsetTracker();
+        offsetTracker.setCommittedOffsetCount(mTopicPartition, 11L);
+        MessageWriter messageWriter = new MessageWriter(mConfig, offsetTracker, fileRegistry);
+        Uploader uploader = new Uploader();
+        uploader.init(mConfig, offsetTracker, fileRegistry, uploadManager, messageReader,
+                mZookeeperConnector, Mockito.mock(MetricCollector.class));
+
+        for (long offset = 11; offset <= 20; ++offset) {
+            write(messageWriter, offset);
+        }
+        uploader.applyPolicy(false);
+
+        // The closed file is trimmed to the messages the other consumer did not commit.
+        assertEquals(16L, offsetTracker.getTrueCommittedOffsetCount(mTopicPartition));
+        Collection<LogFilePath> paths = fileRegistry.getPaths(mTopicPartition);
+        assertEquals(1, paths.size());
+        assertEquals(16L, paths.iterator().next().getOffset());
+
+        write(messageWriter, 21);
+        uploader.applyPolicy(false);
+
+        assertEquals(2, uploads.size());
+        assertEquals("16\n17\n18\n19\n20\n21\n", uploads.get(1));
+        assertEquals(22L, offsetTracker.getTrueCommittedOffsetCount(mTopicPartition));
+        assertTrue(fileRegistry.getPaths(mTopicPartition).isEmpty());
+    }
+
+    public void testUploadEvictedFilesSkipped() throws Exception {
+        PowerMockito.mockStatic(IdUtil.class);
+        Mockito.when(IdUtil.getLocalMessageDir())
+                .thenReturn("some_message_dir");
+        mLocalDir = Files.createTempDirectory("secor_uploader_test").toFile();
+        Mockito.when(mConfig.getLocalPath()).thenReturn(mLocalDir.getPath());
+        Mockito.when(mConfig.getFileReaderWriterFactory()).thenReturn(
+                "com.pinterest.secor.io.impl.DelimitedTextFileReaderWriterFactory");
+        Mockito.when(mConfig.getMaxOpenWriters()).thenReturn(1);
+
+        // Another consumer committed offsets 11 to 15 and the cache has not seen it yet.
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+        Mockito.when(
+                mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
+                .thenReturn(16L);
+
+        final List<String> uploads = new ArrayList<String>();
+        UploadManager uploadManager = Mockito.mock(UploadManager.class);
+        Mockito.when(uploadManager.upload(Mockito.any(LogFilePath.class))).thenAnswer(new Answer<Handle<?>>() {
+            @Override
+            public Handle<?> answer(InvocationOnMock invocation) throws Throwable {
+                LogFilePath path = (LogFilePath) invocation.getArguments()[0];
+                uploads.add(new String(Files.readAllBytes(Paths.get(path.getLogFilePath()))));
+                return Mockito.mock(Handle.class);
+            }
+        });
+
+        FileRegistry fileRegistry = new FileRegistry(mConfig);
+        OffsetTracker offsetTracker = new OffsetTracker();
+        offsetTracker.setCommittedOffsetCount(mTopicPartition, 11L);
+        MessageWriter messageWriter = new MessageWriter(mConfig, offsetTracker, fileRegistry);
+        Uploader uploader = new Uploader();
+        uploader.init(mConfig, offsetTracker, fileRegistry, uploadManager, messageReader,
+                mZookeeperConnector, Mockito.mock(MetricCollector.class));
+
+        for (long offset = 11; offset <= 20; ++offset) {
+            write(messageWriter, offset, "some_partition");
+        }
+        // Evicts the writer of the first partition.
+        write(messageWriter, 21, "some_other_partition");
+        uploader.uploadEvictedFiles();
+
+        // The forced upload is skipped, the files are trimmed to the stored offset and uploaded.
+        Collections.sort(uploads);
+        assertEquals(Arrays.asList("16\n17\n18\n19\n20\n", "21\n"), uploads);
+        Mockito.verify(mZookeeperConnector).setCommittedOffsetCount(mTopicPartition, 22L);
+        assertEquals(22L, offsetTracker.getTrueCommittedOffsetCount(mTopicPartition));
+        assertFalse(fileRegistry.hasClosedFiles(mTopicPartition));
+        assertTrue(fileRegistry.getPaths(mTopicPartition).isEmpty());
+
+        // The partition is written to again.
+        write(messageWriter, 22, "some_partition");
+        Collection<LogFilePath> paths = fileRegistry.getPaths(mTopicPartition);
+        assertEquals(1, paths.size());
+        assertEquals(22L, paths.iterator().next().getOffset());
+    }
+
+    private void write(MessageWriter messageWriter, long offset) throws Exception {
+        write(messageWriter, offset, "some_partition");
+    }
+
+    private void write(MessageWriter messageWriter, long offset, String partition) throws Exception {
+        Message message = new Message("some_topic", 0, offset, null, Long.toString(offset).getBytes(), 0);
+        messageWriter.adjustOffset(message);
+        messageWriter.write(message, new String[]{partition});
+    }
+
+    public void testKafkaOffsetStoreUploadFiles() throws Exception {
+        Mockito.when(mConfig.getOffsetsStore()).thenReturn(SecorConstants.KAFKA_OFFSETS_STORAGE_KAFKA);
+        Mockito.when(mConfig.getOffsetsStorage()).thenReturn(SecorConstants.KAFKA_OFFSETS_STORAGE_KAFKA);
+        OffsetStore offsetStore = Mockito.mock(OffsetStore.class);
+        MessageReader kafkaMessageReader = Mockito.mock(MessageReader.class);
+        Mockito.when(kafkaMessageReader.getOffsetStore()).thenReturn(offsetStore);
+
+        Mockito.when(offsetStore.isAssigned(mTopicPartition)).thenReturn(true);
+        Mockito.when(offsetStore.getCachedCommittedOffsetCount(mTopicPartition)).thenReturn(11L);
+        Mockito.when(offsetStore.getCommittedOffsetCount(mTopicPartition)).thenReturn(11L);
+        Mockito.when(
+                mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 11L))
+                .thenReturn(11L);
+        Mockito.when(mOffsetTracker.getLastSeenOffset(mTopicPartition))
+                .thenReturn(20L);
+        Mockito.when(
+                mOffsetTracker.getTrueCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+
+        Mockito.when(mConfig.getCloudService()).thenReturn("S3");
+        Mockito.when(mConfig.getS3Bucket()).thenReturn("some_bucket");
+        Mockito.when(mConfig.getS3Path()).thenReturn("some_s3_parent_dir");
+
+        HashSet<LogFilePath> logFilePaths = new HashSet<LogFilePath>();
+        logFilePaths.add(mLogFilePath);
+        Mockito.when(mFileRegistry.getPaths(mTopicPartition)).thenReturn(
+                logFilePaths);
+
+        PowerMockito.mockStatic(FileUtil.class);
+        Mockito.when(FileUtil.getPrefix("some_topic", mConfig)).
+                thenReturn("s3a://some_bucket/some_s3_parent_dir");
+        TestUploader uploader = new TestUploader(mConfig, mOffsetTracker, mFileRegistry, mUploadManager,
+                kafkaMessageReader, mZookeeperConnector);
+        uploader.applyPolicy(true);
+
+        Mockito.verify(mFileRegistry).deleteTopicPartition(mTopicPartition);
+        Mockito.verify(offsetStore).setCommittedOffsetCount(mTopicPartition, 21L);
+        Mockito.verify(offsetStore).flush();
+        Mockito.verify(mOffsetTracker).setCommittedOffsetCount(mTopicPartition,
+                21L);
+        // The offset store commits to Kafka itself and needs no zookeeper.
+        Mockito.verify(kafkaMessageReader, Mockito.never()).commit(mTopicPartition, 21L);
+        Mockito.verifyZeroInteractions(mZookeeperConnector);
+    }
+
+    public void testKafkaOffsetStoreUnassignedPartition() throws Exception {
+        Mockito.when(mConfig.getOffsetsStore()).thenReturn(SecorConstants.KAFKA_OFFSETS_STORAGE_KAFKA);
+        Mockito.when(mConfig.getOffsetsStorage()).thenReturn(SecorConstants.KAFKA_OFFSETS_STORAGE_KAFKA);
+        OffsetStore offsetStore = Mockito.mock(OffsetStore.class);
+        MessageReader kafkaMessageReader = Mockito.mock(MessageReader.class);
+        Mockito.when(kafkaMessageReader.getOffsetStore()).thenReturn(offsetStore);
+
+        // The partition has been revoked but the cached count is still known.
+        Mockito.when(offsetStore.isAssigned(mTopicPartition)).thenReturn(false);
+        Mockito.when(offsetStore.getCachedCommittedOffsetCount(mTopicPartition)).thenReturn(11L);
+        Mockito.when(offsetStore.getCommittedOffsetCount(mTopicPartition)).thenReturn(11L);
+        Mockito.when(
+                mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 11L))
+                .thenReturn(11L);
+        Mockito.when(mOffsetTracker.getLastSeenOffset(mTopicPartition))
+                .thenReturn(20L);
+        Mockito.when(
+                mOffsetTracker.getTrueCommittedOffsetCount(mTopicPartition))
+                .thenReturn(11L);
+
+        UploadManager uploadManager = Mockito.mock(UploadManager.class);
+        TestUploader uploader = new TestUploader(mConfig, mOffsetTracker, mFileRegistry, uploadManager,
+                kafkaMessageReader, mZookeeperConnector);
+        uploader.applyPolicy(true);
+
+        Mockito.verify(mFileRegistry).deleteTopicPartition(mTopicPartition);
+        Mockito.verifyZeroInteractions(uploadManager);
+        Mockito.verify(offsetStore, Mockito.never()).setCommittedOffsetCount(
+                Mockito.eq(mTopicPartition), Mockito.anyLong());
+        Mockito.verify(mOffsetTracker, Mockito.never()).setCommittedOffsetCount(mTopicPartition,
+                21L);
+    }
+
     public void testDeleteTopicPartition() throws Exception {
         Mockito.when(
                 mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
                 .thenReturn(31L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(31L);
         Mockito.when(
                 mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 30L))
                 .thenReturn(11L);
@@ -227,6 +645,9 @@ public class UploaderTest extends TestCase {
         Mockito.when(
                 mZookeeperConnector.getCommittedOffsetCount(mTopicPartition))
                 .thenReturn(21L);
+        Mockito.when(
+                mZookeeperConnector.getCachedCommittedOffsetCount(mTopicPartition))
+                .thenReturn(21L);
         // The second time it's called, it returns 21L because of the first call.
         Mockito.when(
                 mOffsetTracker.setCommittedOffsetCount(mTopicPartition, 21L))
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.util.orc;
+
+import org.apache.hadoop.hive.ql.exec.vector.BytesColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.DoubleColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.ListColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.LongColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.MapColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.StructColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.UnionColumnVector;
+import org.apache.hadoop.hive.ql.exec.vector.VectorizedRowBatch;
+import org.apache.orc.TypeDescription;
+import org.codehaus.jettison.json.JSONWriter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonRowFillerTest {
+    private TypeDescription mSchema;
+    private JsonRowFiller mFiller;
+    private VectorizedRowBatch mBatch;
+
+    @Before
+    public void setUp() throws Exception {
+        mSchema = TypeDescription.fromString("struct<a:int,b:string,c:array<string>," +
+            "d:map<string,double>,e:uniontype<bigint,string>,f:struct<g:boolean>,i:binary>");
+        mFiller = new JsonRowFiller(mSchema);
+        mBatch = mSchema.createRowBatch();
+    }
+
+    private void fillRow(String json, int row) {
+        mFiller.fillRow(json.getBytes(StandardCharsets.UTF_8), mBatch, row);
+    }
+
+    @Test
+    public void testFillRow() throws Exception {
+        fillRow("{\"x\": {\"y\": [1, {\"z\": null}]}, \"a\": 12, \"b\": \"h\\u00e9llo\\n\", " +
+            "\"c\": [\"p\", \"q\"], \"d\": {\"k1\": 1.5, \"k2\": 2e1}, \"e\": \"str\", " +
+            "\"f\": {\"g\": true}, \"i\": \"0aff\"}", 0);
+        fillRow("{\"a\": \"-7\", \"b\": 3.5, \"c\": [], \"d\": null, \"e\": 42}", 1);
+
+        LongColumnVector a = (LongColumnVector) mBatch.cols[0];
+        assertEquals(12, a.vector[0]);
+        assertEquals(-7, a.vector[1]);
+
+        BytesColumnVector b = (BytesColumnVector) mBatch.cols[1];
+        assertEquals("h\u00e9llo\n", b.toString(0));
+        assertEquals("3.5", b.toString(1));
+
+        ListColumnVector c = (ListColumnVector) mBatch.cols[2];
+        assertEquals(2, c.lengths[0]);
+        assertEquals(2, c.offsets[1]);
+        assertEquals(0, c.lengths[1]);
+        assertEquals("q", ((BytesColumnVector) c.child).toString(1));
+
+        MapColumnVector d = (MapColumnVector) mBatch.cols[3];
+        assertEquals(2, d.lengths[0]);
+        assertEquals("k2", ((BytesColumnVector) d.keys).toString(1));
+        assertEquals(20.0, ((DoubleColumnVector) d.values).vector[1], 0.0);
+        assertTrue(d.isNull[1]);
+
+        UnionColumnVector e = (UnionColumnVector) mBatch.cols[4];
+        assertEquals(1, e.tags[0]);
+        assertEquals("str", ((BytesColumnVector) e.fields[1]).toString(0));
+        assertEquals(0, e.tags[1]);
+        assertEquals(42, ((LongColumnVector) e.fields[0]).vector[1]);
+
+        StructColumnVector f = (StructColumnVector) mBatch.cols[5];
+        assertEquals(1, ((LongColumnVector) f.fields[0]).vector[0]);
+        assertFalse(f.isNull[0]);
+        // Absent fields are null.
+        assertTrue(f.isNull[1]);
+
+        BytesColumnVector i = (BytesColumnVector) mBatch.cols[6];
+        assertEquals(2, i.length[0]);
+        assertEquals((byte) 0xff, i.vector[0][i.start[0] + 1]);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        String json = "{\"a\":1,\"b\":\"x\",\"c\":[\"y\"],\"d\":{\"k\":0.5},\"e\":\"z\"," +
+            "\"f\":{\"g\":false},\"i\":\"00ff\"}";
+        fillRow(json, 0);
+        mBatch.size = 1;
+
+        StringWriter out = new StringWriter();
+        JsonFieldFiller.processRow(new JSONWriter(out), mBatch, mSchema, 0);
+        assertEquals(json, out.toString());
+    }
+
+    @Test
+    public void testInvalidMessages() throws Exception {
+        String[] messages = {"[1]", "{\"a\": [1]}", "{\"a\": 1", "{\"b\": \"x}"};
+        for (String message : messages) {
+            try {
+                fillRow(message, 0);
+                fail("Expected an exception for " + message);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+}
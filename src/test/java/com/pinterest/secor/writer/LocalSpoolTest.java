@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.pinterest.secor.writer;
+
+import com.google.common.io.Files;
+import com.pinterest.secor.common.FileRegistry;
+import com.pinterest.secor.common.LogFilePath;
+import com.pinterest.secor.common.OffsetTracker;
+import com.pinterest.secor.common.SecorConfig;
+import com.pinterest.secor.common.TopicPartition;
+import com.pinterest.secor.io.FileReader;
+import com.pinterest.secor.io.KeyValue;
+import com.pinterest.secor.message.Message;
+import com.pinterest.secor.reader.MessageReader;
+import com.pinterest.secor.util.CompressionUtil;
+import com.pinterest.secor.util.IdUtil;
+import com.pinterest.secor.util.ReflectionUtil;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocalSpoolTest {
+    private static final String FACTORY = "com.pinterest.secor.io.impl.SequenceFileReaderWriterFactory";
+
+    private final TopicPartition mTopicPartition = new TopicPartition("test-topic", 1);
+    private SecorConfig mConfig;
+    private String mPrefix;
+    private LogFilePath mPath;
+
+    @Before
+    public void setUp() throws Exception {
+        String localPath = Files.createTempDir().toString();
+        mConfig = Mockito.mock(SecorConfig.class);
+        Mockito.when(mConfig.getLocalPath()).thenReturn(localPath);
+        Mockito.when(mConfig.getFileReaderWriterFactory()).thenReturn(FACTORY);
+        Mockito.when(mConfig.getLocalSpoolCheckpointSeconds()).thenReturn(60);
+        mPrefix = localPath + '/' + IdUtil.getLocalMessageDir();
+        mPath = new LogFilePath(mPrefix, "test-topic", new String[]{"part-1"}, 0, 1, 10, "");
+
+        // Checkpoint three messages and exit after writing a fourth one.
+        FileRegistry registry = new FileRegistry(mConfig);
+        OffsetTracker tracker = new OffsetTracker();
+        LocalSpool spool = new LocalSpool(mConfig, tracker, registry, Mockito.mock(MessageReader.class));
+        write(registry, tracker, 10, 12);
+        spool.checkpoint();
+        write(registry, tracker, 13, 13);
+        registry.deleteWriter(mPath);
+
+        LocalSpool.recover(mConfig);
+    }
+
+    private void write(FileRegistry registry, OffsetTracker tracker, long firstOffset, long lastOffset)
+            throws Exception {
+        for (long offset = firstOffset; offset <= lastOffset; ++offset) {
+            registry.getOrCreateWriter(mPath, null).write(new KeyValue(offset, new byte[]{(byte) offset}));
+            registry.updateLength(mPath, 1);
+            tracker.setLastSeenOffset(mTopicPartition, offset);
+        }
+    }
+
+    private Message message(long offset) {
+        return new Message("test-topic", 1, offset, null, new byte[]{(byte) offset}, 0);
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        FileRegistry registry = new FileRegistry(mConfig);
+        OffsetTracker tracker = new OffsetTracker();
+        MessageReader reader = Mockito.mock(MessageReader.class);
+        LocalSpool spool = new LocalSpool(mConfig, tracker, registry, reader);
+
+        assertTrue(spool.isRecovered(message(10)));
+        assertTrue(spool.isRecovered(message(12)));
+        assertFalse(spool.isRecovered(message(13)));
+        Mockito.verify(reader).seek(mTopicPartition, 13);
+        assertEquals(12, tracker.getLastSeenOffset(mTopicPartition));
+        assertEquals(10, tracker.getAdjustedCommittedOffsetCount(mTopicPartition));
+
+        assertEquals(1, registry.getPaths(mTopicPartition).size());
+        registry.deleteWriter(mPath);
+        FileReader fileReader = ReflectionUtil.createFileReader(FACTORY, mPath, null, mConfig);
+        for (long offset = 10; offset <= 12; ++offset) {
+            assertEquals(offset, fileReader.next().getOffset());
+        }
+        assertNull(fileReader.next());
+        fileReader.close();
+        assertFalse(new File(mPrefix + ".recovered").exists());
+    }
+
+    @Test
+    public void testConsumeAgain() throws Exception {
+        FileRegistry registry = new FileRegistry(mConfig);
+        OffsetTracker tracker = new OffsetTracker();
+        MessageReader reader = Mockito.mock(MessageReader.class);
+        LocalSpool spool = new LocalSpool(mConfig, tracker, registry, reader);
+
+        // The files do not start at the committed offset.
+        assertFalse(spool.isRecovered(message(11)));
+        assertFalse(spool.isRecovered(message(12)));
+        Mockito.verifyZeroInteractions(reader);
+        assertTrue(registry.getPaths(mTopicPartition).isEmpty());
+        assertFalse(new File(mPath.withPrefix(mPrefix + ".recovered").getLogFilePath()).exists());
+        assertFalse(new File(mPrefix + ".recovered").exists());
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        FileRegistry registry = new FileRegistry(mConfig);
+        OffsetTracker tracker = new OffsetTracker();
+        MessageReader reader = Mockito.mock(MessageReader.class);
+        LocalSpool spool = new LocalSpool(mConfig, tracker, registry, reader);
+
+        // secor.max.file.age.seconds is 0, so the recovered files expire on the first checkpoint.
+        spool.checkpoint();
+        assertFalse(new File(mPrefix + ".recovered").exists());
+        assertFalse(spool.isRecovered(message(10)));
+        Mockito.verifyZeroInteractions(reader);
+    }
+
+    @Test
+    public void testCompressedFilesNotCheckpointed() throws Exception {
+        FileRegistry registry = new FileRegistry(mConfig);
+        OffsetTracker tracker = new OffsetTracker();
+        LocalSpool spool = new LocalSpool(mConfig, tracker, registry, Mockito.mock(MessageReader.class));
+
+        registry.getOrCreateWriter(mPath, CompressionUtil.createCompressionCodec(GzipCodec.class.getName())).write(new KeyValue(10, new byte[]{10}));
+        registry.updateLength(mPath, 1);
+        tracker.setLastSeenOffset(mTopicPartition, 10);
+        spool.checkpoint();
+        assertEquals(0, new File(mPrefix, "spool.manifest").length());
+    }
+}